@@ -0,0 +1,211 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.InputElement;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Records, for an input string, positions from which lexing can be resumed: for every multiple of
+ * {@link #interval}, the start of the input element that contains that position.
+ * <p>
+ * This enables lexing an arbitrary range of a large input (see {@link Lexer#lex(String,
+ * Checkpoints, int, int)}) while only lexing at most {@link #interval} characters (plus the length
+ * of the longest input element) outside the range.
+ * <p>
+ * Because each input element is matched in one go, an input element boundary is all the state
+ * the lexer needs: there is no "inside block comment" mode or the like to record.
+ * <p>
+ * Checkpoints can be persisted alongside the input (see {@link #write} and {@link #read}). They
+ * record the length and hash code of the input so that stale checkpoints can be detected
+ * (see {@link #matches}).
+ */
+public final class Checkpoints
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Default interval between checkpoints: 16k characters.
+     */
+    public static final int DEFAULT_INTERVAL = 16 * 1024;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of characters between two checkpoints.
+     */
+    public final int interval;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Length of the input for which the checkpoints were computed.
+     */
+    public final int length;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Hash code ({@link String#hashCode()}) of the input for which the checkpoints were computed.
+     */
+    public final int hash;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * {@code offsets[k]} is the start of the input element containing position {@code k *
+     * interval}.
+     */
+    private final int[] offsets;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Checkpoints (int interval, int length, int hash, int[] offsets)
+    {
+        this.interval = interval;
+        this.length = length;
+        this.hash = hash;
+        this.offsets = offsets;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes {@code string} and records checkpoints every {@code interval} characters.
+     */
+    public static Checkpoints build (String string, int interval)
+    {
+        Builder builder = new Builder(string, interval);
+        Lexer lexer = new Lexer(string, true);
+
+        for (InputElement ie; (ie = lexer.next()) != null; )
+            builder.add(ie.start, ie.end);
+
+        return builder.build();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes {@code string} and records checkpoints every {@link #DEFAULT_INTERVAL} characters.
+     */
+    public static Checkpoints build (String string) {
+        return build(string, DEFAULT_INTERVAL);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records checkpoints every {@code interval} characters, using {@code elements}, which must be
+     * the complete list of input elements lexed from {@code string} (as returned by {@link
+     * Lexer#lex(String)}). This avoids lexing the input a second time.
+     */
+    public static Checkpoints build (String string, List<InputElement> elements, int interval)
+    {
+        Builder builder = new Builder(string, interval);
+
+        for (InputElement ie: elements)
+            builder.add(ie.start, ie.end);
+
+        return builder.build();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Accumulates checkpoints from a sequence of input element spans.
+     */
+    private static final class Builder
+    {
+        final int interval;
+        final String string;
+        final int[] offsets;
+        int next;
+
+        Builder (String string, int interval)
+        {
+            if (interval <= 0)
+                throw new IllegalArgumentException("interval must be positive: " + interval);
+
+            this.string = string;
+            this.interval = interval;
+            this.offsets = new int[string.length() / interval + 1];
+        }
+
+        void add (int start, int end)
+        {
+            while (next < offsets.length && next * (long) interval < end)
+                offsets[next++] = start;
+        }
+
+        Checkpoints build()
+        {
+            // the last checkpoint may lie at the very end of the input
+            while (next < offsets.length)
+                offsets[next++] = string.length();
+
+            return new Checkpoints(interval, string.length(), string.hashCode(), offsets);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position of the last checkpoint at or before {@code position}.
+     */
+    public int nearest (int position)
+    {
+        if (position <= 0)
+            return 0;
+
+        int k = position / interval;
+        return k < offsets.length
+            ? offsets[k]
+            : offsets[offsets.length - 1];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether these checkpoints were computed for {@code string} (as far as can be determined
+     * from its length and hash code).
+     */
+    public boolean matches (String string) {
+        return string.length() == length && string.hashCode() == hash;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes these checkpoints to {@code out}, in a format readable by {@link #read}.
+     */
+    public void write (DataOutput out) throws IOException
+    {
+        out.writeInt(interval);
+        out.writeInt(length);
+        out.writeInt(hash);
+        out.writeInt(offsets.length);
+        for (int offset: offsets)
+            out.writeInt(offset);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reads checkpoints written by {@link #write}.
+     */
+    public static Checkpoints read (DataInput in) throws IOException
+    {
+        int interval = in.readInt();
+        int length   = in.readInt();
+        int hash     = in.readInt();
+        int[] offsets = new int[in.readInt()];
+        for (int k = 0; k < offsets.length; ++k)
+            offsets[k] = in.readInt();
+        return new Checkpoints(interval, length, hash, offsets);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
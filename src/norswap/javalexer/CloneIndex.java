@@ -0,0 +1,668 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * An index for token-based clone (copy-paste) detection.
+ * <p>
+ * Files are lexed and their tokens normalized: identifiers and literals are abstracted to their
+ * kind, while keywords, separators and operators are kept as is. Every window of {@link #k}
+ * consecutive normalized tokens is hashed (using a rolling hash) and recorded in an index from
+ * hash to (file, token offset). Files can then be queried for the regions they share with other
+ * indexed files (see {@link #duplicates}), which only requires a hash lookup per token of the
+ * queried file. Hash collisions are ruled out by comparing the normalized tokens.
+ * <p>
+ * Windows whose hash occurs more than {@link #max_occurrences} times in the index (boilerplate
+ * such as getters, which recurs in nearly every file) are not looked up, so that the cost of a
+ * query does not grow with the size of the index. Duplicates that contain such windows are still
+ * found through their other windows, and are extended over the skipped windows by comparing the
+ * tokens. Duplicates made only of such windows are not reported.
+ * <p>
+ * The normalized tokens of each file are stored as one byte per token, and their positions as
+ * variable-length deltas with a sparse skip index.
+ * <p>
+ * Files can be added and removed incrementally. Removed files are skipped by queries, and the
+ * index is compacted when they make up more than half of its entries. {@link #add_all} lexes and
+ * hashes files in parallel.
+ * <p>
+ * All methods are thread-safe.
+ */
+public final class CloneIndex
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of tokens in the windows whose hashes are indexed: the minimum size of a reported
+     * duplicate region.
+     */
+    public final int k;
+
+    /**
+     * Language level at which files are lexed.
+     */
+    public final LanguageLevel level;
+
+    /**
+     * Windows whose hash occurs more than this number of times in the index are not looked up by
+     * {@link #duplicates}.
+     */
+    public final int max_occurrences;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Default value of {@link #max_occurrences}: 256.
+     */
+    public static final int DEFAULT_MAX_OCCURRENCES = 256;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final long BASE = 0x100000001B3L;
+
+    /** Number of tokens between two entries of the skip index of a file's positions. */
+    private static final int SKIP = 32;
+
+    static {
+        assert 32 + Lexer.keywordsa.length + Lexer.separatorsa.length + Lexer.operatorsa.length
+            <= 256 : "normalized codes must fit in a byte";
+    }
+
+    /** BASE^(k-1), to remove the oldest token from the rolling hash. */
+    private final long top;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Indexed files, by ID (null once removed). */
+    private final ArrayList<File> files = new ArrayList<>();
+
+    // Open-addressing hash table from window hash to the index of the first entry for that hash
+    // and the number of entries for that hash.
+    private long[] keys = new long[1024];
+    private int[] heads = new int[1024];
+    private int[] counts = new int[1024];
+    private int distinct;
+
+    // Entries (file << 32 | token offset), chained by hash.
+    private long[] entries = new long[1024];
+    private int[] next = new int[1024];
+    private int entry_count;
+    private int dead_entries;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an index for windows of {@code k} tokens, lexing at {@link LanguageLevel#LATEST}.
+     */
+    public CloneIndex (int k) {
+        this(k, LanguageLevel.LATEST);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an index for windows of {@code k} tokens, lexing at the given language level.
+     */
+    public CloneIndex (int k, LanguageLevel level) {
+        this(k, level, DEFAULT_MAX_OCCURRENCES);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an index for windows of {@code k} tokens, lexing at the given language level, that
+     * does not look up windows occurring more than {@code max_occurrences} times.
+     */
+    public CloneIndex (int k, LanguageLevel level, int max_occurrences)
+    {
+        if (k <= 0)
+            throw new IllegalArgumentException("window size must be positive: " + k);
+        if (max_occurrences <= 0)
+            throw new IllegalArgumentException(
+                "max_occurrences must be positive: " + max_occurrences);
+
+        this.k = k;
+        this.level = level;
+        this.max_occurrences = max_occurrences;
+        long top = 1;
+        for (int i = 1; i < k; ++i) top *= BASE;
+        this.top = top;
+        Arrays.fill(heads, -1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A region of a file that duplicates a region of another file (or of the same file).
+     * Positions are character offsets.
+     */
+    public static final class Duplicate
+    {
+        /** ID of the queried file. */
+        public final int file;
+
+        /** Start of the region in the queried file. */
+        public final int start;
+
+        /** End (exclusive) of the region in the queried file. */
+        public final int end;
+
+        /** ID of the file containing the duplicated region. */
+        public final int other_file;
+
+        /** Start of the duplicated region. */
+        public final int other_start;
+
+        /** End (exclusive) of the duplicated region. */
+        public final int other_end;
+
+        /** Number of tokens in both regions. */
+        public final int tokens;
+
+        public Duplicate (int file, int start, int end,
+                          int other_file, int other_start, int other_end, int tokens)
+        {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.other_file = other_file;
+            this.other_start = other_start;
+            this.other_end = other_end;
+            this.tokens = tokens;
+        }
+
+        @Override public String toString() {
+            return String.format("Duplicate(%d[%d, %d[ = %d[%d, %d[, %d tokens)",
+                file, start, end, other_file, other_start, other_end, tokens);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The normalized tokens of a file, with their positions.
+     */
+    private static final class File
+    {
+        /** Normalized code of each token. */
+        final byte[] codes;
+
+        /**
+         * For each token, varints holding the gap between the end of the previous token and its
+         * start, and its length.
+         */
+        final byte[] positions;
+
+        /** Offset in {@link #positions} of token {@code i * SKIP}. */
+        final int[] skip_offsets;
+
+        /** End of the token preceding token {@code i * SKIP}. */
+        final int[] skip_ends;
+
+        File (byte[] codes, byte[] positions, int[] skip_offsets, int[] skip_ends) {
+            this.codes = codes;
+            this.positions = positions;
+            this.skip_offsets = skip_offsets;
+            this.skip_ends = skip_ends;
+        }
+
+        int code (int i) {
+            return codes[i] & 0xFF;
+        }
+
+        int start (int i) {
+            return locate(i, false);
+        }
+
+        int end (int i) {
+            return locate(i, true);
+        }
+
+        private int locate (int i, boolean want_end)
+        {
+            int p = skip_offsets[i / SKIP];
+            int end = skip_ends[i / SKIP];
+
+            for (int j = i - i % SKIP; ; ++j)
+            {
+                int start = end;
+                for (int shift = 0; ; shift += 7) {
+                    int b = positions[p++];
+                    start += (b & 0x7F) << shift;
+                    if (b >= 0) break;
+                }
+                end = start;
+                for (int shift = 0; ; shift += 7) {
+                    int b = positions[p++];
+                    end += (b & 0x7F) << shift;
+                    if (b >= 0) break;
+                }
+                if (j == i) return want_end ? end : start;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int windows (File file) {
+        return Math.max(0, file.codes.length - k + 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Normalized code for a token: the kind for identifiers, literals and garbage, the word
+     * otherwise.
+     */
+    private static int code (Kind kind, int vocab)
+    {
+        switch (kind) {
+            case KEYWORD:   return 32 + vocab;
+            case SEPARATOR: return 32 + Lexer.keywordsa.length + vocab;
+            case OPERATOR:  return 32 + Lexer.keywordsa.length + Lexer.separatorsa.length + vocab;
+            default:        return kind.ordinal();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes and hashes a file, without touching the index.
+     */
+    private File prepare (String source)
+    {
+        Lexer lexer = new Lexer(source, level);
+        byte[] codes = new byte[64];
+        byte[] positions = new byte[128];
+        int[] skip_offsets = new int[4], skip_ends = new int[4];
+        int n = 0, p = 0, end = 0;
+
+        for (Kind kind; (kind = lexer.advance()) != null; )
+        {
+            if (!kind.is_token())
+                continue;
+
+            if (n == codes.length)
+                codes = Arrays.copyOf(codes, n * 2);
+            if (p + 10 > positions.length)
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            if (n % SKIP == 0) {
+                if (n / SKIP == skip_offsets.length) {
+                    skip_offsets = Arrays.copyOf(skip_offsets, skip_offsets.length * 2);
+                    skip_ends = Arrays.copyOf(skip_ends, skip_ends.length * 2);
+                }
+                skip_offsets[n / SKIP] = p;
+                skip_ends[n / SKIP] = end;
+            }
+
+            codes[n++] = (byte) code(kind, lexer.vocab());
+            p = put_varint(positions, p, lexer.start() - end);
+            p = put_varint(positions, p, lexer.end() - lexer.start());
+            end = lexer.end();
+        }
+
+        int entries = (n + SKIP - 1) / SKIP;
+        return new File(Arrays.copyOf(codes, n), Arrays.copyOf(positions, p),
+            Arrays.copyOf(skip_offsets, entries), Arrays.copyOf(skip_ends, entries));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int put_varint (byte[] bytes, int p, int value)
+    {
+        while ((value & ~0x7F) != 0) {
+            bytes[p++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        bytes[p++] = (byte) value;
+        return p;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the window hashes of a file to the index.
+     */
+    private void put_all (int id, File file)
+    {
+        long h = 0;
+        for (int i = 0; i < file.codes.length; ++i) {
+            if (i >= k) h -= file.code(i - k) * top;
+            h = h * BASE + file.code(i);
+            if (i >= k - 1) put(h, (long) id << 32 | i - k + 1);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes {@code source} and adds it to the index. Returns the ID of the file.
+     */
+    public int add (String source) {
+        File file = prepare(source);
+        synchronized (this) {
+            return insert(file);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes the given sources in parallel and adds them to the index. Returns their IDs, in the
+     * same order.
+     */
+    public int[] add_all (List<String> sources)
+    {
+        List<File> prepared = sources.parallelStream()
+            .map(this::prepare)
+            .collect(Collectors.toList());
+
+        int[] ids = new int[prepared.size()];
+        synchronized (this) {
+            for (int i = 0; i < ids.length; ++i)
+                ids[i] = insert(prepared.get(i));
+        }
+        return ids;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int insert (File file)
+    {
+        int id = files.size();
+        files.add(file);
+        put_all(id, file);
+        return id;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Removes the file with the given ID from the index.
+     */
+    public synchronized void remove (int id)
+    {
+        File file = file(id);
+        files.set(id, null);
+        dead_entries += windows(file);
+
+        if (dead_entries > entry_count / 2)
+            compact();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of files in the index.
+     */
+    public synchronized int file_count()
+    {
+        int count = 0;
+        for (File file: files)
+            if (file != null) ++count;
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private File file (int id)
+    {
+        File file = id >= 0 && id < files.size() ? files.get(id) : null;
+        if (file == null)
+            throw new IllegalArgumentException("no such file: " + id);
+        return file;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the maximal regions of the file with the given ID that duplicate regions of other
+     * indexed files or of other parts of the same file. Overlapping duplicates within the same
+     * file are reported.
+     */
+    public synchronized List<Duplicate> duplicates (int id)
+    {
+        File file = file(id);
+        ArrayList<Duplicate> result = new ArrayList<>();
+        Runs open = new Runs();
+        int last = -1; // last window that was looked up
+        long h = 0;
+
+        for (int t = 0; t < file.codes.length; ++t)
+        {
+            if (t >= k) h -= file.code(t - k) * top;
+            h = h * BASE + file.code(t);
+            if (t < k - 1) continue;
+            int q = t - k + 1;
+
+            int s = slot(h);
+            if (counts[s] > max_occurrences)
+                continue;
+
+            for (int e = heads[s]; e >= 0; e = next[e])
+            {
+                int other_id = (int) (entries[e] >>> 32);
+                int o = (int) entries[e];
+                File other = files.get(other_id);
+
+                if (other == null || other_id == id && o == q)
+                    continue;
+
+                long diagonal = (long) other_id << 32 | (o - q) & 0xFFFFFFFFL;
+                int r = open.slot(diagonal);
+                boolean present = open.from[r] >= 0;
+
+                // the windows between the end of the run and q were not looked up: compare the
+                // tokens they add
+                boolean extends_run = present && open.to[r] == last
+                    && matches(file, last + k, other, last + k + o - q, q - last);
+
+                if (extends_run)
+                    open.to[r] = q;
+                else if (same(file, q, other, o)) {
+                    if (present) emit(result, id, file, diagonal, open.from[r], open.to[r]);
+                    // extend over the preceding windows that were not looked up
+                    int from = q;
+                    while (from > 0 && from + o - q > 0
+                            && file.codes[from - 1] == other.codes[from - 1 + o - q])
+                        --from;
+                    open.put(r, diagonal, from, q);
+                }
+            }
+
+            last = q;
+        }
+
+        for (int r = 0; r < open.keys.length; ++r)
+            if (open.from[r] >= 0)
+                emit(result, id, file, open.keys[r], open.from[r], open.to[r]);
+
+        result.sort((a, b) -> a.start != b.start
+            ? Integer.compare(a.start, b.start)
+            : Integer.compare(a.other_file, b.other_file));
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Open-addressing hash table from diagonal (other file, other offset - offset) to the first
+     * and last window of the run of matching windows on that diagonal.
+     */
+    private static final class Runs
+    {
+        long[] keys = new long[64];
+        int[] from = new int[64], to = new int[64];
+        int size;
+
+        Runs() {
+            Arrays.fill(from, -1);
+        }
+
+        int slot (long key)
+        {
+            int mask = keys.length - 1;
+            int s = (int) (key ^ key >>> 32) * 0x9E3779B9 & mask;
+            while (from[s] >= 0 && keys[s] != key)
+                s = (s + 1) & mask;
+            return s;
+        }
+
+        /** Sets the run of the diagonal whose slot is {@code s}. */
+        void put (int s, long key, int first, int last)
+        {
+            if (from[s] < 0) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    s = slot(key);
+                }
+                ++size;
+            }
+            keys[s] = key;
+            from[s] = first;
+            to[s] = last;
+        }
+
+        private void grow()
+        {
+            long[] old_keys = keys;
+            int[] old_from = from, old_to = to;
+            keys = new long[old_keys.length * 2];
+            from = new int[keys.length];
+            to = new int[keys.length];
+            Arrays.fill(from, -1);
+
+            for (int s = 0; s < old_keys.length; ++s)
+                if (old_from[s] >= 0) {
+                    int t = slot(old_keys[s]);
+                    keys[t] = old_keys[s];
+                    from[t] = old_from[s];
+                    to[t] = old_to[s];
+                }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean same (File a, int i, File b, int j) {
+        return matches(a, i, b, j, k);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the {@code n} tokens starting at {@code i} in {@code a} and at {@code j} in {@code b}
+     * are the same.
+     */
+    private static boolean matches (File a, int i, File b, int j, int n)
+    {
+        for (int x = 0; x < n; ++x)
+            if (a.codes[i + x] != b.codes[j + x])
+                return false;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the duplicate made of the windows {@code [first, last]} on the given diagonal,
+     * extended over the following windows that were not looked up.
+     */
+    private void emit (List<Duplicate> out, int id, File file, long diagonal, int first, int last)
+    {
+        int other_id = (int) (diagonal >>> 32);
+        File other = files.get(other_id);
+        int shift = (int) diagonal;
+        int from = first, to = last + k - 1; // inclusive token indices
+        while (to + 1 < file.codes.length && to + 1 + shift < other.codes.length
+                && file.codes[to + 1] == other.codes[to + 1 + shift])
+            ++to;
+        out.add(new Duplicate(id, file.start(from), file.end(to),
+            other_id, other.start(from + shift), other.end(to + shift), to - from + 1));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int slot (long hash)
+    {
+        int mask = keys.length - 1;
+        int s = (int) (hash ^ hash >>> 32) * 0x9E3779B9 & mask;
+        while (heads[s] >= 0 && keys[s] != hash)
+            s = (s + 1) & mask;
+        return s;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void put (long hash, long entry)
+    {
+        if (entry_count == entries.length) {
+            entries = Arrays.copyOf(entries, entry_count * 2);
+            next = Arrays.copyOf(next, entry_count * 2);
+        }
+
+        if (2 * (distinct + 1) > keys.length)
+            rehash(keys.length * 2);
+
+        int s = slot(hash);
+        if (heads[s] < 0) {
+            keys[s] = hash;
+            ++distinct;
+        }
+        entries[entry_count] = entry;
+        next[entry_count] = heads[s];
+        heads[s] = entry_count++;
+        ++counts[s];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void rehash (int capacity)
+    {
+        long[] old_keys = keys;
+        int[] old_heads = heads, old_counts = counts;
+        keys = new long[capacity];
+        heads = new int[capacity];
+        counts = new int[capacity];
+        Arrays.fill(heads, -1);
+
+        for (int s = 0; s < old_keys.length; ++s)
+            if (old_heads[s] >= 0) {
+                int t = slot(old_keys[s]);
+                keys[t] = old_keys[s];
+                heads[t] = old_heads[s];
+                counts[t] = old_counts[s];
+            }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Rebuilds the index without the entries of removed files.
+     */
+    private void compact()
+    {
+        int capacity = 1024;
+        while (capacity < 2 * (entry_count - dead_entries)) capacity *= 2;
+
+        keys = new long[capacity];
+        heads = new int[capacity];
+        counts = new int[capacity];
+        Arrays.fill(heads, -1);
+        distinct = 0;
+        entry_count = 0;
+        dead_entries = 0;
+
+        for (int id = 0; id < files.size(); ++id) {
+            File file = files.get(id);
+            if (file != null)
+                put_all(id, file);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,463 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.InputElement;
+import norswap.javalexer.tokens.Kind;
+
+import java.util.Arrays;
+
+/**
+ * A compact encoding of the input elements lexed from a string, typically taking 2 to 3 bytes per
+ * input element (instead of the 40+ bytes of an {@link InputElement} and its text), on top of the
+ * string itself.
+ * <p>
+ * Each input element is encoded as:
+ * <ul>
+ *   <li>A byte holding the kind (low 5 bits) and the gap between the end of the previous input
+ *   element and the start of this one (high 3 bits). The gap is always 0 unless only tokens were
+ *   encoded. Gaps of 7 or more are followed by a varint holding the gap minus 7.</li>
+ *   <li>For keywords, separators and operators: a byte holding the index of the word in the
+ *   vocabulary. The text is not stored, and its length is known.</li>
+ *   <li>For boolean and null literals: nothing.</li>
+ *   <li>For other input elements: a varint holding the length of the input element.</li>
+ * </ul>
+ * Random access is supported through a skip index recording the encoding offset and end position
+ * of every {@link #interval}-th input element. Accessing the i-th input element decodes at most
+ * {@link #interval} input elements, and sequential accesses decode a single input element each.
+ */
+public final class CompactTokens
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Default interval between two entries of the skip index: 32 input elements.
+     */
+    public static final int DEFAULT_INTERVAL = 32;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The string from which the input elements were lexed.
+     */
+    public final String string;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of input elements between two entries of the skip index.
+     */
+    public final int interval;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Language level at which the input elements were lexed.
+     */
+    public final LanguageLevel level;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether only tokens (and not whitespace and comments) were encoded.
+     */
+    public final boolean tokens_only;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final byte[] bytes;
+    private final int count;
+
+    /** Encoding offset of input element {@code k * interval}. */
+    private final int[] skip_offsets;
+
+    /** End position of the input element preceding input element {@code k * interval}. */
+    private final int[] skip_ends;
+
+    /** Cursor used by the random-access methods. */
+    private final Cursor cursor;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CompactTokens (Encoder encoder)
+    {
+        int entries = (encoder.count + encoder.interval - 1) / encoder.interval;
+        this.string = encoder.string;
+        this.level = encoder.level;
+        this.tokens_only = encoder.tokens_only;
+        this.interval = encoder.interval;
+        this.bytes = Arrays.copyOf(encoder.bytes, encoder.p);
+        this.count = encoder.count;
+        this.skip_offsets = Arrays.copyOf(encoder.skip_offsets, entries);
+        this.skip_ends = Arrays.copyOf(encoder.skip_ends, entries);
+        this.cursor = new Cursor();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes {@code string} ({@link LanguageLevel#LATEST}, tolerant) and encodes all its input
+     * elements.
+     */
+    public static CompactTokens encode (String string) {
+        return encode(string, LanguageLevel.LATEST, false, DEFAULT_INTERVAL);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes {@code string} at the given language level (tolerant) and encodes its input elements,
+     * or only its tokens if {@code tokens_only} is set, with a skip index entry every {@code
+     * interval} input elements.
+     */
+    public static CompactTokens encode (
+            String string, LanguageLevel level, boolean tokens_only, int interval)
+    {
+        Encoder encoder = new Encoder(string, level, tokens_only, interval);
+        Lexer lexer = new Lexer(string, level);
+
+        for (Kind kind; (kind = lexer.advance()) != null; )
+            if (!tokens_only || kind.is_token())
+                encoder.add(kind, lexer.start(), lexer.end(), lexer.vocab());
+
+        return new CompactTokens(encoder);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Encodes a sequence of input elements.
+     */
+    private static final class Encoder
+    {
+        final String string;
+        final LanguageLevel level;
+        final boolean tokens_only;
+        final int interval;
+        byte[] bytes;
+        int[] skip_offsets = new int[16];
+        int[] skip_ends = new int[16];
+        int p, count, prev_end;
+
+        Encoder (String string, LanguageLevel level, boolean tokens_only, int interval)
+        {
+            if (interval <= 0)
+                throw new IllegalArgumentException("interval must be positive: " + interval);
+
+            this.string = string;
+            this.level = level;
+            this.tokens_only = tokens_only;
+            this.interval = interval;
+            this.bytes = new byte[Math.max(16, string.length() / 2)];
+        }
+
+        void add (Kind kind, int start, int end, int vocab)
+        {
+            if (count % interval == 0) {
+                int k = count / interval;
+                if (k == skip_offsets.length) {
+                    skip_offsets = Arrays.copyOf(skip_offsets, k * 2);
+                    skip_ends = Arrays.copyOf(skip_ends, k * 2);
+                }
+                skip_offsets[k] = p;
+                skip_ends[k] = prev_end;
+            }
+
+            if (p + 16 > bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+
+            int gap = start - prev_end;
+            bytes[p++] = (byte) (kind.ordinal() | Math.min(gap, 7) << 5);
+            if (gap >= 7)
+                p = put_varint(bytes, p, gap - 7);
+
+            switch (kind) {
+                case KEYWORD: case SEPARATOR: case OPERATOR:
+                    bytes[p++] = (byte) vocab;
+                    break;
+                case TRUE: case FALSE: case NULL:
+                    break;
+                default:
+                    p = put_varint(bytes, p, end - start);
+            }
+
+            prev_end = end;
+            ++count;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the encoding of {@code source}, an edited version of {@link #string}, re-lexing
+     * only the edited region. The edit is found by comparing the strings; its line and the input
+     * element preceding it are re-lexed, up to the first input element boundary within the
+     * unchanged suffix of the string that coincides with an old boundary. The other input
+     * elements are copied (and shifted) from this encoding.
+     * <p>
+     * If the unchanged prefix contains the opening of an unterminated block comment or text
+     * block (whose lexing depends on the whole rest of the string), the whole string is re-lexed.
+     *
+     * @throws IllegalStateException if {@link #tokens_only} is set, as whitespace and comments
+     *                               are needed to re-lex.
+     */
+    public CompactTokens update (String source)
+    {
+        if (tokens_only)
+            throw new IllegalStateException("cannot update an encoding that omits whitespace");
+
+        int old_len = string.length(), len = source.length(), delta = len - old_len;
+        int min = Math.min(old_len, len);
+        int prefix = 0, suffix = 0;
+
+        while (prefix < min && string.charAt(prefix) == source.charAt(prefix))
+            ++prefix;
+        while (suffix < min - prefix
+                && string.charAt(old_len - 1 - suffix) == source.charAt(len - 1 - suffix))
+            ++suffix;
+
+        if (prefix == old_len && prefix == len)
+            return this;
+
+        // Except for block comments and text blocks, lexing an input element does not look past
+        // the next line terminator: restart at the input element ending the previous line.
+        int line = prefix;
+        while (line > 0 && string.charAt(line - 1) != '\n' && string.charAt(line - 1) != '\r')
+            --line;
+        int limit = Math.max(0, line - 1);
+
+        Encoder encoder = new Encoder(source, level, false, interval);
+        Cursor old = new Cursor();
+        boolean more;
+
+        while ((more = old.next()) && old.end <= limit)
+        {
+            if (old.kind == Kind.OPERATOR && Lexer.operatorsa[old.kind_vocab].equals("/")
+                    && old.end < old_len && string.charAt(old.end) == '*'
+                || old.kind == Kind.STRING && old.end - old.start == 2
+                    && old.end < old_len && string.charAt(old.end) == '"')
+                return encode(source, level, false, interval);
+
+            encoder.add(old.kind, old.start, old.end, old.kind_vocab);
+        }
+
+        Lexer lexer = new Lexer(source, level);
+        lexer.seek(encoder.prev_end);
+
+        for (Kind kind; (kind = lexer.advance()) != null; )
+        {
+            int end = lexer.end();
+            encoder.add(kind, lexer.start(), end, lexer.vocab());
+
+            if (end < len - suffix)
+                continue;
+
+            // the rest of the string is unchanged: resynchronize with the old input elements
+            while (more && old.end < end - delta)
+                more = old.next();
+
+            if (more && old.end == end - delta) {
+                while (old.next())
+                    encoder.add(old.kind, old.start + delta, old.end + delta, old.kind_vocab);
+                break;
+            }
+        }
+
+        lexer.finish();
+
+        return new CompactTokens(encoder);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int put_varint (byte[] bytes, int p, int value)
+    {
+        while ((value & ~0x7F) != 0) {
+            bytes[p++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        bytes[p++] = (byte) value;
+        return p;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of encoded input elements.
+     */
+    public int size() {
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of bytes used by the encoding (including the skip index, excluding the string).
+     */
+    public int encoded_size() {
+        return bytes.length + 8 * skip_offsets.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Kind of the i-th input element. Not thread-safe (like all random-access methods):
+     * use a {@link #cursor()} per thread for concurrent access.
+     */
+    public Kind kind (int i) {
+        cursor.seek(i);
+        return cursor.kind;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Start position of the i-th input element.
+     */
+    public int start (int i) {
+        cursor.seek(i);
+        return cursor.start;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * End position (exclusive) of the i-th input element.
+     */
+    public int end (int i) {
+        cursor.seek(i);
+        return cursor.end;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Instantiates the i-th input element (with its position).
+     */
+    public InputElement get (int i) {
+        cursor.seek(i);
+        return cursor.element();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new cursor, positioned before the first input element.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Decodes the input elements one at a time, in order or through the skip index.
+     */
+    public final class Cursor
+    {
+        private int index = -1;
+        private int p, kind_vocab;
+        private Kind kind;
+        private int start, end;
+
+        private Cursor() {}
+
+        /**
+         * Moves to the next input element. Returns false if there is none.
+         */
+        public boolean next()
+        {
+            if (index + 1 >= count) {
+                index = count;
+                return false;
+            }
+
+            int b = bytes[p++] & 0xFF;
+            int gap = b >>> 5;
+            if (gap == 7) gap += varint();
+
+            kind = KINDS[b & 0x1F];
+            start = end + gap;
+            kind_vocab = -1;
+
+            switch (kind) {
+                case KEYWORD:   end = start + Lexer.keywordsa  [kind_vocab = bytes[p++]].length();
+                                break;
+                case SEPARATOR: end = start + Lexer.separatorsa[kind_vocab = bytes[p++]].length();
+                                break;
+                case OPERATOR:  end = start + Lexer.operatorsa [kind_vocab = bytes[p++]].length();
+                                break;
+                case TRUE:      end = start + 4; break;
+                case FALSE:     end = start + 5; break;
+                case NULL:      end = start + 4; break;
+                default:        end = start + varint();
+            }
+
+            ++index;
+            return true;
+        }
+
+        private int varint()
+        {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = bytes[p++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        /**
+         * Moves to the input element at the given index.
+         */
+        public void seek (int i)
+        {
+            if (i < 0 || i >= count)
+                throw new IndexOutOfBoundsException("index: " + i);
+
+            if (i < index || index < 0 || i - index > i % interval) {
+                int k = i / interval;
+                p = skip_offsets[k];
+                end = skip_ends[k];
+                index = k * interval - 1;
+            }
+
+            while (index < i) next();
+        }
+
+        /** Index of the current input element. */
+        public int index() {
+            return index;
+        }
+
+        /** Kind of the current input element. */
+        public Kind kind() {
+            return kind;
+        }
+
+        /** Start position of the current input element. */
+        public int start() {
+            return start;
+        }
+
+        /** End position (exclusive) of the current input element. */
+        public int end() {
+            return end;
+        }
+
+        /**
+         * Instantiates the current input element (with its position).
+         */
+        public InputElement element()
+        {
+            InputElement ie = Lexer.make(kind, string, start, end, kind_vocab);
+            ie.start = start;
+            ie.end   = end;
+            return ie;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,456 @@
+package norswap.javalexer;
+
+import norswap.javalexer.Lexer.Engine;
+import norswap.javalexer.tokens.InputElement;
+import norswap.javalexer.tokens.Kind;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Lexes a corpus of files and reports the lexing throughput, the distribution of per-file
+ * lexing latencies, the memory allocated per file, and the slowest files with their token mix.
+ * Meant to reproduce lexing performance problems locally.
+ * <p>
+ * Only lexing is timed: all files are read and decoded before the clock starts (so the corpus
+ * must fit in memory), then lexed from memory for each warmup run and the measured run. Input
+ * elements are materialized in a list, as {@link Lexer#lex} does. Allocations are measured with
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, when the JVM supports
+ * it.
+ * <p>
+ * Command-line usage: {@code java -cp java-lexer.jar norswap.javalexer.CorpusProfiler [options]
+ * DIR_OR_FILE...} — run without arguments for the list of options.
+ */
+public final class CorpusProfiler
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final LanguageLevel level;
+    private final Engine engine;
+    private final boolean tolerant;
+    private final boolean tokens_only;
+    private final int threads;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a profiler that lexes files at the given language level, using the given engine,
+     * either tolerantly (emitting garbage tokens) or strictly (failing files on the first error),
+     * retaining only tokens if {@code tokens_only} is true, on {@code threads} threads.
+     */
+    public CorpusProfiler (LanguageLevel level, Engine engine, boolean tolerant,
+                           boolean tokens_only, int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("thread count must be positive: " + threads);
+
+        this.level = level;
+        this.engine = engine;
+        this.tolerant = tolerant;
+        this.tokens_only = tokens_only;
+        this.threads = threads;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Profile of a single file.
+     */
+    public static final class FileProfile
+    {
+        /** The profiled file. */
+        public final Path path;
+
+        /** Size of the file, in bytes. */
+        public final long bytes;
+
+        /** Number of chars in the decoded file. */
+        public final int chars;
+
+        /** Time spent lexing the file, in nanoseconds. */
+        public final long nanos;
+
+        /** Bytes allocated while lexing the file, or -1 if unavailable. */
+        public final long allocated;
+
+        /** Number of input elements of each kind (indexed by ordinal). */
+        private final int[] kinds;
+
+        /** Position of the lexing error in strict mode, or -1. */
+        public final int error;
+
+        FileProfile (Path path, long bytes, int chars, long nanos, long allocated, int[] kinds,
+                     int error)
+        {
+            this.path = path;
+            this.bytes = bytes;
+            this.chars = chars;
+            this.nanos = nanos;
+            this.allocated = allocated;
+            this.kinds = kinds;
+            this.error = error;
+        }
+
+        /**
+         * Number of input elements of the given kind (up to the error in strict mode).
+         */
+        public int count (Kind kind) {
+            return kinds[kind.ordinal()];
+        }
+
+        /**
+         * Returns the most frequent kinds of input elements and their share, e.g. {@code
+         * "IDENTIFIER 31%, SEPARATOR 24%, WHITESPACE 22%"}.
+         */
+        public String mix (int top)
+        {
+            int total = 0;
+            for (int count: kinds) total += count;
+            if (total == 0) return "empty";
+            int sum = total;
+            return Arrays.stream(KINDS)
+                .filter(kind -> kinds[kind.ordinal()] > 0)
+                .sorted(Comparator.comparingInt((Kind kind) -> -kinds[kind.ordinal()]))
+                .limit(top)
+                .map(kind -> kind + " " + Math.round(100.0 * kinds[kind.ordinal()] / sum) + "%")
+                .collect(Collectors.joining(", "));
+        }
+
+        @Override public String toString() {
+            return String.format("%s (%d bytes, %.3f ms)", path, bytes, nanos / 1e6);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Results of profiling a corpus.
+     */
+    public static final class Report
+    {
+        /** Profiles of all files, from slowest to fastest. */
+        public final List<FileProfile> files;
+
+        /** Wall-clock time to lex the whole corpus (excluding reading), in nanoseconds. */
+        public final long wall_nanos;
+
+        /** Number of threads used. */
+        public final int threads;
+
+        private final long[] latencies; // sorted
+
+        Report (List<FileProfile> files, long wall_nanos, int threads)
+        {
+            files.sort(Comparator.comparingLong((FileProfile file) -> -file.nanos));
+            this.files = files;
+            this.wall_nanos = wall_nanos;
+            this.threads = threads;
+            this.latencies = files.stream().mapToLong(file -> file.nanos).sorted().toArray();
+        }
+
+        /** Total size of the files, in bytes. */
+        public long bytes() {
+            return files.stream().mapToLong(file -> file.bytes).sum();
+        }
+
+        /** Total time spent lexing (summed over threads), in nanoseconds. */
+        public long lexing_nanos() {
+            return files.stream().mapToLong(file -> file.nanos).sum();
+        }
+
+        /** Total bytes allocated while lexing, or -1 if unavailable. */
+        public long allocated()
+        {
+            long sum = 0;
+            for (FileProfile file: files) {
+                if (file.allocated < 0) return -1;
+                sum += file.allocated;
+            }
+            return sum;
+        }
+
+        /** Number of files which failed to lex (in strict mode). */
+        public long failures() {
+            return files.stream().filter(file -> file.error >= 0).count();
+        }
+
+        /**
+         * Aggregate throughput in MB (10^6 bytes of source) per second of wall-clock lexing time.
+         */
+        public double mb_per_second() {
+            return wall_nanos == 0 ? 0 : bytes() * 1e3 / wall_nanos;
+        }
+
+        /**
+         * Returns the per-file lexing latency at the given percentile (between 0 and 100), in
+         * nanoseconds (nearest-rank method), or 0 if there are no files.
+         */
+        public long percentile (double percentile)
+        {
+            if (latencies.length == 0) return 0;
+            int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+            return latencies[Math.max(0, Math.min(latencies.length, rank) - 1)];
+        }
+
+        /**
+         * Prints the report, including the {@code slowest} slowest files.
+         */
+        public void print (PrintStream out, int slowest)
+        {
+            long bytes = bytes();
+            out.printf("files:      %d (%.2f MB)%s%n", files.size(), bytes / 1e6,
+                failures() > 0 ? ", " + failures() + " failed" : "");
+            out.printf("wall time:  %.1f ms on %d thread(s)%n", wall_nanos / 1e6, threads);
+            out.printf("throughput: %.2f MB/s (%.2f MB/s per thread)%n",
+                mb_per_second(), lexing_nanos() == 0 ? 0 : bytes * 1e3 / lexing_nanos());
+            out.printf("latency:    p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6,
+                percentile(100) / 1e6);
+
+            long allocated = allocated();
+            if (allocated >= 0 && !files.isEmpty())
+                out.printf("allocated:  %.2f MB (%.0f bytes per file, %.1f bytes per byte)%n",
+                    allocated / 1e6, (double) allocated / files.size(),
+                    bytes == 0 ? 0 : (double) allocated / bytes);
+            else
+                out.println("allocated:  unavailable");
+
+            if (slowest > 0 && !files.isEmpty()) {
+                out.println("slowest files:");
+                for (FileProfile file: files.subList(0, Math.min(slowest, files.size())))
+                    out.printf("  %9.3f ms %10d bytes %10s  %s%n    %s%n",
+                        file.nanos / 1e6, file.bytes,
+                        file.allocated < 0 ? "" : file.allocated / 1024 + " KiB",
+                        file.path + (file.error >= 0 ? " (error at " + file.error + ")" : ""),
+                        file.mix(4));
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the given files, lexes them {@code warmup} times without recording anything (to let
+     * the JIT compiler kick in), then profiles them. Files are decoded as UTF-8. I/O errors are
+     * reported as {@link UncheckedIOException}.
+     */
+    public Report profile (Collection<Path> files, int warmup)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Callable<Input>> reads = new ArrayList<>(files.size());
+            for (Path path: files)
+                reads.add(() -> read(path));
+            List<Input> inputs = invoke_all(pool, reads);
+
+            ArrayList<Callable<FileProfile>> tasks = new ArrayList<>(inputs.size());
+            for (Input input: inputs)
+                tasks.add(() -> profile(input));
+
+            for (int i = 0; i < warmup; ++i)
+                invoke_all(pool, tasks);
+            long start = System.nanoTime();
+            List<FileProfile> profiles = invoke_all(pool, tasks);
+            return new Report(profiles, System.nanoTime() - start, threads);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A file read in memory.
+     */
+    private static final class Input
+    {
+        final Path path;
+        final int bytes;
+        final String source;
+
+        Input (Path path, int bytes, String source) {
+            this.path = path;
+            this.bytes = bytes;
+            this.source = source;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Input read (Path path)
+    {
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            return new Input(path, bytes.length, new String(bytes, StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the tasks on the pool and returns their results, in order.
+     */
+    private static <T> List<T> invoke_all (ExecutorService pool, List<Callable<T>> tasks)
+    {
+        ArrayList<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future: pool.invokeAll(tasks))
+                results.add(future.get());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far, or -1 if unavailable.
+     */
+    private static long allocated_bytes()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+        if (!sun.isThreadAllocatedMemorySupported() || !sun.isThreadAllocatedMemoryEnabled())
+            return -1;
+        return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private FileProfile profile (Input input)
+    {
+        String source = input.source;
+        int[] kinds = new int[KINDS.length];
+        int error = -1;
+        long allocated = allocated_bytes();
+        long start = System.nanoTime();
+
+        Lexer lexer = new Lexer(source, level, engine, tolerant, null);
+        ArrayList<InputElement> elements = new ArrayList<>();
+        try {
+            for (Kind kind; (kind = lexer.advance()) != null; ) {
+                ++kinds[kind.ordinal()];
+                if (!tokens_only || kind.is_token())
+                    elements.add(lexer.element());
+            }
+        }
+        catch (LexingException e) {
+            error = e.position;
+        }
+
+        long nanos = System.nanoTime() - start;
+        if (allocated >= 0)
+            allocated = allocated_bytes() - allocated;
+
+        return new FileProfile(
+            input.path, input.bytes, source.length(), nanos, allocated, kinds, error);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String USAGE = String.join("\n",
+        "usage: CorpusProfiler [options] DIR_OR_FILE...",
+        "  --strict             fail files on the first lexing error (default: tolerant)",
+        "  --tokens-only        only retain tokens (default: all input elements)",
+        "  --threads N          number of threads (default: number of processors)",
+        "  --engine E           TABLE, VECTOR or REGEX (default: TABLE)",
+        "  --level L            language level, e.g. JAVA_8 (default: LATEST)",
+        "  --warmup N           number of unrecorded warmup passes (default: 1)",
+        "  --slowest N          number of slowest files to list (default: 10)",
+        "  --ext EXT            extension of the files to lex in directories (default: .java)");
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Command-line entry point: run without arguments for the list of options.
+     */
+    public static void main (String[] args) throws IOException
+    {
+        boolean tolerant = true, tokens_only = false;
+        int threads = Runtime.getRuntime().availableProcessors(), warmup = 1, slowest = 10;
+        Engine engine = Engine.TABLE;
+        LanguageLevel level = LanguageLevel.LATEST;
+        String ext = ".java";
+        ArrayList<Path> roots = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                    case "--strict":      tolerant = false; break;
+                    case "--tokens-only": tokens_only = true; break;
+                    case "--threads":     threads = Integer.parseInt(args[++i]); break;
+                    case "--engine":      engine = Engine.valueOf(args[++i]); break;
+                    case "--level":       level = LanguageLevel.valueOf(args[++i]); break;
+                    case "--warmup":      warmup = Integer.parseInt(args[++i]); break;
+                    case "--slowest":     slowest = Integer.parseInt(args[++i]); break;
+                    case "--ext":         ext = args[++i]; break;
+                    default:
+                        if (args[i].startsWith("--"))
+                            throw new IllegalArgumentException("unknown option " + args[i]);
+                        roots.add(Paths.get(args[i]));
+                }
+            }
+            if (roots.isEmpty())
+                throw new IllegalArgumentException("no input");
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e instanceof ArrayIndexOutOfBoundsException
+                ? "missing option value" : e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        ArrayList<Path> files = new ArrayList<>();
+        for (Path root: roots) {
+            String suffix = ext;
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.filter(path -> Files.isRegularFile(path)
+                        && (path.equals(root) || path.toString().endsWith(suffix)))
+                    .forEach(files::add);
+            }
+        }
+
+        new CorpusProfiler(level, engine, tolerant, tokens_only, threads)
+            .profile(files, warmup)
+            .print(System.out, slowest);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,205 @@
+package norswap.javalexer;
+
+import java.util.Arrays;
+
+/**
+ * Collects the lexical errors encountered while lexing (see {@link Lexer#Lexer(String,
+ * Diagnostics)}), so that lexing can carry on past errors while still reporting all of them.
+ * <p>
+ * Each diagnostic is an input position, a length and a {@link Category}. They are stored in
+ * parallel arrays holding at most {@link #capacity} entries: further diagnostics are counted (see
+ * {@link #count()}) but not stored.
+ * <p>
+ * Alternatively, a fail-fast instance (see {@link #fail_fast()}) throws a {@link LexingException}
+ * at the first error. These exceptions do not fill in their stack trace, so they are cheap.
+ */
+public final class Diagnostics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The kind of lexical error.
+     */
+    public enum Category {
+        /** Characters that do not begin any input element. */
+        UNEXPECTED_CHARACTER,
+        /** A string literal missing its closing quote on the same line. */
+        UNTERMINATED_STRING,
+        /** A character literal missing its closing quote on the same line. */
+        UNTERMINATED_CHAR,
+        /** A block comment missing its closing delimiter. */
+        UNTERMINATED_COMMENT,
+        /** A string or character literal containing an invalid escape sequence. */
+        BAD_ESCAPE,
+        /** A character literal that does not contain exactly one character or escape. */
+        MALFORMED_CHAR,
+        /** A numeric literal whose value does not fit its type (see {@link LexUtil}). */
+        INVALID_LITERAL
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final Category[] categories_values = Category.values();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maximum number of diagnostics stored.
+     */
+    public final int capacity;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If true, reporting an error throws a {@link LexingException} instead of recording it.
+     */
+    public final boolean fail_fast;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int[] positions = new int[0];
+    private int[] lengths = new int[0];
+    private byte[] categories = new byte[0];
+    private int size;
+    private int count;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a diagnostics buffer storing at most {@code capacity} diagnostics.
+     */
+    public Diagnostics (int capacity)
+    {
+        if (capacity < 0)
+            throw new IllegalArgumentException("negative capacity: " + capacity);
+
+        this.capacity = capacity;
+        this.fail_fast = false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Diagnostics() {
+        this.capacity = 0;
+        this.fail_fast = true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an instance that throws a (stackless) {@link LexingException} at the first error.
+     */
+    public static Diagnostics fail_fast() {
+        return new Diagnostics();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records a diagnostic, or throws a {@link LexingException} if {@link #fail_fast} is set.
+     */
+    void report (Category category, int position, int length)
+    {
+        if (fail_fast)
+            throw new LexingException(position, category, false);
+
+        ++count;
+
+        if (size == capacity)
+            return;
+
+        if (size == positions.length) {
+            int n = Math.min(capacity, Math.max(8, size * 2));
+            positions  = Arrays.copyOf(positions, n);
+            lengths    = Arrays.copyOf(lengths, n);
+            categories = Arrays.copyOf(categories, n);
+        }
+
+        positions [size] = position;
+        lengths   [size] = length;
+        categories[size] = (byte) category.ordinal();
+        ++size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of stored diagnostics.
+     */
+    public int size() {
+        return size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of reported diagnostics, including those that were not stored because the capacity
+     * was exceeded.
+     */
+    public int count() {
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Input position at which the {@code i}-th diagnostic starts.
+     */
+    public int position (int i) {
+        check(i);
+        return positions[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Length of the input span covered by the {@code i}-th diagnostic.
+     */
+    public int length (int i) {
+        check(i);
+        return lengths[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Category of the {@code i}-th diagnostic.
+     */
+    public Category category (int i) {
+        check(i);
+        return categories_values[categories[i]];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void check (int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("diagnostic: " + i);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Discards all diagnostics, so that the instance can be reused.
+     */
+    public void clear() {
+        size = 0;
+        count = 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString()
+    {
+        StringBuilder b = new StringBuilder("Diagnostics[");
+        for (int i = 0; i < size; ++i) {
+            if (i > 0) b.append(", ");
+            b.append(category(i)).append('@').append(positions[i]).append('+').append(lengths[i]);
+        }
+        if (count > size)
+            b.append(", ... (").append(count - size).append(" more)");
+        return b.append(']').toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,219 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+/**
+ * A 128-bit fingerprint of the sequence of tokens of a source: whitespace and comments (trivia)
+ * do not contribute to it, so that two sources have the same fingerprint if and only if (barring
+ * hash collisions) they have the same tokens, as per {@link
+ * norswap.javalexer.tokens.InputElement#equals}.
+ * <p>
+ * Optionally, literals can be normalized so that literals with the same value have the same
+ * fingerprint: {@code 0x1F}, {@code 037} and {@code 31}; {@code 1.0} and {@code 1e0}; {@code 'A'}
+ * and {@code '\101'}; etc.
+ * <p>
+ * Fingerprints are computed while lexing, without instantiating the tokens (see {@link #of}), or
+ * alongside another use of a {@link Lexer} (see {@link Builder}). The hash function is fast but
+ * not cryptographic: it is suitable for change detection, but not against adversarial inputs.
+ */
+public final class Fingerprint
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** The high 64 bits of the fingerprint. */
+    public final long high;
+
+    /** The low 64 bits of the fingerprint. */
+    public final long low;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Fingerprint (long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the fingerprint of the tokens of {@code string} ({@link LanguageLevel#LATEST},
+     * tolerant, literals not normalized).
+     */
+    public static Fingerprint of (String string) {
+        return of(string, LanguageLevel.LATEST, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the fingerprint of the tokens of {@code string} lexed at the given language level
+     * (tolerant), normalizing literals if {@code normalize} is set.
+     */
+    public static Fingerprint of (String string, LanguageLevel level, boolean normalize)
+    {
+        Builder builder = new Builder(normalize);
+        Lexer lexer = new Lexer(string, level);
+
+        for (Kind kind; (kind = lexer.advance()) != null; )
+            builder.add(kind, string, lexer.start(), lexer.end());
+
+        return builder.build();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Accumulates a fingerprint from a sequence of input elements, typically obtained through
+     * {@link Lexer#advance()}, {@link Lexer#start()} and {@link Lexer#end()}.
+     */
+    public static final class Builder
+    {
+        private final boolean normalize;
+        private long h1 = 0xCBF29CE484222325L, h2 = 0x9E3779B97F4A7C15L;
+        private int count;
+
+        /**
+         * Creates a builder which normalizes literals if {@code normalize} is set.
+         */
+        public Builder (boolean normalize) {
+            this.normalize = normalize;
+        }
+
+        /**
+         * Adds the input element of the given kind spanning {@code [start, end[} in {@code text}.
+         * Trivia is ignored.
+         */
+        public void add (Kind kind, CharSequence text, int start, int end)
+        {
+            if (!kind.is_token())
+                return;
+
+            ++count;
+
+            if (normalize) switch (kind) {
+                case DECIMAL_INT: case HEX_INT: case OCTAL_INT: case BINARY_INT:
+                    if (!LexUtil.int_fits(text, start, end))
+                        break; // invalid literal: use its text
+                    char i = text.charAt(end - 1);
+                    mix(Kind.DECIMAL_INT.ordinal());
+                    mix(i == 'l' || i == 'L' ? 'L' : 'I');
+                    mix(LexUtil.int_value(text, start, end));
+                    return;
+                case DECIMAL_FLOAT: case HEX_FLOAT:
+                    double d = LexUtil.float_value(text, start, end);
+                    if (Double.isNaN(d))
+                        break;
+                    char f = text.charAt(end - 1);
+                    mix(Kind.DECIMAL_FLOAT.ordinal());
+                    mix(f == 'f' || f == 'F' ? 'F' : 'D');
+                    mix(Double.doubleToLongBits(d));
+                    return;
+                case CHAR:
+                    // a single char or an escape, not e.g. a surrogate pair ('\uD83D\uDE00')
+                    if (end - start != 3 && text.charAt(start + 1) != '\\')
+                        break;
+                    mix(kind.ordinal());
+                    mix(end - start == 3
+                        ? text.charAt(start + 1)
+                        : LexUtil.unescape_char_content(
+                            text.subSequence(start + 1, end - 1).toString()));
+                    return;
+                case STRING:
+                    try {
+                        String value = LexUtil.unescape_string_content(
+                            text.subSequence(start + 1, end - 1).toString());
+                        mix(Kind.STRING.ordinal());
+                        mix(value, 0, -1);
+                        return;
+                    }
+                    catch (RuntimeException e) {
+                        break;
+                    }
+                case TEXT_BLOCK:
+                    // same value as an equivalent string literal
+                    try {
+                        String value = LexUtil.text_block_value(
+                            text.subSequence(start + 3, end - 3).toString());
+                        mix(Kind.STRING.ordinal());
+                        mix(value, 0, -1);
+                        return;
+                    }
+                    catch (RuntimeException e) {
+                        break;
+                    }
+            }
+
+            mix(kind.ordinal());
+            mix(text, start, end);
+        }
+
+        private void mix (CharSequence text, int start, int end)
+        {
+            if (end < 0) end = text.length();
+            for (int i = start; i < end; ++i)
+                mix(text.charAt(i));
+            // mark the end, so that "ab" "c" differs from "a" "bc"
+            mix(end - start + 0x10000);
+        }
+
+        private void mix (long value) {
+            mix((int) (value >>> 32));
+            mix((int) value);
+        }
+
+        private void mix (int value)
+        {
+            h1 = (h1 ^ value) * 0x100000001B3L;
+            h2 = Long.rotateLeft(h2 + value * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+        }
+
+        /**
+         * Number of tokens added to the builder so far.
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * Returns the fingerprint of the tokens added so far.
+         */
+        public Fingerprint build() {
+            return new Fingerprint(fmix(h1 ^ h2 + count), fmix(h2 ^ h1));
+        }
+
+        private static long fmix (long k)
+        {
+            k ^= k >>> 33;
+            k *= 0xFF51AFD7ED558CCDL;
+            k ^= k >>> 33;
+            k *= 0xC4CEB9FE1A85EC53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public int hashCode() {
+        return (int) low;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public boolean equals (Object other) {
+        return other instanceof Fingerprint
+            && high == ((Fingerprint) other).high
+            && low  == ((Fingerprint) other).low;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the fingerprint as a 32-digit hexadecimal number.
+     */
+    @Override public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
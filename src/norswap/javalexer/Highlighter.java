@@ -0,0 +1,326 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Renders Java sources with syntax highlighting, as HTML spans or ANSI escape sequences, into a
+ * caller-supplied {@link StringBuilder}.
+ * <p>
+ * The output is produced straight from the source ranges reported by {@link Lexer#advance()}:
+ * no input element or intermediate string is created, so that rendering into a reused buffer of
+ * sufficient capacity only allocates the lexer itself (which scans the source in place).
+ * Consecutive tokens with the same style share a single span (or escape sequence) unless a line
+ * terminator separates them.
+ * <p>
+ * A range of the source (e.g. the part visible in a viewport) can be rendered on its own: given
+ * {@link Checkpoints} for the source, only the input elements overlapping the range (plus at most
+ * {@link Checkpoints#interval} characters before it) are lexed. Input elements that straddle the
+ * range boundaries are cut but keep their style.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public final class Highlighter
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Highlighting styles. Whitespace is never styled.
+     */
+    public enum Style
+    {
+        KEYWORD, IDENTIFIER, SEPARATOR, OPERATOR, NUMBER, CHAR, STRING, TEXT_BLOCK, BOOLEAN, NULL,
+        COMMENT, JAVADOC, GARBAGE;
+
+        /**
+         * Returns the style of the input element of the given kind spanning {@code [start, end)}
+         * in {@code source}, or null for whitespace.
+         */
+        public static Style of (Kind kind, CharSequence source, int start, int end)
+        {
+            switch (kind) {
+                case WHITESPACE:    return null;
+                case LINE_COMMENT:  return COMMENT;
+                case BLOCK_COMMENT: return end - start > 4 && source.charAt(start + 2) == '*'
+                                        ? JAVADOC : COMMENT;
+                case DECIMAL_INT: case HEX_INT: case OCTAL_INT: case BINARY_INT:
+                case DECIMAL_FLOAT: case HEX_FLOAT:
+                                    return NUMBER;
+                case CHAR:          return CHAR;
+                case STRING:        return STRING;
+                case TEXT_BLOCK:    return TEXT_BLOCK;
+                case TRUE: case FALSE:
+                                    return BOOLEAN;
+                case NULL:          return NULL;
+                case KEYWORD:       return KEYWORD;
+                case IDENTIFIER:    return IDENTIFIER;
+                case SEPARATOR:     return SEPARATOR;
+                case OPERATOR:      return OPERATOR;
+                case GARBAGE:       return GARBAGE;
+                default: throw new AssertionError(kind);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final Style[] STYLES = Style.values();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final boolean html;
+
+    /** Text opening each style (by ordinal), or null if the style is not rendered. */
+    private final String[] open;
+
+    /** Text closing any style. */
+    private final String close;
+
+    private final LanguageLevel level;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Highlighter (boolean html, String[] open, String close, LanguageLevel level)
+    {
+        this.html = html;
+        this.open = open;
+        this.close = close;
+        this.level = level;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a highlighter that wraps styled input elements in {@code <span class="...">} tags,
+     * with class names {@code jl-keyword}, {@code jl-identifier}, {@code jl-separator}, etc. (the
+     * lowercased style names, with {@code _} replaced by {@code -}), and escapes {@code <}, {@code
+     * >} and {@code &}. Meant to be embedded in a {@code <pre>} element.
+     */
+    public static Highlighter html()
+    {
+        EnumMap<Style, String> classes = new EnumMap<>(Style.class);
+        for (Style style: STYLES)
+            classes.put(style, "jl-" + style.name().toLowerCase().replace('_', '-'));
+        return html(classes, LanguageLevel.LATEST);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an HTML highlighter (see {@link #html()}) using the given CSS classes. Input
+     * elements whose style has no class are not wrapped.
+     */
+    public static Highlighter html (Map<Style, String> classes, LanguageLevel level)
+    {
+        String[] open = new String[STYLES.length];
+        classes.forEach((style, name) -> open[style.ordinal()] = "<span class=\"" + name + "\">");
+        return new Highlighter(true, open, "</span>", level);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a highlighter that emits ANSI (ECMA-48 SGR) escape sequences for a terminal, with
+     * a default color scheme: bold blue keywords, green strings, characters and text blocks,
+     * cyan numbers, booleans and {@code null}, gray comments, italic gray Javadoc, and garbage
+     * in red reverse video. Control characters in the source are replaced by {@code U+FFFD}, so
+     * that they cannot be interpreted by the terminal.
+     */
+    public static Highlighter ansi()
+    {
+        EnumMap<Style, String> sgr = new EnumMap<>(Style.class);
+        sgr.put(Style.KEYWORD,    "1;34");
+        sgr.put(Style.NUMBER,     "36");
+        sgr.put(Style.CHAR,       "32");
+        sgr.put(Style.STRING,     "32");
+        sgr.put(Style.TEXT_BLOCK, "32");
+        sgr.put(Style.BOOLEAN,    "36");
+        sgr.put(Style.NULL,       "36");
+        sgr.put(Style.COMMENT,    "90");
+        sgr.put(Style.JAVADOC,    "3;90");
+        sgr.put(Style.GARBAGE,    "7;31");
+        return ansi(sgr, LanguageLevel.LATEST);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an ANSI highlighter (see {@link #ansi()}) using the given SGR parameters (e.g.
+     * {@code "1;34"} for bold blue). Input elements whose style has no parameters are not
+     * highlighted.
+     */
+    public static Highlighter ansi (Map<Style, String> sgr, LanguageLevel level)
+    {
+        String[] open = new String[STYLES.length];
+        sgr.forEach((style, params) -> open[style.ordinal()] = "\u001b[" + params + "m");
+        return new Highlighter(false, open, "\u001b[0m", level);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Appends the highlighted {@code source} to {@code out}.
+     */
+    public void highlight (String source, StringBuilder out)
+    {
+        Lexer lexer = new Lexer(source, level, Lexer.Engine.TABLE, true, null);
+        render(lexer, source, 0, source.length(), out);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Appends the highlighted range {@code [from, to)} of {@code source} to {@code out}, using
+     * {@code checkpoints} (which must have been built for {@code source}) to avoid lexing the
+     * source from its start.
+     */
+    public void highlight (String source, Checkpoints checkpoints, int from, int to,
+                           StringBuilder out)
+    {
+        if (!checkpoints.matches(source))
+            throw new IllegalArgumentException("checkpoints were computed for a different input");
+        if (from < 0 || to > source.length() || from > to)
+            throw new IndexOutOfBoundsException("range: [" + from + ", " + to + ")");
+
+        Lexer lexer = new Lexer(source, level, Lexer.Engine.TABLE, true, null);
+        lexer.seek(checkpoints.nearest(from));
+        render(lexer, source, from, to, out);
+        lexer.finish(); // lexing stops at the end of the range
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void render (Lexer lexer, String source, int from, int to, StringBuilder out)
+    {
+        String current = null;          // opening text of the open span
+        int ws_start = 0, ws_end = 0;   // whitespace following the open span
+
+        for (Kind kind; (kind = lexer.advance()) != null; )
+        {
+            int start = lexer.start(), end = lexer.end();
+            if (end <= from) continue;
+            if (start >= to) break;
+            start = Math.max(start, from);
+            end   = Math.min(end, to);
+
+            Style style = Style.of(kind, source, lexer.start(), lexer.end());
+
+            if (style == null) {
+                // whitespace: included in the open span if the next token continues it
+                if (current != null && !has_line_terminator(source, start, end)) {
+                    ws_start = start;
+                    ws_end = end;
+                }
+                else {
+                    if (current != null) out.append(close);
+                    current = null;
+                    escape(source, start, end, out);
+                }
+                continue;
+            }
+
+            String opening = open[style.ordinal()];
+            if (opening != current && (opening == null || !opening.equals(current))) {
+                if (current != null) out.append(close);
+                escape(source, ws_start, ws_end, out);
+                if (opening != null) out.append(opening);
+                current = opening;
+            }
+            else
+                escape(source, ws_start, ws_end, out);
+            ws_start = ws_end = 0;
+
+            if (current != null && (kind == Kind.BLOCK_COMMENT || kind == Kind.TEXT_BLOCK))
+                escape_multiline(source, start, end, current, out);
+            else if (current != null && kind == Kind.LINE_COMMENT) {
+                // line comments may include their line terminator: close the span before it
+                int text_end = end;
+                while (text_end > start && is_line_terminator(source.charAt(text_end - 1)))
+                    --text_end;
+                escape(source, start, text_end, out);
+                if (text_end < end) {
+                    out.append(close);
+                    current = null;
+                    escape(source, text_end, end, out);
+                }
+            }
+            else
+                escape(source, start, end, out);
+        }
+
+        if (current != null)
+            out.append(close);
+        escape(source, ws_start, ws_end, out);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean is_line_terminator (char c) {
+        return c == '\n' || c == '\r';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean has_line_terminator (String source, int start, int end)
+    {
+        for (int i = start; i < end; ++i)
+            if (is_line_terminator(source.charAt(i))) return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Escapes a multi-line input element, closing and reopening the span around each line
+     * terminator, so that each output line is self-contained.
+     */
+    private void escape_multiline (String source, int start, int end, String opening,
+                                   StringBuilder out)
+    {
+        int line_start = start;
+        for (int i = start; i < end; ++i) {
+            char c = source.charAt(i);
+            if (c != '\n' && c != '\r') continue;
+            int next = c == '\r' && i + 1 < end && source.charAt(i + 1) == '\n' ? i + 2 : i + 1;
+            escape(source, line_start, i, out);
+            out.append(close).append(source, i, next).append(opening);
+            line_start = next;
+            i = next - 1;
+        }
+        escape(source, line_start, end, out);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void escape (String source, int start, int end, StringBuilder out)
+    {
+        int run = start; // start of the run of chars that don't need escaping
+
+        for (int i = start; i < end; ++i)
+        {
+            char c = source.charAt(i);
+            String replacement;
+
+            if (html) {
+                if      (c == '<') replacement = "&lt;";
+                else if (c == '>') replacement = "&gt;";
+                else if (c == '&') replacement = "&amp;";
+                else continue;
+            }
+            else if (c < 0x20 && c != '\t' && c != '\n' && c != '\r' && c != '\f'
+                    || c >= 0x7f && c <= 0x9f)
+                replacement = "\uFFFD";
+            else
+                continue;
+
+            out.append(source, run, i).append(replacement);
+            run = i + 1;
+        }
+
+        out.append(source, run, end);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
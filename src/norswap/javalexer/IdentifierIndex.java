@@ -0,0 +1,637 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * An inverted index from identifiers to their occurrences (file ID and offset) in a corpus of
+ * source files.
+ * <p>
+ * Occurrences are classified by {@link Context}: identifier tokens ({@link Context#CODE}), and
+ * identifier-like words inside comments ({@link Context#COMMENT}) and string literals or text
+ * blocks ({@link Context#STRING}), which often refer to code elements (Javadoc, reflection,
+ * logging).
+ * <p>
+ * Identifiers are interned to integer IDs. Each identifier's occurrences are stored in a
+ * compressed posting list: for each file, the file ID, the generation (see below) and the number
+ * of occurrences, followed by the occurrences as varints holding the delta from the previous
+ * offset and the context.
+ * <p>
+ * Each update of a file is assigned a new generation. Updating or removing a file doesn't rewrite
+ * the posting lists: the groups of the previous generation become tombstones, skipped when
+ * querying. A posting list is compacted once more than half of it consists of tombstones, so the
+ * cost of an update is proportional to the size of the file, not to that of the corpus.
+ * <p>
+ * The index is updated per file ({@link #update}, {@link #remove}), and can be built in parallel
+ * ({@link #update_all}). It can be persisted ({@link #write}) in a format that can be queried
+ * directly from a memory-mapped file ({@link #map}), without loading it.
+ * <p>
+ * All methods are thread-safe.
+ */
+public final class IdentifierIndex
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Where an identifier occurs.
+     */
+    public enum Context
+    {
+        /** An identifier token. */
+        CODE,
+        /** A word inside a comment. */
+        COMMENT,
+        /** A word inside a string literal or a text block. */
+        STRING;
+
+        private static final Context[] values = values();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * An occurrence of an identifier.
+     */
+    public static final class Occurrence
+    {
+        /** ID of the file in which the identifier occurs. */
+        public final int file;
+
+        /** Offset of the identifier in the file. */
+        public final int offset;
+
+        /** Where the identifier occurs. */
+        public final Context context;
+
+        public Occurrence (int file, int offset, Context context) {
+            this.file = file;
+            this.offset = offset;
+            this.context = context;
+        }
+
+        @Override public int hashCode() {
+            return 31 * (31 * file + offset) + context.hashCode();
+        }
+
+        @Override public boolean equals (Object other) {
+            if (!(other instanceof Occurrence)) return false;
+            Occurrence o = (Occurrence) other;
+            return file == o.file && offset == o.offset && context == o.context;
+        }
+
+        @Override public String toString() {
+            return "Occurrence(" + file + ", " + offset + ", " + context + ")";
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int MAGIC = 0x4A4C5849; // "JLXI"
+    private static final int VERSION = 2;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Language level at which files are lexed.
+     */
+    public final LanguageLevel level;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<Postings> postings = new ArrayList<>();
+
+    /** The live entry of each file. */
+    private final HashMap<Integer, FileEntry> files = new HashMap<>();
+
+    /** Generation of the last merged file. */
+    private int generation;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an empty index, lexing files at {@link LanguageLevel#LATEST}.
+     */
+    public IdentifierIndex() {
+        this(LanguageLevel.LATEST);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an empty index, lexing files at the given language level.
+     */
+    public IdentifierIndex (LanguageLevel level) {
+        this.level = level;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The identifiers occurring in a file, with the size of their group in the posting lists.
+     */
+    private static final class FileEntry
+    {
+        final int generation;
+        final int[] ids;
+        final int[] sizes;
+
+        FileEntry (int generation, int[] ids, int[] sizes) {
+            this.generation = generation;
+            this.ids = ids;
+            this.sizes = sizes;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A growable byte array holding a posting list.
+     */
+    private static final class Postings
+    {
+        byte[] data = new byte[16];
+        int size;
+
+        /** Number of bytes belonging to tombstones. */
+        int dead;
+
+        void put (int value)
+        {
+            if (size + 5 > data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+
+            while ((value & ~0x7F) != 0) {
+                data[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the group of the given file and generation is live (not a tombstone).
+     */
+    private boolean live (int file, int generation) {
+        FileEntry entry = files.get(file);
+        return entry != null && entry.generation == generation;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Removes the tombstones of the posting list.
+     */
+    private void compact (Postings p)
+    {
+        ByteBuffer in = ByteBuffer.wrap(p.data, 0, p.size);
+        int out = 0;
+
+        while (in.hasRemaining()) {
+            int group = in.position();
+            int f = varint(in), g = varint(in), count = varint(in);
+            for (int i = 0; i < count; ++i) varint(in);
+            if (live(f, g)) {
+                System.arraycopy(p.data, group, p.data, out, in.position() - group);
+                out += in.position() - group;
+            }
+        }
+
+        p.size = out;
+        p.dead = 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int varint (ByteBuffer in)
+    {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The occurrences of a single file, grouped by identifier, before interning.
+     */
+    private static final class Extract
+    {
+        final HashMap<String, int[]> words = new HashMap<>(); // {size, offset << 2 | context...}
+
+        void add (String word, int offset, Context context)
+        {
+            int[] list = words.get(word);
+            if (list == null)
+                words.put(word, list = new int[4]);
+            else if (list[0] + 1 == list.length)
+                words.put(word, list = Arrays.copyOf(list, list.length * 2));
+            list[++list[0]] = offset << 2 | context.ordinal();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Extract extract (String source)
+    {
+        Extract extract = new Extract();
+        Lexer lexer = new Lexer(source, level);
+
+        for (Kind kind; (kind = lexer.advance()) != null; )
+        {
+            int start = lexer.start(), end = lexer.end();
+            switch (kind) {
+                case IDENTIFIER:
+                    extract.add(source.substring(start, end), start, Context.CODE);
+                    break;
+                case LINE_COMMENT: case BLOCK_COMMENT:
+                    words(extract, source, start, end, Context.COMMENT);
+                    break;
+                case STRING: case TEXT_BLOCK:
+                    words(extract, source, start, end, Context.STRING);
+                    break;
+            }
+        }
+
+        return extract;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the identifier-like words in {@code [start, end[}. In strings, the character following
+     * a backslash is skipped, so that {@code "\nfoo"} yields {@code foo}.
+     */
+    private static void words (Extract extract, String source, int start, int end, Context ctx)
+    {
+        int i = start;
+        while (i < end)
+        {
+            int cp = source.codePointAt(i);
+
+            if (cp == '\\' && ctx == Context.STRING) {
+                i += 2;
+            }
+            else if (LexUtil.is_identifier_start(cp) && cp != '$') {
+                int word = i;
+                i += Character.charCount(cp);
+                while (i < end && LexUtil.is_identifier_part(cp = source.codePointAt(i)))
+                    i += Character.charCount(cp);
+                extract.add(source.substring(word, i), word, ctx);
+            }
+            else if (LexUtil.is_identifier_part(cp)) {
+                // skip the rest of a non-identifier word (e.g. "1st")
+                while (i < end && LexUtil.is_identifier_part(cp = source.codePointAt(i)))
+                    i += Character.charCount(cp);
+            }
+            else {
+                i += Character.charCount(cp);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes {@code source} and replaces the occurrences recorded for the given file (a
+     * non-negative ID chosen by the caller) by those it contains.
+     */
+    public void update (int file, String source)
+    {
+        if (file < 0)
+            throw new IllegalArgumentException("file IDs must be non-negative: " + file);
+
+        Extract extract = extract(source);
+        synchronized (this) {
+            merge(file, extract);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Updates the index with all the given files (see {@link #update}), lexing them in parallel.
+     */
+    public void update_all (Map<Integer, String> sources)
+    {
+        for (int file: sources.keySet())
+            if (file < 0)
+                throw new IllegalArgumentException("file IDs must be non-negative: " + file);
+
+        Map<Integer, Extract> extracts = sources.entrySet().parallelStream()
+            .collect(Collectors.toMap(Map.Entry::getKey, e -> extract(e.getValue())));
+
+        synchronized (this) {
+            for (Map.Entry<Integer, Extract> e: extracts.entrySet())
+                merge(e.getKey(), e.getValue());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void merge (int file, Extract extract)
+    {
+        remove(file);
+
+        int[] file_ids = new int[extract.words.size()];
+        int[] sizes = new int[file_ids.length];
+        int n = 0;
+        ++generation;
+
+        for (Map.Entry<String, int[]> e: extract.words.entrySet())
+        {
+            Integer boxed = ids.get(e.getKey());
+            int id;
+            if (boxed == null) {
+                id = names.size();
+                ids.put(e.getKey(), id);
+                names.add(e.getKey());
+                postings.add(new Postings());
+            }
+            else id = boxed;
+
+            file_ids[n] = id;
+            Postings p = postings.get(id);
+            int[] list = e.getValue();
+            int before = p.size;
+            p.put(file);
+            p.put(generation);
+            p.put(list[0]);
+            int prev = 0;
+            for (int i = 1; i <= list[0]; ++i) {
+                int offset = list[i] >>> 2;
+                p.put((offset - prev) << 2 | list[i] & 3);
+                prev = offset;
+            }
+            sizes[n++] = p.size - before;
+        }
+
+        files.put(file, new FileEntry(generation, file_ids, sizes));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Removes the occurrences recorded for the given file, if any.
+     */
+    public synchronized void remove (int file)
+    {
+        FileEntry entry = files.remove(file);
+        if (entry == null) return;
+        for (int i = 0; i < entry.ids.length; ++i) {
+            Postings p = postings.get(entry.ids[i]);
+            p.dead += entry.sizes[i];
+            if (2 * p.dead > p.size) compact(p);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the interned ID of the given identifier, or -1 if it has never been indexed.
+     */
+    public synchronized int id (String identifier) {
+        Integer id = ids.get(identifier);
+        return id == null ? -1 : id;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the identifier with the given interned ID.
+     */
+    public synchronized String name (int id) {
+        return names.get(id);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns all the occurrences of the given identifier, grouped by file (in no particular
+     * order) and ordered by offset within each file.
+     */
+    public synchronized List<Occurrence> find (String identifier)
+    {
+        Integer id = ids.get(identifier);
+        if (id == null) return new ArrayList<>();
+        Postings p = postings.get(id);
+        return decode(ByteBuffer.wrap(p.data, 0, p.size), null, this);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the occurrences of the given identifier in the given context.
+     */
+    public synchronized List<Occurrence> find (String identifier, Context context)
+    {
+        Integer id = ids.get(identifier);
+        if (id == null) return new ArrayList<>();
+        Postings p = postings.get(id);
+        return decode(ByteBuffer.wrap(p.data, 0, p.size), context, this);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Decodes the posting list in {@code in} (from its position to its limit). If {@code index}
+     * is not null, its tombstones are skipped.
+     */
+    private static List<Occurrence> decode (ByteBuffer in, Context filter, IdentifierIndex index)
+    {
+        ArrayList<Occurrence> out = new ArrayList<>();
+
+        while (in.hasRemaining()) {
+            int file = varint(in), generation = varint(in), count = varint(in), offset = 0;
+            if (index != null && !index.live(file, generation)) {
+                for (int i = 0; i < count; ++i) varint(in);
+                continue;
+            }
+            for (int i = 0; i < count; ++i) {
+                int v = varint(in);
+                offset += v >>> 2;
+                Context context = Context.values[v & 3];
+                if (filter == null || filter == context)
+                    out.add(new Occurrence(file, offset, context));
+            }
+        }
+
+        return out;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the index to the given file, in a format that can be memory-mapped with {@link #map}.
+     * <p>
+     * The format is: a header (magic number, version, identifier count, total identifier length),
+     * a directory of identifiers sorted by name (for each: start and length of the name, start
+     * and length of the posting list), the names (as UTF-16 chars) and the posting lists
+     * (without tombstones). All integers are 32-bit big-endian.
+     */
+    public synchronized void write (Path path) throws IOException
+    {
+        for (Postings p: postings)
+            if (p.dead > 0) compact(p);
+
+        Integer[] order = new Integer[names.size()];
+        int live = 0;
+        long chars = 0;
+        for (int id = 0; id < order.length; ++id)
+            if (postings.get(id).size > 0) {
+                order[live++] = id;
+                chars += names.get(id).length();
+            }
+        order = Arrays.copyOf(order, live);
+        Arrays.sort(order, (a, b) -> names.get(a).compareTo(names.get(b)));
+
+        long bytes = 0;
+        for (int id: order) bytes += postings.get(id).size;
+        if (chars > Integer.MAX_VALUE || bytes > Integer.MAX_VALUE)
+            throw new IOException("index too large to be written");
+
+        try (OutputStream stream = Files.newOutputStream(path);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(order.length);
+            out.writeInt((int) chars);
+
+            int name_start = 0, postings_start = 0;
+            for (int id: order) {
+                int name_length = names.get(id).length(), size = postings.get(id).size;
+                out.writeInt(name_start);
+                out.writeInt(name_length);
+                out.writeInt(postings_start);
+                out.writeInt(size);
+                name_start += name_length;
+                postings_start += size;
+            }
+
+            for (int id: order)
+                out.writeChars(names.get(id));
+
+            for (int id: order)
+                out.write(postings.get(id).data, 0, postings.get(id).size);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Memory-maps an index written with {@link #write}.
+     */
+    public static Mapped map (Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Mapped(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A read-only view of an index persisted with {@link #write}, queried directly from memory
+     * (typically a memory-mapped file) by binary search over the identifier directory.
+     * Thread-safe.
+     */
+    public static final class Mapped
+    {
+        private final ByteBuffer buffer;
+        private final int count, directory, names, postings;
+
+        /**
+         * Creates a view over {@code buffer}, which must contain an index written by {@link
+         * #write}.
+         */
+        public Mapped (ByteBuffer buffer) throws IOException
+        {
+            if (buffer.limit() < 16 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                throw new IOException("not an identifier index (or unsupported version)");
+
+            this.buffer = buffer;
+            this.count = buffer.getInt(8);
+            this.directory = 16;
+            this.names = directory + 16 * count;
+            this.postings = names + 2 * buffer.getInt(12);
+        }
+
+        /**
+         * Number of identifiers in the index.
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Returns all the occurrences of the given identifier.
+         */
+        public List<Occurrence> find (String identifier) {
+            return find(identifier, null);
+        }
+
+        /**
+         * Returns the occurrences of the given identifier in the given context (or in all
+         * contexts if {@code null}).
+         */
+        public List<Occurrence> find (String identifier, Context context)
+        {
+            int lo = 0, hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compare(mid, identifier);
+                if (cmp < 0) lo = mid + 1;
+                else if (cmp > 0) hi = mid - 1;
+                else {
+                    int entry = directory + 16 * mid;
+                    ByteBuffer in = buffer.duplicate();
+                    int start = postings + buffer.getInt(entry + 8);
+                    in.limit(start + buffer.getInt(entry + 12));
+                    in.position(start);
+                    return decode(in, context, null);
+                }
+            }
+            return new ArrayList<>();
+        }
+
+        /** Compares the name of the i-th identifier in the directory with {@code name}. */
+        private int compare (int i, String name)
+        {
+            int entry = directory + 16 * i;
+            int start = names + 2 * buffer.getInt(entry);
+            int length = buffer.getInt(entry + 4);
+            int n = Math.min(length, name.length());
+            for (int j = 0; j < n; ++j) {
+                char c = buffer.getChar(start + 2 * j);
+                if (c != name.charAt(j))
+                    return c - name.charAt(j);
+            }
+            return length - name.length();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
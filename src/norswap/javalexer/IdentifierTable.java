@@ -0,0 +1,194 @@
+package norswap.javalexer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Precomputed tables answering whether a code point may start or continue a Java identifier,
+ * as per {@link Character#isJavaIdentifierStart(int)} and {@link
+ * Character#isJavaIdentifierPart(int)}.
+ * <p>
+ * ASCII is served by two flat bitsets. All other code points go through a two-level table: the
+ * code point's top bits select a block of 256 code points, which indexes into a pool of
+ * deduplicated bitsets. Each pooled entry holds 4 words of "start" bits followed by 4 words of
+ * "part" bits, so each answer costs two array loads.
+ * <p>
+ * The two-level table is built from the {@link Character} methods the first time a non-ASCII
+ * character needs classification (lazy holder idiom), so pure ASCII inputs never pay for it.
+ */
+final class IdentifierTable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final long ascii_start_lo, ascii_start_hi, ascii_part_lo, ascii_part_hi;
+    static {
+        long start_lo = 0, start_hi = 0, part_lo = 0, part_hi = 0;
+        for (int c = 0; c < 64; ++c) {
+            if (Character.isJavaIdentifierStart(c))      start_lo |= 1L << c;
+            if (Character.isJavaIdentifierStart(c + 64)) start_hi |= 1L << c;
+            if (Character.isJavaIdentifierPart(c))       part_lo  |= 1L << c;
+            if (Character.isJavaIdentifierPart(c + 64))  part_hi  |= 1L << c;
+        }
+        ascii_start_lo = start_lo;
+        ascii_start_hi = start_hi;
+        ascii_part_lo  = part_lo;
+        ascii_part_hi  = part_hi;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Holds the two-level table for non-ASCII code points.
+     */
+    private static final class Unicode
+    {
+        /** Number of code points covered by a block. */
+        static final int BLOCK_BITS = 8;
+
+        /** Number of 64-bit words per pooled block entry (start bits, then part bits). */
+        static final int STRIDE = 2 * (1 << BLOCK_BITS) / 64;
+
+        /** Maps {@code cp >>> BLOCK_BITS} to the offset of its entry in {@link #bits}. */
+        static final int[] index = new int[(Character.MAX_CODE_POINT + 1) >>> BLOCK_BITS];
+
+        /** Pool of deduplicated block entries. */
+        static final long[] bits;
+
+        static {
+            HashMap<Block, Integer> offsets = new HashMap<>();
+            long[] pool = new long[STRIDE * 64];
+            int size = 0;
+
+            for (int b = 0; b < index.length; ++b)
+            {
+                long[] words = new long[STRIDE];
+                int base = b << BLOCK_BITS;
+
+                for (int k = 0; k < (1 << BLOCK_BITS); ++k) {
+                    int cp = base + k;
+                    if (Character.isJavaIdentifierStart(cp))
+                        words[k >>> 6] |= 1L << k;
+                    if (Character.isJavaIdentifierPart(cp))
+                        words[STRIDE / 2 + (k >>> 6)] |= 1L << k;
+                }
+
+                Block block = new Block(words);
+                Integer offset = offsets.get(block);
+
+                if (offset == null) {
+                    if (size + STRIDE > pool.length)
+                        pool = Arrays.copyOf(pool, pool.length * 2);
+                    System.arraycopy(words, 0, pool, size, STRIDE);
+                    offsets.put(block, offset = size);
+                    size += STRIDE;
+                }
+
+                index[b] = offset;
+            }
+
+            bits = Arrays.copyOf(pool, size);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Wraps a block's words so that identical blocks can be detected with a hash map.
+     */
+    private static final class Block
+    {
+        final long[] words;
+
+        Block (long[] words) {
+            this.words = words;
+        }
+
+        @Override public int hashCode() {
+            return Arrays.hashCode(words);
+        }
+
+        @Override public boolean equals (Object other) {
+            return other instanceof Block && Arrays.equals(words, ((Block) other).words);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * See {@link LexUtil#is_identifier_start(int)}.
+     */
+    static boolean is_start (int cp)
+    {
+        if (cp < 0)   return false;
+        if (cp < 64)  return (ascii_start_lo & (1L << cp)) != 0;
+        if (cp < 128) return (ascii_start_hi & (1L << cp)) != 0;
+        if (cp > Character.MAX_CODE_POINT) return false;
+        return (Unicode.bits[Unicode.index[cp >>> 8] + ((cp >>> 6) & 3)] & (1L << cp)) != 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * See {@link LexUtil#is_identifier_part(int)}.
+     */
+    static boolean is_part (int cp)
+    {
+        if (cp < 0)   return false;
+        if (cp < 64)  return (ascii_part_lo & (1L << cp)) != 0;
+        if (cp < 128) return (ascii_part_hi & (1L << cp)) != 0;
+        if (cp > Character.MAX_CODE_POINT) return false;
+        return (Unicode.bits[Unicode.index[cp >>> 8] + 4 + ((cp >>> 6) & 3)] & (1L << cp)) != 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If a java identifier starts at position {@code i} in {@code string}, returns the position
+     * at which it ends (exclusive), otherwise returns -1. Stops at {@code len}.
+     */
+    static int scan (CharSequence string, int i, int len)
+    {
+        if (i >= len)
+            return -1;
+
+        // ASCII fast path
+        char c = string.charAt(i);
+        if (c < 128) {
+            if (!is_start(c)) return -1;
+            ++i;
+        } else {
+            int cp = code_point_at(string, i, len);
+            if (!is_start(cp)) return -1;
+            i += Character.charCount(cp);
+        }
+
+        while (i < len) {
+            c = string.charAt(i);
+            if (c < 128) {
+                if (!is_part(c)) break;
+                ++i;
+            } else {
+                int cp = code_point_at(string, i, len);
+                if (!is_part(cp)) break;
+                i += Character.charCount(cp);
+            }
+        }
+
+        return i;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int code_point_at (CharSequence string, int i, int len)
+    {
+        char hi = string.charAt(i);
+        if (Character.isHighSurrogate(hi) && i + 1 < len) {
+            char lo = string.charAt(i + 1);
+            if (Character.isLowSurrogate(lo))
+                return Character.toCodePoint(hi, lo);
+        }
+        return hi;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,125 @@
+package norswap.javalexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Versions of the Java language, which determine the vocabulary and literal syntax recognized by
+ * a {@link Lexer}.
+ * <p>
+ * Lexically, Java 6 is the baseline; later versions add:
+ * <ul>
+ *   <li>Java 7: binary integer literals and underscores in numeric literals.</li>
+ *   <li>Java 8: the {@code ->} operator and the {@code ::} separator.</li>
+ *   <li>Java 9: the {@code _} keyword, and the restricted keywords of module declarations.</li>
+ *   <li>Java 10: {@code var}.</li>
+ *   <li>Java 14: {@code yield}.</li>
+ *   <li>Java 15: text blocks, and the {@code \s} escape sequence.</li>
+ *   <li>Java 16: {@code record}.</li>
+ *   <li>Java 17: {@code sealed}, {@code non-sealed} and {@code permits}.</li>
+ *   <li>Java 21: {@code when}.</li>
+ * </ul>
+ * Contextual keywords (restricted keywords, {@code var}, {@code yield}, ...) are always lexed as
+ * identifiers, since only a parser can tell when they act as keywords. They are listed by {@link
+ * #contextual_keywords}.
+ */
+public enum LanguageLevel
+{
+    JAVA_6, JAVA_7, JAVA_8, JAVA_9, JAVA_10, JAVA_11, JAVA_12, JAVA_13, JAVA_14, JAVA_15, JAVA_16,
+    JAVA_17, JAVA_18, JAVA_19, JAVA_20, JAVA_21;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The most recent supported version, used by default.
+     */
+    public static final LanguageLevel LATEST = JAVA_21;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The version number (e.g. 8 for Java 8). */
+    public final int version = ordinal() + 6;
+
+    /** Whether binary integer literals ({@code 0b101}) are supported. */
+    public final boolean binary_literals = version >= 7;
+
+    /** Whether underscores are allowed between digits in numeric literals. */
+    public final boolean underscores = version >= 7;
+
+    /** Whether the {@code ->} operator and the {@code ::} separator are supported. */
+    public final boolean lambdas = version >= 8;
+
+    /** Whether {@code _} is a keyword. */
+    public final boolean underscore_keyword = version >= 9;
+
+    /** Whether text blocks ({@code """...""" }) and the {@code \s} escape are supported. */
+    public final boolean text_blocks = version >= 15;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * An immutable list of the keywords of this version of the language.
+     */
+    public final List<String> keywords = filter(Lexer.keywordsa);
+
+    /**
+     * An immutable list of the separators of this version of the language.
+     */
+    public final List<String> separators = filter(Lexer.separatorsa);
+
+    /**
+     * An immutable list of the operators of this version of the language.
+     */
+    public final List<String> operators = filter(Lexer.operatorsa);
+
+    /**
+     * An immutable list of the contextual keywords of this version of the language: words that
+     * only act as keywords in some contexts (they are lexed as identifiers, except {@code
+     * non-sealed}, which is lexed as three tokens).
+     */
+    public final List<String> contextual_keywords = contextual_keywords();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the given keyword, separator or operator belongs to this version of the language.
+     */
+    boolean supports (String word)
+    {
+        switch (word) {
+            case "_":  return underscore_keyword;
+            case "->":
+            case "::": return lambdas;
+            default:   return true;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private List<String> filter (String[] words)
+    {
+        ArrayList<String> list = new ArrayList<>();
+        for (String word: words)
+            if (supports(word))
+                list.add(word);
+        return Collections.unmodifiableList(list);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private List<String> contextual_keywords()
+    {
+        ArrayList<String> list = new ArrayList<>();
+        if (version >= 9)  list.addAll(Arrays.asList(Lexer.restricted));
+        if (version >= 10) list.add("var");
+        if (version >= 14) list.add("yield");
+        if (version >= 16) list.add("record");
+        if (version >= 17) list.addAll(Arrays.asList("sealed", "non-sealed", "permits"));
+        if (version >= 21) list.add("when");
+        return Collections.unmodifiableList(list);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,138 @@
+package norswap.javalexer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the resources that a lexing call may consume: lexing stops when the budget is cancelled
+ * (see {@link #cancel()}) or the lexing thread is interrupted, when a deadline passes, or when a
+ * number of characters have been lexed.
+ * <p>
+ * The budget is checked before each input element, and at every character while skipping over
+ * garbage. The deadline is only checked every {@link #CLOCK_INTERVAL} checks, to keep the overhead
+ * of reading the clock negligible.
+ * <p>
+ * A budget is meant to be used by a single lexing call (see {@link Lexer#lex(String, LexBudget)}
+ * and {@link Lexer#budget(LexBudget)}). Once exhausted, it stays exhausted. {@link #cancel()}
+ * can be called from any thread.
+ */
+public final class LexBudget
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Why lexing stopped (or didn't).
+     */
+    public enum Status {
+        /** The budget is not exhausted. */
+        WITHIN_BUDGET,
+        /** The budget was cancelled, or the lexing thread was interrupted. */
+        CANCELLED,
+        /** The deadline passed. */
+        DEADLINE_EXCEEDED,
+        /** The maximum number of characters was lexed. */
+        CHARACTERS_EXCEEDED
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of checks between two reads of the clock.
+     */
+    public static final int CLOCK_INTERVAL = 64;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final boolean has_deadline;
+    private final long deadline;
+    private final long max_chars;
+    private volatile boolean cancelled;
+    private Status status = Status.WITHIN_BUDGET;
+    private int checks;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a budget.
+     *
+     * @param timeout time allowed from now (not from the start of lexing), or a negative value for
+     *                no deadline.
+     *
+     * @param unit unit of {@code timeout}.
+     *
+     * @param max_chars maximum number of characters to lex, or a negative value for no limit.
+     */
+    public LexBudget (long timeout, TimeUnit unit, long max_chars)
+    {
+        this.has_deadline = timeout >= 0;
+        this.deadline = has_deadline ? System.nanoTime() + unit.toNanos(timeout) : 0;
+        this.max_chars = max_chars < 0 ? Long.MAX_VALUE : max_chars;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a budget that is only exhausted when cancelled or when the lexing thread is
+     * interrupted.
+     */
+    public LexBudget() {
+        this(-1, TimeUnit.NANOSECONDS, -1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a budget that expires after {@code timeout}.
+     */
+    public static LexBudget timeout (long timeout, TimeUnit unit) {
+        return new LexBudget(timeout, unit, -1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a budget allowing to lex at most {@code max_chars} characters.
+     */
+    public static LexBudget chars (long max_chars) {
+        return new LexBudget(-1, TimeUnit.NANOSECONDS, max_chars);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Cancels the budget: the lexing call using it will stop at the next check.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the budget is exhausted and if so, why.
+     */
+    public Status status() {
+        return status;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Checks whether the budget is exhausted, given that {@code chars} characters have been lexed.
+     */
+    boolean exhausted (long chars)
+    {
+        if (status != Status.WITHIN_BUDGET)
+            return true;
+
+        if (chars >= max_chars)
+            status = Status.CHARACTERS_EXCEEDED;
+        else if (cancelled || Thread.currentThread().isInterrupted())
+            status = Status.CANCELLED;
+        else if (has_deadline && checks++ % CLOCK_INTERVAL == 0 && System.nanoTime() - deadline >= 0)
+            status = Status.DEADLINE_EXCEEDED;
+
+        return status != Status.WITHIN_BUDGET;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
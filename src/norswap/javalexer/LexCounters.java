@@ -0,0 +1,149 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link LexMetrics} implementation that accumulates cumulative counters, cheaply updated from
+ * many threads.
+ */
+public final class LexCounters implements LexMetrics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final LongAdder inputs = new LongAdder();
+    private final LongAdder chars  = new LongAdder();
+    private final LongAdder nanos  = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder stopped = new LongAdder();
+    private final LongAdder[] kinds    = adders();
+    private final LongAdder[] attempts = adders();
+    private final LongAdder[] hits     = adders();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static LongAdder[] adders()
+    {
+        LongAdder[] adders = new LongAdder[KINDS.length];
+        for (int i = 0; i < adders.length; ++i)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void lexed (LexStats stats)
+    {
+        inputs.increment();
+        chars.add(stats.chars);
+        nanos.add(stats.nanos);
+        errors.add(stats.errors);
+        if (!stats.complete) stopped.increment();
+
+        for (int i = 0; i < KINDS.length; ++i)
+            if (stats.kinds[i] != 0)
+                kinds[i].add(stats.kinds[i]);
+
+        if (stats.attempts != null)
+            for (int i = 0; i < KINDS.length; ++i) {
+                attempts[i].add(stats.attempts[i]);
+                hits[i].add(stats.hits[i]);
+            }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of lexed inputs. */
+    public long inputs() {
+        return inputs.sum();
+    }
+
+    /** Number of lexed characters. */
+    public long chars() {
+        return chars.sum();
+    }
+
+    /** Total lexing time, in nanoseconds (summed over all threads). */
+    public long nanos() {
+        return nanos.sum();
+    }
+
+    /** Number of lexical errors (see {@link LexStats#errors()}). */
+    public long errors() {
+        return errors.sum();
+    }
+
+    /**
+     * Number of inputs whose lexing stopped before the end (see {@link LexStats#complete()}).
+     */
+    public long stopped() {
+        return stopped.sum();
+    }
+
+    /** Number of input elements of the given kind. */
+    public long count (Kind kind) {
+        return kinds[kind.ordinal()].sum();
+    }
+
+    /** Number of tokens. */
+    public long tokens()
+    {
+        long count = 0;
+        for (Kind kind: KINDS)
+            if (kind.is_token()) count += count(kind);
+        return count;
+    }
+
+    /** Number of patterns tried for the given kind (see {@link LexStats#pattern_attempts}). */
+    public long pattern_attempts (Kind kind) {
+        return attempts[kind.ordinal()].sum();
+    }
+
+    /** Number of patterns matched for the given kind (see {@link LexStats#pattern_hits}). */
+    public long pattern_hits (Kind kind) {
+        return hits[kind.ordinal()].sum();
+    }
+
+    /**
+     * Lexing throughput, in characters per second of lexing time (per thread), or 0 if nothing
+     * was lexed.
+     */
+    public double chars_per_second()
+    {
+        long nanos = nanos();
+        return nanos == 0 ? 0 : chars() * 1e9 / nanos;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Resets all counters to zero. Concurrent updates may be partially lost.
+     */
+    public void reset()
+    {
+        inputs.reset();
+        chars.reset();
+        nanos.reset();
+        errors.reset();
+        stopped.reset();
+        for (int i = 0; i < KINDS.length; ++i) {
+            kinds[i].reset();
+            attempts[i].reset();
+            hits[i].reset();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return String.format("LexCounters(%d inputs, %d chars, %d tokens, %d errors, %.0f chars/s)",
+            inputs(), chars(), tokens(), errors(), chars_per_second());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
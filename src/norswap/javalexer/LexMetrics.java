@@ -0,0 +1,77 @@
+package norswap.javalexer;
+
+/**
+ * Receives statistics about lexing, once per lexed input.
+ * <p>
+ * Register an implementation with {@link Lexer#metrics(LexMetrics)}: all lexers created
+ * afterwards report a {@link LexStats} when they reach the end of their input, are stopped by
+ * their {@link LexBudget}, fail with a {@link LexingException}, or are abandoned through {@link
+ * Lexer#finish()}. When no implementation is registered, lexers don't collect anything.
+ * <p>
+ * Implementations are called from the lexing threads, and must be thread-safe.
+ *
+ * @see LexCounters
+ */
+public interface LexMetrics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called when a lexer has lexed its input, or stopped lexing it.
+     */
+    void lexed (LexStats stats);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called when a lexer starts lexing (on its first call to {@link Lexer#advance()}), with the
+     * statistics that will later be passed to {@link #lexed}. Does nothing by default.
+     */
+    default void started (LexStats stats) {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an implementation that forwards statistics to all the given implementations.
+     */
+    static LexMetrics all (LexMetrics... metrics)
+    {
+        LexMetrics[] array = metrics.clone();
+        return new LexMetrics()
+        {
+            @Override public void started (LexStats stats) {
+                for (LexMetrics m: array)
+                    m.started(stats);
+            }
+
+            @Override public void lexed (LexStats stats) {
+                for (LexMetrics m: array)
+                    m.lexed(stats);
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an implementation that emits a JDK Flight Recorder event ({@code
+     * norswap.javalexer.Lexing}) for each lexed input, if the event is enabled in the running
+     * recording.
+     * <p>
+     * Requires Java 16+ (the implementation is in the versioned part of the multi-release JAR).
+     *
+     * @throws UnsupportedOperationException if Flight Recorder is not available.
+     */
+    static LexMetrics flight_recorder()
+    {
+        try {
+            return (LexMetrics) Class.forName("norswap.javalexer.FlightRecorderMetrics")
+                .getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            throw new UnsupportedOperationException("Flight Recorder is not available", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,60 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.InputElement;
+
+import java.util.List;
+
+/**
+ * The result of a lexing call with a {@link LexBudget}, which may only cover part of the input.
+ */
+public final class LexResult<T extends InputElement>
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The input elements (or tokens) lexed before the budget was exhausted.
+     */
+    public final List<T> elements;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Input position up to which the input was lexed (exclusive). Lexing can be resumed from
+     * there with {@link Lexer#seek(int)}.
+     */
+    public final int position;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * {@link LexBudget.Status#WITHIN_BUDGET} if the whole input was lexed, otherwise the reason
+     * why lexing stopped.
+     */
+    public final LexBudget.Status status;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public LexResult (List<T> elements, int position, LexBudget.Status status)
+    {
+        this.elements = elements;
+        this.position = position;
+        this.status = status;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the whole input was lexed.
+     */
+    public boolean complete() {
+        return status == LexBudget.Status.WITHIN_BUDGET;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return "LexResult(" + status + ", " + position + ", " + elements + ")";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,144 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+/**
+ * Statistics about the lexing of an input, reported to {@link LexMetrics}.
+ */
+public final class LexStats
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The engine used by the lexer. */
+    public final Lexer.Engine engine;
+
+    /** The language level of the lexer. */
+    public final LanguageLevel level;
+
+    // ---------------------------------------------------------------------------------------------
+
+    long nanos;
+    int chars, errors;
+    boolean complete;
+    LexBudget.Status status = LexBudget.Status.WITHIN_BUDGET;
+    final int[] kinds = new int[KINDS.length];
+
+    /** Data attached by the {@link LexMetrics} between its start and the report, or null. */
+    Object attachment;
+
+    /** Per kind, in the regex engine: number of times a pattern was tried, and matched. */
+    final long[] attempts, hits;
+
+    // ---------------------------------------------------------------------------------------------
+
+    LexStats (Lexer.Engine engine, LanguageLevel level)
+    {
+        this.engine = engine;
+        this.level = level;
+        this.attempts = engine == Lexer.Engine.REGEX ? new long[KINDS.length] : null;
+        this.hits     = engine == Lexer.Engine.REGEX ? new long[KINDS.length] : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of characters lexed: the total length of the input elements, which is less than the
+     * length of the input if lexing started after a {@link Lexer#seek} or stopped early.
+     */
+    public int chars() {
+        return chars;
+    }
+
+    /**
+     * Time spent lexing, in nanoseconds: the time from the first call to {@link Lexer#advance()}
+     * until lexing ends, excluding the time between a {@link Lexer#seek} and the next call. The
+     * time the caller spends between two calls is included: it is negligible for callers that
+     * lex in a loop, and measuring each call separately would cost more than lexing.
+     */
+    public long nanos() {
+        return nanos;
+    }
+
+    /**
+     * Whether lexing reached the end of the input, rather than being stopped by a {@link
+     * LexBudget}, an exception or the caller (see {@link Lexer#finish()}).
+     */
+    public boolean complete() {
+        return complete;
+    }
+
+    /**
+     * The status of the lexer's budget when lexing ended ({@link LexBudget.Status#WITHIN_BUDGET}
+     * if the lexer had no budget).
+     */
+    public LexBudget.Status budget_status() {
+        return status;
+    }
+
+    /** Number of input elements of the given kind. */
+    public int count (Kind kind) {
+        return kinds[kind.ordinal()];
+    }
+
+    /** Number of input elements. */
+    public int elements()
+    {
+        int count = 0;
+        for (int n: kinds) count += n;
+        return count;
+    }
+
+    /** Number of tokens. */
+    public int tokens()
+    {
+        int count = 0;
+        for (Kind kind: KINDS)
+            if (kind.is_token()) count += kinds[kind.ordinal()];
+        return count;
+    }
+
+    /** Number of garbage tokens. */
+    public int garbage() {
+        return kinds[Kind.GARBAGE.ordinal()];
+    }
+
+    /**
+     * Number of lexical errors: reported diagnostics if the lexer has a {@link Diagnostics}, 1 if
+     * the lexer threw a {@link LexingException}, 0 otherwise.
+     */
+    public int errors() {
+        return errors;
+    }
+
+    /**
+     * With the {@link Lexer.Engine#REGEX} engine, the number of times a pattern for input
+     * elements of the given kind was tried; 0 with other engines.
+     */
+    public long pattern_attempts (Kind kind) {
+        return attempts == null ? 0 : attempts[kind.ordinal()];
+    }
+
+    /**
+     * With the {@link Lexer.Engine#REGEX} engine, the number of times a pattern for input
+     * elements of the given kind matched a non-empty prefix (whether or not it was the longest
+     * match); 0 with other engines.
+     */
+    public long pattern_hits (Kind kind) {
+        return hits == null ? 0 : hits[kind.ordinal()];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return String.format(
+            "LexStats(%s, %s, %d chars, %d ns, %d elements, %d garbage, %d errors, %s)",
+            engine, level, chars, nanos, elements(), garbage(), errors,
+            complete ? "complete" : "stopped: " + status);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -22,6 +22,7 @@ public final class LexUtil
             case '"':  return '"';
             case '\'': return '\'';
             case '\\': return '\\';
+            case 's':  return ' ';
         }
 
         return 0;
@@ -64,6 +65,26 @@ public final class LexUtil
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Can the code point {@code cp} start a Java identifier?
+     * Equivalent to {@link Character#isJavaIdentifierStart(int)}, but table-driven.
+     */
+    public static boolean is_identifier_start (int cp) {
+        return IdentifierTable.is_start(cp);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Can the code point {@code cp} appear in a Java identifier (after the first character)?
+     * Equivalent to {@link Character#isJavaIdentifierPart(int)}, but table-driven.
+     */
+    public static boolean is_identifier_part (int cp) {
+        return IdentifierTable.is_part(cp);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns the length of the octal digit string necessary to encode character {@code c}, or -1
      * if {@code c >= 256}.
@@ -140,7 +161,7 @@ public final class LexUtil
             total = total * 16 + value;
         }
 
-        return limit << 16 + total;
+        return (limit << 16) + total;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -236,10 +257,16 @@ public final class LexUtil
                 // unicode escape
                 if (c == 'u') {
                     int x = bite_unicode(string.subSequence(i, len));
-                    b.append(x & 0xFFFF);
+                    b.append((char) (x & 0xFFFF));
                     i += x >> 16;
                     continue;
                 }
+
+                // line continuation (text blocks)
+                if (c == '\n') {
+                    ++i;
+                    continue;
+                }
             }
 
             b.append(chars[i++]);
@@ -250,11 +277,51 @@ public final class LexUtil
 
     // ---------------------------------------------------------------------------------------------
 
-    private static long java_parse_integer (boolean is_long, String string, int radix)
+    /**
+     * Given a string appearing between the triple quotes of a text block (including the line
+     * terminator following the opening delimiter), returns the corresponding string, as specified
+     * by JLS 3.10.6: line terminators are normalized to {@code \n}, incidental indentation and
+     * trailing whitespace are stripped, then escapes are translated. Might throw an exception if
+     * the text block is illegal.
+     */
+    public static String text_block_value (String string)
     {
-        return is_long
-            ? Long.parseLong(string, radix)
-            : Integer.parseInt(string, radix);
+        String content = string.replace("\r\n", "\n").replace('\r', '\n');
+        content = content.substring(content.indexOf('\n') + 1);
+        String[] lines = content.split("\n", -1);
+        int last = lines.length - 1;
+
+        // The last line (before the closing delimiter) always counts, even if blank.
+        int indent = Integer.MAX_VALUE;
+        for (int i = 0; i <= last; ++i) {
+            String line = lines[i];
+            int j = leading_whitespace(line);
+            if (j < line.length() || i == last)
+                indent = Math.min(indent, j);
+        }
+
+        StringBuilder b = new StringBuilder(content.length());
+        for (int i = 0; i <= last; ++i)
+        {
+            String line = lines[i];
+            int end = line.length();
+            while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) --end;
+            if (end > indent)
+                b.append(line, indent, end);
+            if (i < last)
+                b.append('\n');
+        }
+
+        return unescape_string_content(b.toString());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int leading_whitespace (String line)
+    {
+        int i = 0;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) ++i;
+        return i;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -263,6 +330,12 @@ public final class LexUtil
      * Given a an integer literal as may appear in Java source code, returns the corresponding
      * integer. An exception may be thrown if the literal is invalid (for instance, if it represents
      * a number that is too large).
+     * <p>
+     * Hexadecimal, octal and binary literals may use all 32 (or 64, for {@code long}) bits, in
+     * which case the returned value is negative. The decimal literals {@code 2147483648} and
+     * {@code 9223372036854775808L} are only legal as the operand of unary minus, which this
+     * function cannot check: they are accepted and return {@code 2147483648} and {@link
+     * Long#MIN_VALUE} respectively.
      */
     public static long parse_int (String string)
     {
@@ -279,29 +352,123 @@ public final class LexUtil
         int len = string.length();
 
         if (len == 0)
-            throw new NumberFormatException();
+            throw new NumberFormatException("empty integer literal");
 
         if (len == 1 || string.charAt(0) != '0')
-            java_parse_integer(is_long, string, 10);
+        {
+            long value = Long.parseUnsignedLong(string, 10);
+
+            if (is_long
+                    ? Long.compareUnsigned(value, Long.MIN_VALUE) > 0
+                    : Long.compareUnsigned(value, 1L << 31) > 0)
+                throw new NumberFormatException("integer literal too large: " + string);
+
+            return value;
+        }
+
+        int radix;
+        int start;
 
         switch (string.charAt(1)) {
             case 'x':
             case 'X':
-                return java_parse_integer(is_long, string.substring(2), 16);
+                radix = 16;
+                start = 2;
+                break;
             case 'b':
             case 'B':
-                return java_parse_integer(is_long, string.substring(2), 2);
+                radix = 2;
+                start = 2;
+                break;
             default:
-                return java_parse_integer(is_long, string, 8);
+                radix = 8;
+                start = 1;
         }
+
+        String digits = string.substring(start);
+        return is_long
+            ? Long.parseUnsignedLong(digits, radix)
+            : Integer.parseUnsignedInt(digits, radix);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the integer literal spanning {@code [start, end[} in {@code text} is well-formed and
+     * its value fits in its type, i.e. whether {@link #parse_int} would succeed on it. Unlike
+     * {@link #parse_int}, this doesn't allocate or throw.
+     */
+    public static boolean int_fits (CharSequence text, int start, int end)
+    {
+        if (end <= start)
+            return false;
+
+        char last = text.charAt(end - 1);
+        boolean is_long = last == 'l' || last == 'L';
+        if (is_long) --end;
+
+        int i = start;
+        while (i < end && text.charAt(i) == '_') ++i;
+        if (i == end)
+            return false;
+
+        int radix = 10, bits_per_digit = 0;
+        int first = i; // first non-underscore char
+
+        if (text.charAt(first) == '0' && first + 1 < end) {
+            char c = text.charAt(first + 1);
+            if (c == 'x' || c == 'X') { radix = 16; bits_per_digit = 4; i = first + 2; }
+            else if (c == 'b' || c == 'B') { radix = 2; bits_per_digit = 1; i = first + 2; }
+            else { radix = 8; bits_per_digit = 3; i = first + 1; }
+        }
+
+        if (radix == 10)
+        {
+            // largest accepted value (see parse_int): 2^31 or 2^63
+            long limit = is_long ? Long.MIN_VALUE : 1L << 31;
+            long value = 0;
+            boolean digits = false;
+
+            for (; i < end; ++i) {
+                char c = text.charAt(i);
+                if (c == '_') continue;
+                if (c < '0' || c > '9') return false;
+                int digit = c - '0';
+                if (Long.compareUnsigned(value, Long.divideUnsigned(limit - digit, 10)) > 0)
+                    return false;
+                value = value * 10 + digit;
+                digits = true;
+            }
+
+            return digits;
+        }
+
+        // other radixes: all 32 or 64 bits may be used
+        int bits = 0;
+        boolean digits = false;
+
+        for (; i < end; ++i) {
+            char c = text.charAt(i);
+            if (c == '_') continue;
+            int digit = hex_value(c);
+            if (digit < 0 || digit >= radix) return false;
+            digits = true;
+            if (bits == 0)
+                bits = 32 - Integer.numberOfLeadingZeros(digit);
+            else
+                bits += bits_per_digit;
+            if (bits > (is_long ? 64 : 32)) return false;
+        }
+
+        return digits;
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
      * Given a floating number literal as may appear in Java source code, returns the corresponding
-     * number. An exception may be thrown if the literal is invalid (for instance, if it represents
-     * a number that is too large).
+     * number. An exception may be thrown if the literal is invalid: if it represents a number that
+     * is too large (rounds to infinity), or a non-zero number that is too small (rounds to zero).
      */
     public static double parse_float (String string)
     {
@@ -309,9 +476,123 @@ public final class LexUtil
         char last = string.charAt(lasti);
         boolean is_float = last == 'f' || last == 'F';
         String str = string.replace("_", "");
-        return is_float
+        double value = is_float
             ? Float.parseFloat(str)
             : Double.parseDouble(str);
+
+        if (Double.isInfinite(value))
+            throw new NumberFormatException("floating-point literal too large: " + string);
+
+        if (value == 0 && has_nonzero_significand(str))
+            throw new NumberFormatException("floating-point literal too small: " + string);
+
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value of the integer literal spanning {@code [start, end[} in {@code text}, as
+     * {@link #parse_int} would, without allocating. The literal must be valid (see {@link
+     * #int_fits}): the result is unspecified otherwise.
+     */
+    public static long int_value (CharSequence text, int start, int end)
+    {
+        char last = text.charAt(end - 1);
+        boolean is_long = last == 'l' || last == 'L';
+        if (is_long) --end;
+
+        int i = start;
+        while (text.charAt(i) == '_') ++i;
+
+        int shift = 0; // bits per digit, 0 for decimal
+
+        if (text.charAt(i) == '0' && i + 1 < end) {
+            char c = text.charAt(i + 1);
+            if (c == 'x' || c == 'X') { shift = 4; i += 2; }
+            else if (c == 'b' || c == 'B') { shift = 1; i += 2; }
+            else { shift = 3; i += 1; }
+        }
+
+        long value = 0;
+        for (; i < end; ++i) {
+            char c = text.charAt(i);
+            if (c == '_') continue;
+            int digit = hex_value(c);
+            value = shift == 0 ? value * 10 + digit : value << shift | digit;
+        }
+
+        // hex, octal and binary int literals may denote negative values (e.g. 0xFFFFFFFF)
+        return shift == 0 || is_long ? value : (int) value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the floating-point literal spanning {@code [start, end[} in {@code text} is
+     * well-formed and neither too large nor too small for its type, i.e. whether {@link
+     * #parse_float} would succeed on it. Unlike {@link #parse_float}, this doesn't throw.
+     */
+    public static boolean float_fits (CharSequence text, int start, int end) {
+        return !Double.isNaN(float_value(text, start, end));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value of the floating-point literal spanning {@code [start, end[} in {@code
+     * text}, as {@link #parse_float} would, or NaN (which no literal denotes) if {@link
+     * #float_fits} doesn't hold. Unlike {@link #parse_float}, this doesn't throw.
+     */
+    public static double float_value (CharSequence text, int start, int end)
+    {
+        if (end <= start)
+            return Double.NaN;
+
+        StringBuilder b = new StringBuilder(end - start);
+        for (int i = start; i < end; ++i) {
+            char c = text.charAt(i);
+            if (c != '_') b.append(c);
+        }
+
+        String str = b.toString();
+        char last = text.charAt(end - 1);
+        double value;
+
+        try {
+            value = last == 'f' || last == 'F'
+                ? Float.parseFloat(str)
+                : Double.parseDouble(str);
+        }
+        catch (NumberFormatException e) {
+            return Double.NaN; // malformed: never the case for literals matched by the lexer
+        }
+
+        return Double.isInfinite(value) || value == 0 && has_nonzero_significand(str)
+            ? Double.NaN
+            : value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the significand of a floating-point literal (without underscores) has a non-zero
+     * digit.
+     */
+    private static boolean has_nonzero_significand (String string)
+    {
+        boolean hex = string.length() > 1 && (string.charAt(1) == 'x' || string.charAt(1) == 'X');
+
+        for (int i = hex ? 2 : 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            boolean digit = hex ? is_hex(c) : '0' <= c && c <= '9';
+            if (!digit && c != '.')
+                return false;
+            if (digit && c != '0')
+                return true;
+        }
+
+        return false;
     }
 
     // ---------------------------------------------------------------------------------------------
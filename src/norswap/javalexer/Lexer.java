@@ -5,299 +5,752 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import static java.util.regex.Pattern.DOTALL;
-import static java.util.regex.Pattern.compile;
 
 /**
- * Static methods to lex Java input, regexes for all types of input elements defined by the JLS,
- * and a few extras.
+ * Static methods to lex Java input, and lists of keywords, separators and operators. Regexes for
+ * all types of input elements are defined in {@link Regexes}.
+ * <p>
+ * Lexer instances can also be created in order to lex an input incrementally, one input element
+ * at a time (see {@link #next()}), possibly starting from an arbitrary input element boundary (see
+ * {@link #seek(int)} and {@link Checkpoints}).
  */
 public final class Lexer
 {
     // ---------------------------------------------------------------------------------------------
-    /* Summary of unusual regex features used:
+    // Vocabulary
+    // ---------------------------------------------------------------------------------------------
 
-      . = any char but not a newline
-      \\d = digits [0-9]
-      \\s = whistepsace chars [ \t\n\x0B\f\r]
-      \\p{XDigit} = hexadecimal digits [a-fA-F0-9]
-      \\p{L} = unicode letters
-      \\p{Nl} = unicode numbers that look like letters (e.g. roman numerals)
-      \\p{Sc} = unicode currency symbols
-      \\p{Pc} = unicode connector punctuation (like '_')
-      \\p{Mc} = unicode spacing mark
-      \\p{Mn} = unicode non-spacing mark
-      \\p{Cf} = unicode format characters
-      DOTALL    = make dots match newlines as well
-      (?: = start of non-capturing group
-      *?/+? = reluctant repetition (prefers match with least repetitions)
-      *+/++ = possessive repetition (forces failure if cannot succeed with all possible repetitions)
+    static final String[] keywordsa = new String[] {
+        "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+        "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally",
+        "float", "for", "if", "goto", "implements", "import", "instanceof", "int", "interface",
+        "long", "native", "new", "package", "private", "protected", "public", "return", "short",
+        "static", "strictfp", "super", "switch", "synchronized", "this", "throw", "throws",
+        "transient", "try", "void", "volatile", "while", "_" };
 
-      Note: all backlashes must be doubled when compared to a regular Java string.
-      So, escaped regex characters look like '\\*' (escaping '*').
-      '\\\\' is used to escape a single backslash.
+    // ---------------------------------------------------------------------------------------------
 
+    /**
+     * An immutable list of keywords in the Java language.
      */
+    public static final List<String> keywords
+        = Collections.unmodifiableList(Arrays.asList(keywordsa));
+
     // ---------------------------------------------------------------------------------------------
-    // Non-Tokens Input Elements
+
+    static final String[] restricted = new String[] {
+        "open", "module", "requires", "transitive", "exports", "opens",
+        "to", "uses", "provides", "with" };
+
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Matches strings of whitespace characters: spaces, tabs, newlines, ...
+     * An immutable list of restricted keywords (keywords that should sometimes be parsed as
+     * identifiers, sometimes as keywords). For simplicity's sake, we always parse them as
+     * identifiers -- this shouldn't be an issue in practice.
      */
-    public static final Pattern whitespace = compile("\\s*");
+    public static final List<String> restricted_keywords
+        = Collections.unmodifiableList(Arrays.asList(restricted));
+
+    // ---------------------------------------------------------------------------------------------
+
+    static final String[] separatorsa = new String[] {
+        "(", ")", "{", "}", "[", "]", ";", ",", ".", "...", "@", "::" };
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Matches a line comment (starting with {@code //}), including its terminating newline, if
-     * available.
+     * An immutable list of separators in the Java language.
      */
-    public static final Pattern line_comment = compile("//(?:.*)\n?");
+    public static final List<String> separators
+        = Collections.unmodifiableList(Arrays.asList(separatorsa));
+
+    // ---------------------------------------------------------------------------------------------
+
+    static final String[] operatorsa = new String[] {
+        "=", ">", "<", "!", "~", "?", ":", "->", "==", "<=", ">=", "!=", "&&", "||", "++", "--", "+", "-",
+        "*", "/", "&", "|", "^", "%", "<<", ">>", ">>>", "+=", "-=", "*=", "/=", "&=", "|=", "^=",
+        "%=", "<<=", ">>=", ">>>=" };
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Matches a block comment (starting with {@code /*}).
+     * An immutable list of operators in the Java language.
+     */
+    public static final List<String> operators =
+        Collections.unmodifiableList(Arrays.asList(operatorsa));
+
+    // ---------------------------------------------------------------------------------------------
+    /**
+     * The lexing engines available to {@link Lexer} instances. Both produce the same input
+     * elements.
      */
-    public static final Pattern block_comment = compile("/\\*.*?\\*/", DOTALL);
+    public enum Engine
+    {
+        /**
+         * A hand-written scanner driven by small precomputed tables (the default). It is fast and
+         * cheap to initialize, which matters when lexing few small inputs (e.g. in short-lived
+         * tools) or in ahead-of-time compiled images.
+         */
+        TABLE,
+
+        /**
+         * The {@link #TABLE} engine, but using the Vector API (on Java 16+, with the {@code
+         * jdk.incubator.vector} module added to the JVM) to scan through whitespace, comments and
+         * string literals many characters at a time. This speeds up inputs where those dominate
+         * (e.g. comment-heavy code). Falls back to {@link #TABLE} when the Vector API is
+         * unavailable.
+         */
+        VECTOR,
+
+        /**
+         * Tries all {@link Regexes} (and one regex per keyword, separator and operator) at each
+         * position, retaining the longest match. Slow and costly to initialize (which is only
+         * done on first use), it serves as a reference implementation.
+         */
+        REGEX
+    }
 
+    // ---------------------------------------------------------------------------------------------
+    // Lexer Instances
     // ---------------------------------------------------------------------------------------------
 
-    private static final String[] keywordsa = new String[] {
-        "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
-        "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally",
-        "float", "for", "if", "goto", "implements", "import", "instanceof", "int", "interface",
-        "long", "native", "new", "package", "private", "protected", "public", "return", "short",
-        "static", "strictfp", "super", "switch", "synchronized", "this", "throw", "throws",
-        "transient", "try", "void", "volatile", "while", "_" };
+    private final String string;
+    private final int len;
+    private final boolean tolerant;
+    private final LanguageLevel level;
+    private final Scanner scanner;
+    private final Diagnostics diagnostics;
+    private int position;
+
+    private LexBudget budget;
+    private int budget_origin;
+
+    /** The input element last returned by {@link #advance()}. */
+    private Kind kind;
+    private int start, end, vocab;
+
+    /**
+     * Input element following a garbage token, to be returned by the next call to {@link
+     * #advance}, or null.
+     */
+    private Kind pending;
+    private int pending_end, pending_vocab;
+
+    /** Statistics reported to {@link #metrics} (null if no metrics were registered). */
+    private final LexStats stats;
+    private final LexMetrics stats_sink;
+    private boolean started, reported;
+
+    /**
+     * Start time of the current batch of calls to {@link #advance()} (which ends with the report
+     * or a {@link #seek}), or -1 if no batch is ongoing.
+     */
+    private long batch_begin = -1;
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * An immutable list of keywords in the Java language.
+     * Creates a lexer for {@code string}, which may emit {@link Garbage} tokens whenever it is
+     * unable to match any valid input element.
      */
-    public static final List<String> keywords
-        = Collections.unmodifiableList(Arrays.asList(keywordsa));
+    public Lexer (String string) {
+        this(string, true);
+    }
 
     // ---------------------------------------------------------------------------------------------
 
-    private static final String[] restricted = new String[] {
-        "open", "module", "requires", "transitive", "exports", "opens",
-        "to", "uses", "provides", "with" };
+    /**
+     * Creates a lexer for {@code string}.
+     *
+     * @param tolerant if true, the lexer may emit {@link Garbage} tokens whenever it is unable
+     *                 to match any valid input element; otherwise a {@link LexingException}
+     *                 is thrown.
+     */
+    public Lexer (String string, boolean tolerant) {
+        this(string, LanguageLevel.LATEST, Engine.TABLE, tolerant, null);
+    }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * An immutable list of restricted keywords (keywords that should sometimes be parsed as
-     * identifiers, sometimes as keywords). For simplicity's sake, we always parse them as
-     * identifiers -- this shouldn't be an issue in practice.
+     * Creates a lexer for {@code string} which reports all lexical errors to {@code diagnostics}
+     * (or throws a {@link LexingException} at the first error if {@link Diagnostics#fail_fast} is
+     * set).
+     * <p>
+     * Besides reporting unmatched characters, this lexer also checks that numeric literals
+     * represent valid values.
+     * <p>
+     * To recover from errors, malformed and unterminated string and character literals (up to the
+     * end of the line) as well as unterminated comments (up to the end of the input) are lexed as a
+     * single {@link Garbage} token. All other characters that do not begin a valid input element
+     * are lexed as {@link Garbage}, as in tolerant mode.
      */
-    public static final List<String> restricted_keywords
-        = Collections.unmodifiableList(Arrays.asList(restricted));
+    public Lexer (String string, Diagnostics diagnostics) {
+        this(string, LanguageLevel.LATEST, Engine.TABLE, true, diagnostics);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a lexer for {@code string}, written in the given version of the language. The lexer
+     * may emit {@link Garbage} tokens whenever it is unable to match any valid input element.
+     */
+    public Lexer (String string, LanguageLevel level) {
+        this(string, level, Engine.TABLE, true, null);
+    }
 
     // ---------------------------------------------------------------------------------------------
 
-    private static final String idcommon = "\\p{L}\\p{Nl}\\p{Sc}\\p{Pc}";
+    /**
+     * Creates a lexer for {@code string}, written in the given version of the language, using the
+     * given engine.
+     *
+     * @param tolerant see {@link #Lexer(String, boolean)}
+     * @param diagnostics if non-null, see {@link #Lexer(String, Diagnostics)} ({@code tolerant}
+     *                    is then ignored)
+     */
+    public Lexer (String string, LanguageLevel level, Engine engine, boolean tolerant,
+                  Diagnostics diagnostics)
+    {
+        this.string = string;
+        this.len = string.length();
+        this.level = level;
+        this.tolerant = tolerant;
+        this.diagnostics = diagnostics;
+        this.scanner
+            = engine == Engine.TABLE  ? new TableScanner(string, level, RunScanner.SCALAR)
+            : engine == Engine.VECTOR ? new TableScanner(string, level, RunScanner.vector())
+            : new RegexScanner(string, level);
+
+        this.stats_sink = metrics;
+        this.stats = stats_sink == null ? null : new LexStats(engine, level);
+        if (stats != null && engine == Engine.REGEX)
+            ((RegexScanner) scanner).instrument(stats.attempts, stats.hits);
+    }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Regex string that matches a java identifier start character.
-     * @see Character#isJavaIdentifierStart(char)
+     * The input position at which the next input element returned by {@link #next} starts.
      */
-    public static final String identifier_start = "[" + idcommon + "]";
+    public int position() {
+        return position;
+    }
 
     // ---------------------------------------------------------------------------------------------
 
-     /**
-      * Regex string that matches a java identifier character (but not the start character).
-      * @see Character#isJavaIdentifierPart(char)
-      */
-    public static final String identifier_part = "[" + idcommon
-         + "\\d\\p{Mc}\\p{Mn}\\p{Cf}[\u0000-\u0008][\u000e-\u001b][\u007F-\u009F]]";
+    /**
+     * Sets the position at which lexing resumes. For the result to be meaningful, this should be
+     * the start position of an input element (such as returned by {@link #position()} or recorded
+     * in {@link Checkpoints}).
+     * <p>
+     * Because each input element is matched in one go, no other state than this position is
+     * necessary to resume lexing.
+     */
+    public void seek (int position)
+    {
+        if (position < 0 || position > len)
+            throw new IndexOutOfBoundsException("position: " + position);
+
+        this.position = position;
+        this.pending = null;
+        if (stats != null) end_batch();
+    }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Matches java identifiers.
+     * Limits further lexing to {@code budget}: once it is exhausted, {@link #next()} returns null.
+     * {@link #position()} and {@link LexBudget#status()} then indicate where and why lexing stopped.
+     * Characters are counted from the current position. Pass null to remove the limit.
      */
-    public static final Pattern identifier = compile(identifier_start + identifier_part + "*");
+    public void budget (LexBudget budget)
+    {
+        this.budget = budget;
+        this.budget_origin = position;
+    }
 
     // ---------------------------------------------------------------------------------------------
 
-    private static final String[] separatorsa = new String[] {
-        "(", ")", "{", "}", "[", "]", ";", ",", ".", "...", "@", "::" };
+    /**
+     * Returns the next input element in the input, or null if the end of the input has been
+     * reached.
+     *
+     * @throws LexingException if the lexer is not tolerant and no valid input element can be
+     *                         matched at the current position.
+     */
+    public InputElement next() {
+        return advance() == null ? null : element();
+    }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * An immutable list of separators in the Java language.
+     * Lexes the next input element without instantiating it, and returns its kind, or null if the
+     * end of the input has been reached. Its bounds are then available through {@link #start()}
+     * and {@link #end()}, and it can be instantiated with {@link #element()}.
+     * <p>
+     * This is otherwise equivalent to {@link #next()}, and both can be freely interleaved.
+     *
+     * @throws LexingException if the lexer is not tolerant and no valid input element can be
+     *                         matched at the current position.
      */
-    public static final List<String> separators
-        = Collections.unmodifiableList(Arrays.asList(separatorsa));
+    public Kind advance()
+    {
+        if (stats == null || reported)
+            return lex_next();
+
+        // timed per batch: a timer read per input element would cost more than lexing it
+        if (batch_begin < 0) {
+            if (!started) {
+                started = true;
+                stats_sink.started(stats);
+            }
+            batch_begin = System.nanoTime();
+        }
+
+        Kind kind;
+
+        try {
+            kind = lex_next();
+        }
+        catch (LexingException e) {
+            report(1);
+            throw e;
+        }
+
+        if (kind != null) {
+            ++stats.kinds[kind.ordinal()];
+            stats.chars += end - start;
+        }
+        else
+            report(0);
+        return kind;
+    }
 
     // ---------------------------------------------------------------------------------------------
 
-    private static final String[] operatorsa = new String[] {
-        "=", ">", "<", "!", "~", "?", ":", "->", "==", "<=", ">=", "!=", "&&", "||", "++", "--", "+", "-",
-        "*", "/", "&", "|", "^", "%", "<<", ">>", ">>>", "+=", "-=", "*=", "/=", "&=", "|=", "^=",
-        "%=", "<<=", ">>=", ">>>=" };
+    /**
+     * Reports the statistics of the input elements lexed so far to the {@link LexMetrics} that
+     * was registered when this lexer was created, if any.
+     * <p>
+     * This happens automatically when {@link #advance()} or {@link #next()} returns null (at the
+     * end of the input or when the budget is exhausted) or throws. Callers that stop lexing before
+     * that should call this method. Only the first report counts: further lexing isn't reported.
+     */
+    public void finish() {
+        if (stats != null) report(0);
+    }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * An immutable list of operators in the Java language.
+     * Adds the duration of the ongoing batch (if any) to {@link #stats}.
      */
-    public static final List<String> operators =
-        Collections.unmodifiableList(Arrays.asList(operatorsa));
+    private void end_batch()
+    {
+        if (batch_begin < 0) return;
+        stats.nanos += System.nanoTime() - batch_begin;
+        batch_begin = -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reports {@link #stats} to the registered metrics, the first time lexing ends.
+     */
+    private void report (int exceptions)
+    {
+        if (reported) return;
+        reported = true;
+        end_batch();
+        stats.errors = diagnostics != null ? diagnostics.count() : exceptions;
+        stats.complete = pending == null && position >= len;
+        stats.status = budget != null ? budget.status() : LexBudget.Status.WITHIN_BUDGET;
+        stats_sink.lexed(stats);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implements {@link #advance()}.
+     */
+    private Kind lex_next()
+    {
+        // a fully lexed input is complete, even if the budget ran out with its last element
+        if (pending == null && position >= len)
+            return null;
+
+        if (budget != null && budget.exhausted(position - budget_origin))
+            return null;
+
+        if (pending != null) {
+            set(pending, position, pending_end, pending_vocab);
+            pending = null;
+            position = end;
+            return kind;
+        }
+
+        int e = scanner.scan(position);
+
+        if (e >= 0) {
+            set(scanner.kind, position, e, scanner.vocab);
+            if (diagnostics != null)
+                validate();
+            position = end;
+            return kind;
+        }
+
+        if (diagnostics != null)
+            return recover();
+
+        if (!tolerant)
+            throw new LexingException(position);
+
+        int start = position;
+        int i = start + 1;
+
+        while (i < len && !over_budget(i) && (e = scanner.scan(i)) < 0)
+            ++i;
+
+        if (e >= 0) {
+            pending = scanner.kind;
+            pending_end = e;
+            pending_vocab = scanner.vocab;
+        }
+
+        return garbage(start, i);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Start position of the input element last lexed by {@link #advance()}.
+     */
+    public int start() {
+        return start;
+    }
 
     // ---------------------------------------------------------------------------------------------
-    // Integer Literals
 
-    private static final String digits = "(?:\\d+(?:_*\\d++)*)";
-    private static final String hexd   = "(?:\\p{XDigit}++(?:_*\\p{XDigit}++)*)";
+    /**
+     * End position (exclusive) of the input element last lexed by {@link #advance()}.
+     */
+    public int end() {
+        return end;
+    }
 
-    /** Matches decimal integer literals. */
-    public static final Pattern dec_int_lit = compile("0|[1-9]+(?:_*\\d++)*[lL]?");
+    // ---------------------------------------------------------------------------------------------
 
-    /** Matches hexadecimal integer literals. */
-    public static final Pattern hex_int_lit = compile("0[xX]" + hexd + "[lL]?");
+    /**
+     * Instantiates the input element last lexed by {@link #advance()}.
+     * <p>
+     * Keywords, separators and operators share the strings from {@link #keywords}, {@link
+     * #separators} and {@link #operators}.
+     */
+    public InputElement element()
+    {
+        InputElement ie = make(kind, string, start, end, vocab);
+        ie.start = start;
+        ie.end   = end;
+        return ie;
+    }
 
-    /** Matches octal integer literals. */
-    public static final Pattern oct_int_lit = compile("0(?:_*[0-7]++)+[lL]?");
+    // ---------------------------------------------------------------------------------------------
 
-    /** Matches binary integer literals. */
-    public static final Pattern bin_int_lit = compile("0[bB](?:_*[01]++)+");
+    /**
+     * The index of the input element last lexed by {@link #advance()} in {@link #keywords},
+     * {@link #separators} or {@link #operators}, if it is a keyword, separator or operator.
+     */
+    int vocab() {
+        return vocab;
+    }
 
     // ---------------------------------------------------------------------------------------------
-    // Floating-Point Literals
 
-    private static final String exp_part
-        = "(?:[eE][+-]?" + digits + ")";
+    /**
+     * Instantiates an input element of the given kind, spanning {@code [start, end[} in {@code
+     * text}, with the given vocabulary index (see {@link #vocab()}). Does not set its position.
+     */
+    static InputElement make (Kind kind, CharSequence text, int start, int end, int vocab)
+    {
+        switch (kind) {
+            case CHAR:       return new CharLiteral(str(text, start + 1, end - 1));
+            case STRING:     return new StringLiteral(str(text, start + 1, end - 1));
+            case TEXT_BLOCK: return new TextBlock(str(text, start + 3, end - 3));
+            case TRUE:       return new BoolLiteral(true);
+            case FALSE:      return new BoolLiteral(false);
+            case NULL:       return new NullLiteral();
+            case KEYWORD:    return new Keyword(keywordsa[vocab]);
+            case SEPARATOR:  return new Separator(separatorsa[vocab]);
+            case OPERATOR:   return new Operator(operatorsa[vocab]);
+        }
+
+        String str = str(text, start, end);
+
+        switch (kind) {
+            case WHITESPACE:    return new Whitespace(str);
+            case LINE_COMMENT:  return new Comment(str, Comment.Type.LINE);
+            case BLOCK_COMMENT: return new Comment(str, Comment.Type.BLOCK);
+            case DECIMAL_INT:   return new IntLiteral(str, IntLiteral.Type.DECIMAL);
+            case HEX_INT:       return new IntLiteral(str, IntLiteral.Type.HEXADECIMAL);
+            case OCTAL_INT:     return new IntLiteral(str, IntLiteral.Type.OCTAL);
+            case BINARY_INT:    return new IntLiteral(str, IntLiteral.Type.BINARY);
+            case DECIMAL_FLOAT: return new FloatLiteral(str, FloatLiteral.Type.DECIMAL);
+            case HEX_FLOAT:     return new FloatLiteral(str, FloatLiteral.Type.HEXADECIMAL);
+            case IDENTIFIER:    return new Identifier(str);
+            default:            return new Garbage(str);
+        }
+    }
 
-    private static final String hex_significand
-        = "0[xX](?:" + hexd + "(?:\\." + hexd + "?)?" + "|\\." + hexd + ")";
+    // ---------------------------------------------------------------------------------------------
+
+    private static String str (CharSequence text, int start, int end) {
+        return text.subSequence(start, end).toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void set (Kind kind, int start, int end, int vocab)
+    {
+        this.kind  = kind;
+        this.start = start;
+        this.end   = end;
+        this.vocab = vocab;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean over_budget (int i) {
+        return budget != null && budget.exhausted(i - budget_origin);
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
     /**
-     * Matches decimal floating-point literals.
+     * Sets the current input element to a garbage token spanning {@code [start, end[} and
+     * continues lexing after it.
      */
-    public static final Pattern fp_lit
-        = compile(digits + "\\." + digits + "?" + exp_part + "?[fFdD]?"
-                + "|\\." + digits + "(?:[eE][+-]?" + digits + ")?[fFdD]?"
-                + "|" + digits + exp_part + "[fFdD]?"
-                + "|" + digits + exp_part + "?[fFdD]");
+    private Kind garbage (int start, int end)
+    {
+        set(Kind.GARBAGE, start, end, -1);
+        position = end;
+        return kind;
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
     /**
-     * Matches hexadecimal floating-point literals.
+     * Reports invalid numeric literals, unterminated block comments (which are lexed as a {@code /}
+     * operator in the absence of a closing delimiter) and invalid text blocks (which are lexed as
+     * an empty string literal followed by a quote) to {@link #diagnostics}, turning the latter two
+     * into garbage.
      */
-    public static final Pattern hex_fp_lit
-        = compile(hex_significand + "[pP][+-]?" + digits + "[fFdD]?");
+    private void validate()
+    {
+        switch (kind) {
+            case DECIMAL_INT: case HEX_INT: case OCTAL_INT: case BINARY_INT:
+                if (!LexUtil.int_fits(string, start, end))
+                    diagnostics.report(Diagnostics.Category.INVALID_LITERAL, start, end - start);
+                break;
+
+            case DECIMAL_FLOAT: case HEX_FLOAT:
+                if (!LexUtil.float_fits(string, start, end))
+                    diagnostics.report(Diagnostics.Category.INVALID_LITERAL, start, end - start);
+                break;
+
+            case STRING:
+                if (level.text_blocks && end == start + 2 && end < len && string.charAt(end) == '"')
+                    recover_text_block();
+                break;
+
+            case OPERATOR:
+                if (operatorsa[vocab].equals("/") && end < len && string.charAt(end) == '*') {
+                    diagnostics.report(Diagnostics.Category.UNTERMINATED_COMMENT, start, len - start);
+                    set(Kind.GARBAGE, start, len, -1);
+                }
+                break;
+        }
+    }
 
     // ---------------------------------------------------------------------------------------------
-    // Other Literals
 
-    private static final String escape = "(?"
-        + ":\\\\[btnfr\"'\\\\]"
-        + "|\\\\[0-7][0-7]?"
-        + "|\\\\[0-3][0-7][0-7])";
+    /**
+     * Called when no input element matches at {@link #position} while collecting diagnostics:
+     * reports the error and lexes a garbage token spanning the erroneous input.
+     */
+    private Kind recover()
+    {
+        int start = position;
+        char c = string.charAt(start);
 
-    /** Matches a character literal. */
-    public static final Pattern char_lit = compile("'(?:[^\n\r'\\\\]|" + escape + ")'");
+        if (c == '"' || c == '\'')
+            return recover_quoted(start, c);
 
-    /** Matches a string literal. */
-    public static final Pattern string_lit = compile("\"(?:[^\n\r\"\\\\]|" + escape + ")*\"");
+        int end = start + 1;
 
-    /** Matches a boolean literal. */
-    public static final Pattern bool_lit = compile("true|false");
+        while (end < len && (c = string.charAt(end)) != '"' && c != '\''
+                && !over_budget(end) && scanner.scan(end) < 0)
+            ++end;
 
-    /** Matches the null literal. */
-    public static final Pattern null_lit = compile("null");
+        diagnostics.report(Diagnostics.Category.UNEXPECTED_CHARACTER, start, end - start);
+        return garbage(start, end);
+    }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Input Element Factory: pairs a pattern with a function that instantiates the corrsponding
-     * input element when matched.
+     * Handles a string or character literal (delimited by {@code quote}) starting at {@code
+     * start} which failed to match: reports the error and lexes a garbage token spanning the
+     * literal, up to the closing quote or the end of the line.
      */
-    private final static class IEFactory
+    private Kind recover_quoted (int start, char quote)
     {
-        final Pattern pattern;
-        final Function<Matcher, InputElement> f;
+        int i = start + 1;
+        int count = 0;
+        boolean bad_escape = false;
 
-        IEFactory (Pattern pattern, Function<Matcher, InputElement> f) {
-            this.pattern = pattern;
-            this.f = f;
+        while (i < len)
+        {
+            char c = string.charAt(i);
+
+            if (c == quote || c == '\n' || c == '\r')
+                break;
+
+            ++count;
+
+            if (c != '\\') {
+                ++i;
+                continue;
+            }
+
+            int end = escape_end(i);
+
+            if (end < 0) {
+                bad_escape = true;
+                c = i + 1 < len ? string.charAt(i + 1) : '\n';
+                i += c == '\n' || c == '\r' ? 1 : 2;
+            }
+            else i = end;
         }
+
+        boolean terminated = i < len && string.charAt(i) == quote;
+        int end = terminated ? i + 1 : i;
+
+        Diagnostics.Category category
+            = !terminated
+                ? quote == '"'
+                    ? Diagnostics.Category.UNTERMINATED_STRING
+                    : Diagnostics.Category.UNTERMINATED_CHAR
+            : bad_escape
+                ? Diagnostics.Category.BAD_ESCAPE
+            : quote == '\'' && count != 1
+                ? Diagnostics.Category.MALFORMED_CHAR
+                : Diagnostics.Category.UNEXPECTED_CHARACTER;
+
+        diagnostics.report(category, start, end - start);
+        return garbage(start, end);
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private static IEFactory factory (Pattern pattern, Function<String, InputElement> f)
+    /**
+     * Handles a text block starting at {@link #start} which failed to match: reports the error and
+     * turns the current input element into garbage. A malformed opening delimiter is reported
+     * as unexpected characters, a missing closing delimiter makes the text block span the rest of
+     * the input, and otherwise the text block must contain an invalid escape sequence.
+     */
+    private void recover_text_block()
     {
-        return new IEFactory(pattern, m -> {
-            InputElement ie = f.apply(m.group());
-            ie.start = m.start();
-            ie.end   = m.end();
-            return ie;
-        });
+        int i = start + 3;
+        char c;
+        while (i < len && ((c = string.charAt(i)) == ' ' || c == '\t' || c == '\f')) ++i;
+
+        if (i == len || (c = string.charAt(i)) != '\n' && c != '\r') {
+            diagnostics.report(Diagnostics.Category.UNEXPECTED_CHARACTER, start, 3);
+            set(Kind.GARBAGE, start, start + 3, -1);
+            return;
+        }
+
+        int close = string.indexOf("\"\"\"", i);
+        while (close >= 0 && escaped(close))
+            close = string.indexOf("\"\"\"", close + 1);
+
+        if (close < 0) {
+            diagnostics.report(Diagnostics.Category.UNTERMINATED_STRING, start, len - start);
+            set(Kind.GARBAGE, start, len, -1);
+        } else {
+            diagnostics.report(Diagnostics.Category.BAD_ESCAPE, start, close + 3 - start);
+            set(Kind.GARBAGE, start, close + 3, -1);
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private static IEFactory strip_quotes (Pattern pattern, Function<String, InputElement> f)
+    /**
+     * Whether the character at position {@code i} is preceded by an odd number of backslashes.
+     */
+    private boolean escaped (int i)
     {
-        return new IEFactory(pattern, m -> {
-            String match = m.group();
-            InputElement ie = f.apply(match.substring(1, match.length() - 1));
-            ie.start = m.start();
-            ie.end   = m.end();
-            return ie;
-        });
+        int j = i;
+        while (j > start && string.charAt(j - 1) == '\\') --j;
+        return (i - j) % 2 == 1;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private static final IEFactory[] factories;
-    static {
-        ArrayList<IEFactory> list = new ArrayList<>();
+    /**
+     * Assuming a backslash is at position {@code i}, returns the end of the escape sequence it
+     * begins, or -1 if it is not a valid escape sequence.
+     */
+    private int escape_end (int i)
+    {
+        if (i + 1 >= len)
+            return -1;
+
+        char c = string.charAt(i + 1);
 
-        list.add(factory(whitespace,    Whitespace::new));
-        list.add(factory(line_comment,  it -> new Comment(it, Comment.Type.LINE)));
-        list.add(factory(block_comment, it -> new Comment(it, Comment.Type.BLOCK)));
+        if ("btnfr\"'\\".indexOf(c) >= 0 || c == 's' && level.text_blocks)
+            return i + 2;
 
-        list.add(factory(dec_int_lit,   it -> new IntLiteral(it, IntLiteral.Type.DECIMAL)));
-        list.add(factory(hex_int_lit,   it -> new IntLiteral(it, IntLiteral.Type.HEXADECIMAL)));
-        list.add(factory(oct_int_lit,   it -> new IntLiteral(it, IntLiteral.Type.OCTAL)));
-        list.add(factory(bin_int_lit,   it -> new IntLiteral(it, IntLiteral.Type.BINARY)));
+        if (!LexUtil.is_octal(c))
+            return -1;
 
-        list.add(factory(fp_lit,        it -> new FloatLiteral(it, FloatLiteral.Type.DECIMAL)));
-        list.add(factory(hex_fp_lit,    it -> new FloatLiteral(it, FloatLiteral.Type.HEXADECIMAL)));
+        int max = c <= '3' ? i + 4 : i + 3;
+        int end = i + 2;
+        while (end < max && end < len && LexUtil.is_octal(string.charAt(end)))
+            ++end;
+        return end;
+    }
 
-        list.add(strip_quotes(char_lit,     CharLiteral::new));
-        list.add(strip_quotes(string_lit,   StringLiteral::new));
-        list.add(factory(bool_lit,          it -> new BoolLiteral(it.equals("true"))));
-        list.add(factory(null_lit,          it -> new NullLiteral()));
+    // ---------------------------------------------------------------------------------------------
+    // Metrics
+    // ---------------------------------------------------------------------------------------------
 
-        for (String kw: keywordsa)
-            list.add(factory(compile(kw), Keyword::new));
+    private static volatile LexMetrics metrics;
 
-        // After keywords!
-        list.add(factory(identifier,    Identifier::new));
+    // ---------------------------------------------------------------------------------------------
 
-        for (String sep: separatorsa)
-            list.add(factory(compile(Pattern.quote(sep)), it -> new Separator(sep)));
+    /**
+     * Registers {@code metrics} to receive statistics from all lexers created afterwards (pass
+     * null to disable). When disabled (the default), lexers collect nothing.
+     */
+    public static void metrics (LexMetrics metrics) {
+        Lexer.metrics = metrics;
+    }
 
-        for (String op: operatorsa)
-            list.add(factory(compile(Pattern.quote(op)), Operator::new));
+    // ---------------------------------------------------------------------------------------------
 
-        factories = list.toArray(new IEFactory[0]);
+    /**
+     * Returns the registered metrics, or null.
+     */
+    public static LexMetrics metrics() {
+        return metrics;
     }
 
+    // ---------------------------------------------------------------------------------------------
+    // Static Interface
     // ---------------------------------------------------------------------------------------------
 
     /**
@@ -311,61 +764,15 @@ public final class Lexer
      *                 to match any valid input element; otherwise a {@link LexingException}
      *                 is thrown.
      */
-    private static List<InputElement> lex (String string, boolean tokens_only, boolean tolerant)
+    private static List<InputElement> lex
+            (String string, LanguageLevel level, boolean tokens_only, boolean tolerant)
     {
-        int i   = 0;
-        int len = string.length();
-        int top = -1;
-        int max = 0;
-
-        String garbage = "";
+        Lexer lexer = new Lexer(string, level, Engine.TABLE, tolerant, null);
         ArrayList<InputElement> out = new ArrayList<>();
-        Matcher[] matchers = new Matcher[factories.length];
-
-        for (int j = 0; j < factories.length; ++j)
-            matchers[j] = factories[j].pattern.matcher(string);
-
-        while (i < len)
-        {
-            for (int j = 0; j < factories.length; ++j)
-            {
-                IEFactory factory = factories[j];
-                Matcher   matcher = matchers[j];
-
-                matcher.region(i, len);
-
-                if (matcher.lookingAt()) {
-                    int span = matcher.end() - matcher.start();
-                    if (span > max) {
-                        max = span;
-                        top = j;
-                    }
-                }
-            }
 
-            if (top < 0) {
-                max = 1;
-                if (tolerant)
-                    garbage += string.charAt(i);
-                else
-                    throw new LexingException(i);
-            } else {
-                if (garbage.length() > 0) {
-                    out.add(new Garbage(garbage));
-                    garbage = "";
-                }
-                InputElement ie = factories[top].f.apply(matchers[top]);
-                if (!tokens_only || ie instanceof Token)
-                    out.add(ie);
-            }
-
-            i += max;
-            top = -1;
-            max = 0;
-        }
-
-        if (garbage.length() > 0)
-            out.add(new Garbage(garbage));
+        for (Kind kind; (kind = lexer.advance()) != null; )
+            if (!tokens_only || kind.is_token())
+                out.add(lexer.element());
 
         return out;
     }
@@ -387,7 +794,7 @@ public final class Lexer
      * element.
      */
     public static List<Token> tokenize (String string) {
-        return cast(lex(string, true, true));
+        return cast(lex(string, LanguageLevel.LATEST, true, true));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -400,7 +807,7 @@ public final class Lexer
      * element.
      */
     public static List<InputElement> lex (String string) {
-        return lex(string, false, true);
+        return lex(string, LanguageLevel.LATEST, false, true);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -414,7 +821,7 @@ public final class Lexer
      *                 is thrown.
      */
     public static List<Token> tokenize (String string, boolean tolerant) {
-        return cast(lex(string, true, tolerant));
+        return cast(lex(string, LanguageLevel.LATEST, true, tolerant));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -428,7 +835,122 @@ public final class Lexer
      *                 is thrown.
      */
     public static List<InputElement> lex (String string, boolean tolerant) {
-        return lex(string, false, tolerant);
+        return lex(string, LanguageLevel.LATEST, false, tolerant);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a list of tokens (but not other input elements such as whitespace) obtained by lexing
+     * {@code string}, written in the given version of the language.
+     * <p>
+     * The function may emit {@link Garbage} tokens whenever it is unable to match any valid input
+     * element.
+     */
+    public static List<Token> tokenize (String string, LanguageLevel level) {
+        return cast(lex(string, level, true, true));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a list of input elements obtained by lexing {@code string}, written in the given
+     * version of the language.
+     * <p>
+     * The function may emit {@link Garbage} tokens whenever it is unable to match any valid input
+     * element.
+     */
+    public static List<InputElement> lex (String string, LanguageLevel level) {
+        return lex(string, level, false, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a list of input elements obtained by lexing {@code string}, according to JLS chapter
+     * 3, reporting all lexical errors to {@code diagnostics}.
+     *
+     * @see #Lexer(String, Diagnostics)
+     */
+    public static List<InputElement> lex (String string, Diagnostics diagnostics)
+    {
+        Lexer lexer = new Lexer(string, diagnostics);
+        ArrayList<InputElement> out = new ArrayList<>();
+
+        for (InputElement ie; (ie = lexer.next()) != null; )
+            out.add(ie);
+
+        return out;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static <T extends InputElement> LexResult<T> lex
+            (String string, boolean tokens_only, LexBudget budget)
+    {
+        Lexer lexer = new Lexer(string, true);
+        lexer.budget(budget);
+        ArrayList<InputElement> out = new ArrayList<>();
+
+        for (Kind kind; (kind = lexer.advance()) != null; )
+            if (!tokens_only || kind.is_token())
+                out.add(lexer.element());
+
+        return new LexResult<>(cast(out), lexer.position(), budget.status());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the input elements obtained by lexing {@code string}, according to JLS chapter 3,
+     * stopping early if {@code budget} is exhausted. The result indicates how far lexing got.
+     * <p>
+     * The function may emit {@link Garbage} tokens whenever it is unable to match any valid input
+     * element.
+     */
+    public static LexResult<InputElement> lex (String string, LexBudget budget) {
+        return lex(string, false, budget);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the tokens (but not other input elements such as whitespace) obtained by lexing
+     * {@code string}, according to JLS chapter 3, stopping early if {@code budget} is exhausted.
+     * The result indicates how far lexing got.
+     * <p>
+     * The function may emit {@link Garbage} tokens whenever it is unable to match any valid input
+     * element.
+     */
+    public static LexResult<Token> tokenize (String string, LexBudget budget) {
+        return lex(string, true, budget);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the list of input elements that overlap the range {@code [from, to[} in {@code
+     * string}, lexing only from the checkpoint nearest to {@code from} until {@code to}.
+     * <p>
+     * The function may emit {@link Garbage} tokens whenever it is unable to match any valid input
+     * element.
+     *
+     * @throws IllegalArgumentException if {@code checkpoints} were not computed for {@code string}.
+     */
+    public static List<InputElement> lex (String string, Checkpoints checkpoints, int from, int to)
+    {
+        if (!checkpoints.matches(string))
+            throw new IllegalArgumentException("checkpoints were computed for a different input");
+
+        Lexer lexer = new Lexer(string, true);
+        lexer.seek(checkpoints.nearest(from));
+        ArrayList<InputElement> out = new ArrayList<>();
+
+        for (InputElement ie; (ie = lexer.next()) != null && ie.start < to; )
+            if (ie.end > from)
+                out.add(ie);
+
+        return out;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -14,8 +14,30 @@ public final class LexingException extends RuntimeException
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The category of the failure, or null if it wasn't determined.
+     */
+    public final Diagnostics.Category category;
+
+    // ---------------------------------------------------------------------------------------------
+
     public LexingException (int position) {
         this.position = position;
+        this.category = null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * @param stack_trace whether to fill in the stack trace; fail-fast lexing (see {@link
+     *                    Diagnostics#fail_fast()}) omits it, as it is costly and says nothing about
+     *                    the input.
+     */
+    public LexingException (int position, Diagnostics.Category category, boolean stack_trace)
+    {
+        super(null, null, false, stack_trace);
+        this.position = position;
+        this.category = category;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -33,7 +55,9 @@ public final class LexingException extends RuntimeException
     // ---------------------------------------------------------------------------------------------
 
     @Override public String toString() {
-        return "LexingException(" + position + ")";
+        return category == null
+            ? "LexingException(" + position + ")"
+            : "LexingException(" + position + ", " + category + ")";
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,443 @@
+package norswap.javalexer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the input elements of the files of a directory tree up to date, as {@link CompactTokens}.
+ * <p>
+ * Changes are detected with a {@link WatchService}. Change events are debounced: a file is only
+ * re-lexed once no event concerned it for a given delay, so that bursts of events (e.g. an
+ * editor saving a file in several steps) are coalesced. Changed files are then re-lexed on a
+ * background pool, incrementally (see {@link CompactTokens#update}). The work done is thus
+ * proportional to the number and size of the edits, not to the size of the tree.
+ * <p>
+ * Readers access the files through {@link Snapshot}s: immutable views of the store which are
+ * never blocked by (and never observe partial) updates. The store is sharded so that publishing
+ * a new snapshot only copies the shards containing updated files.
+ * <p>
+ * The store must be {@link #start() started} and should be {@link #close() closed}.
+ */
+public final class LiveTokenStore implements AutoCloseable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int SHARDS = 256;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The root of the watched directory tree.
+     */
+    public final Path root;
+
+    /**
+     * Language level at which files are lexed.
+     */
+    public final LanguageLevel level;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Predicate<Path> filter;
+    private final long debounce_millis;
+
+    private final WatchService watcher;
+    private final Thread watch_thread;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService pool;
+
+    /** Watch keys of the registered directories. */
+    private final ConcurrentHashMap<Path, WatchKey> keys = new ConcurrentHashMap<>();
+
+    /** Changed files, with the time of their last change event (in milliseconds). */
+    private final ConcurrentHashMap<Path, Long> pending = new ConcurrentHashMap<>();
+
+    /** Number of submitted re-lexing tasks that haven't completed. */
+    private int in_flight;
+
+    /** Latest submission stamp for each file in flight, to discard out-of-order results. */
+    private final HashMap<Path, Long> stamps = new HashMap<>();
+    private long stamp;
+
+    private volatile Snapshot snapshot;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A consistent, immutable view of the store.
+     */
+    public static final class Snapshot
+    {
+        private final Map<Path, CompactTokens>[] shards;
+        private final int size;
+
+        /** Incremented for each published snapshot. */
+        public final long version;
+
+        private Snapshot (Map<Path, CompactTokens>[] shards, int size, long version) {
+            this.shards = shards;
+            this.size = size;
+            this.version = version;
+        }
+
+        /**
+         * Returns the input elements of the given file (an absolute path below the root), or
+         * null if the file is not in the store.
+         */
+        public CompactTokens get (Path path) {
+            return shards[shard(path)].get(path);
+        }
+
+        /**
+         * Number of files in the snapshot.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Calls {@code consumer} on each file of the snapshot.
+         */
+        public void for_each (BiConsumer<Path, CompactTokens> consumer) {
+            for (Map<Path, CompactTokens> shard: shards)
+                shard.forEach(consumer);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map<Path, CompactTokens>[] new_shards() {
+        return new Map[SHARDS];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int shard (Path path) {
+        int h = path.hashCode();
+        return (h ^ h >>> 16) & (SHARDS - 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a store for the {@code .java} files below {@code root}, lexed at {@link
+     * LanguageLevel#LATEST}, with a debounce delay of 100 ms and a thread per processor.
+     */
+    public LiveTokenStore (Path root) throws IOException
+    {
+        this(root, LanguageLevel.LATEST, path -> path.toString().endsWith(".java"), 100,
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a store for the files below {@code root} that satisfy {@code filter}, lexed at the
+     * given language level. Files are re-lexed {@code debounce_millis} after their last change
+     * event, on a pool of {@code threads} threads.
+     */
+    public LiveTokenStore (Path root, LanguageLevel level, Predicate<Path> filter,
+                           long debounce_millis, int threads) throws IOException
+    {
+        this.root = root.toAbsolutePath();
+        this.level = level;
+        this.filter = filter;
+        this.debounce_millis = debounce_millis;
+        this.watcher = FileSystems.getDefault().newWatchService();
+
+        Map<Path, CompactTokens>[] shards = new_shards();
+        for (int i = 0; i < SHARDS; ++i)
+            shards[i] = new HashMap<>();
+        this.snapshot = new Snapshot(shards, 0, 0);
+
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "live-token-store-lexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "live-token-store-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.watch_thread = new Thread(this::watch, "live-token-store-watcher");
+        this.watch_thread.setDaemon(true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Registers the directory tree with the watch service, schedules the initial lexing of all
+     * files, and starts processing change events.
+     */
+    public void start() throws IOException
+    {
+        register(root);
+        watch_thread.start();
+        long period = Math.max(1, debounce_millis / 2);
+        scheduler.scheduleWithFixedDelay(this::flush, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the current snapshot. Never blocks.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Waits until no change is pending and no file is being re-lexed, or until the timeout
+     * expires. Returns false in the latter case. Changes that have not yet been reported by the
+     * watch service are not waited for.
+     */
+    public synchronized boolean await_idle (long timeout_millis) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeout_millis;
+        while (!pending.isEmpty() || in_flight > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            wait(Math.min(remaining, Math.max(1, debounce_millis)));
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stops watching and processing changes.
+     */
+    @Override public void close() throws IOException
+    {
+        watcher.close();
+        scheduler.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Registers all directories below {@code dir} and marks all the files they contain as
+     * changed.
+     */
+    private void register (Path dir) throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            Iterator<Path> it = paths.iterator();
+            long now = System.currentTimeMillis() - debounce_millis; // no need to debounce
+            while (it.hasNext()) {
+                Path path = it.next();
+                if (Files.isDirectory(path))
+                    keys.put(path.toAbsolutePath(), path.register(watcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE));
+                else if (filter.test(path))
+                    pending.put(path.toAbsolutePath(), now);
+            }
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Body of the watcher thread: records change events.
+     */
+    private void watch()
+    {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path dir = (Path) key.watchable();
+
+                for (WatchEvent<?> event: key.pollEvents())
+                {
+                    try {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // events were lost: rescan everything, stale files included
+                            snapshot.for_each((path, tokens) ->
+                                pending.put(path, System.currentTimeMillis()));
+                            register(root);
+                            continue;
+                        }
+
+                        Path path = dir.resolve((Path) event.context()).toAbsolutePath();
+
+                        if (Files.isDirectory(path)) {
+                            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+                                register(path);
+                            continue;
+                        }
+
+                        if (filter.test(path))
+                            pending.put(path, System.currentTimeMillis());
+
+                        // a directory deleted or moved out of the tree only reports itself
+                        if (keys.containsKey(path))
+                            forget(path);
+                    }
+                    catch (IOException e) {
+                        // directory deleted while being registered: its files are gone anyway
+                    }
+                }
+
+                key.reset();
+            }
+        }
+        catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Marks all stored files below {@code dir} (which no longer exists) as changed, so that they
+     * are dropped, and stops watching the directories below it.
+     */
+    private void forget (Path dir)
+    {
+        long now = System.currentTimeMillis();
+
+        snapshot.for_each((path, tokens) -> {
+            if (path.startsWith(dir) && !path.equals(dir))
+                pending.put(path, now);
+        });
+
+        keys.entrySet().removeIf(entry -> {
+            if (!entry.getKey().startsWith(dir)) return false;
+            entry.getValue().cancel();
+            return true;
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Submits the files whose last change is older than the debounce delay for re-lexing.
+     */
+    private void flush()
+    {
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<Path, Long> entry: pending.entrySet())
+        {
+            if (now - entry.getValue() < debounce_millis)
+                continue;
+
+            Path path = entry.getKey();
+            // only remove if no new event arrived in the meantime
+            if (!pending.remove(path, entry.getValue()))
+                continue;
+
+            long task_stamp;
+            synchronized (this) {
+                task_stamp = ++stamp;
+                stamps.put(path, task_stamp);
+                ++in_flight;
+            }
+
+            pool.execute(() -> {
+                CompactTokens tokens = null;
+                try {
+                    tokens = lex(path);
+                }
+                catch (RuntimeException e) {
+                    // unreadable file: drop it
+                }
+                publish(path, tokens, task_stamp);
+            });
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes the file (incrementally if it is in the store), or returns null if it doesn't exist.
+     */
+    private CompactTokens lex (Path path)
+    {
+        String source;
+        try {
+            if (!Files.isRegularFile(path)) return null;
+            source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        CompactTokens old = snapshot.get(path);
+        return old != null
+            ? old.update(source)
+            : CompactTokens.encode(source, level, false, CompactTokens.DEFAULT_INTERVAL);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Publishes a new snapshot in which the file maps to {@code tokens} (or is absent if null),
+     * unless a more recent task for the same file has been submitted.
+     */
+    private synchronized void publish (Path path, CompactTokens tokens, long task_stamp)
+    {
+        --in_flight;
+
+        Long latest = stamps.get(path);
+
+        if (latest != null && latest == task_stamp) {
+            stamps.remove(path);
+
+            Snapshot old = snapshot;
+            int s = shard(path);
+            HashMap<Path, CompactTokens> shard = new HashMap<>(old.shards[s]);
+            int size = old.size - (shard.containsKey(path) ? 1 : 0);
+
+            if (tokens != null) {
+                shard.put(path, tokens);
+                ++size;
+            }
+            else shard.remove(path);
+
+            Map<Path, CompactTokens>[] shards = old.shards.clone();
+            shards[s] = shard;
+            snapshot = new Snapshot(shards, size, old.version + 1);
+        }
+
+        notifyAll();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,406 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * Removes comments (and optionally whitespace) from Java sources, in a single pass, writing the
+ * result directly to a {@link Writer} or a {@link WritableByteChannel}.
+ * <p>
+ * A space is inserted between two tokens only if they were separated in the input and would
+ * otherwise lex differently: {@code a - -b} becomes {@code a- -b} and {@code x++ + y} becomes
+ * {@code x++ +y}, but {@code a = - b} becomes {@code a=-b}. Garbage tokens are copied as they
+ * are, and the line terminator that follows them in the input is kept.
+ * <p>
+ * Input elements are never instantiated and the output goes through a fixed-size buffer, so
+ * that the memory used does not depend on the size of the input (beyond the input itself).
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public final class Minifier
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * What to remove.
+     */
+    public enum Mode
+    {
+        /**
+         * Removes comments and whitespace, except for the spaces needed to separate tokens.
+         */
+        MINIFY,
+
+        /**
+         * Removes comments but keeps whitespace, preserving line numbers: comments spanning
+         * several lines are replaced by their line terminators. Whitespace left at the end of a
+         * line by a removed comment is removed too.
+         */
+        STRIP_COMMENTS
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * {@code merges[a * 128 + b]} is true if the ASCII chars {@code a} and {@code b} appear
+     * consecutively in a separator, an operator or a comment opener, in which case a token
+     * ending with {@code a} followed by a token starting with {@code b} may merge.
+     */
+    private static final boolean[] merges = new boolean[128 * 128];
+
+    static {
+        for (String[] vocab: new String[][] { Lexer.separatorsa, Lexer.operatorsa,
+                { "//", "/*", "\"\"" } })
+            for (String string: vocab)
+                for (int i = 1; i < string.length(); ++i)
+                    merges[string.charAt(i - 1) * 128 + string.charAt(i)] = true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * What this minifier removes.
+     */
+    public final Mode mode;
+
+    /**
+     * Language level at which sources are lexed.
+     */
+    public final LanguageLevel level;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a minifier with the given mode, lexing at {@link LanguageLevel#LATEST}.
+     */
+    public Minifier (Mode mode) {
+        this(mode, LanguageLevel.LATEST);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a minifier with the given mode, lexing at the given language level.
+     */
+    public Minifier (Mode mode, LanguageLevel level) {
+        this.mode = mode;
+        this.level = level;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the transformed {@code source}.
+     */
+    public String transform (String source)
+    {
+        StringWriter writer = new StringWriter(source.length());
+        try {
+            transform(source, writer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e); // can't happen
+        }
+        return writer.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the transformed {@code source} to {@code out}. The writer is not flushed or closed.
+     */
+    public void transform (String source, Writer out) throws IOException {
+        transform(source, new Output(out, null, null));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the transformed {@code source} to {@code out}, encoded with {@code charset}. The
+     * channel is not closed. Throws a {@link CharacterCodingException} if the source contains
+     * unpaired surrogates or characters that can't be encoded.
+     */
+    public void transform (String source, WritableByteChannel out, Charset charset)
+        throws IOException
+    {
+        transform(source, new Output(null, out, charset.newEncoder()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void transform (String source, Output out) throws IOException
+    {
+        Lexer lexer = new Lexer(source, level, Lexer.Engine.TABLE, true, null);
+        boolean strip = mode == Mode.STRIP_COMMENTS;
+
+        Kind last = null;               // last written token
+        int last_start = 0, last_end = 0;
+        boolean separated = false;      // whitespace written since the last token
+        int ws_start = 0, ws_end = 0;   // pending whitespace (STRIP_COMMENTS)
+        boolean garbage_line = false;   // garbage written since the last line terminator
+        boolean sign = false;           // last token is a sign glued to a possible exponent
+
+        for (Kind kind; (kind = lexer.advance()) != null; )
+        {
+            int start = lexer.start(), end = lexer.end();
+
+            switch (kind) {
+                case WHITESPACE:
+                    if (strip) {
+                        ws_start = start;
+                        ws_end = end;
+                    }
+                    break;
+
+                case LINE_COMMENT: case BLOCK_COMMENT:
+                    if (!strip) break;
+                    // drop the whitespace that precedes the comment on its line
+                    int cut = ws_end;
+                    while (cut > ws_start && !is_line_terminator(source.charAt(cut - 1)))
+                        --cut;
+                    if (cut > ws_start) {
+                        out.write(source, ws_start, cut);
+                        separated = true;
+                    }
+                    ws_start = ws_end = 0;
+                    // line comments may include their line terminator
+                    separated |= write_line_terminators(source, start, end, out);
+                    break;
+
+                default:
+                    if (ws_end > ws_start) {
+                        out.write(source, ws_start, ws_end);
+                        separated = true;
+                        ws_start = ws_end = 0;
+                    }
+                    boolean glued = last != null && !separated;
+                    if (glued && last_end != start) {
+                        // garbage may be an unterminated literal, which must not be continued
+                        if (garbage_line && has_line_terminator(source, last_end, start)) {
+                            out.write('\n');
+                            garbage_line = false;
+                            glued = false;
+                        }
+                        else if (needs_space(source, last, last_start, last_end, kind, start)
+                                || sign && is_digit(source.charAt(start))) {
+                            out.write(' '); // 1e- 1, lexed as 1 e - 1
+                            glued = false;
+                        }
+                    }
+                    if (separated) garbage_line = false;
+                    sign = glued && kind == Kind.OPERATOR && end - start == 1
+                        && (source.charAt(start) == '+' || source.charAt(start) == '-')
+                        && ends_exponent(source, last, last_start, last_end);
+                    if (kind == Kind.GARBAGE) garbage_line = true;
+                    out.write(source, start, end);
+                    last = kind;
+                    last_start = start;
+                    last_end = end;
+                    separated = false;
+            }
+        }
+
+        if (ws_end > ws_start)
+            out.write(source, ws_start, ws_end);
+
+        out.flush();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean is_line_terminator (char c) {
+        return c == '\n' || c == '\r';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean has_line_terminator (String source, int start, int end)
+    {
+        for (int i = start; i < end; ++i)
+            if (is_line_terminator(source.charAt(i))) return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the line terminators between {@code start} and {@code end} and returns true if there
+     * were any.
+     */
+    private static boolean write_line_terminators (String source, int start, int end, Output out)
+        throws IOException
+    {
+        boolean any = false;
+        for (int i = start; i < end; ++i) {
+            char c = source.charAt(i);
+            if (is_line_terminator(c)) {
+                out.write(c);
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether a token of kind {@code k1} spanning {@code [s1, e1)} must be separated from a token
+     * of kind {@code k2} starting at {@code s2}, so that lexing their concatenation yields the
+     * same tokens. Conservative: may return true for pairs that would not merge.
+     */
+    private static boolean needs_space (String source, Kind k1, int s1, int e1, Kind k2, int s2)
+    {
+        if (k1 == Kind.GARBAGE || k2 == Kind.GARBAGE)
+            return true;
+
+        int a = source.codePointBefore(e1);
+        int b = source.codePointAt(s2);
+
+        if (Character.isJavaIdentifierPart(a) && Character.isJavaIdentifierPart(b))
+            return true; // int x, 1 L, 1 e5, ...
+
+        boolean number = k1 == Kind.DECIMAL_INT || k1 == Kind.HEX_INT || k1 == Kind.OCTAL_INT
+                      || k1 == Kind.BINARY_INT || k1 == Kind.DECIMAL_FLOAT || k1 == Kind.HEX_FLOAT;
+
+        if (number && (b == '.' || Character.isJavaIdentifierPart(b)))
+            return true; // 1 .5, 1. e5, 1. f
+
+        // malformed exponents: 1e +5, lexed as 1 e + 5
+        if ((b == '+' || b == '-') && ends_exponent(source, k1, s1, e1))
+            return true;
+
+        if (a == '.' && b >= '0' && b <= '9')
+            return true; // x. 5
+
+        return a < 128 && b < 128 && merges[a * 128 + b]; // - -, / /, > >=, "" "x", ...
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether a token of kind {@code k} spanning {@code [s, e)} could be continued by a sign as
+     * the exponent of a floating-point literal: a number or an identifier glued to a number ({@code
+     * 1e}, lexed as {@code 1 e}), ending in {@code e} or {@code p}. Conservative.
+     */
+    private static boolean ends_exponent (String source, Kind k, int s, int e)
+    {
+        if ("eEpP".indexOf(source.charAt(e - 1)) < 0)
+            return false;
+
+        boolean number = k == Kind.DECIMAL_INT || k == Kind.HEX_INT || k == Kind.OCTAL_INT
+                      || k == Kind.BINARY_INT || k == Kind.DECIMAL_FLOAT || k == Kind.HEX_FLOAT;
+
+        return number || k == Kind.IDENTIFIER && s > 0
+            && (is_digit(source.charAt(s - 1)) || source.charAt(s - 1) == '.');
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean is_digit (char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Buffers chars and writes them to a writer, or encodes them to a channel.
+     */
+    private static final class Output
+    {
+        final Writer writer;
+        final WritableByteChannel channel;
+        final CharsetEncoder encoder;
+
+        final char[] chars = new char[BUFFER_SIZE];
+        final CharBuffer char_buffer = CharBuffer.wrap(chars);
+        final ByteBuffer bytes;
+        int size;
+
+        Output (Writer writer, WritableByteChannel channel, CharsetEncoder encoder)
+        {
+            this.writer = writer;
+            this.channel = channel;
+            this.encoder = encoder;
+            this.bytes = encoder == null ? null
+                : ByteBuffer.allocate((int) (BUFFER_SIZE * encoder.maxBytesPerChar()));
+        }
+
+        void write (char c) throws IOException
+        {
+            if (size == chars.length) drain(false);
+            chars[size++] = c;
+        }
+
+        void write (String string, int start, int end) throws IOException
+        {
+            while (start < end) {
+                if (size == chars.length) drain(false);
+                int n = Math.min(end - start, chars.length - size);
+                string.getChars(start, start + n, chars, size);
+                size += n;
+                start += n;
+            }
+        }
+
+        void flush() throws IOException {
+            drain(true);
+        }
+
+        /**
+         * Empties the buffer. Unless {@code last} is true, a high surrogate at the end of the
+         * buffer may be retained until the next chars are available.
+         */
+        private void drain (boolean last) throws IOException
+        {
+            if (writer != null) {
+                writer.write(chars, 0, size);
+                size = 0;
+                return;
+            }
+
+            char_buffer.limit(size).position(0);
+            CoderResult result;
+            do {
+                result = encoder.encode(char_buffer, bytes, last);
+                if (result.isError()) result.throwException();
+                write_bytes();
+            }
+            while (result.isOverflow());
+
+            if (last) do {
+                result = encoder.flush(bytes);
+                write_bytes();
+            }
+            while (result.isOverflow());
+
+            int remaining = char_buffer.remaining();
+            System.arraycopy(chars, char_buffer.position(), chars, 0, remaining);
+            size = remaining;
+            char_buffer.clear();
+            if (last) encoder.reset();
+        }
+
+        private void write_bytes() throws IOException
+        {
+            bytes.flip();
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+            bytes.clear();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,175 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.regex.Pattern.compile;
+
+/**
+ * The reference lexing engine ({@link Lexer.Engine#REGEX}): tries all the {@link Regexes} at each
+ * position and retains the longest match.
+ * <p>
+ * This is slow and its tables (one pattern per keyword, separator and operator) are costly to
+ * build, which is only done when a language level is first used. It mostly serves as a readable
+ * specification to test other engines against.
+ */
+final class RegexScanner extends Scanner
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Pairs a pattern with the kind of input element it matches (and its index in the relevant
+     * vocabulary list, for keywords, separators and operators).
+     */
+    private static final class Entry
+    {
+        final Pattern pattern;
+        final Kind kind;
+        final int vocab;
+
+        Entry (Pattern pattern, Kind kind, int vocab) {
+            this.pattern = pattern;
+            this.kind = kind;
+            this.vocab = vocab;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Entries for each language level, built on first use. */
+    private static final Entry[][] cache = new Entry[LanguageLevel.values().length][];
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static synchronized Entry[] entries (LanguageLevel level)
+    {
+        Entry[] array = cache[level.ordinal()];
+        if (array != null) return array;
+
+        ArrayList<Entry> list = new ArrayList<>();
+
+        list.add(new Entry(Regexes.whitespace,    Kind.WHITESPACE,    -1));
+        list.add(new Entry(Regexes.line_comment,  Kind.LINE_COMMENT,  -1));
+        list.add(new Entry(Regexes.block_comment, Kind.BLOCK_COMMENT, -1));
+
+        add(list, Regexes.dec_int_regex(level),    Kind.DECIMAL_INT);
+        add(list, Regexes.hex_int_regex(level),    Kind.HEX_INT);
+        add(list, Regexes.oct_int_regex(level),    Kind.OCTAL_INT);
+        add(list, Regexes.bin_int_regex(level),    Kind.BINARY_INT);
+
+        add(list, Regexes.fp_regex(level),         Kind.DECIMAL_FLOAT);
+        add(list, Regexes.hex_fp_regex(level),     Kind.HEX_FLOAT);
+
+        add(list, Regexes.char_regex(level),       Kind.CHAR);
+        add(list, Regexes.string_regex(level),     Kind.STRING);
+        add(list, Regexes.text_block_regex(level), Kind.TEXT_BLOCK);
+        add(list, "true",                          Kind.TRUE);
+        add(list, "false",                         Kind.FALSE);
+        add(list, "null",                          Kind.NULL);
+
+        for (int k = 0; k < Lexer.keywordsa.length; ++k)
+            if (level.supports(Lexer.keywordsa[k]))
+                list.add(new Entry(compile(Pattern.quote(Lexer.keywordsa[k])), Kind.KEYWORD, k));
+
+        // After keywords!
+        // Identifiers are matched with IdentifierTable, equivalent to the identifier regex.
+        list.add(new Entry(null, Kind.IDENTIFIER, -1));
+
+        for (int k = 0; k < Lexer.separatorsa.length; ++k)
+            if (level.supports(Lexer.separatorsa[k]))
+                list.add(new Entry(compile(Pattern.quote(Lexer.separatorsa[k])), Kind.SEPARATOR, k));
+
+        for (int k = 0; k < Lexer.operatorsa.length; ++k)
+            if (level.supports(Lexer.operatorsa[k]))
+                list.add(new Entry(compile(Pattern.quote(Lexer.operatorsa[k])), Kind.OPERATOR, k));
+
+        return cache[level.ordinal()] = list.toArray(new Entry[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds an entry for {@code regex}, unless it is null (unsupported at the language level).
+     */
+    private static void add (ArrayList<Entry> list, String regex, Kind kind) {
+        if (regex != null)
+            list.add(new Entry(compile(regex), kind, -1));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final String string;
+    private final int len;
+    private final Entry[] entries;
+    private final Matcher[] matchers;
+
+    /** Per kind: number of times a pattern was tried, and matched (null if not instrumented). */
+    private long[] attempts, hits;
+
+    // ---------------------------------------------------------------------------------------------
+
+    RegexScanner (String string, LanguageLevel level)
+    {
+        this.entries = entries(level);
+        this.string = string;
+        this.len = string.length();
+        this.matchers = new Matcher[entries.length];
+
+        for (int j = 0; j < entries.length; ++j)
+            if (entries[j].pattern != null)
+                matchers[j] = entries[j].pattern.matcher(string);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes the scanner count pattern attempts and hits (non-empty matches) per kind in the given arrays.
+     */
+    void instrument (long[] attempts, long[] hits) {
+        this.attempts = attempts;
+        this.hits = hits;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override int scan (int i)
+    {
+        int top = -1;
+        int max = 0;
+
+        for (int j = 0; j < entries.length; ++j)
+        {
+            int end;
+            Matcher matcher = matchers[j];
+
+            if (matcher == null)
+                end = IdentifierTable.scan(string, i, len);
+            else {
+                matcher.region(i, len);
+                end = matcher.lookingAt() ? matcher.end() : -1;
+            }
+
+            if (attempts != null) {
+                ++attempts[entries[j].kind.ordinal()];
+                if (end > i) ++hits[entries[j].kind.ordinal()];
+            }
+
+            if (end - i > max) {
+                max = end - i;
+                top = j;
+            }
+        }
+
+        if (top < 0)
+            return -1;
+
+        kind  = entries[top].kind;
+        vocab = entries[top].vocab;
+        return i + max;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
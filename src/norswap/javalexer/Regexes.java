@@ -0,0 +1,219 @@
+package norswap.javalexer;
+
+import java.util.regex.Pattern;
+
+import static java.util.regex.Pattern.DOTALL;
+import static java.util.regex.Pattern.compile;
+
+/**
+ * Regexes for all types of input elements defined by the JLS, and a few extras.
+ * <p>
+ * These are not used by the default lexing engine (see {@link Lexer.Engine}): compiling them
+ * takes longer than lexing most files, and they live in their own class so that this cost is only
+ * incurred when they are actually used.
+ */
+public final class Regexes
+{
+    // ---------------------------------------------------------------------------------------------
+    /* Summary of unusual regex features used:
+
+      . = any char but not a newline
+      \\d = digits [0-9]
+      \\p{Nd} = unicode decimal digits (includes [0-9])
+      \\s = whistepsace chars [ \t\n\x0B\f\r]
+      \\p{XDigit} = hexadecimal digits [a-fA-F0-9]
+      \\p{L} = unicode letters
+      \\p{Nl} = unicode numbers that look like letters (e.g. roman numerals)
+      \\p{Sc} = unicode currency symbols
+      \\p{Pc} = unicode connector punctuation (like '_')
+      \\p{Mc} = unicode spacing mark
+      \\p{Mn} = unicode non-spacing mark
+      \\p{Cf} = unicode format characters
+      DOTALL    = make dots match newlines as well
+      (?: = start of non-capturing group
+      *?/+? = reluctant repetition (prefers match with least repetitions)
+      *+/++ = possessive repetition (forces failure if cannot succeed with all possible repetitions)
+
+      Note: all backlashes must be doubled when compared to a regular Java string.
+      So, escaped regex characters look like '\\*' (escaping '*').
+      '\\\\' is used to escape a single backslash.
+
+     */
+    // ---------------------------------------------------------------------------------------------
+    // Non-Tokens Input Elements
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Matches strings of whitespace characters: spaces, tabs, newlines, ...
+     */
+    public static final Pattern whitespace = compile("\\s*");
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Matches a line comment (starting with {@code //}), including its terminating newline, if
+     * available.
+     */
+    public static final Pattern line_comment = compile("//(?:.*)\n?");
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Matches a block comment (starting with {@code /*}).
+     */
+    public static final Pattern block_comment = compile("/\\*.*?\\*/", DOTALL);
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String idcommon = "\\p{L}\\p{Nl}\\p{Sc}\\p{Pc}";
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Regex string that matches a java identifier start character.
+     * @see Character#isJavaIdentifierStart(char)
+     */
+    public static final String identifier_start = "[" + idcommon + "]";
+
+    // ---------------------------------------------------------------------------------------------
+
+     /**
+      * Regex string that matches a java identifier character (but not the start character).
+      * @see Character#isJavaIdentifierPart(char)
+      */
+    public static final String identifier_part = "[" + idcommon
+         + "\\p{Nd}\\p{Mc}\\p{Mn}\\p{Cf}[\u0000-\u0008][\u000e-\u001b][\u007F-\u009F]]";
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Matches java identifiers.
+     */
+    public static final Pattern identifier = compile(identifier_start + identifier_part + "*");
+
+    // ---------------------------------------------------------------------------------------------
+    // Integer Literals
+    //
+    // The methods build the regexes for a given language level. The public patterns are built for
+    // LanguageLevel.LATEST.
+
+    private static String digits (LanguageLevel level) {
+        return level.underscores ? "(?:\\d+(?:_*\\d++)*)" : "(?:\\d+)";
+    }
+
+    private static String hexd (LanguageLevel level) {
+        return level.underscores
+            ? "(?:\\p{XDigit}++(?:_*\\p{XDigit}++)*)"
+            : "(?:\\p{XDigit}++)";
+    }
+
+    static String dec_int_regex (LanguageLevel level) {
+        return level.underscores ? "(?:0|[1-9](?:_*\\d++)*)[lL]?" : "(?:0|[1-9]\\d*+)[lL]?";
+    }
+
+    static String hex_int_regex (LanguageLevel level) {
+        return "0[xX]" + hexd(level) + "[lL]?";
+    }
+
+    static String oct_int_regex (LanguageLevel level) {
+        return level.underscores ? "0(?:_*[0-7]++)+[lL]?" : "0[0-7]++[lL]?";
+    }
+
+    /** Returns null if binary literals are not supported. */
+    static String bin_int_regex (LanguageLevel level) {
+        return !level.binary_literals ? null
+            : level.underscores ? "0[bB][01]++(?:_*[01]++)*[lL]?"
+            : "0[bB][01]++[lL]?";
+    }
+
+    /** Matches decimal integer literals. */
+    public static final Pattern dec_int_lit = compile(dec_int_regex(LanguageLevel.LATEST));
+
+    /** Matches hexadecimal integer literals. */
+    public static final Pattern hex_int_lit = compile(hex_int_regex(LanguageLevel.LATEST));
+
+    /** Matches octal integer literals. */
+    public static final Pattern oct_int_lit = compile(oct_int_regex(LanguageLevel.LATEST));
+
+    /** Matches binary integer literals. */
+    public static final Pattern bin_int_lit = compile(bin_int_regex(LanguageLevel.LATEST));
+
+    // ---------------------------------------------------------------------------------------------
+    // Floating-Point Literals
+
+    static String fp_regex (LanguageLevel level)
+    {
+        String digits = digits(level);
+        String exp_part = "(?:[eE][+-]?" + digits + ")";
+
+        return digits + "\\." + digits + "?" + exp_part + "?[fFdD]?"
+            + "|\\." + digits + exp_part + "?[fFdD]?"
+            + "|" + digits + exp_part + "[fFdD]?"
+            + "|" + digits + exp_part + "?[fFdD]";
+    }
+
+    static String hex_fp_regex (LanguageLevel level)
+    {
+        String hexd = hexd(level);
+        String hex_significand = "0[xX](?:" + hexd + "(?:\\." + hexd + "?)?" + "|\\." + hexd + ")";
+        return hex_significand + "[pP][+-]?" + digits(level) + "[fFdD]?";
+    }
+
+    /**
+     * Matches decimal floating-point literals.
+     */
+    public static final Pattern fp_lit = compile(fp_regex(LanguageLevel.LATEST));
+
+    /**
+     * Matches hexadecimal floating-point literals.
+     */
+    public static final Pattern hex_fp_lit = compile(hex_fp_regex(LanguageLevel.LATEST));
+
+    // ---------------------------------------------------------------------------------------------
+    // Other Literals
+
+    private static String escape (LanguageLevel level)
+    {
+        return "(?"
+            + (level.text_blocks ? ":\\\\[btnfrs\"'\\\\]" : ":\\\\[btnfr\"'\\\\]")
+            + "|\\\\[0-7][0-7]?"
+            + "|\\\\[0-3][0-7][0-7])";
+    }
+
+    static String char_regex (LanguageLevel level) {
+        return "'(?:[^\n\r'\\\\]|" + escape(level) + ")'";
+    }
+
+    static String string_regex (LanguageLevel level) {
+        return "\"(?:[^\n\r\"\\\\]|" + escape(level) + ")*\"";
+    }
+
+    /**
+     * Returns null if text blocks are not supported. The text block ends at the first three
+     * consecutive unescaped double quotes.
+     */
+    static String text_block_regex (LanguageLevel level)
+    {
+        return !level.text_blocks ? null
+            : "\"\"\"[ \t\f]*+(?:\r\n?|\n)"
+                + "(?:[^\"\\\\]|" + escape(level) + "|\\\\[\n\r]|\"(?!\"\"))*+"
+                + "\"\"\"";
+    }
+
+    /** Matches a character literal. */
+    public static final Pattern char_lit = compile(char_regex(LanguageLevel.LATEST));
+
+    /** Matches a string literal. */
+    public static final Pattern string_lit = compile(string_regex(LanguageLevel.LATEST));
+
+    /** Matches a text block. */
+    public static final Pattern text_block = compile(text_block_regex(LanguageLevel.LATEST));
+
+    /** Matches a boolean literal. */
+    public static final Pattern bool_lit = compile("true|false");
+
+    /** Matches the null literal. */
+    public static final Pattern null_lit = compile("null");
+
+    // ---------------------------------------------------------------------------------------------
+}
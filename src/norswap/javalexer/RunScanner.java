@@ -0,0 +1,144 @@
+package norswap.javalexer;
+
+/**
+ * Finds the end of the long runs of characters that the table engine does not need to look at
+ * individually: whitespace, comment bodies and string bodies.
+ * <p>
+ * This is the scalar implementation. On Java 16+, the multi-release JAR also contains a {@code
+ * VectorRunScanner} subclass which uses the (incubating) Vector API to examine many characters at
+ * once. It is used by the {@link Lexer.Engine#VECTOR} engine when available: the {@code
+ * jdk.incubator.vector} module must be added to the JVM ({@code --add-modules
+ * jdk.incubator.vector}), otherwise this scalar implementation is used.
+ * <p>
+ * The input is scanned in place (as a {@link String}). Implementations that need the characters
+ * in an array copy them piecewise into a scratch buffer supplied by the caller (see {@link
+ * #buffer()}).
+ */
+class RunScanner
+{
+    // ---------------------------------------------------------------------------------------------
+
+    static final RunScanner SCALAR = new RunScanner();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Vector
+    {
+        static final RunScanner INSTANCE = load();
+
+        private static RunScanner load()
+        {
+            if (Boolean.getBoolean("norswap.javalexer.novector"))
+                return SCALAR;
+
+            try {
+                return (RunScanner) Class.forName("norswap.javalexer.VectorRunScanner")
+                    .getDeclaredConstructor().newInstance();
+            }
+            catch (ReflectiveOperationException | LinkageError e) {
+                // not on Java 16+, or jdk.incubator.vector missing
+                return SCALAR;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the vectorized implementation if it is available, or the scalar one otherwise.
+     * Setting the {@code norswap.javalexer.novector} system property forces the latter.
+     */
+    static RunScanner vector() {
+        return Vector.INSTANCE;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new scratch buffer to pass to the scanning methods, or null if this implementation
+     * doesn't need one. A buffer must not be used by several threads at once.
+     */
+    char[] buffer() {
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code c} is a whitespace character ({@code [ \t\n\x0B\f\r]}).
+     */
+    static boolean is_space (char c) {
+        return c == ' ' || c >= '\t' && c <= '\r';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code c} ends a line comment: CR, LF, NEL and the Unicode line and paragraph
+     * separators.
+     */
+    static boolean is_line_end (char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code c} interrupts the body of a string literal: {@code ["\\\n\r]}.
+     */
+    static boolean is_string_stop (char c) {
+        return c == '"' || c == '\\' || c == '\n' || c == '\r';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the first non-whitespace character at or after {@code i}, or {@code
+     * len}.
+     */
+    int skip_whitespace (String in, int i, int len, char[] buffer)
+    {
+        while (i < len && is_space(in.charAt(i))) ++i;
+        return i;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the first line comment terminator (see {@link #is_line_end}) at or
+     * after {@code i}, or {@code len}.
+     */
+    int line_end (String in, int i, int len, char[] buffer)
+    {
+        while (i < len && !is_line_end(in.charAt(i))) ++i;
+        return i;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the first {@code * /} sequence (without the space) at or after {@code
+     * i}, or -1.
+     */
+    int comment_end (String in, int i, int len, char[] buffer)
+    {
+        for (; i + 1 < len; ++i)
+            if (in.charAt(i) == '*' && in.charAt(i + 1) == '/')
+                return i;
+        return -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the first character at or after {@code i} that interrupts a string
+     * body (see {@link #is_string_stop}), or {@code len}.
+     */
+    int string_stop (String in, int i, int len, char[] buffer)
+    {
+        while (i < len && !is_string_stop(in.charAt(i))) ++i;
+        return i;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
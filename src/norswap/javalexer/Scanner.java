@@ -0,0 +1,38 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+/**
+ * A lexing engine: recognizes the longest input element starting at a given position in its
+ * input, without instantiating it. Used by {@link Lexer}, which handles everything else (garbage,
+ * diagnostics, budgets, instantiating input elements).
+ */
+abstract class Scanner
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Kind of the input element recognized by the last successful call to {@link #scan}.
+     */
+    Kind kind;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If the last successful call to {@link #scan} recognized a keyword, separator or operator,
+     * its index in {@link Lexer#keywords}, {@link Lexer#separators} or {@link Lexer#operators}
+     * respectively.
+     */
+    int vocab;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the end of the longest input element starting at position {@code i} (which must be
+     * smaller than the input's length), or -1 if no input element matches at that position. If
+     * several kinds of input elements match, the first one in the order of {@link Kind} wins.
+     */
+    abstract int scan (int i);
+
+    // ---------------------------------------------------------------------------------------------
+}
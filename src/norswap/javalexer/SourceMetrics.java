@@ -0,0 +1,433 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Source code metrics — line counts, input element counts per kind and Halstead metrics —
+ * computed while lexing, without instantiating input elements.
+ * <p>
+ * A {@code SourceMetrics} object accumulates the metrics of one or more sources ({@link #add}),
+ * and can be merged with another ({@link #merge}), which enables computing the metrics of a
+ * corpus in parallel with per-thread accumulators (see {@link #corpus} and {@link #per_file}).
+ * <p>
+ * Lines are classified as code lines (containing part of a token), comment lines (containing
+ * part of a comment) and blank lines (neither). A line with both code and a comment counts as
+ * both a code line and a comment line.
+ * <p>
+ * For Halstead metrics, keywords, separators and operators are operators; identifiers and
+ * literals are operands. Distinct operands are compared by text.
+ * <p>
+ * Not thread-safe: use one instance per thread and merge them.
+ */
+public final class SourceMetrics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private static final int CODE = 1, COMMENT = 2;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Language level at which sources are lexed.
+     */
+    public final LanguageLevel level;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private long files, chars, lines, code_lines, comment_lines, blank_lines;
+    private final long[] kinds = new long[KINDS.length];
+    private long total_operators, total_operands;
+
+    /** Distinct operators: bits indexed by vocabulary index, for each vocabulary kind. */
+    private final long[] keyword_set, separator_set, operator_set;
+
+    /** Distinct operands, merged from the per-source sets. */
+    private final HashSet<String> operands = new HashSet<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an empty accumulator, lexing at {@link LanguageLevel#LATEST}.
+     */
+    public SourceMetrics() {
+        this(LanguageLevel.LATEST);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an empty accumulator, lexing at the given level.
+     */
+    public SourceMetrics (LanguageLevel level)
+    {
+        this.level = level;
+        keyword_set   = new long[(Lexer.keywordsa.length   + 63) / 64];
+        separator_set = new long[(Lexer.separatorsa.length + 63) / 64];
+        operator_set  = new long[(Lexer.operatorsa.length  + 63) / 64];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the metrics of {@code source} (lexed at {@link LanguageLevel#LATEST}).
+     */
+    public static SourceMetrics of (String source) {
+        SourceMetrics metrics = new SourceMetrics();
+        metrics.add(source);
+        return metrics;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the aggregate metrics of the given sources, computed in parallel.
+     */
+    public static SourceMetrics corpus (Collection<String> sources, LanguageLevel level)
+    {
+        return sources.parallelStream().collect(
+            () -> new SourceMetrics(level),
+            SourceMetrics::add,
+            SourceMetrics::merge);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the metrics of each of the given sources, computed in parallel. Use {@link
+     * #total} to aggregate them.
+     */
+    public static List<SourceMetrics> per_file (List<String> sources, LanguageLevel level)
+    {
+        return sources.parallelStream()
+            .map(source -> {
+                SourceMetrics metrics = new SourceMetrics(level);
+                metrics.add(source);
+                return metrics; })
+            .collect(Collectors.toList());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the aggregate of the given metrics (which are not modified).
+     */
+    public static SourceMetrics total (Collection<SourceMetrics> metrics)
+    {
+        SourceMetrics total = new SourceMetrics(
+            metrics.isEmpty() ? LanguageLevel.LATEST : metrics.iterator().next().level);
+        for (SourceMetrics m: metrics)
+            total.merge(m);
+        return total;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes {@code source} and adds its metrics to this accumulator.
+     */
+    public void add (String source)
+    {
+        Lexer lexer = new Lexer(source, level);
+        OperandSet set = new OperandSet(source);
+        int line = 0; // CODE and COMMENT flags of the current line
+        boolean pending = false; // whether the current line has any character
+
+        for (Kind kind; (kind = lexer.advance()) != null; )
+        {
+            ++kinds[kind.ordinal()];
+            int start = lexer.start(), end = lexer.end();
+            int flag = kind.is_token() ? CODE : kind == Kind.WHITESPACE ? 0 : COMMENT;
+
+            switch (kind) {
+                case KEYWORD:   set(keyword_set,   lexer.vocab()); ++total_operators; break;
+                case SEPARATOR: set(separator_set, lexer.vocab()); ++total_operators; break;
+                case OPERATOR:  set(operator_set,  lexer.vocab()); ++total_operators; break;
+                case GARBAGE:   break;
+                default:
+                    if (kind.is_token()) {
+                        set.add(start, end);
+                        ++total_operands;
+                    }
+            }
+
+            // scan for line terminators; only whitespace, comments, text blocks and garbage
+            // can contain them
+            boolean multiline = kind == Kind.WHITESPACE || kind == Kind.BLOCK_COMMENT
+                || kind == Kind.LINE_COMMENT || kind == Kind.TEXT_BLOCK || kind == Kind.GARBAGE;
+
+            if (!multiline) {
+                line |= flag;
+                pending = true;
+                continue;
+            }
+
+            for (int i = start; i < end; ++i) {
+                char c = source.charAt(i);
+                if (c == '\n' || c == '\r') {
+                    if (c == '\r' && i + 1 < end && source.charAt(i + 1) == '\n') ++i;
+                    end_line(line);
+                    line = 0;
+                    pending = false;
+                }
+                else {
+                    line |= flag;
+                    pending = true;
+                }
+            }
+        }
+
+        if (pending)
+            end_line(line);
+
+        ++files;
+        chars += source.length();
+        operands.addAll(set.strings());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void end_line (int line)
+    {
+        ++lines;
+        if ((line & CODE) != 0)    ++code_lines;
+        if ((line & COMMENT) != 0) ++comment_lines;
+        if (line == 0)             ++blank_lines;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void set (long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the metrics accumulated by {@code other} to this accumulator. Returns this.
+     */
+    public SourceMetrics merge (SourceMetrics other)
+    {
+        files         += other.files;
+        chars         += other.chars;
+        lines         += other.lines;
+        code_lines    += other.code_lines;
+        comment_lines += other.comment_lines;
+        blank_lines   += other.blank_lines;
+        total_operators += other.total_operators;
+        total_operands  += other.total_operands;
+
+        for (int i = 0; i < kinds.length; ++i)
+            kinds[i] += other.kinds[i];
+
+        for (int i = 0; i < keyword_set.length; ++i)   keyword_set[i]   |= other.keyword_set[i];
+        for (int i = 0; i < separator_set.length; ++i) separator_set[i] |= other.separator_set[i];
+        for (int i = 0; i < operator_set.length; ++i)  operator_set[i]  |= other.operator_set[i];
+
+        operands.addAll(other.operands);
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A set of operands, identified by their range in the source: strings are only instantiated
+     * for distinct operands.
+     */
+    private static final class OperandSet
+    {
+        final String source;
+        int[] starts = new int[64], ends = new int[64];
+        int size;
+
+        OperandSet (String source) {
+            this.source = source;
+            Arrays.fill(starts, -1);
+        }
+
+        void add (int start, int end)
+        {
+            if (2 * (size + 1) > starts.length) grow();
+            int s = find(start, end);
+            if (starts[s] < 0) {
+                starts[s] = start;
+                ends[s] = end;
+                ++size;
+            }
+        }
+
+        int find (int start, int end)
+        {
+            int h = 0;
+            for (int i = start; i < end; ++i)
+                h = 31 * h + source.charAt(i);
+
+            int mask = starts.length - 1;
+            int s = h * 0x9E3779B9 >>> 7 & mask;
+            int len = end - start;
+
+            while (starts[s] >= 0 && (ends[s] - starts[s] != len
+                    || !source.regionMatches(starts[s], source, start, len)))
+                s = (s + 1) & mask;
+
+            return s;
+        }
+
+        void grow()
+        {
+            int[] old_starts = starts, old_ends = ends;
+            starts = new int[old_starts.length * 2];
+            ends = new int[old_starts.length * 2];
+            Arrays.fill(starts, -1);
+            for (int i = 0; i < old_starts.length; ++i)
+                if (old_starts[i] >= 0) {
+                    int s = find(old_starts[i], old_ends[i]);
+                    starts[s] = old_starts[i];
+                    ends[s] = old_ends[i];
+                }
+        }
+
+        List<String> strings()
+        {
+            ArrayList<String> list = new ArrayList<>(size);
+            for (int i = 0; i < starts.length; ++i)
+                if (starts[i] >= 0)
+                    list.add(source.substring(starts[i], ends[i]));
+            return list;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of sources added. */
+    public long files() {
+        return files;
+    }
+
+    /** Number of characters. */
+    public long chars() {
+        return chars;
+    }
+
+    /** Number of lines. A trailing line terminator does not start a new line. */
+    public long lines() {
+        return lines;
+    }
+
+    /** Number of lines containing (part of) a token. */
+    public long code_lines() {
+        return code_lines;
+    }
+
+    /** Number of lines containing (part of) a comment. */
+    public long comment_lines() {
+        return comment_lines;
+    }
+
+    /** Number of lines containing only whitespace. */
+    public long blank_lines() {
+        return blank_lines;
+    }
+
+    /** Number of input elements of the given kind. */
+    public long count (Kind kind) {
+        return kinds[kind.ordinal()];
+    }
+
+    /** Number of tokens. */
+    public long tokens()
+    {
+        long count = 0;
+        for (Kind kind: KINDS)
+            if (kind.is_token()) count += kinds[kind.ordinal()];
+        return count;
+    }
+
+    /**
+     * Ratio of comment lines to the lines containing code or comments (0 if there are none).
+     */
+    public double comment_density()
+    {
+        long non_blank = lines - blank_lines;
+        return non_blank == 0 ? 0 : (double) comment_lines / non_blank;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Halstead's n1: number of distinct operators. */
+    public int distinct_operators() {
+        return bit_count(keyword_set) + bit_count(separator_set) + bit_count(operator_set);
+    }
+
+    /** Halstead's n2: number of distinct operands. */
+    public int distinct_operands() {
+        return operands.size();
+    }
+
+    /** Halstead's N1: total number of operators. */
+    public long total_operators() {
+        return total_operators;
+    }
+
+    /** Halstead's N2: total number of operands. */
+    public long total_operands() {
+        return total_operands;
+    }
+
+    /** Halstead vocabulary: n1 + n2. */
+    public int vocabulary() {
+        return distinct_operators() + distinct_operands();
+    }
+
+    /** Halstead length: N1 + N2. */
+    public long length() {
+        return total_operators + total_operands;
+    }
+
+    /** Halstead volume: length * log2(vocabulary). */
+    public double volume() {
+        int n = vocabulary();
+        return n == 0 ? 0 : length() * Math.log(n) / Math.log(2);
+    }
+
+    /** Halstead difficulty: n1 / 2 * N2 / n2. */
+    public double difficulty() {
+        int n2 = distinct_operands();
+        return n2 == 0 ? 0 : distinct_operators() / 2.0 * total_operands / n2;
+    }
+
+    /** Halstead effort: difficulty * volume. */
+    public double effort() {
+        return difficulty() * volume();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int bit_count (long[] bits)
+    {
+        int count = 0;
+        for (long word: bits) count += Long.bitCount(word);
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString()
+    {
+        return String.format(
+            "SourceMetrics(files: %d, lines: %d, code: %d, comment: %d, blank: %d, tokens: %d, "
+            + "n1: %d, n2: %d, N1: %d, N2: %d, volume: %.1f)",
+            files, lines, code_lines, comment_lines, blank_lines, tokens(),
+            distinct_operators(), distinct_operands(), total_operators, total_operands, volume());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,730 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+import java.util.Arrays;
+
+/**
+ * The default lexing engine ({@link Lexer.Engine#TABLE}): a hand-written scanner that dispatches
+ * on the class of the first character of an input element, then recognizes it with dedicated
+ * code. It is equivalent to {@link RegexScanner}.
+ * <p>
+ * Its tables are plain arrays built by simple loops (no regexes, no lambdas, no reflection), which
+ * keeps initialization cheap and friendly to ahead-of-time compilation (GraalVM native-image) and
+ * class data sharing (AppCDS). The vocabulary tables are built once per language level, so
+ * supporting more levels has no per-token cost.
+ */
+final class TableScanner extends Scanner
+{
+    // ---------------------------------------------------------------------------------------------
+    // Character classes (ASCII only: other characters can only begin identifiers)
+
+    private static final byte OTHER   = 0;
+    private static final byte SPACE   = 1;
+    private static final byte IDSTART = 2;
+    private static final byte DIGIT   = 3;
+    private static final byte SLASH   = 4;
+    private static final byte DOT     = 5;
+    private static final byte QUOTE   = 6;
+    private static final byte DQUOTE  = 7;
+    private static final byte PUNCT   = 8;
+
+    private static final byte[] classes = new byte[128];
+
+    static {
+        for (char c = 0; c < 128; ++c)
+            classes[c]
+                = c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r' ? SPACE
+                : Character.isJavaIdentifierStart(c) ? IDSTART
+                : '0' <= c && c <= '9' ? DIGIT
+                : c == '/'  ? SLASH
+                : c == '.'  ? DOT
+                : c == '\'' ? QUOTE
+                : c == '"'  ? DQUOTE
+                : OTHER;
+
+        for (String sep: Lexer.separatorsa)
+            if (classes[sep.charAt(0)] == OTHER) classes[sep.charAt(0)] = PUNCT;
+        for (String op: Lexer.operatorsa)
+            if (classes[op.charAt(0)] == OTHER) classes[op.charAt(0)] = PUNCT;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The vocabulary tables for a language level.
+     */
+    private static final class Tables
+    {
+        /**
+         * For each ASCII character, the separators and operators starting with it, by decreasing
+         * length. {@code punct_vocab} holds the index of each in the separators list, or {@code
+         * -1 - index} in the operators list.
+         */
+        final String[][] punct_text  = new String[128][];
+        final int   [][] punct_vocab = new int[128][];
+
+        final WordTable words;
+        final Kind[] word_kinds;
+        final int[] word_vocab;
+
+        Tables (LanguageLevel level)
+        {
+            String[] seps = Lexer.separatorsa;
+            String[] ops  = Lexer.operatorsa;
+
+            for (char c = 0; c < 128; ++c)
+            {
+                int n = 0;
+                for (String sep: seps) if (sep.charAt(0) == c && level.supports(sep)) ++n;
+                for (String op:  ops)  if (op .charAt(0) == c && level.supports(op))  ++n;
+                if (n == 0) continue;
+
+                String[] text = new String[n];
+                int[] vocab = new int[n];
+                n = 0;
+                for (int k = 0; k < seps.length; ++k)
+                    if (seps[k].charAt(0) == c && level.supports(seps[k]))
+                        { text[n] = seps[k]; vocab[n++] = k; }
+                for (int k = 0; k < ops.length; ++k)
+                    if (ops[k].charAt(0) == c && level.supports(ops[k]))
+                        { text[n] = ops[k]; vocab[n++] = -1 - k; }
+
+                // insertion sort by decreasing length (stable: separators stay before operators)
+                for (int a = 1; a < n; ++a)
+                    for (int b = a; b > 0 && text[b].length() > text[b - 1].length(); --b) {
+                        String ts = text[b]; text[b] = text[b - 1]; text[b - 1] = ts;
+                        int tv = vocab[b]; vocab[b] = vocab[b - 1]; vocab[b - 1] = tv;
+                    }
+
+                punct_text [c] = text;
+                punct_vocab[c] = vocab;
+            }
+
+            String[] kws = Lexer.keywordsa;
+            String[] all = new String[kws.length + 3];
+            Kind[] kinds = new Kind[all.length];
+            int[] vocab = new int[all.length];
+
+            all[0] = "true";  kinds[0] = Kind.TRUE;  vocab[0] = -1;
+            all[1] = "false"; kinds[1] = Kind.FALSE; vocab[1] = -1;
+            all[2] = "null";  kinds[2] = Kind.NULL;  vocab[2] = -1;
+
+            int n = 3;
+            for (int k = 0; k < kws.length; ++k)
+                if (level.supports(kws[k])) {
+                    all[n] = kws[k];
+                    kinds[n] = Kind.KEYWORD;
+                    vocab[n++] = k;
+                }
+
+            this.words = new WordTable(Arrays.copyOf(all, n));
+            this.word_kinds = kinds;
+            this.word_vocab = vocab;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Tables for each language level, built on first use. */
+    private static final Tables[] tables = new Tables[LanguageLevel.values().length];
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static synchronized Tables tables (LanguageLevel level)
+    {
+        Tables t = tables[level.ordinal()];
+        return t != null ? t : (tables[level.ordinal()] = new Tables(level));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final String in;
+    private final int len;
+
+    /** Scratch buffer for {@link #runs}, or null if it doesn't need one. */
+    private final char[] buffer;
+
+    private final String[][] punct_text;
+    private final int[][] punct_vocab;
+    private final WordTable words;
+    private final Kind[] word_kinds;
+    private final int[] word_vocab;
+
+    private final boolean underscores, binary_literals, text_blocks;
+    private final RunScanner runs;
+
+    // ---------------------------------------------------------------------------------------------
+
+    TableScanner (String string, LanguageLevel level, RunScanner runs)
+    {
+        this.runs = runs;
+        this.in = string; // scanned in place: no copy, so lexing a range costs only its size
+        this.len = string.length();
+        this.buffer = runs.buffer();
+
+        Tables tables = tables(level);
+        this.punct_text  = tables.punct_text;
+        this.punct_vocab = tables.punct_vocab;
+        this.words       = tables.words;
+        this.word_kinds  = tables.word_kinds;
+        this.word_vocab  = tables.word_vocab;
+
+        this.underscores     = level.underscores;
+        this.binary_literals = level.binary_literals;
+        this.text_blocks     = level.text_blocks;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override int scan (int i)
+    {
+        char c = in.charAt(i);
+
+        if (c >= 128)
+            return word(i);
+
+        switch (classes[c])
+        {
+            case SPACE:
+                kind = Kind.WHITESPACE;
+                return whitespace(i);
+
+            case IDSTART:
+                return word(i);
+
+            case DIGIT:
+                return number(i);
+
+            case SLASH:
+                if (i + 1 < len) {
+                    if (in.charAt(i + 1) == '/') {
+                        kind = Kind.LINE_COMMENT;
+                        return line_comment(i);
+                    }
+                    if (in.charAt(i + 1) == '*') {
+                        int end = block_comment_end(i + 2);
+                        if (end >= 0) {
+                            kind = Kind.BLOCK_COMMENT;
+                            return end;
+                        }
+                    }
+                }
+                return punct(i);
+
+            case DOT: {
+                int end = fp_lit(i);
+                int pend = punct(i);
+                if (end >= pend) {
+                    kind = Kind.DECIMAL_FLOAT;
+                    return end;
+                }
+                return pend;
+            }
+
+            case QUOTE:
+                kind = Kind.CHAR;
+                return char_lit(i);
+
+            case DQUOTE:
+                if (text_blocks && at(i + 1, '"') && at(i + 2, '"')) {
+                    int end = text_block(i);
+                    if (end >= 0) {
+                        kind = Kind.TEXT_BLOCK;
+                        return end;
+                    }
+                }
+                kind = Kind.STRING;
+                return string_lit(i);
+
+            case PUNCT:
+                return punct(i);
+
+            default:
+                return -1;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Whitespace & Comments
+
+    private int whitespace (int i) {
+        return runs.skip_whitespace(in, i, len, buffer);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Line comments stop before any line terminator recognized by {@code .} in regexes, but only
+     * include a terminating {@code \n}.
+     */
+    private int line_comment (int i)
+    {
+        i = runs.line_end(in, i + 2, len, buffer);
+        return i < len && in.charAt(i) == '\n' ? i + 1 : i;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the end of the first {@code * /} at or after {@code i}, or -1.
+     */
+    private int block_comment_end (int i)
+    {
+        i = runs.comment_end(in, i, len, buffer);
+        return i < 0 ? -1 : i + 2;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Words
+
+    private int word (int i)
+    {
+        int end = IdentifierTable.scan(in, i, len);
+
+        if (end < 0)
+            return -1;
+
+        int w = words.find(in, i, end);
+
+        if (w < 0) {
+            kind = Kind.IDENTIFIER;
+        } else {
+            kind = word_kinds[w];
+            vocab = word_vocab[w];
+        }
+
+        return end;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Separators & Operators
+
+    private int punct (int i)
+    {
+        char c = in.charAt(i);
+        String[] text = punct_text[c];
+
+        if (text == null)
+            return -1;
+
+        outer: for (int k = 0; k < text.length; ++k)
+        {
+            String t = text[k];
+            int n = t.length();
+
+            if (i + n > len)
+                continue;
+
+            for (int j = 1; j < n; ++j)
+                if (in.charAt(i + j) != t.charAt(j))
+                    continue outer;
+
+            int v = punct_vocab[c][k];
+            kind  = v >= 0 ? Kind.SEPARATOR : Kind.OPERATOR;
+            vocab = v >= 0 ? v : -1 - v;
+            return i + n;
+        }
+
+        return -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Numbers
+
+    /**
+     * Tries all numeric literal kinds and returns the longest match (the first in the order of
+     * {@link Kind} in case of tie), as the regex engine would.
+     */
+    private int number (int i)
+    {
+        int best = dec_int_lit(i);
+        Kind k = Kind.DECIMAL_INT;
+
+        if (in.charAt(i) == '0')
+        {
+            int end = hex_int_lit(i);
+            if (end > best) { best = end; k = Kind.HEX_INT; }
+
+            end = oct_int_lit(i);
+            if (end > best) { best = end; k = Kind.OCTAL_INT; }
+
+            if (binary_literals) {
+                end = bin_int_lit(i);
+                if (end > best) { best = end; k = Kind.BINARY_INT; }
+            }
+        }
+
+        int end = fp_lit(i);
+        if (end > best) { best = end; k = Kind.DECIMAL_FLOAT; }
+
+        if (in.charAt(i) == '0') {
+            end = hex_fp_lit(i);
+            if (end > best) { best = end; k = Kind.HEX_FLOAT; }
+        }
+
+        kind = k;
+        return best;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean at (int i, char c) {
+        return i < len && in.charAt(i) == c;
+    }
+
+    private boolean at (int i, char c1, char c2) {
+        return i < len && (in.charAt(i) == c1 || in.charAt(i) == c2);
+    }
+
+    private boolean digit_at (int i) {
+        return i < len && '0' <= in.charAt(i) && in.charAt(i) <= '9';
+    }
+
+    private boolean hex_at (int i) {
+        return i < len && LexUtil.is_hex(in.charAt(i));
+    }
+
+    private boolean octal_at (int i) {
+        return i < len && LexUtil.is_octal(in.charAt(i));
+    }
+
+    private boolean binary_at (int i) {
+        return i < len && (in.charAt(i) == '0' || in.charAt(i) == '1');
+    }
+
+    private int long_suffix (int i) {
+        return at(i, 'l', 'L') ? i + 1 : i;
+    }
+
+    private int float_suffix (int i) {
+        return i < len && "fFdD".indexOf(in.charAt(i)) >= 0 ? i + 1 : i;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * {@code \d+(?:_*\d++)*}: digits with underscores in between (if the language level allows
+     * it). Returns -1 if no digit at i.
+     */
+    private int digits (int i)
+    {
+        if (!digit_at(i)) return -1;
+        while (digit_at(++i));
+        if (!underscores) return i;
+
+        while (true) {
+            int j = i;
+            while (at(j, '_')) ++j;
+            if (!digit_at(j)) return i;
+            i = j;
+            while (digit_at(++i));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Hexadecimal digits with underscores in between (if the language level allows it). Returns
+     * -1 if no hex digit at i.
+     */
+    private int hex_digits (int i)
+    {
+        if (!hex_at(i)) return -1;
+        while (hex_at(++i));
+        if (!underscores) return i;
+
+        while (true) {
+            int j = i;
+            while (at(j, '_')) ++j;
+            if (!hex_at(j)) return i;
+            i = j;
+            while (hex_at(++i));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int dec_int_lit (int i)
+    {
+        return in.charAt(i) == '0'
+            ? long_suffix(i + 1)
+            : long_suffix(digits(i));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int hex_int_lit (int i)
+    {
+        if (!at(i + 1, 'x', 'X')) return -1;
+        int end = hex_digits(i + 2);
+        return end < 0 ? -1 : long_suffix(end);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int oct_int_lit (int i)
+    {
+        int end = -1;
+        int j = i + 1;
+
+        while (true) {
+            while (underscores && at(j, '_')) ++j;
+            if (!octal_at(j)) break;
+            while (octal_at(++j));
+            end = j;
+        }
+
+        return end < 0 ? -1 : long_suffix(end);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int bin_int_lit (int i)
+    {
+        if (!at(i + 1, 'b', 'B') || !binary_at(i + 2)) return -1;
+        int end = i + 2;
+        int j = end;
+
+        while (true) {
+            while (underscores && at(j, '_')) ++j;
+            if (!binary_at(j)) break;
+            while (binary_at(++j));
+            end = j;
+        }
+
+        return long_suffix(end);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * {@code [eE][+-]?digits}, or -1.
+     */
+    private int exponent (int i, char e1, char e2)
+    {
+        if (!at(i, e1, e2)) return -1;
+        ++i;
+        if (at(i, '+', '-')) ++i;
+        return digits(i);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int fp_lit (int i)
+    {
+        if (in.charAt(i) == '.') {
+            int end = digits(i + 1);
+            if (end < 0) return -1;
+            int exp = exponent(end, 'e', 'E');
+            return float_suffix(exp < 0 ? end : exp);
+        }
+
+        int end = digits(i);
+
+        if (at(end, '.')) {
+            int frac = digits(end + 1);
+            end = frac < 0 ? end + 1 : frac;
+            int exp = exponent(end, 'e', 'E');
+            return float_suffix(exp < 0 ? end : exp);
+        }
+
+        int exp = exponent(end, 'e', 'E');
+        if (exp >= 0)
+            return float_suffix(exp);
+
+        int suffix = float_suffix(end);
+        return suffix > end ? suffix : -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int hex_fp_lit (int i)
+    {
+        if (!at(i + 1, 'x', 'X')) return -1;
+        int end = hex_digits(i + 2);
+
+        if (end >= 0) {
+            if (at(end, '.')) {
+                int frac = hex_digits(end + 1);
+                end = frac < 0 ? end + 1 : frac;
+            }
+        }
+        else if (at(i + 2, '.')) {
+            end = hex_digits(i + 3);
+            if (end < 0) return -1;
+        }
+        else return -1;
+
+        int exp = exponent(end, 'p', 'P');
+        return exp < 0 ? -1 : float_suffix(exp);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Character & String Literals
+
+    /**
+     * Assuming a backslash at position i, returns the end of the escape sequence, or -1 if the
+     * escape sequence is invalid.
+     */
+    private int escape (int i)
+    {
+        if (i + 1 >= len) return -1;
+        char c = in.charAt(i + 1);
+
+        switch (c) {
+            case 'b': case 't': case 'n': case 'f': case 'r': case '"': case '\'': case '\\':
+                return i + 2;
+            case 's':
+                return text_blocks ? i + 2 : -1;
+        }
+
+        if (!LexUtil.is_octal(c)) return -1;
+        int max = c <= '3' ? i + 4 : i + 3;
+        int end = i + 2;
+        while (end < max && octal_at(end)) ++end;
+        return end;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int char_lit (int i)
+    {
+        int j = i + 1;
+        if (j >= len) return -1;
+        char c = in.charAt(j);
+
+        if (c == '\\') {
+            j = escape(j);
+            if (j < 0) return -1;
+        }
+        else if (c == '\n' || c == '\r' || c == '\'')
+            return -1;
+        else {
+            ++j;
+            // the regex engine matches code points
+            if (Character.isHighSurrogate(c) && j < len && Character.isLowSurrogate(in.charAt(j)))
+                ++j;
+        }
+
+        return at(j, '\'') ? j + 1 : -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int string_lit (int i)
+    {
+        int j = i + 1;
+
+        while ((j = runs.string_stop(in, j, len, buffer)) < len) {
+            char c = in.charAt(j);
+            if (c == '"')
+                return j + 1;
+            if (c != '\\') // line terminator
+                return -1;
+            j = escape(j);
+            if (j < 0) return -1;
+        }
+
+        return -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Assuming {@code """} at position i, returns the end of the text block starting there, or -1
+     * if there is no valid text block. This is linear in the length of the text block: it ends
+     * at the first three consecutive unescaped double quotes.
+     */
+    private int text_block (int i)
+    {
+        int j = i + 3;
+        for (char c; j < len && ((c = in.charAt(j)) == ' ' || c == '\t' || c == '\f'); ) ++j;
+
+        if (at(j, '\r'))
+            j = at(j + 1, '\n') ? j + 2 : j + 1;
+        else if (at(j, '\n'))
+            ++j;
+        else
+            return -1;
+
+        while ((j = runs.string_stop(in, j, len, buffer)) < len) {
+            char c = in.charAt(j);
+            if (c == '"') {
+                if (at(j + 1, '"') && at(j + 2, '"'))
+                    return j + 3;
+                ++j;
+            }
+            else if (c == '\\') {
+                // line continuation
+                if (at(j + 1, '\n', '\r')) {
+                    j += 2;
+                    continue;
+                }
+                j = escape(j);
+                if (j < 0) return -1;
+            }
+            else ++j;
+        }
+
+        return -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * An open-addressing hash table of words (keywords and such), queried with character ranges
+     * so that no string needs to be allocated.
+     */
+    static final class WordTable
+    {
+        private final String[] words;
+        private final int[] slots; // index into words + 1, or 0 if empty
+        private final int mask;
+
+        WordTable (String[] words)
+        {
+            this.words = words;
+            int size = Integer.highestOneBit(Math.max(words.length, 1) * 4);
+            this.slots = new int[size];
+            this.mask = size - 1;
+
+            for (int w = 0; w < words.length; ++w) {
+                String word = words[w];
+                int h = hash(word, 0, word.length()) & mask;
+                while (slots[h] != 0) h = (h + 1) & mask;
+                slots[h] = w + 1;
+            }
+        }
+
+        private static int hash (String in, int start, int end)
+        {
+            int h = 0;
+            for (int i = start; i < end; ++i)
+                h = 31 * h + in.charAt(i);
+            return h ^ (h >>> 7);
+        }
+
+        /**
+         * Returns the index of the word spelled by {@code in[start, end[}, or -1.
+         */
+        int find (String in, int start, int end)
+        {
+            int h = hash(in, start, end) & mask;
+
+            for (int slot; (slot = slots[h]) != 0; h = (h + 1) & mask)
+            {
+                String word = words[slot - 1];
+                if (word.length() != end - start) continue;
+
+                int i = 0;
+                while (i < word.length() && word.charAt(i) == in.charAt(start + i)) ++i;
+                if (i == word.length()) return slot - 1;
+            }
+
+            return -1;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,307 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.InputElement;
+import norswap.javalexer.tokens.Operator;
+import norswap.javalexer.tokens.Token;
+
+import java.util.Arrays;
+
+/**
+ * A pull-based cursor over the tokens of an input, intended for use by parsers.
+ * <p>
+ * Tokens are lexed on demand (using a {@link Lexer} instance), and only the tokens that can still
+ * be returned are kept in memory: the lookahead requested through {@link #peek(int)}, and the
+ * tokens following the oldest outstanding {@link #mark()}. These are held in a ring buffer that
+ * grows when necessary.
+ * <p>
+ * Marks are nested: each call to {@link #mark()} must be matched by a call to either {@link
+ * #reset()} (which backtracks to the mark) or {@link #release()} (which keeps the current
+ * position), in LIFO order.
+ */
+public final class TokenCursor
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final Lexer lexer;
+    private boolean exhausted;
+
+    private Token[] buffer = new Token[16];
+    private int mask = buffer.length - 1;
+
+    /** Index (in the token stream) of the oldest token held in the buffer. */
+    private int base;
+
+    /** Index (in the token stream) of the token that {@link #next()} will return. */
+    private int pos;
+
+    /** Index (in the token stream) one past the last token held in the buffer. */
+    private int end;
+
+    private int[] marks = new int[4];
+    private int depth;
+
+    /** For each outstanding mark, the number of recorded splits when it was made. */
+    private int[] split_marks = new int[4];
+
+    /** Splits made while a mark was outstanding: index of the split token, and original token. */
+    private int[] split_indices = new int[4];
+    private Token[] split_tokens = new Token[4];
+    private int splits;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a cursor over the tokens returned by {@code lexer}, which must not be used directly
+     * afterwards. Non-token input elements are skipped.
+     */
+    public TokenCursor (Lexer lexer) {
+        this.lexer = lexer;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a cursor over the tokens of {@code string}, using a tolerant lexer.
+     */
+    public TokenCursor (String string) {
+        this(new Lexer(string, true));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the token that the next call to {@link #next()} will return, or null if the end of
+     * the input has been reached.
+     */
+    public Token peek() {
+        return peek(0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the {@code k}-th token after the current position (0 designating the token that
+     * the next call to {@link #next()} will return), or null if the input ends before that.
+     */
+    public Token peek (int k)
+    {
+        if (k < 0)
+            throw new IllegalArgumentException("negative lookahead: " + k);
+
+        fill(pos + k + 1);
+        return pos + k < end
+            ? buffer[(pos + k) & mask]
+            : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the next token and advances past it, or returns null if the end of the input has
+     * been reached.
+     */
+    public Token next()
+    {
+        Token token = peek(0);
+        if (token != null) {
+            ++pos;
+            trim();
+        }
+        return token;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of tokens consumed so far (i.e. the index of the next token in the token
+     * stream).
+     */
+    public int index() {
+        return pos;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Marks the current position, so that it can be returned to with {@link #reset()}. Tokens
+     * after the mark are retained in memory until the mark is reset or released.
+     */
+    public void mark()
+    {
+        if (depth == marks.length) {
+            int[] copy = new int[depth * 2];
+            System.arraycopy(marks, 0, copy, 0, depth);
+            marks = copy;
+            copy = new int[depth * 2];
+            System.arraycopy(split_marks, 0, copy, 0, depth);
+            split_marks = copy;
+        }
+        split_marks[depth] = splits;
+        marks[depth++] = pos;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns to the position of the most recent outstanding mark, and discards that mark. Splits
+     * made (see {@link #split_greater()}) since the mark are undone.
+     */
+    public void reset()
+    {
+        if (depth == 0)
+            throw new IllegalStateException("no outstanding mark");
+        pos = marks[--depth];
+
+        // undo the splits, most recent first
+        while (splits > split_marks[depth]) {
+            int index = split_indices[--splits];
+            buffer[index & mask] = split_tokens[splits];
+            split_tokens[splits] = null;
+            for (int i = index + 1; i < end - 1; ++i)
+                buffer[i & mask] = buffer[(i + 1) & mask];
+            buffer[--end & mask] = null;
+        }
+
+        trim();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Discards the most recent outstanding mark, without changing the current position.
+     */
+    public void release()
+    {
+        if (depth == 0)
+            throw new IllegalStateException("no outstanding mark");
+        if (--depth == 0) {
+            // no mark can return before the splits anymore
+            Arrays.fill(split_tokens, 0, splits, null);
+            splits = 0;
+        }
+        trim();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If the next token is an operator starting with {@code >} but longer than that ({@code >>},
+     * {@code >>>}, {@code >=}, {@code >>=}, {@code >>>=}), replaces it by a {@code >} operator
+     * followed by an operator for the rest of its characters, and returns true. Otherwise, returns
+     * false.
+     * <p>
+     * This is what parsers need in order to close nested type argument lists, as in {@code
+     * List<List<String>>}. The split is undone by {@link #reset()} if made after the mark.
+     */
+    public boolean split_greater()
+    {
+        Token token = peek(0);
+
+        if (!(token instanceof Operator))
+            return false;
+
+        String name = ((Operator) token).name;
+
+        if (name.length() < 2 || name.charAt(0) != '>')
+            return false;
+
+        Operator first = new Operator(">");
+        first.start = token.start;
+        first.end   = token.start + 1;
+
+        Operator rest = new Operator(name.substring(1));
+        rest.start = token.start + 1;
+        rest.end   = token.end;
+
+        ensure_capacity(end - base + 1);
+
+        for (int i = end; i > pos + 1; --i)
+            buffer[i & mask] = buffer[(i - 1) & mask];
+
+        buffer[pos & mask] = first;
+        buffer[(pos + 1) & mask] = rest;
+        ++end;
+
+        if (depth > 0) {
+            if (splits == split_indices.length) {
+                int[] copy = new int[splits * 2];
+                System.arraycopy(split_indices, 0, copy, 0, splits);
+                split_indices = copy;
+                Token[] tokens = new Token[splits * 2];
+                System.arraycopy(split_tokens, 0, tokens, 0, splits);
+                split_tokens = tokens;
+            }
+            split_indices[splits] = pos;
+            split_tokens[splits++] = token;
+        }
+
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Signals that no more tokens will be requested, so that the lexer reports its statistics if
+     * {@link LexMetrics} are registered (see {@link Lexer#finish()}).
+     */
+    public void finish() {
+        lexer.finish();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes tokens until {@code end >= target} or the input is exhausted.
+     */
+    private void fill (int target)
+    {
+        while (end < target && !exhausted)
+        {
+            InputElement ie = lexer.next();
+
+            if (ie == null) {
+                exhausted = true;
+                return;
+            }
+
+            if (!(ie instanceof Token))
+                continue;
+
+            ensure_capacity(end - base + 1);
+            buffer[end++ & mask] = (Token) ie;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Drops the tokens that can no longer be returned.
+     */
+    private void trim()
+    {
+        int keep = depth > 0 ? Math.min(marks[0], pos) : pos;
+
+        for (; base < keep; ++base)
+            buffer[base & mask] = null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void ensure_capacity (int size)
+    {
+        if (size <= buffer.length)
+            return;
+
+        int capacity = buffer.length;
+        while (capacity < size) capacity *= 2;
+
+        Token[] copy = new Token[capacity];
+        for (int i = base; i < end; ++i)
+            copy[i & (capacity - 1)] = buffer[i & mask];
+
+        buffer = copy;
+        mask = capacity - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,482 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes the differences between two versions of a source, as a list of {@link Edit}s that
+ * replace ranges of input elements of the old version by ranges of input elements of the new
+ * version. Two input elements match if they have the same kind and text.
+ * <p>
+ * The diff runs over {@link CompactTokens} and proceeds in three steps:
+ * <ol>
+ *   <li>The common prefix and suffix of the two strings are skipped without comparing input
+ *   elements one by one: the input elements that lie entirely in the common prefix and are
+ *   identically positioned in both encodings are matched, as are the input elements that follow
+ *   the first position of the common suffix where an input element starts in both versions
+ *   (lexing from there yields the same input elements). When the new version is obtained through
+ *   {@link CompactTokens#update}, as in {@link #diff(String, String)}, only the changed region is
+ *   lexed to begin with.</li>
+ *   <li>The remaining input elements are loaded into arrays and diffed with the patience
+ *   algorithm: input elements that occur exactly once in both ranges are matched if they appear
+ *   in the same order (longest increasing subsequence), and the ranges between these anchors are
+ *   diffed recursively.</li>
+ *   <li>Ranges without unique input elements fall back on a longest common subsequence, unless
+ *   they exceed {@link #LCS_LIMIT}, in which case they are reported as a single replacement.</li>
+ * </ol>
+ * For sources with a few localized changes, the cost is thus dominated by lexing the changed
+ * region and by decoding (not instantiating) the unchanged input elements, and the memory
+ * allocated is proportional to the size of the changed region.
+ */
+public final class TokenDiff
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maximum product of the sizes of two ranges without unique input elements for which a
+     * longest common subsequence is computed (4 bytes of memory per unit).
+     */
+    public static final int LCS_LIMIT = 1 << 20;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Replacement of the input elements {@code [old_from, old_to)} of the old version by the
+     * input elements {@code [new_from, new_to)} of the new version (indices in the encodings).
+     * One of the ranges may be empty (insertion or deletion), but not both.
+     * <p>
+     * {@code [old_start, old_end)} and {@code [new_start, new_end)} are the character ranges
+     * spanned by the input elements (from the start of the first to the end of the last). For an
+     * empty range, both offsets are the position where the insertion happens: the start of the
+     * input element at {@code old_from} (resp. {@code new_from}), or the length of the string if
+     * there is none.
+     */
+    public static final class Edit
+    {
+        public final int old_from, old_to, new_from, new_to;
+        public final int old_start, old_end, new_start, new_end;
+
+        public Edit (int old_from, int old_to, int new_from, int new_to,
+                     int old_start, int old_end, int new_start, int new_end)
+        {
+            this.old_from  = old_from;
+            this.old_to    = old_to;
+            this.new_from  = new_from;
+            this.new_to    = new_to;
+            this.old_start = old_start;
+            this.old_end   = old_end;
+            this.new_start = new_start;
+            this.new_end   = new_end;
+        }
+
+        @Override public String toString()
+        {
+            return "[" + old_from + ", " + old_to + ") -> [" + new_from + ", " + new_to + ") "
+                + "(chars [" + old_start + ", " + old_end + ") -> ["
+                + new_start + ", " + new_end + "))";
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Input elements of one version that are not part of the matched prefix or suffix.
+     */
+    private static final class Side
+    {
+        final String string;
+        final int size;
+        final int[] index, kind, start, end, hash;
+
+        /** Index in the encoding of the first input element of the matched suffix. */
+        final int limit;
+
+        /** Start of the first input element of the matched suffix (or length of the string). */
+        final int limit_start;
+
+        Side (CompactTokens tokens, int from, int to, boolean tokens_only)
+        {
+            CompactTokens.Cursor cursor = tokens.cursor();
+            this.string = tokens.string;
+            this.limit  = to;
+            if (to < tokens.size()) {
+                cursor.seek(to);
+                limit_start = cursor.start();
+            }
+            else
+                limit_start = string.length();
+
+            int n = to - from;
+            index = new int[n];
+            kind  = new int[n];
+            start = new int[n];
+            end   = new int[n];
+            hash  = new int[n];
+
+            int size = 0;
+            if (n > 0) {
+                cursor.seek(from);
+                do {
+                    Kind k = cursor.kind();
+                    if (tokens_only && !k.is_token()) continue;
+                    int s = cursor.start(), e = cursor.end();
+                    int h = k.ordinal();
+                    for (int i = s; i < e; ++i)
+                        h = 31 * h + string.charAt(i);
+                    index[size] = cursor.index();
+                    kind [size] = k.ordinal();
+                    start[size] = s;
+                    end  [size] = e;
+                    hash [size] = h;
+                    ++size;
+                }
+                while (cursor.index() + 1 < to && cursor.next());
+            }
+            this.size = size;
+        }
+
+        int index_at (int i) {
+            return i < size ? index[i] : limit;
+        }
+
+        int offset_at (int i) {
+            return i < size ? start[i] : limit_start;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Side a, b;
+
+    /** Edits as quadruples of side indices {@code a_from, a_to, b_from, b_to}. */
+    private int[] edits = new int[64];
+    private int edit_count;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private TokenDiff (Side a, Side b) {
+        this.a = a;
+        this.b = b;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Diffs the tokens (ignoring whitespace and comments) of two versions of a source, lexed at
+     * {@link LanguageLevel#LATEST}. The indices of the returned edits refer to the input elements
+     * (including whitespace and comments) of {@code CompactTokens.encode(old_source)} and {@code
+     * CompactTokens.encode(new_source)}.
+     */
+    public static List<Edit> diff (String old_source, String new_source) {
+        return diff(old_source, new_source, LanguageLevel.LATEST);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Diffs the tokens (ignoring whitespace and comments) of two versions of a source, lexed at
+     * the given language level. The new version is encoded by updating the encoding of the old
+     * version, so that only the changed region is lexed twice.
+     */
+    public static List<Edit> diff (String old_source, String new_source, LanguageLevel level)
+    {
+        CompactTokens old_tokens = CompactTokens.encode(
+            old_source, level, false, CompactTokens.DEFAULT_INTERVAL);
+        return diff(old_tokens, old_tokens.update(new_source), true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Diffs the input elements of two encodings, or only their tokens if {@code tokens_only} is
+     * set (in which case whitespace and comments are never part of an edit).
+     */
+    public static List<Edit> diff (CompactTokens old_tokens, CompactTokens new_tokens,
+                                   boolean tokens_only)
+    {
+        String s1 = old_tokens.string, s2 = new_tokens.string;
+        int len1 = s1.length(), len2 = s2.length(), min = Math.min(len1, len2);
+        int prefix = 0, suffix = 0;
+
+        while (prefix < min && s1.charAt(prefix) == s2.charAt(prefix))
+            ++prefix;
+        while (suffix < min - prefix
+                && s1.charAt(len1 - 1 - suffix) == s2.charAt(len2 - 1 - suffix))
+            ++suffix;
+
+        // Matched prefix: input elements within the common prefix, lexed identically. The lexing
+        // of the last ones may depend on what follows the prefix, hence the comparison.
+        CompactTokens.Cursor c1 = old_tokens.cursor(), c2 = new_tokens.cursor();
+        int from = 0;
+        while (c1.next() && c2.next()
+                && c1.end() <= prefix && c1.kind() == c2.kind()
+                && c1.start() == c2.start() && c1.end() == c2.end())
+            ++from;
+
+        // Matched suffix: lexing from a position where an input element starts in both versions
+        // only depends on the (identical) text that follows.
+        int to1 = old_tokens.size(), to2 = new_tokens.size();
+        if (suffix > 0) {
+            int i1 = first_starting_at(c1, from, to1, len1 - suffix);
+            int i2 = first_starting_at(c2, from, to2, len2 - suffix);
+            boolean more1 = i1 < to1, more2 = i2 < to2;
+            if (more1) c1.seek(i1);
+            if (more2) c2.seek(i2);
+            while (more1 && more2) {
+                int rel1 = c1.start() - len1, rel2 = c2.start() - len2;
+                if (rel1 == rel2) {
+                    to1 = c1.index();
+                    to2 = c2.index();
+                    break;
+                }
+                if (rel1 < rel2) more1 = c1.next();
+                else             more2 = c2.next();
+            }
+        }
+
+        TokenDiff diff = new TokenDiff(
+            new Side(old_tokens, from, to1, tokens_only),
+            new Side(new_tokens, from, to2, tokens_only));
+        diff.diff(0, diff.a.size, 0, diff.b.size);
+        return diff.edits();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the first input element in {@code [from, size)} that starts at or
+     * after {@code pos}, or {@code size} if there is none.
+     */
+    private static int first_starting_at (CompactTokens.Cursor cursor, int from, int size, int pos)
+    {
+        int lo = from, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            cursor.seek(mid);
+            if (cursor.start() < pos) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private List<Edit> edits()
+    {
+        if (edit_count == 0)
+            return Collections.emptyList();
+
+        ArrayList<Edit> list = new ArrayList<>(edit_count / 4);
+        for (int i = 0; i < edit_count; i += 4) {
+            int a_from = edits[i], a_to = edits[i + 1], b_from = edits[i + 2], b_to = edits[i + 3];
+            list.add(new Edit(
+                a.index_at(a_from), a_from < a_to ? a.index[a_to - 1] + 1 : a.index_at(a_from),
+                b.index_at(b_from), b_from < b_to ? b.index[b_to - 1] + 1 : b.index_at(b_from),
+                a_from < a_to ? a.start[a_from] : a.offset_at(a_from),
+                a_from < a_to ? a.end[a_to - 1] : a.offset_at(a_from),
+                b_from < b_to ? b.start[b_from] : b.offset_at(b_from),
+                b_from < b_to ? b.end[b_to - 1] : b.offset_at(b_from)));
+        }
+        return list;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records the replacement of {@code a[a_from, a_to)} by {@code b[b_from, b_to)}, merging it
+     * with the previous edit if they are adjacent.
+     */
+    private void emit (int a_from, int a_to, int b_from, int b_to)
+    {
+        if (a_from == a_to && b_from == b_to)
+            return;
+
+        if (edit_count > 0 && edits[edit_count - 3] == a_from && edits[edit_count - 1] == b_from) {
+            edits[edit_count - 3] = a_to;
+            edits[edit_count - 1] = b_to;
+            return;
+        }
+
+        if (edit_count == edits.length)
+            edits = Arrays.copyOf(edits, edit_count * 2);
+        edits[edit_count++] = a_from;
+        edits[edit_count++] = a_to;
+        edits[edit_count++] = b_from;
+        edits[edit_count++] = b_to;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean same (int i, int j)
+    {
+        int len = a.end[i] - a.start[i];
+        return a.hash[i] == b.hash[j] && a.kind[i] == b.kind[j] && len == b.end[j] - b.start[j]
+            && a.string.regionMatches(a.start[i], b.string, b.start[j], len);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Diffs {@code a[a_lo, a_hi)} against {@code b[b_lo, b_hi)}, emitting the edits in order.
+     */
+    private void diff (int a_lo, int a_hi, int b_lo, int b_hi)
+    {
+        while (a_lo < a_hi && b_lo < b_hi && same(a_lo, b_lo)) {
+            ++a_lo;
+            ++b_lo;
+        }
+        while (a_lo < a_hi && b_lo < b_hi && same(a_hi - 1, b_hi - 1)) {
+            --a_hi;
+            --b_hi;
+        }
+
+        if (a_lo == a_hi || b_lo == b_hi) {
+            emit(a_lo, a_hi, b_lo, b_hi);
+            return;
+        }
+
+        int[] anchors = anchors(a_lo, a_hi, b_lo, b_hi);
+
+        if (anchors.length == 0) {
+            lcs(a_lo, a_hi, b_lo, b_hi);
+            return;
+        }
+
+        for (int k = 0; k < anchors.length; k += 2) {
+            diff(a_lo, anchors[k], b_lo, anchors[k + 1]);
+            a_lo = anchors[k] + 1;
+            b_lo = anchors[k + 1] + 1;
+        }
+        diff(a_lo, a_hi, b_lo, b_hi);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the pairs {@code (i, j)} of input elements such that {@code a[i]} and {@code b[j]}
+     * are the same and occur once in {@code a[a_lo, a_hi)} and once in {@code b[b_lo, b_hi)}, and
+     * that form a longest sequence increasing in both {@code i} and {@code j}, flattened.
+     */
+    private int[] anchors (int a_lo, int a_hi, int b_lo, int b_hi)
+    {
+        // open addressing hash table of distinct input elements
+        int capacity = Integer.highestOneBit(2 * (a_hi - a_lo + b_hi - b_lo) - 1) << 1;
+        int mask = capacity - 1;
+        int[] rep     = new int[capacity]; // a-side index + 1, or -(b-side index + 1), or 0
+        int[] count_a = new int[capacity];
+        int[] count_b = new int[capacity];
+        int[] slots   = new int[a_hi - a_lo]; // slot of each a-side element
+        int[] match   = new int[capacity];    // b-side index of the last occurrence
+
+        for (int i = a_lo; i < a_hi; ++i) {
+            int slot = a.hash[i] & mask;
+            while (rep[slot] != 0 && !same_a(rep[slot] - 1, i))
+                slot = (slot + 1) & mask;
+            if (rep[slot] == 0) rep[slot] = i + 1;
+            ++count_a[slot];
+            slots[i - a_lo] = slot;
+        }
+
+        for (int j = b_lo; j < b_hi; ++j) {
+            int slot = b.hash[j] & mask;
+            while (rep[slot] != 0 && !(rep[slot] > 0
+                    ? same(rep[slot] - 1, j)
+                    : same_b(-rep[slot] - 1, j)))
+                slot = (slot + 1) & mask;
+            if (rep[slot] == 0) rep[slot] = -(j + 1);
+            ++count_b[slot];
+            match[slot] = j;
+        }
+
+        // patience sorting over the b-side positions of the unique pairs, in a-side order
+        int[] pairs_b = new int[a_hi - a_lo];
+        int[] pairs_a = new int[a_hi - a_lo];
+        int[] tails   = new int[a_hi - a_lo]; // pair index ending the best sequence of each length
+        int[] prev    = new int[a_hi - a_lo];
+        int n = 0, length = 0;
+
+        for (int i = a_lo; i < a_hi; ++i) {
+            int slot = slots[i - a_lo];
+            if (count_a[slot] != 1 || count_b[slot] != 1) continue;
+            int j = match[slot];
+            int lo = 0, hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairs_b[tails[mid]] < j) lo = mid + 1;
+                else hi = mid;
+            }
+            pairs_a[n] = i;
+            pairs_b[n] = j;
+            prev[n] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = n;
+            if (lo == length) ++length;
+            ++n;
+        }
+
+        int[] anchors = new int[2 * length];
+        for (int k = length - 1, p = length > 0 ? tails[length - 1] : -1; k >= 0; --k) {
+            anchors[2 * k]     = pairs_a[p];
+            anchors[2 * k + 1] = pairs_b[p];
+            p = prev[p];
+        }
+        return anchors;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean same_a (int i, int k) {
+        return a.hash[i] == a.hash[k] && a.kind[i] == a.kind[k]
+            && a.end[i] - a.start[i] == a.end[k] - a.start[k]
+            && a.string.regionMatches(a.start[i], a.string, a.start[k], a.end[i] - a.start[i]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean same_b (int j, int k) {
+        return b.hash[j] == b.hash[k] && b.kind[j] == b.kind[k]
+            && b.end[j] - b.start[j] == b.end[k] - b.start[k]
+            && b.string.regionMatches(b.start[j], b.string, b.start[k], b.end[j] - b.start[j]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Diffs {@code a[a_lo, a_hi)} against {@code b[b_lo, b_hi)} through a longest common
+     * subsequence, or emits a single replacement if the ranges are too large.
+     */
+    private void lcs (int a_lo, int a_hi, int b_lo, int b_hi)
+    {
+        int n = a_hi - a_lo, m = b_hi - b_lo;
+        if ((long) n * m > LCS_LIMIT) {
+            emit(a_lo, a_hi, b_lo, b_hi);
+            return;
+        }
+
+        // table[i * (m + 1) + j]: length of the LCS of a[a_lo + i, a_hi) and b[b_lo + j, b_hi)
+        int w = m + 1;
+        int[] table = new int[(n + 1) * w];
+        for (int i = n - 1; i >= 0; --i)
+            for (int j = m - 1; j >= 0; --j)
+                table[i * w + j] = same(a_lo + i, b_lo + j)
+                    ? table[(i + 1) * w + j + 1] + 1
+                    : Math.max(table[(i + 1) * w + j], table[i * w + j + 1]);
+
+        int i = 0, j = 0, i0 = 0, j0 = 0; // start of the pending edit
+        while (i < n && j < m) {
+            if (same(a_lo + i, b_lo + j) && table[i * w + j] == table[(i + 1) * w + j + 1] + 1) {
+                emit(a_lo + i0, a_lo + i, b_lo + j0, b_lo + j);
+                i0 = ++i;
+                j0 = ++j;
+            }
+            else if (table[(i + 1) * w + j] >= table[i * w + j + 1]) ++i;
+            else ++j;
+        }
+        emit(a_lo + i0, a_hi, b_lo + j0, b_hi);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
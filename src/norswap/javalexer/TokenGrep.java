@@ -0,0 +1,321 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.Kind;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A token-aware search: finds sequences of input elements matching a sequence of {@link Step}s,
+ * each of which constrains the kind of the input element and optionally its text (exactly, or
+ * through a regular expression). For instance, {@code new TokenGrep(Step.of(Kind.IDENTIFIER,
+ * "foo"))} finds the identifier {@code foo} outside of comments and strings, while {@code new
+ * TokenGrep(Step.matching(Kind.STRING, ".*SELECT.*"))} finds string literals containing {@code
+ * SELECT}.
+ * <p>
+ * The steps of a sequence match consecutive input elements, except that whitespace and comments
+ * are skipped unless the step accepts their kind: {@code foo (} matches {@code foo // c} followed
+ * by a newline and {@code (}.
+ * <p>
+ * Sources that cannot match are rejected before lexing by a substring scan for the longest exact
+ * text of the steps (or for a quote if a step only accepts strings or characters). Matching
+ * relies on {@link Lexer#advance()}: the text of an input element is only examined if its kind
+ * is acceptable, and no input element is instantiated.
+ * <p>
+ * Instances are immutable and thread-safe. Corpora are searched in parallel, and the results
+ * are streamed ({@link #search(Collection)}).
+ */
+public final class TokenGrep
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A constraint on a single input element.
+     */
+    public static final class Step
+    {
+        final EnumSet<Kind> kinds;
+        final String text;
+        final Pattern regex;
+
+        private Step (EnumSet<Kind> kinds, String text, Pattern regex) {
+            this.kinds = kinds;
+            this.text = text;
+            this.regex = regex;
+        }
+
+        /**
+         * Matches any input element of one of the given kinds.
+         */
+        public static Step kind (Kind first, Kind... rest) {
+            return new Step(EnumSet.of(first, rest), null, null);
+        }
+
+        /**
+         * Matches any token whose text is {@code text}.
+         */
+        public static Step text (String text)
+        {
+            EnumSet<Kind> tokens = EnumSet.noneOf(Kind.class);
+            for (Kind kind: Kind.values())
+                if (kind.is_token()) tokens.add(kind);
+            return new Step(tokens, text, null);
+        }
+
+        /**
+         * Matches any input element of the given kind whose text is {@code text}.
+         */
+        public static Step of (Kind kind, String text) {
+            return new Step(EnumSet.of(kind), text, null);
+        }
+
+        /**
+         * Matches any input element of the given kind whose whole text matches the regular
+         * expression {@code regex}.
+         */
+        public static Step matching (Kind kind, String regex) {
+            return new Step(EnumSet.of(kind), null, Pattern.compile(regex));
+        }
+
+        @Override public String toString() {
+            return kinds + (text != null ? " \"" + text + "\"" : "")
+                + (regex != null ? " /" + regex + "/" : "");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A match of the search.
+     */
+    public static final class Match
+    {
+        /** File containing the match, or null if a string was searched. */
+        public final Path path;
+
+        /** Start of the match (start of the first matched input element). */
+        public final int start;
+
+        /** End of the match (exclusive). */
+        public final int end;
+
+        /** Line of the start of the match (1-based). */
+        public final int line;
+
+        /** Text of the match (including the skipped input elements). */
+        public final String text;
+
+        public Match (Path path, int start, int end, int line, String text) {
+            this.path = path;
+            this.start = start;
+            this.end = end;
+            this.line = line;
+            this.text = text;
+        }
+
+        @Override public String toString() {
+            return (path == null ? "" : path + ":") + line + ": " + text;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Step[] steps;
+    private final LanguageLevel level;
+
+    /** A substring every matching source must contain, or null. */
+    private final String required;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a search for the given sequence of steps, lexing at {@link LanguageLevel#LATEST}.
+     */
+    public TokenGrep (Step... steps) {
+        this(LanguageLevel.LATEST, steps);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a search for the given sequence of steps, lexing at the given language level.
+     */
+    public TokenGrep (LanguageLevel level, Step... steps)
+    {
+        if (steps.length == 0)
+            throw new IllegalArgumentException("empty step sequence");
+
+        this.level = level;
+        this.steps = steps.clone();
+
+        String required = null;
+        for (Step step: steps) {
+            String candidate = step.text;
+            if (candidate == null && quoted(step.kinds, Kind.STRING, Kind.TEXT_BLOCK))
+                candidate = "\"";
+            if (candidate == null && quoted(step.kinds, Kind.CHAR))
+                candidate = "'";
+            if (candidate != null && (required == null || candidate.length() > required.length()))
+                required = candidate;
+        }
+        this.required = required;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean quoted (EnumSet<Kind> kinds, Kind... quoted) {
+        return !kinds.isEmpty() && EnumSet.copyOf(Arrays.asList(quoted)).containsAll(kinds);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code source} may contain a match, as determined by a substring scan.
+     */
+    public boolean may_match (String source) {
+        return required == null || source.contains(required);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the matches in {@code source}, in order.
+     */
+    public List<Match> search (String source)
+    {
+        ArrayList<Match> matches = new ArrayList<>();
+        search(null, source, matches::add);
+        return matches;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a parallel stream of the matches in the given files (decoded as UTF-8). Matches
+     * within a file are reported in order. I/O errors are reported as {@link
+     * UncheckedIOException}.
+     */
+    public Stream<Match> search (Collection<Path> files)
+    {
+        return files.parallelStream().flatMap(path -> {
+            String source;
+            try {
+                source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ArrayList<Match> matches = new ArrayList<>();
+            search(path, source, matches::add);
+            return matches.stream();
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Feeds the matches in {@code source} to {@code sink}, in order. {@code path} is reported in
+     * the matches.
+     */
+    public void search (Path path, String source, Consumer<Match> sink)
+    {
+        if (!may_match(source))
+            return;
+
+        Lexer lexer = new Lexer(source, level);
+        Matcher[] matchers = new Matcher[steps.length];
+        for (int i = 0; i < steps.length; ++i)
+            if (steps[i].regex != null)
+                matchers[i] = steps[i].regex.matcher(source);
+
+        // partial matches: (next step, start), at most one per step
+        int[] next = new int[steps.length], starts = new int[steps.length];
+        int[] next2 = new int[steps.length], starts2 = new int[steps.length];
+        int active = 0;
+
+        int line = 1, line_pos = 0; // line number at line_pos
+
+        // the sink may throw to stop the search
+        try {
+            for (Kind kind; (kind = lexer.advance()) != null; )
+            {
+                int start = lexer.start(), end = lexer.end();
+                boolean trivia = !kind.is_token();
+                int active2 = 0;
+
+                for (int a = 0; a <= active; ++a)
+                {
+                    // a == active: try starting a new match at this input element
+                    int step = a < active ? next[a] : 0;
+                    int match_start = a < active ? starts[a] : start;
+
+                    if (matches(steps[step], matchers[step], kind, source, start, end)) {
+                        if (step + 1 == steps.length) {
+                            for (; line_pos < match_start; ++line_pos) {
+                                char c = source.charAt(line_pos);
+                                if (c == '\n' || c == '\r' && (line_pos + 1 == source.length()
+                                        || source.charAt(line_pos + 1) != '\n'))
+                                    ++line;
+                            }
+                            sink.accept(new Match(path, match_start, end, line,
+                                source.substring(match_start, end)));
+                        }
+                        else if (!contains(next2, active2, step + 1)) {
+                            next2[active2] = step + 1;
+                            starts2[active2++] = match_start;
+                        }
+                    }
+                    else if (trivia && a < active && !contains(next2, active2, step)) {
+                        next2[active2] = step;
+                        starts2[active2++] = match_start;
+                    }
+                }
+
+                int[] tmp = next; next = next2; next2 = tmp;
+                tmp = starts; starts = starts2; starts2 = tmp;
+                active = active2;
+            }
+        }
+        finally {
+            lexer.finish();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean contains (int[] array, int size, int value)
+    {
+        for (int i = 0; i < size; ++i)
+            if (array[i] == value) return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean matches (
+            Step step, Matcher matcher, Kind kind, String source, int start, int end)
+    {
+        if (!step.kinds.contains(kind))
+            return false;
+        if (step.text != null)
+            return end - start == step.text.length()
+                && source.regionMatches(start, step.text, 0, end - start);
+        if (matcher != null)
+            return matcher.region(start, end).matches();
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
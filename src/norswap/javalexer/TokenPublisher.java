@@ -0,0 +1,229 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.InputElement;
+import norswap.javalexer.tokens.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Publisher} of the input elements of an input string, which lexes only as far as
+ * subscribers demand.
+ * <p>
+ * Input elements are published in chunks (lists of at most {@link #chunk_size} elements), in order
+ * to amortize the cost of signalling: each unit of demand requested through {@link
+ * Flow.Subscription#request(long)} corresponds to one chunk.
+ * <p>
+ * The publisher is cold: each subscriber gets its own {@link Lexer} instance and receives all the
+ * input elements of the input. Signals to a subscriber are issued from tasks run on the
+ * publisher's executor, never concurrently. Cancelling a subscription stops lexing before the next
+ * chunk. If lexing fails (non-tolerant mode only), the {@link LexingException} is signalled
+ * through {@link Flow.Subscriber#onError}.
+ */
+public final class TokenPublisher implements Flow.Publisher<List<InputElement>>
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Default maximum number of input elements per published chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final String string;
+    private final boolean tokens_only;
+    private final boolean tolerant;
+    private final Executor executor;
+
+    /**
+     * Maximum number of input elements per published chunk.
+     */
+    public final int chunk_size;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * @param tokens_only if true, only tokens will be published, not other input elements.
+     *
+     * @param tolerant if true, {@link norswap.javalexer.tokens.Garbage} tokens may be published
+     *                 whenever no valid input element can be matched; otherwise an error is
+     *                 signalled.
+     *
+     * @param chunk_size maximum number of input elements per published chunk.
+     *
+     * @param executor executor on which lexing and signalling take place.
+     */
+    public TokenPublisher (String string, boolean tokens_only, boolean tolerant, int chunk_size,
+                           Executor executor)
+    {
+        if (chunk_size <= 0)
+            throw new IllegalArgumentException("chunk size must be positive: " + chunk_size);
+
+        this.string = string;
+        this.tokens_only = tokens_only;
+        this.tolerant = tolerant;
+        this.chunk_size = chunk_size;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a tolerant publisher of all the input elements of {@code string}, publishing chunks
+     * of {@link #DEFAULT_CHUNK_SIZE} elements from tasks run on {@link ForkJoinPool#commonPool()}.
+     */
+    public TokenPublisher (String string) {
+        this(string, false, true, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void subscribe (Flow.Subscriber<? super List<InputElement>> subscriber)
+    {
+        Objects.requireNonNull(subscriber);
+        Subscription subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A subscription, which also acts as the task draining demand by lexing and publishing chunks.
+     * <p>
+     * {@link #wip} counts the requests to run the task: only the caller that moves it away from 0
+     * submits the task, which then loops until it has accounted for all requests. This ensures
+     * signals are serialized, and that calling {@link #request} from {@code onNext} does not
+     * recurse.
+     */
+    private final class Subscription implements Flow.Subscription, Runnable
+    {
+        final Flow.Subscriber<? super List<InputElement>> subscriber;
+        final AtomicLong demand = new AtomicLong();
+        final AtomicInteger wip = new AtomicInteger();
+        final Lexer lexer;
+        volatile boolean cancelled;
+
+        /** Set when the input is exhausted. Only accessed from the drain task. */
+        boolean exhausted;
+
+        /** Error to signal (from {@link #request} with an illegal argument). */
+        volatile Throwable error;
+
+        Subscription (Flow.Subscriber<? super List<InputElement>> subscriber) {
+            this.subscriber = subscriber;
+            this.lexer = new Lexer(string, tolerant);
+        }
+
+        @Override public void request (long n)
+        {
+            if (n <= 0)
+                error = new IllegalArgumentException("non-positive request: " + n);
+            else
+                demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+
+            schedule();
+        }
+
+        @Override public void cancel() {
+            cancelled = true;
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() == 0)
+                executor.execute(this);
+        }
+
+        @Override public void run()
+        {
+            int missed = 1;
+
+            do {
+                if (cancelled) {
+                    lexer.finish();
+                    return;
+                }
+
+                if (error != null) {
+                    cancelled = true;
+                    subscriber.onError(error);
+                    return;
+                }
+
+                long requested = demand.get();
+                long emitted = 0;
+
+                while (emitted != requested)
+                {
+                    if (cancelled) {
+                        lexer.finish();
+                        return;
+                    }
+
+                    List<InputElement> chunk;
+
+                    try {
+                        chunk = next_chunk();
+                    }
+                    catch (LexingException e) {
+                        cancelled = true;
+                        subscriber.onError(e);
+                        return;
+                    }
+
+                    if (!chunk.isEmpty()) {
+                        subscriber.onNext(chunk);
+                        ++emitted;
+                    }
+
+                    if (exhausted) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                }
+
+                if (requested != Long.MAX_VALUE)
+                    demand.addAndGet(-emitted);
+
+                missed = wip.addAndGet(-missed);
+            }
+            while (missed != 0);
+        }
+
+        /**
+         * Lexes and returns up to {@link #chunk_size} input elements, setting {@link #exhausted}
+         * if the end of the input is reached.
+         */
+        List<InputElement> next_chunk()
+        {
+            ArrayList<InputElement> chunk = new ArrayList<>(chunk_size);
+
+            while (chunk.size() < chunk_size)
+            {
+                InputElement ie = lexer.next();
+
+                if (ie == null) {
+                    exhausted = true;
+                    break;
+                }
+
+                if (!tokens_only || ie instanceof Token)
+                    chunk.add(ie);
+            }
+
+            if (lexer.position() == string.length())
+                exhausted = true;
+
+            return chunk;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,648 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.InputElement;
+import norswap.javalexer.tokens.Kind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A persistent (immutable) sequence of the input elements lexed from a string, stored as a
+ * balanced tree of chunks of input elements. Each tree node records the number of input elements
+ * and characters below it, and positions within a chunk are relative to the chunk start: no
+ * position needs to be rewritten when an edit shifts the input elements that follow it.
+ * <p>
+ * {@link #edit} returns a new version of the rope for an edited string. Only the edited region
+ * is re-lexed (as in {@link CompactTokens#update}), and the new version shares all unaffected
+ * chunks with the old one, which remains valid. Keeping many versions (e.g. an undo history, or
+ * versions still in use by concurrent readers) thus costs memory proportional to the size of the
+ * edits, not of the string.
+ * <p>
+ * Looking up the input element at an index ({@link #kind}, {@link #start}, ...) or containing a
+ * position ({@link #index_at}) takes O(log n) time. Iteration through a {@link Cursor} takes
+ * amortized constant time per input element.
+ * <p>
+ * The rope does not hold the string: input elements are instantiated from a string supplied by
+ * the caller ({@link #element}).
+ */
+public final class TokenRope
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maximum number of input elements per chunk.
+     */
+    public static final int CHUNK_SIZE = 64;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private static final int SLASH = Arrays.asList(Lexer.operatorsa).indexOf("/");
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Node root; // null if empty
+
+    /**
+     * Language level at which the input elements were lexed.
+     */
+    public final LanguageLevel level;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private TokenRope (Node root, LanguageLevel level) {
+        this.root = root;
+        this.level = level;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Tree
+    // ---------------------------------------------------------------------------------------------
+
+    private static abstract class Node
+    {
+        /** Number of input elements. */
+        final int count;
+
+        /** Number of characters. */
+        final int length;
+
+        final int height;
+
+        /** Whether an input element opens an unterminated block comment or text block. */
+        final boolean unterminated;
+
+        Node (int count, int length, int height, boolean unterminated) {
+            this.count = count;
+            this.length = length;
+            this.height = height;
+            this.unterminated = unterminated;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Branch extends Node
+    {
+        final Node left, right;
+
+        Branch (Node left, Node right)
+        {
+            super(left.count + right.count, left.length + right.length,
+                1 + Math.max(left.height, right.height),
+                left.unterminated || right.unterminated);
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Leaf extends Node
+    {
+        /** Kind ordinals. */
+        final byte[] kinds;
+
+        /** Vocabulary indices, or -1. */
+        final byte[] vocabs;
+
+        /** End of each input element, relative to the start of the leaf. */
+        final int[] ends;
+
+        Leaf (byte[] kinds, byte[] vocabs, int[] ends, boolean unterminated)
+        {
+            super(kinds.length, ends.length == 0 ? 0 : ends[ends.length - 1], 0, unterminated);
+            this.kinds = kinds;
+            this.vocabs = vocabs;
+            this.ends = ends;
+        }
+
+        int start (int k) {
+            return k == 0 ? 0 : ends[k - 1];
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Concatenates two trees (either may be null), rebalancing along the spine of the taller one.
+     */
+    private static Node join (Node a, Node b)
+    {
+        if (a == null) return b;
+        if (b == null) return a;
+
+        if (a.height > b.height + 1) {
+            Branch x = (Branch) a;
+            return balance(x.left, join(x.right, b));
+        }
+        if (b.height > a.height + 1) {
+            Branch y = (Branch) b;
+            return balance(join(a, y.left), y.right);
+        }
+        return new Branch(a, b);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a branch over two balanced trees whose heights differ by at most 2, rotating if
+     * needed.
+     */
+    private static Node balance (Node l, Node r)
+    {
+        if (l.height > r.height + 1) {
+            Branch x = (Branch) l;
+            if (x.left.height >= x.right.height)
+                return new Branch(x.left, new Branch(x.right, r));
+            Branch y = (Branch) x.right;
+            return new Branch(new Branch(x.left, y.left), new Branch(y.right, r));
+        }
+        if (r.height > l.height + 1) {
+            Branch x = (Branch) r;
+            if (x.right.height >= x.left.height)
+                return new Branch(new Branch(l, x.left), x.right);
+            Branch y = (Branch) x.left;
+            return new Branch(new Branch(l, y.left), new Branch(y.right, x.right));
+        }
+        return new Branch(l, r);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the first {@code k} input elements of {@code node}, as a tree (null if empty).
+     * Shares all chunks, provided {@code k} falls on a chunk boundary.
+     */
+    private static Node prefix (Node node, int k)
+    {
+        if (k == 0) return null;
+        if (k == node.count) return node;
+        if (node instanceof Leaf) return slice((Leaf) node, 0, k);
+        Branch b = (Branch) node;
+        return k <= b.left.count
+            ? prefix(b.left, k)
+            : join(b.left, prefix(b.right, k - b.left.count));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the input elements of {@code node} after the first {@code k}, as a tree (null if
+     * empty). Shares all chunks, provided {@code k} falls on a chunk boundary.
+     */
+    private static Node suffix (Node node, int k)
+    {
+        if (k == 0) return node;
+        if (k == node.count) return null;
+        if (node instanceof Leaf) return slice((Leaf) node, k, node.count);
+        Branch b = (Branch) node;
+        return k >= b.left.count
+            ? suffix(b.right, k - b.left.count)
+            : join(suffix(b.left, k), b.right);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Leaf slice (Leaf leaf, int from, int to)
+    {
+        int base = leaf.start(from);
+        int[] ends = Arrays.copyOfRange(leaf.ends, from, to);
+        for (int i = 0; i < ends.length; ++i) ends[i] -= base;
+        // conservatively keep the flag
+        return new Leaf(Arrays.copyOfRange(leaf.kinds, from, to),
+            Arrays.copyOfRange(leaf.vocabs, from, to), ends, leaf.unterminated);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Builds a balanced tree over {@code leaves[lo, hi)}.
+     */
+    private static Node build (ArrayList<Leaf> leaves, int lo, int hi)
+    {
+        if (lo == hi) return null;
+        if (hi - lo == 1) return leaves.get(lo);
+        int mid = (lo + hi) >>> 1;
+        return new Branch(build(leaves, lo, mid), build(leaves, mid, hi));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Accumulates input elements and cuts them into leaves.
+     */
+    private static final class Chunker
+    {
+        final String source;
+        final ArrayList<Leaf> leaves = new ArrayList<>();
+        byte[] kinds = new byte[16], vocabs = new byte[16];
+        int[] ends = new int[16];
+        int size;
+
+        /** Start of the first input element. */
+        final int origin;
+
+        Chunker (String source, int origin) {
+            this.source = source;
+            this.origin = origin;
+        }
+
+        void add (Kind kind, int vocab, int end)
+        {
+            if (size == ends.length) {
+                kinds  = Arrays.copyOf(kinds,  size * 2);
+                vocabs = Arrays.copyOf(vocabs, size * 2);
+                ends   = Arrays.copyOf(ends,   size * 2);
+            }
+            kinds[size]  = (byte) kind.ordinal();
+            vocabs[size] = (byte) vocab;
+            ends[size++] = end;
+        }
+
+        /**
+         * Cuts the accumulated input elements into leaves of nearly equal sizes.
+         */
+        ArrayList<Leaf> leaves()
+        {
+            int n = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            int start = origin;
+            for (int i = 0, lo = 0; i < n; ++i) {
+                int hi = (int) ((long) size * (i + 1) / n);
+                int[] rel = new int[hi - lo];
+                boolean unterminated = false;
+                for (int j = lo; j < hi; ++j) {
+                    rel[j - lo] = ends[j] - start;
+                    unterminated |= is_unterminated(j);
+                }
+                leaves.add(new Leaf(Arrays.copyOfRange(kinds, lo, hi),
+                    Arrays.copyOfRange(vocabs, lo, hi), rel, unterminated));
+                start = ends[hi - 1];
+                lo = hi;
+            }
+            return leaves;
+        }
+
+        /**
+         * Whether the j-th input element opens an unterminated block comment (lexed as {@code /}
+         * followed by {@code *}) or text block (lexed as {@code ""} followed by {@code "}), whose
+         * lexing depends on the whole rest of the string.
+         */
+        private boolean is_unterminated (int j)
+        {
+            int end = ends[j];
+            if (end >= source.length()) return false;
+            Kind kind = KINDS[kinds[j]];
+            int start = j == 0 ? origin : ends[j - 1];
+            return kind == Kind.OPERATOR && vocabs[j] == SLASH && source.charAt(end) == '*'
+                || kind == Kind.STRING && end - start == 2 && source.charAt(end) == '"';
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Construction and edition
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes {@code source} at {@link LanguageLevel#LATEST}.
+     */
+    public static TokenRope of (String source) {
+        return of(source, LanguageLevel.LATEST);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes {@code source} at the given language level.
+     */
+    public static TokenRope of (String source, LanguageLevel level)
+    {
+        Chunker chunker = new Chunker(source, 0);
+        Lexer lexer = new Lexer(source, level, Lexer.Engine.TABLE, true, null);
+        for (Kind kind; (kind = lexer.advance()) != null; )
+            chunker.add(kind, lexer.vocab(), lexer.end());
+        ArrayList<Leaf> leaves = chunker.leaves();
+        return new TokenRope(build(leaves, 0, leaves.size()), level);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the rope for {@code source}, obtained from the string of this rope by replacing
+     * {@code removed} characters at position {@code start} by {@code inserted} characters. This
+     * rope is not modified.
+     * <p>
+     * The chunks that contain the line of the edit and the input element preceding it are
+     * re-lexed, up to the first chunk boundary after which the old input elements can be reused.
+     * If the string before the edit opens an unterminated block comment or text block (whose
+     * lexing depends on the whole rest of the string), the whole string is re-lexed.
+     * <p>
+     * The lexer scans the new string in place, so only the re-lexed range is visited.
+     */
+    public TokenRope edit (String source, int start, int removed, int inserted)
+    {
+        int old_len = length(), delta = inserted - removed;
+
+        if (start < 0 || removed < 0 || inserted < 0 || start + removed > old_len
+                || source.length() != old_len + delta)
+            throw new IllegalArgumentException("edit does not match the string lengths");
+
+        if (removed == 0 && inserted == 0)
+            return this;
+        if (root == null)
+            return of(source, level);
+
+        // Except for block comments and text blocks, lexing an input element does not look past
+        // the next line terminator: restart at the input element ending the previous line.
+        int line = start;
+        while (line > 0 && source.charAt(line - 1) != '\n' && source.charAt(line - 1) != '\r')
+            --line;
+        int restart = index_at(Math.max(0, line - 1));
+
+        // restart at the beginning of the chunk, so that chunks are only ever shared whole
+        Cursor old = new Cursor();
+        old.seek(restart);
+        int first = old.leaf_first;
+        int origin = old.leaf_start;
+
+        if (root.unterminated && first_unterminated(root, 0) < first)
+            return of(source, level);
+
+        Chunker chunker = new Chunker(source, origin);
+        Lexer lexer = new Lexer(source, level, Lexer.Engine.TABLE, true, null);
+        lexer.seek(origin);
+        int edit_end = start + inserted; // in the new string
+        int resume = count(); // old index of the first reused chunk
+
+        old.seek(first);
+        boolean more = true;
+
+        for (Kind kind; (kind = lexer.advance()) != null; )
+        {
+            int end = lexer.end();
+            chunker.add(kind, lexer.vocab(), end);
+
+            if (end < edit_end)
+                continue;
+
+            // the rest of the string is unchanged: resynchronize with the old input elements
+            while (more && old.end() < end - delta)
+                more = old.next();
+
+            if (more && old.end() == end - delta)
+            {
+                // copy old input elements up to the end of their chunk
+                while (old.index + 1 < old.leaf_first + old.leaf.count) {
+                    old.next();
+                    chunker.add(old.kind(), old.vocab(), old.end() + delta);
+                }
+                resume = old.leaf_first + old.leaf.count;
+                break;
+            }
+        }
+
+        lexer.finish();
+
+        ArrayList<Leaf> leaves = chunker.leaves();
+        Node middle = build(leaves, 0, leaves.size());
+        Node node = join(join(prefix(root, first), middle), suffix(root, resume));
+        return new TokenRope(node, level);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the first input element below {@code node} (whose first input element
+     * has index {@code base}) that opens an unterminated construct, or {@link #count()} if none.
+     * May return an earlier index for leaves that were sliced.
+     */
+    private int first_unterminated (Node node, int base)
+    {
+        while (node instanceof Branch) {
+            Branch b = (Branch) node;
+            if (b.left.unterminated) node = b.left;
+            else {
+                base += b.left.count;
+                node = b.right;
+            }
+        }
+        return node.unterminated ? base : count();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Queries
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of input elements.
+     */
+    public int count() {
+        return root == null ? 0 : root.count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Length of the string from which the input elements were lexed.
+     */
+    public int length() {
+        return root == null ? 0 : root.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Height of the tree (0 for a single chunk), for diagnostics.
+     */
+    public int height() {
+        return root == null ? 0 : root.height;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the input element containing the given position.
+     *
+     * @throws IndexOutOfBoundsException if {@code position} is not in {@code [0, length())}.
+     */
+    public int index_at (int position)
+    {
+        if (position < 0 || position >= length())
+            throw new IndexOutOfBoundsException("position: " + position);
+
+        Node node = root;
+        int base = 0;
+        while (node instanceof Branch) {
+            Branch b = (Branch) node;
+            if (position < b.left.length) node = b.left;
+            else {
+                position -= b.left.length;
+                base += b.left.count;
+                node = b.right;
+            }
+        }
+
+        int k = Arrays.binarySearch(((Leaf) node).ends, position);
+        return base + (k >= 0 ? k + 1 : -k - 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the kind of the input element at the given index.
+     */
+    public Kind kind (int index) {
+        return cursor(index).kind();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the start position of the input element at the given index.
+     */
+    public int start (int index) {
+        return cursor(index).start();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the end position (exclusive) of the input element at the given index.
+     */
+    public int end (int index) {
+        return cursor(index).end();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Instantiates the input element at the given index, whose text is taken from {@code source}
+     * (the string this rope was lexed from).
+     */
+    public InputElement element (int index, String source) {
+        return cursor(index).element(source);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a cursor positioned on the input element at the given index.
+     *
+     * @throws IndexOutOfBoundsException if {@code index} is not in {@code [0, count())}.
+     */
+    public Cursor cursor (int index)
+    {
+        Cursor cursor = new Cursor();
+        cursor.seek(index);
+        return cursor;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a cursor positioned before the first input element.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Iterates over the input elements of the rope. Moving to the next input element takes
+     * amortized constant time, {@link #seek} takes O(log n) time.
+     */
+    public final class Cursor
+    {
+        private Leaf leaf;
+        private int leaf_first; // index of the first input element of the leaf
+        private int leaf_start; // position of the start of the leaf
+        private int index = -1;
+
+        private Cursor() {}
+
+        /**
+         * Moves to the input element at the given index.
+         *
+         * @throws IndexOutOfBoundsException if {@code index} is not in {@code [0, count())}.
+         */
+        public void seek (int index)
+        {
+            if (index < 0 || index >= count())
+                throw new IndexOutOfBoundsException("index: " + index);
+
+            Node node = root;
+            int first = 0, start = 0;
+            while (node instanceof Branch) {
+                Branch b = (Branch) node;
+                if (index - first < b.left.count) node = b.left;
+                else {
+                    first += b.left.count;
+                    start += b.left.length;
+                    node = b.right;
+                }
+            }
+
+            this.leaf = (Leaf) node;
+            this.leaf_first = first;
+            this.leaf_start = start;
+            this.index = index;
+        }
+
+        /**
+         * Moves to the next input element and returns true, or returns false if there is none.
+         */
+        public boolean next()
+        {
+            if (index + 1 >= count()) {
+                index = count();
+                return false;
+            }
+            if (leaf != null && index + 1 < leaf_first + leaf.count)
+                ++index;
+            else
+                seek(index + 1);
+            return true;
+        }
+
+        /** Index of the current input element. */
+        public int index() {
+            return index;
+        }
+
+        /** Kind of the current input element. */
+        public Kind kind() {
+            return KINDS[leaf.kinds[index - leaf_first]];
+        }
+
+        /** Start position of the current input element. */
+        public int start() {
+            return leaf_start + leaf.start(index - leaf_first);
+        }
+
+        /** End position (exclusive) of the current input element. */
+        public int end() {
+            return leaf_start + leaf.ends[index - leaf_first];
+        }
+
+        private int vocab() {
+            return leaf.vocabs[index - leaf_first];
+        }
+
+        /**
+         * Instantiates the current input element, whose text is taken from {@code source} (the
+         * string the rope was lexed from).
+         */
+        public InputElement element (String source)
+        {
+            int start = start(), end = end();
+            InputElement element = Lexer.make(kind(), source, start, end, vocab());
+            element.start = start;
+            element.end = end;
+            return element;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
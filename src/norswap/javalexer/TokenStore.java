@@ -0,0 +1,448 @@
+package norswap.javalexer;
+
+import norswap.javalexer.tokens.InputElement;
+import norswap.javalexer.tokens.Kind;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Stores the lexed input elements of many files outside the Java heap, so that heap usage depends
+ * on the number of files but not on the number of input elements.
+ * <p>
+ * Each file is stored in a single block of off-heap memory (its arena) holding its input elements
+ * (kind, bounds and vocabulary index: 12 bytes each) followed by its source text (which the input
+ * elements refer to). Blocks are carved out of large direct {@link ByteBuffer} slabs, and freed
+ * as a unit when the file is removed, to be reused for other files. Blocks are rounded up to a
+ * power of two, so up to half of a block can be unused.
+ * <p>
+ * Input elements are read through {@link View}s, reusable flyweights which decode input elements
+ * directly from off-heap memory.
+ * <p>
+ * Not thread-safe: concurrent access must be synchronized externally (concurrent reads with no
+ * concurrent modification are fine).
+ */
+public final class TokenStore
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Default size of the slabs from which blocks are allocated: 16 MiB. */
+    public static final int DEFAULT_SLAB_SIZE = 1 << 24;
+
+    private static final int MIN_BLOCK_BITS = 10;
+    private static final int HEADER = 8;   // count (int), length (int)
+    private static final int RECORD = 12;  // start (int), end (int), kind (byte), vocab (byte)
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final int slab_bits;
+    private final ArrayList<ByteBuffer> slabs = new ArrayList<>();
+
+    /** Offset of the first unallocated byte in the last slab. */
+    private int bump;
+
+    /** For each block size class, a stack of free blocks (slab index << 32 | offset). */
+    private final long[][] free;
+    private final int[] free_size;
+
+    // Per-file state, indexed by file ID (at most a few words per file).
+    private ByteBuffer[] buffers = new ByteBuffer[16];
+    private int[] offsets = new int[16];
+    private long[] blocks = new long[16]; // slab << 32 | offset, or -1 for dedicated buffers
+    private byte[] classes = new byte[16];
+    private int files;
+
+    /** Removed file IDs, to be reused. */
+    private int[] free_ids = new int[16];
+    private int free_ids_size;
+
+    private long off_heap_bytes;
+
+    // Scratch space for lexing, reused across files.
+    private int[] scratch = new int[1024];
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an empty token store using slabs of {@link #DEFAULT_SLAB_SIZE} bytes.
+     */
+    public TokenStore() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an empty token store using slabs of {@code slab_size} bytes (rounded up to a power
+     * of two, at least 1 KiB). Files that do not fit in a slab get a dedicated buffer.
+     */
+    public TokenStore (int slab_size)
+    {
+        if (slab_size <= 0)
+            throw new IllegalArgumentException("slab size must be positive: " + slab_size);
+
+        this.slab_bits = Math.max(MIN_BLOCK_BITS, 32 - Integer.numberOfLeadingZeros(slab_size - 1));
+        this.free = new long[slab_bits - MIN_BLOCK_BITS + 1][];
+        this.free_size = new int[free.length];
+        this.bump = 1 << slab_bits; // no slab yet
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes {@code source} ({@link LanguageLevel#LATEST}, tolerant) and stores all of its input
+     * elements. Returns the ID of the file in the store.
+     */
+    public int add (String source) {
+        return add(source, LanguageLevel.LATEST, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lexes {@code source} at the given language level (tolerant) and stores its input elements,
+     * or only its tokens if {@code tokens_only} is set. Returns the ID of the file in the store.
+     */
+    public int add (String source, LanguageLevel level, boolean tokens_only)
+    {
+        Lexer lexer = new Lexer(source, level);
+        int count = 0;
+
+        for (Kind kind; (kind = lexer.advance()) != null; )
+        {
+            if (tokens_only && !kind.is_token())
+                continue;
+
+            if (4 * count + 4 > scratch.length)
+                scratch = Arrays.copyOf(scratch, scratch.length * 2);
+
+            scratch[4 * count]     = lexer.start();
+            scratch[4 * count + 1] = lexer.end();
+            scratch[4 * count + 2] = kind.ordinal();
+            scratch[4 * count + 3] = lexer.vocab();
+            ++count;
+        }
+
+        long size = HEADER + (long) count * RECORD + 2L * source.length();
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("file too large for the token store");
+
+        int id = new_id();
+        allocate(id, (int) size);
+
+        ByteBuffer buf = buffers[id];
+        int base = offsets[id];
+        buf.putInt(base, count);
+        buf.putInt(base + 4, source.length());
+
+        int p = base + HEADER;
+        for (int i = 0; i < count; ++i, p += RECORD) {
+            buf.putInt(p,     scratch[4 * i]);
+            buf.putInt(p + 4, scratch[4 * i + 1]);
+            buf.put(p + 8,  (byte) scratch[4 * i + 2]);
+            buf.put(p + 9,  (byte) scratch[4 * i + 3]);
+        }
+
+        ByteBuffer chars = buf.duplicate().order(buf.order());
+        chars.position(p);
+        chars.asCharBuffer().put(source);
+
+        return id;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Removes the file with the given ID from the store, freeing its memory for reuse. The ID
+     * may be reused by a later call to {@link #add}. Views over this file must not be used
+     * afterwards.
+     */
+    public void remove (int file)
+    {
+        check(file);
+
+        int cls = classes[file];
+        long block = blocks[file];
+
+        if (block >= 0) {
+            if (free[cls] == null || free_size[cls] == free[cls].length)
+                free[cls] = Arrays.copyOf(free[cls] == null ? new long[0] : free[cls],
+                    Math.max(8, free_size[cls] * 2));
+            free[cls][free_size[cls]++] = block;
+        }
+        else {
+            // dedicated buffer: released when garbage collected
+            off_heap_bytes -= buffers[file].capacity();
+        }
+
+        buffers[file] = null;
+
+        if (free_ids_size == free_ids.length)
+            free_ids = Arrays.copyOf(free_ids, free_ids.length * 2);
+        free_ids[free_ids_size++] = file;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of input elements stored for the given file.
+     */
+    public int size (int file) {
+        check(file);
+        return buffers[file].getInt(offsets[file]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Length of the source text of the given file.
+     */
+    public int length (int file) {
+        check(file);
+        return buffers[file].getInt(offsets[file] + 4);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of files in the store.
+     */
+    public int file_count() {
+        return files - free_ids_size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of bytes of off-heap memory currently reserved by the store (including free blocks).
+     */
+    public long off_heap_bytes() {
+        return off_heap_bytes;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new view over the given file, positioned before its first input element.
+     */
+    public View view (int file) {
+        View view = new View();
+        view.reset(file);
+        return view;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void check (int file)
+    {
+        if (file < 0 || file >= files || buffers[file] == null)
+            throw new IllegalArgumentException("no such file: " + file);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int new_id()
+    {
+        if (free_ids_size > 0)
+            return free_ids[--free_ids_size];
+
+        if (files == buffers.length) {
+            int n = files * 2;
+            buffers = Arrays.copyOf(buffers, n);
+            offsets = Arrays.copyOf(offsets, n);
+            blocks  = Arrays.copyOf(blocks,  n);
+            classes = Arrays.copyOf(classes, n);
+        }
+
+        return files++;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Allocates a block of at least {@code size} bytes for the given file.
+     */
+    private void allocate (int file, int size)
+    {
+        int bits = Math.max(MIN_BLOCK_BITS, 32 - Integer.numberOfLeadingZeros(size - 1));
+
+        if (bits > slab_bits) {
+            buffers[file] = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            offsets[file] = 0;
+            blocks [file] = -1;
+            off_heap_bytes += size;
+            return;
+        }
+
+        int cls = bits - MIN_BLOCK_BITS;
+        long block;
+
+        if (free_size[cls] > 0) {
+            block = free[cls][--free_size[cls]];
+        }
+        else {
+            int block_size = 1 << bits;
+            // Blocks are powers of two carved in increasing order: the last slab's remaining
+            // space is always aligned for any smaller block size.
+            if (bump + block_size > 1 << slab_bits) {
+                slabs.add(ByteBuffer.allocateDirect(1 << slab_bits).order(ByteOrder.nativeOrder()));
+                off_heap_bytes += 1 << slab_bits;
+                bump = 0;
+            }
+            block = (long) (slabs.size() - 1) << 32 | bump;
+            bump += block_size;
+        }
+
+        buffers[file] = slabs.get((int) (block >>> 32));
+        offsets[file] = (int) block;
+        blocks [file] = block;
+        classes[file] = (byte) cls;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A flyweight cursor over the input elements of a file, decoding them from off-heap memory.
+     * The view is a {@link CharSequence} over the text of the current input element, so that it
+     * can be inspected without allocating.
+     * <p>
+     * A view can be moved to another file with {@link #reset(int)}.
+     */
+    public final class View implements CharSequence
+    {
+        private ByteBuffer buf;
+        private int base, count, text, index = -1;
+        private int start, end;
+
+        private View() {}
+
+        /**
+         * Points this view to the given file, before its first input element.
+         */
+        public void reset (int file)
+        {
+            check(file);
+            buf   = buffers[file];
+            base  = offsets[file] + HEADER;
+            count = buf.getInt(offsets[file]);
+            text  = base + count * RECORD;
+            index = -1;
+        }
+
+        /**
+         * Moves to the next input element. Returns false if there is none.
+         */
+        public boolean next()
+        {
+            if (index + 1 >= count) {
+                index = count;
+                return false;
+            }
+            seek(index + 1);
+            return true;
+        }
+
+        /**
+         * Moves to the input element at the given index.
+         */
+        public void seek (int index)
+        {
+            if (index < 0 || index >= count)
+                throw new IndexOutOfBoundsException("index: " + index);
+            this.index = index;
+            int p = base + index * RECORD;
+            start = buf.getInt(p);
+            end   = buf.getInt(p + 4);
+        }
+
+        /** Index of the current input element. */
+        public int index() {
+            return index;
+        }
+
+        /** Number of input elements in the file. */
+        public int count() {
+            return count;
+        }
+
+        /** Kind of the current input element. */
+        public Kind kind() {
+            return Kinds.values[buf.get(base + index * RECORD + 8)];
+        }
+
+        /** Start position of the current input element in the file's source. */
+        public int start() {
+            return start;
+        }
+
+        /** End position (exclusive) of the current input element in the file's source. */
+        public int end() {
+            return end;
+        }
+
+        @Override public int length() {
+            return end - start;
+        }
+
+        @Override public char charAt (int i) {
+            if (i < 0 || i >= end - start)
+                throw new IndexOutOfBoundsException("index: " + i);
+            return buf.getChar(text + 2 * (start + i));
+        }
+
+        /**
+         * Returns the given range of the current input element's text, as a string.
+         */
+        @Override public CharSequence subSequence (int from, int to)
+        {
+            if (from < 0 || to > end - start || from > to)
+                throw new IndexOutOfBoundsException("[" + from + ", " + to + "[");
+            char[] chars = new char[to - from];
+            for (int i = 0; i < chars.length; ++i)
+                chars[i] = buf.getChar(text + 2 * (start + from + i));
+            return new String(chars);
+        }
+
+        /**
+         * Whether the current input element's text is equal to {@code string}.
+         */
+        public boolean is (CharSequence string)
+        {
+            if (string.length() != end - start)
+                return false;
+            for (int i = 0; i < end - start; ++i)
+                if (buf.getChar(text + 2 * (start + i)) != string.charAt(i))
+                    return false;
+            return true;
+        }
+
+        /**
+         * Instantiates the current input element (with its position).
+         */
+        public InputElement element()
+        {
+            InputElement ie = Lexer.make(kind(), this, 0, length(),
+                buf.get(base + index * RECORD + 9));
+            ie.start = start;
+            ie.end   = end;
+            return ie;
+        }
+
+        /**
+         * The text of the current input element.
+         */
+        @Override public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Kinds {
+        static final Kind[] values = Kind.values();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,56 +1,114 @@
 package norswap.javalexer;
 
-import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.Reader;
 
 /**
- * Contains a method that expands unicode escapes in a string, as per JLS 3.3.
+ * Contains methods that expand unicode escapes in a string or a character stream,
+ * as per JLS 3.3.
  */
 public final class UnicodeExpander
 {
     // ---------------------------------------------------------------------------------------------
 
-    private static final Pattern escape = Pattern.compile("(\\\\*)(\\\\u+(\\p{XDigit}{4}))");
-
-    // ---------------------------------------------------------------------------------------------
-
     /**
      * Expands the unicode escapes in a source string, as per JLS 3.3.
+     * <p>
+     * If the string contains no backslash, it is returned as is: the only work done is a single
+     * {@link String#indexOf(int)}, which the JVM implements as a vectorized scan. Otherwise, the
+     * escapes are expanded in a single pass into a character array sized after the input (an
+     * expanded string is never longer than its source).
      */
     public static String expand (String string)
     {
-        Matcher matcher = escape.matcher(string);
-        ArrayList<int[]> replacements = new ArrayList<>();
+        int i = string.indexOf('\\');
+
+        if (i < 0)
+            return string;
+
+        int len = string.length();
+        char[] out = null;
+        int o = 0;      // output size
+        int copied = 0; // input up to this position has been copied to the output
 
-        while (matcher.find())
+        while (i >= 0)
         {
-            // Total number of backslashes is even, don't replace this escape.
-            if ((matcher.end(1) - matcher.start(1)) % 2 == 1)
-                continue;
+            // Only the last backslash of a run can begin an escape, and only if the run has an
+            // odd length (i.e. the backslash is preceded by an even number of backslashes).
+            int j = i + 1;
+            while (j < len && string.charAt(j) == '\\') ++j;
 
-            String escape = matcher.group(3);
-            int total = 0;
-            for (int i = 0; i < 4; ++i)
-                total = total * 16 + LexUtil.hex_value(escape.charAt(i));
+            if ((j - i) % 2 == 1)
+            {
+                int end = escape_end(string, j, len);
+                if (end > 0)
+                {
+                    if (out == null)
+                        out = new char[len];
 
-            replacements.add(new int[]{ matcher.start(2), matcher.end(2), total });
+                    string.getChars(copied, j - 1, out, o);
+                    o += j - 1 - copied;
+                    out[o++] = escape_value(string, end);
+                    copied = end;
+                    i = string.indexOf('\\', end);
+                    continue;
+                }
+            }
+
+            i = string.indexOf('\\', j);
         }
 
-        if (replacements.size() == 0)
+        if (out == null)
             return string;
 
-        int i = 0;
-        StringBuilder b = new StringBuilder();
+        string.getChars(copied, len, out, o);
+        o += len - copied;
+        return new String(out, 0, o);
+    }
 
-        for (int[] r: replacements) {
-            b.append(string, i, r[0]);
-            b.append((char) r[2]);
-            i = r[1];
-        }
+    // ---------------------------------------------------------------------------------------------
 
-        b.append(string, i, string.length());
-        return b.toString();
+    /**
+     * Returns a reader that expands the unicode escapes in the stream of characters read from
+     * {@code reader}, as per JLS 3.3.
+     *
+     * @see UnicodeExpandingReader
+     */
+    public static Reader expand (Reader reader) {
+        return new UnicodeExpandingReader(reader);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Assuming position {@code i} in {@code string} immediately follows an eligible backslash,
+     * returns the end of the unicode escape it begins, or -1 if it does not begin one.
+     */
+    private static int escape_end (CharSequence string, int i, int len)
+    {
+        int j = i;
+        while (j < len && string.charAt(j) == 'u') ++j;
+
+        if (j == i || j + 4 > len)
+            return -1;
+
+        for (int k = j; k < j + 4; ++k)
+            if (!LexUtil.is_hex(string.charAt(k)))
+                return -1;
+
+        return j + 4;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the character denoted by the four hexadecimal digits preceding position {@code end}.
+     */
+    private static char escape_value (CharSequence string, int end)
+    {
+        int total = 0;
+        for (int k = end - 4; k < end; ++k)
+            total = total * 16 + LexUtil.hex_value(string.charAt(k));
+        return (char) total;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,156 @@
+package norswap.javalexer;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A reader that expands unicode escapes on the fly in the characters read from an underlying
+ * reader, as per JLS 3.3. This produces the same output as {@link UnicodeExpander#expand(String)}
+ * without having to hold the whole input (nor the whole output) in memory.
+ * <p>
+ * The reader buffers its input. Lookahead is only needed past an eligible backslash, and is
+ * bounded by the length of the escape (an arbitrary number of {@code u} is allowed, in which case
+ * the buffer grows as required).
+ */
+public final class UnicodeExpandingReader extends Reader
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final Reader in;
+    private char[] buf = new char[8192];
+    private int pos;
+    private int lim;
+    private boolean eof;
+
+    /** Number of contiguous backslashes read from the input just before {@link #pos}. */
+    private int backslashes;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public UnicodeExpandingReader (Reader in) {
+        this.in = in;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public int read (char[] cbuf, int off, int len) throws IOException
+    {
+        int n = 0;
+
+        while (n < len)
+        {
+            if (pos == lim && !ensure(1))
+                break;
+
+            char c = buf[pos];
+
+            if (c != '\\') {
+                // fast path: copy up to the next backslash
+                int end = Math.min(lim, pos + len - n);
+                int i = pos + 1;
+                while (i < end && buf[i] != '\\') ++i;
+                System.arraycopy(buf, pos, cbuf, off + n, i - pos);
+                n += i - pos;
+                pos = i;
+                backslashes = 0;
+                continue;
+            }
+
+            int end = backslashes % 2 == 0 ? escape_length() : -1;
+
+            if (end < 0) {
+                cbuf[off + n++] = '\\';
+                ++pos;
+                ++backslashes;
+            } else {
+                cbuf[off + n++] = escape_value(end);
+                pos += end;
+                backslashes = 0;
+            }
+        }
+
+        return n == 0 && len > 0 ? -1 : n;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Assuming an eligible backslash is at {@link #pos}, returns the length of the unicode escape
+     * it begins, or -1 if it does not begin one.
+     */
+    private int escape_length() throws IOException
+    {
+        int k = 1;
+
+        while (ensure(k + 1) && buf[pos + k] == 'u') ++k;
+
+        if (k == 1 || !ensure(k + 4))
+            return -1;
+
+        for (int i = pos + k; i < pos + k + 4; ++i)
+            if (!LexUtil.is_hex(buf[i]))
+                return -1;
+
+        return k + 4;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the character denoted by the four hexadecimal digits preceding position {@code pos +
+     * length}.
+     */
+    private char escape_value (int length)
+    {
+        int total = 0;
+        for (int i = pos + length - 4; i < pos + length; ++i)
+            total = total * 16 + LexUtil.hex_value(buf[i]);
+        return (char) total;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Ensures that at least {@code n} characters are buffered past {@link #pos}, reading from the
+     * underlying reader if necessary. Returns false if the input ends before that.
+     */
+    private boolean ensure (int n) throws IOException
+    {
+        if (lim - pos >= n)
+            return true;
+
+        if (eof)
+            return false;
+
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, lim - pos);
+            lim -= pos;
+            pos = 0;
+        }
+
+        if (n > buf.length) {
+            char[] copy = new char[Math.max(n, buf.length * 2)];
+            System.arraycopy(buf, 0, copy, 0, lim);
+            buf = copy;
+        }
+
+        while (lim < n) {
+            int read = in.read(buf, lim, buf.length - lim);
+            if (read < 0) {
+                eof = true;
+                return false;
+            }
+            lim += read;
+        }
+
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void close() throws IOException {
+        in.close();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -46,7 +46,7 @@ public final class CharLiteral extends Literal
     // ---------------------------------------------------------------------------------------------
 
     @Override public int hashCode() {
-        return 31 * (1777 + c);
+        return 31 * (1777 + string.hashCode());
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -79,15 +79,8 @@ public final class FloatLiteral extends Literal
     /**
      * Indicates whether the literal represents a valid floating-point value.
      */
-    public boolean is_valid()
-    {
-        try {
-            value();
-            return true;
-        }
-        catch (Exception e) {
-            return false;
-        }
+    public boolean is_valid() {
+        return LexUtil.float_fits(string, 0, string.length());
     }
 
     // ---------------------------------------------------------------------------------------------
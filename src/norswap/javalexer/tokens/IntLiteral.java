@@ -83,15 +83,8 @@ public final class IntLiteral extends Literal
     /**
      * Indicates whether the literal represents a valid integer value.
      */
-    public boolean is_valid()
-    {
-        try {
-            value();
-            return true;
-        }
-        catch (Exception e) {
-            return false;
-        }
+    public boolean is_valid() {
+        return LexUtil.int_fits(string, 0, string.length());
     }
 
     // ---------------------------------------------------------------------------------------------
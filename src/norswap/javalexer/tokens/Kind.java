@@ -0,0 +1,72 @@
+package norswap.javalexer.tokens;
+
+/**
+ * The kinds of input elements, at a finer granularity than the input element classes (e.g.
+ * distinguishing line and block comments, or the different types of integer literals).
+ * <p>
+ * This is what the lexer produces when lexing without instantiating input elements (see
+ * {@link norswap.javalexer.Lexer#advance()}).
+ */
+public enum Kind
+{
+    /** See {@link Whitespace}. */
+    WHITESPACE,
+    /** See {@link Comment.Type#LINE}. */
+    LINE_COMMENT,
+    /** See {@link Comment.Type#BLOCK}. */
+    BLOCK_COMMENT,
+    /** See {@link IntLiteral.Type#DECIMAL}. */
+    DECIMAL_INT,
+    /** See {@link IntLiteral.Type#HEXADECIMAL}. */
+    HEX_INT,
+    /** See {@link IntLiteral.Type#OCTAL}. */
+    OCTAL_INT,
+    /** See {@link IntLiteral.Type#BINARY}. */
+    BINARY_INT,
+    /** See {@link FloatLiteral.Type#DECIMAL}. */
+    DECIMAL_FLOAT,
+    /** See {@link FloatLiteral.Type#HEXADECIMAL}. */
+    HEX_FLOAT,
+    /** See {@link CharLiteral}. */
+    CHAR,
+    /** See {@link StringLiteral}. */
+    STRING,
+    /** See {@link TextBlock}. */
+    TEXT_BLOCK,
+    /** The {@code true} {@link BoolLiteral}. */
+    TRUE,
+    /** The {@code false} {@link BoolLiteral}. */
+    FALSE,
+    /** See {@link NullLiteral}. */
+    NULL,
+    /** See {@link Keyword}. */
+    KEYWORD,
+    /** See {@link Identifier}. */
+    IDENTIFIER,
+    /** See {@link Separator}. */
+    SEPARATOR,
+    /** See {@link Operator}. */
+    OPERATOR,
+    /** See {@link Garbage}. */
+    GARBAGE;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether input elements of this kind are tokens (as opposed to whitespace and comments).
+     */
+    public boolean is_token() {
+        return ordinal() > BLOCK_COMMENT.ordinal();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether input elements of this kind are literals.
+     */
+    public boolean is_literal() {
+        return ordinal() >= DECIMAL_INT.ordinal() && ordinal() <= NULL.ordinal();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
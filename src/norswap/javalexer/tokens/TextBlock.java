@@ -0,0 +1,54 @@
+package norswap.javalexer.tokens;
+
+import norswap.javalexer.LexUtil;
+
+/**
+ * A text block: a multi-line string literal delimited by triple double quotes (since Java 15).
+ */
+public final class TextBlock extends Literal
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The string appearing within the triple quotes, including the line terminator (and the
+     * whitespace preceding it) following the opening delimiter.
+     */
+    public final String string;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public TextBlock (String string) {
+        this.string = string;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The string value corresponding to the content of the text block, stripping incidental
+     * indentation and performing escape translation.
+     */
+    public String value() {
+        return LexUtil.text_block_value(string);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public int hashCode() {
+        return 1931 + string.hashCode();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public boolean equals (Object other) {
+        return other instanceof TextBlock
+            && string.equals(((TextBlock) other).string);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return "TextBlock(" + string + ")";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,100 @@
+package norswap.javalexer;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * {@link LexMetrics} implementation emitting a JDK Flight Recorder event for each lexed input
+ * (see {@link LexMetrics#flight_recorder()}). The event spans the lexing of the input, from the
+ * first call to {@link Lexer#advance()} to the report.
+ * <p>
+ * Only part of the multi-release JAR on Java 16+.
+ */
+final class FlightRecorderMetrics implements LexMetrics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Name("norswap.javalexer.Lexing")
+    @Label("Lexing")
+    @Category("Java Lexer")
+    @Description("Lexing of an input by a norswap.javalexer.Lexer")
+    @StackTrace(false)
+    static final class LexingEvent extends Event
+    {
+        @Label("Engine")
+        String engine;
+
+        @Label("Language Level")
+        String level;
+
+        @Label("Characters")
+        int chars;
+
+        @Label("Lexing Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long lexing_time;
+
+        @Label("Input Elements")
+        int elements;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Garbage Tokens")
+        int garbage;
+
+        @Label("Errors")
+        int errors;
+
+        @Label("Complete")
+        @Description("Whether the end of the input was reached")
+        boolean complete;
+
+        @Label("Budget Status")
+        String budget_status;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void started (LexStats stats)
+    {
+        LexingEvent event = new LexingEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            stats.attachment = event;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void lexed (LexStats stats)
+    {
+        // no started event if the lexer reported without lexing: nothing to time
+        LexingEvent event = stats.attachment instanceof LexingEvent
+            ? (LexingEvent) stats.attachment
+            : new LexingEvent();
+        stats.attachment = null;
+        event.end();
+        if (!event.shouldCommit())
+            return;
+
+        event.engine        = stats.engine.name();
+        event.level         = stats.level.name();
+        event.chars         = stats.chars();
+        event.lexing_time   = stats.nanos();
+        event.elements      = stats.elements();
+        event.tokens        = stats.tokens();
+        event.garbage       = stats.garbage();
+        event.errors        = stats.errors();
+        event.complete      = stats.complete();
+        event.budget_status = stats.budget_status().name();
+        event.commit();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,133 @@
+package norswap.javalexer;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.GE;
+import static jdk.incubator.vector.VectorOperators.LE;
+
+/**
+ * {@link RunScanner} implementation using the Vector API, examining as many characters at once as
+ * the hardware allows (typically 16 or 32). The input is copied into the scratch buffer in chunks
+ * that grow with the length of the run. Remaining characters are handled by the scalar code.
+ * <p>
+ * Only part of the multi-release JAR on Java 16+, and requires the {@code jdk.incubator.vector}
+ * module.
+ */
+final class VectorRunScanner extends RunScanner
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int BUFFER_SIZE = 64 * LANES;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override char[] buffer() {
+        return new char[BUFFER_SIZE];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of characters to copy into the buffer to scan from {@code i}, the last
+     * scanned chunk having size {@code n}: chunks start small (most runs are short) and double up
+     * to the buffer size.
+     */
+    private static int chunk (int n, int i, int len, char[] buffer) {
+        return Math.min(Math.min(n == 0 ? 2 * LANES : 2 * n, buffer.length), len - i);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static ShortVector load (char[] buffer, int k) {
+        return ShortVector.fromCharArray(SPECIES, buffer, k);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override int skip_whitespace (String in, int i, int len, char[] buffer)
+    {
+        for (int n = 0; (n = chunk(n, i, len, buffer)) >= LANES; ) {
+            in.getChars(i, i + n, buffer, 0);
+            int k = 0;
+            for (; k + LANES <= n; k += LANES) {
+                ShortVector v = load(buffer, k);
+                VectorMask<Short> space = v.eq((short) ' ')
+                    .or(v.compare(GE, (short) '\t').and(v.compare(LE, (short) '\r')));
+                if (!space.allTrue())
+                    return i + k + space.not().firstTrue();
+            }
+            i += k;
+        }
+        return super.skip_whitespace(in, i, len, buffer);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override int line_end (String in, int i, int len, char[] buffer)
+    {
+        for (int n = 0; (n = chunk(n, i, len, buffer)) >= LANES; ) {
+            in.getChars(i, i + n, buffer, 0);
+            int k = 0;
+            for (; k + LANES <= n; k += LANES) {
+                ShortVector v = load(buffer, k);
+                VectorMask<Short> end = v.eq((short) '\n')
+                    .or(v.eq((short) '\r'))
+                    .or(v.eq((short) '\u0085'))
+                    .or(v.eq((short) '\u2028'))
+                    .or(v.eq((short) '\u2029'));
+                if (end.anyTrue())
+                    return i + k + end.firstTrue();
+            }
+            i += k;
+        }
+        return super.line_end(in, i, len, buffer);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override int comment_end (String in, int i, int len, char[] buffer)
+    {
+        for (int n = 0; (n = chunk(n, i, len, buffer)) >= LANES + 1; ) {
+            in.getChars(i, i + n, buffer, 0);
+            int k = 0;
+            for (; k + 1 + LANES <= n; k += LANES) {
+                VectorMask<Short> end = load(buffer, k).eq((short) '*')
+                    .and(load(buffer, k + 1).eq((short) '/'));
+                if (end.anyTrue())
+                    return i + k + end.firstTrue();
+            }
+            i += k;
+        }
+        return super.comment_end(in, i, len, buffer);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override int string_stop (String in, int i, int len, char[] buffer)
+    {
+        for (int n = 0; (n = chunk(n, i, len, buffer)) >= LANES; ) {
+            in.getChars(i, i + n, buffer, 0);
+            int k = 0;
+            for (; k + LANES <= n; k += LANES) {
+                ShortVector v = load(buffer, k);
+                VectorMask<Short> stop = v.eq((short) '"')
+                    .or(v.eq((short) '\\'))
+                    .or(v.eq((short) '\n'))
+                    .or(v.eq((short) '\r'));
+                if (stop.anyTrue())
+                    return i + k + stop.firstTrue();
+            }
+            i += k;
+        }
+        return super.string_stop(in, i, len, buffer);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
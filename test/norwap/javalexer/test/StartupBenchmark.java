@@ -0,0 +1,85 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.Lexer.Engine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Measures the time it takes a fresh JVM to lex its first token with each engine, which is
+ * dominated by class loading and initialization. Every run happens in a new JVM.
+ * <p>
+ * Run with {@code mvn -P startup-benchmark verify}, or directly with the test classpath. Optional
+ * argument: number of runs per engine (default 10).
+ */
+public final class StartupBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args) throws Exception
+    {
+        if (args.length == 2 && args[0].equals("probe")) {
+            probe(Engine.valueOf(args[1]));
+            return;
+        }
+
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        for (Engine engine: Engine.values())
+        {
+            long[] first = new long[runs];
+            long[] total = new long[runs];
+
+            for (int i = 0; i < runs; ++i) {
+                long start = System.nanoTime();
+                first[i] = spawn(engine);
+                total[i] = System.nanoTime() - start;
+            }
+
+            Arrays.sort(first);
+            Arrays.sort(total);
+            System.out.printf("%-5s first token: %7.2f ms (median), JVM run: %7.2f ms (median)%n",
+                engine, first[runs / 2] / 1e6, total[runs / 2] / 1e6);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the probe in a new JVM and returns the time to first token it reports, in nanoseconds.
+     */
+    private static long spawn (Engine engine) throws Exception
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(
+                java, "-cp", System.getProperty("java.class.path"),
+                StartupBenchmark.class.getName(), "probe", engine.name())
+            .redirectErrorStream(true)
+            .start();
+
+        String line;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            line = out.readLine();
+        }
+
+        if (process.waitFor() != 0 || line == null)
+            throw new IllegalStateException("probe failed: " + line);
+
+        return Long.parseLong(line.trim());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void probe (Engine engine)
+    {
+        long start = System.nanoTime();
+        new Lexer("class A {}", LanguageLevel.LATEST, engine, true, null).next();
+        System.out.println(System.nanoTime() - start);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
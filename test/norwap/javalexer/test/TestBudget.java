@@ -0,0 +1,90 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.LexBudget;
+import norswap.javalexer.LexResult;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.tokens.InputElement;
+import norswap.javalexer.tokens.Token;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public final class TestBudget
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static String input (int n)
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < n; ++i) b.append("int x").append(i).append(" = ").append(i).append(";\n");
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_unlimited()
+    {
+        String input = input(100);
+        LexResult<InputElement> result = Lexer.lex(input, new LexBudget());
+        assertTrue(result.complete());
+        assertEquals(result.position, input.length());
+        assertEquals(result.elements, Lexer.lex(input));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_chars()
+    {
+        String input = input(100);
+        LexResult<Token> result = Lexer.tokenize(input, LexBudget.chars(100));
+        assertFalse(result.complete());
+        assertEquals(result.status, LexBudget.Status.CHARACTERS_EXCEEDED);
+        assertTrue(result.position >= 100 && result.position < 110);
+        assertEquals(result.elements, Lexer.tokenize(input.substring(0, result.position)));
+
+        // stops in the middle of garbage
+        LexResult<InputElement> garbage = Lexer.lex("####################", LexBudget.chars(5));
+        assertEquals(garbage.position, 5);
+        assertEquals(garbage.elements.size(), 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_exact_budget()
+    {
+        // a budget exhausted by the last input element doesn't make the result incomplete
+        LexResult<InputElement> exact = Lexer.lex("int x = 1;", LexBudget.chars(10));
+        assertTrue(exact.complete());
+        assertEquals(exact.position, 10);
+        assertEquals(exact.elements.size(), 8);
+
+        LexResult<InputElement> partial = Lexer.lex("int x = 1;", LexBudget.chars(9));
+        assertEquals(partial.status, LexBudget.Status.CHARACTERS_EXCEEDED);
+        assertEquals(partial.elements.size(), 7);
+
+        assertTrue(Lexer.lex("", LexBudget.chars(0)).complete());
+        assertTrue(Lexer.lex("", LexBudget.timeout(0, TimeUnit.SECONDS)).complete());
+        LexResult<InputElement> garbage = Lexer.lex("#####", LexBudget.chars(5));
+        assertTrue(garbage.complete());
+        assertEquals(garbage.elements.size(), 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_cancel_and_deadline()
+    {
+        LexBudget budget = new LexBudget();
+        budget.cancel();
+        LexResult<InputElement> cancelled = Lexer.lex(input(10), budget);
+        assertEquals(cancelled.status, LexBudget.Status.CANCELLED);
+        assertEquals(cancelled.position, 0);
+
+        LexResult<InputElement> late = Lexer.lex(input(10), LexBudget.timeout(0, TimeUnit.SECONDS));
+        assertEquals(late.status, LexBudget.Status.DEADLINE_EXCEEDED);
+        assertTrue(late.elements.isEmpty());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,72 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.Checkpoints;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.tokens.InputElement;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Paths.get;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public final class TestCheckpoints
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static void check_range (String input, List<InputElement> all, Checkpoints cps,
+                                     int from, int to)
+    {
+        List<InputElement> expected = new ArrayList<>();
+        for (InputElement ie: all)
+            if (ie.end > from && ie.start < to)
+                expected.add(ie);
+
+        List<InputElement> actual = Lexer.lex(input, cps, from, to);
+        assertEquals(actual.size(), expected.size(), "[" + from + ", " + to + "[");
+        for (int i = 0; i < actual.size(); ++i)
+            assertTrue(actual.get(i).equals_with_position(expected.get(i)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_range_lexing() throws IOException
+    {
+        String input = new String(readAllBytes(get("src/norswap/javalexer/Lexer.java")), "UTF-8")
+            + " # garbage";
+        List<InputElement> all = Lexer.lex(input);
+        Checkpoints cps = Checkpoints.build(input, 100);
+
+        for (int from = 0; from < input.length(); from += 97)
+            check_range(input, all, cps, from, from + 250);
+
+        check_range(input, all, cps, input.length() - 5, input.length());
+        check_range(input, all, Checkpoints.build(input, all, 1000), 5000, 7000);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_persistence() throws IOException
+    {
+        String input = "class A { /* long comment */ int x = 42; } // end";
+        Checkpoints cps = Checkpoints.build(input, 8);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        cps.write(new DataOutputStream(bytes));
+        Checkpoints read = Checkpoints.read(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertTrue(read.matches(input));
+        for (int i = 0; i <= input.length(); ++i)
+            assertEquals(read.nearest(i), cps.nearest(i));
+
+        // position 16 is inside the block comment, which starts at 10
+        assertEquals(cps.nearest(16), 10);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
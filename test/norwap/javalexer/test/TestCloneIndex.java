@@ -0,0 +1,122 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.CloneIndex;
+import norswap.javalexer.CloneIndex.Duplicate;
+import norswap.javalexer.LanguageLevel;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public final class TestCloneIndex
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String BODY =
+        "{ int total = 0; for (int i = 0; i < n; ++i) total += values[i]; return total; }";
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_duplicates()
+    {
+        CloneIndex index = new CloneIndex(10);
+        String a = "class A { int sum (int[] values, int n) " + BODY + " }";
+        // renamed identifiers and literals, different layout
+        String b = "class B {\n  void f() {}\n  long add(long[] xs, int m) "
+            + BODY.replace("total", "t").replace("values", "xs").replace("0", "1")
+            + "\n}";
+        String c = "class C { void g() { h(); } }";
+
+        int ia = index.add(a);
+        int ib = index.add(b);
+        int ic = index.add(c);
+
+        List<Duplicate> dups = index.duplicates(ia);
+        assertEquals(dups.size(), 1);
+        Duplicate dup = dups.get(0);
+        assertEquals(dup.other_file, ib);
+        assertTrue(a.substring(dup.start, dup.end).contains("return total;"));
+        assertTrue(b.substring(dup.other_start, dup.other_end).contains("return t;"));
+
+        assertTrue(index.duplicates(ic).isEmpty());
+
+        index.remove(ib);
+        assertTrue(index.duplicates(ia).isEmpty());
+        assertEquals(index.file_count(), 2);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_parallel()
+    {
+        ArrayList<String> sources = new ArrayList<>();
+        for (int i = 0; i < 200; ++i)
+            sources.add("class A" + i + " { void f" + i + "() " + (i % 2 == 0 ? BODY : "{}") + " }");
+
+        CloneIndex index = new CloneIndex(12);
+        int[] ids = index.add_all(sources);
+        assertEquals(index.duplicates(ids[0]).size(), 99);
+        assertTrue(index.duplicates(ids[1]).isEmpty());
+
+        // removing enough files triggers compaction
+        for (int i = 2; i < 200; ++i)
+            index.remove(ids[i]);
+        assertTrue(index.duplicates(ids[0]).isEmpty());
+        int id = index.add(sources.get(2));
+        assertEquals(index.duplicates(ids[0]).size(), 1);
+        assertEquals(index.duplicates(id).get(0).other_file, ids[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_frequent_windows()
+    {
+        String getters = "int getA() { return a; } int getB() { return b; } "
+            + "int getC() { return c; } ";
+        String unique1 = "for (int i = 0; i < n; ++i) total += values[i]; ";
+        String unique2 = "while (x > 0) { x -= 2; y *= 3; } ";
+
+        CloneIndex index = new CloneIndex(8, LanguageLevel.LATEST, 10);
+        for (int i = 0; i < 50; ++i)
+            index.add("class G" + i + " { " + getters + getters + "}");
+        int x = index.add("class X { void f() { " + unique1 + getters + unique2 + "} }");
+        int y = index.add("class Y { long g() { return 0; } void h() { "
+            + unique1 + getters + unique2 + "} }");
+
+        // windows inside the getters are not looked up, but the duplicate spans them
+        List<Duplicate> dups = index.duplicates(x);
+        assertEquals(dups.size(), 1, dups.toString());
+        Duplicate dup = dups.get(0);
+        assertEquals(dup.other_file, y);
+        String region = (unique1 + getters + unique2).trim();
+        String source = "class X { void f() { " + unique1 + getters + unique2 + "} }";
+        assertTrue(source.substring(dup.start, dup.end).contains(region), dup.toString());
+        assertEquals(dup.other_end - dup.other_start, dup.end - dup.start);
+
+        // duplicates made only of frequent windows are not reported
+        assertTrue(index.duplicates(0).isEmpty());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_same_file()
+    {
+        CloneIndex index = new CloneIndex(8);
+        String source = "class A { void f() " + BODY + " void g() " + BODY + " }";
+        int id = index.add(source);
+        List<Duplicate> dups = index.duplicates(id);
+        assertEquals(dups.size(), 2);
+        for (Duplicate dup: dups) {
+            // identifiers are normalized: "f" matches "g"
+            assertTrue(source.substring(dup.start, dup.end).endsWith("return total; }"));
+            assertEquals(dup.end - dup.start, dup.other_end - dup.other_start);
+        }
+        assertEquals(Arrays.asList(dups.get(0).other_start, dups.get(1).other_start),
+                     Arrays.asList(dups.get(1).start, dups.get(0).start));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,119 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.CompactTokens;
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.tokens.*;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+public final class TestCompactTokens
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static void check (String source, LanguageLevel level, boolean tokens_only)
+    {
+        CompactTokens compact = CompactTokens.encode(source, level, tokens_only, 8);
+        List<? extends InputElement> expected = tokens_only
+            ? Lexer.tokenize(source, level)
+            : Lexer.lex(source, level);
+
+        ArrayList<InputElement> actual = new ArrayList<>();
+        CompactTokens.Cursor cursor = compact.cursor();
+        while (cursor.next()) actual.add(cursor.element());
+        assertEquals(actual, expected);
+        assertEquals(compact.size(), expected.size());
+
+        // random access, backwards
+        for (int i = expected.size() - 1; i >= 0; i -= 3) {
+            assertEquals(compact.get(i), expected.get(i));
+            assertEquals(compact.start(i), expected.get(i).start);
+            assertEquals(compact.end(i), expected.get(i).end);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_simple()
+    {
+        String source = "int x = /* c */ \"a\\n\" + 'b' +                  true; ` null 0x1F";
+        check(source, LanguageLevel.LATEST, false);
+        check(source, LanguageLevel.LATEST, true);
+        check("", LanguageLevel.LATEST, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<InputElement> elements (CompactTokens compact)
+    {
+        ArrayList<InputElement> list = new ArrayList<>();
+        CompactTokens.Cursor cursor = compact.cursor();
+        while (cursor.next()) list.add(cursor.element());
+        return list;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_update() throws IOException
+    {
+        String source = new String(Files.readAllBytes(
+            Paths.get("src/norswap/javalexer/CompactTokens.java")), "UTF-8");
+        String[] inserts = {
+            "", "x", " ", "\n", "/*", "*/", "\"", "\"\"\"\n", "//", "'", "1.5e", "\\", "a b" };
+
+        Random random = new Random(42);
+        CompactTokens compact = CompactTokens.encode(source);
+
+        for (int i = 0; i < 300; ++i)
+        {
+            int at = random.nextInt(source.length() + 1);
+            int removed = Math.min(random.nextInt(4), source.length() - at);
+            String edited = source.substring(0, at)
+                + inserts[random.nextInt(inserts.length)]
+                + source.substring(at + removed);
+
+            CompactTokens updated = compact.update(edited);
+            assertEquals(elements(updated), Lexer.lex(edited), "edit " + i);
+            int mid = updated.size() / 2;
+            assertEquals(updated.get(mid), Lexer.lex(edited).get(mid));
+
+            // keep accumulating edits, but undo them from time to time to exercise resyncing
+            if (random.nextInt(10) == 0) {
+                compact = updated;
+                source = edited;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_sources() throws IOException
+    {
+        long chars = 0, encoded = 0;
+
+        try (Stream<Path> paths = Files.walk(Paths.get("src"))) {
+            for (Path path: (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                String source = new String(Files.readAllBytes(path), "UTF-8");
+                check(source, LanguageLevel.LATEST, false);
+                check(source, LanguageLevel.JAVA_8, true);
+                chars += source.length();
+                encoded += CompactTokens.encode(source).encoded_size();
+            }
+        }
+
+        // at most one byte per source character
+        assertTrue(encoded < chars, encoded + " >= " + chars);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,74 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.CorpusProfiler;
+import norswap.javalexer.CorpusProfiler.FileProfile;
+import norswap.javalexer.CorpusProfiler.Report;
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.Lexer.Engine;
+import norswap.javalexer.tokens.Kind;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.testng.Assert.*;
+
+public final class TestCorpusProfiler
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_profile() throws IOException
+    {
+        Path dir = Files.createTempDirectory("corpus");
+        Path good = Files.write(dir.resolve("Good.java"),
+            "class A { int x = 1; }".getBytes(StandardCharsets.UTF_8));
+        Path bad = Files.write(dir.resolve("Bad.java"),
+            "a # b".getBytes(StandardCharsets.UTF_8));
+
+        CorpusProfiler strict =
+            new CorpusProfiler(LanguageLevel.LATEST, Engine.TABLE, false, true, 2);
+        Report report = strict.profile(Arrays.asList(good, bad), 1);
+
+        assertEquals(report.files.size(), 2);
+        assertEquals(report.bytes(), 27);
+        assertEquals(report.failures(), 1);
+        assertTrue(report.percentile(50) <= report.percentile(100));
+        assertEquals(report.percentile(100), report.files.get(0).nanos);
+
+        for (FileProfile file: report.files) {
+            if (file.path.equals(good)) {
+                assertEquals(file.error, -1);
+                assertEquals(file.count(Kind.KEYWORD), 2);
+                assertEquals(file.count(Kind.WHITESPACE), 7);
+                assertEquals(file.mix(2), "WHITESPACE 44%, SEPARATOR 19%");
+            }
+            else {
+                assertEquals(file.error, 2);
+                assertEquals(file.count(Kind.IDENTIFIER), 1);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        report.print(new PrintStream(bytes, true, "UTF-8"), 1);
+        String out = bytes.toString("UTF-8");
+        assertTrue(out.contains("files:      2"), out);
+        assertTrue(out.contains("1 failed"), out);
+        assertTrue(out.contains("p99"), out);
+        assertTrue(out.contains("slowest files:"), out);
+
+        CorpusProfiler tolerant =
+            new CorpusProfiler(LanguageLevel.LATEST, Engine.REGEX, true, false, 1);
+        assertEquals(tolerant.profile(Arrays.asList(good, bad), 0).failures(), 0);
+
+        Files.delete(good);
+        Files.delete(bad);
+        Files.delete(dir);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
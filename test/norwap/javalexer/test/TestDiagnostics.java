@@ -0,0 +1,137 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.Diagnostics;
+import norswap.javalexer.Diagnostics.Category;
+import norswap.javalexer.LexUtil;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.LexingException;
+import norswap.javalexer.tokens.*;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static norswap.javalexer.Diagnostics.Category.*;
+import static org.testng.Assert.*;
+
+public final class TestDiagnostics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static void test_diag (String input, Object... expected)
+    {
+        Diagnostics diagnostics = new Diagnostics(10);
+        List<InputElement> out = Lexer.lex(input, diagnostics);
+
+        assertEquals(diagnostics.size(), expected.length / 3, diagnostics.toString());
+        for (int i = 0; i < diagnostics.size(); ++i) {
+            assertEquals(diagnostics.category(i), expected[3 * i]);
+            assertEquals(diagnostics.position(i), expected[3 * i + 1]);
+            assertEquals(diagnostics.length(i), expected[3 * i + 2]);
+        }
+
+        // input elements still cover the whole input
+        int end = 0;
+        for (InputElement ie: out) {
+            assertEquals(ie.start, end);
+            end = ie.end;
+        }
+        assertEquals(end, input.length());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_categories()
+    {
+        test_diag("a = 1;");
+        test_diag("a # b", UNEXPECTED_CHARACTER, 2, 1);
+        test_diag("s = \"abc\nx", UNTERMINATED_STRING, 4, 4);
+        test_diag("s = \"a\\qb\";", BAD_ESCAPE, 4, 6);
+        test_diag("c = 'ab';", MALFORMED_CHAR, 4, 4);
+        test_diag("c = '\\777'", MALFORMED_CHAR, 4, 6);
+        test_diag("c = 'a", UNTERMINATED_CHAR, 4, 2);
+        test_diag("x /* abc", UNTERMINATED_COMMENT, 2, 6);
+        test_diag("i = 4294967296;", INVALID_LITERAL, 4, 10);
+        test_diag("d = 1e400;", INVALID_LITERAL, 4, 5);
+        test_diag("f = 1e-50f;", INVALID_LITERAL, 4, 6);
+        test_diag("# \"x\\q\" @@ 'yy' ` ",
+            UNEXPECTED_CHARACTER, 0, 1,
+            BAD_ESCAPE, 2, 5,
+            MALFORMED_CHAR, 11, 4,
+            UNEXPECTED_CHARACTER, 16, 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_capacity()
+    {
+        Diagnostics diagnostics = new Diagnostics(2);
+        Lexer.lex("# a # b # c #", diagnostics);
+        assertEquals(diagnostics.size(), 2);
+        assertEquals(diagnostics.count(), 4);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_fail_fast()
+    {
+        try {
+            Lexer.lex("x = 1; y = 0xFFFFFFFFF;", Diagnostics.fail_fast());
+            fail();
+        }
+        catch (LexingException e) {
+            assertEquals(e.position, 11);
+            assertEquals(e.category, Category.INVALID_LITERAL);
+            assertEquals(e.getStackTrace().length, 0);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_literal_values()
+    {
+        assertEquals(LexUtil.parse_int("1337"), 1337);
+        assertEquals(LexUtil.parse_int("7"), 7);
+        assertEquals(LexUtil.parse_int("0"), 0);
+        assertEquals(LexUtil.parse_int("034"), 28);
+        assertEquals(LexUtil.parse_int("0b1111"), 15);
+        assertEquals(LexUtil.parse_int("0xFFFFFFFF"), -1);
+        assertEquals(LexUtil.parse_int("0xFFFFFFFFFFFFFFFFL"), -1);
+        assertEquals(LexUtil.parse_int("2147483648"), 2147483648L);
+        assertEquals(LexUtil.parse_int("1_000L"), 1000);
+        assertTrue(new IntLiteral("9223372036854775808L", IntLiteral.Type.DECIMAL).is_valid());
+        assertFalse(new IntLiteral("2147483649", IntLiteral.Type.DECIMAL).is_valid());
+        assertTrue(new FloatLiteral("0.0f", FloatLiteral.Type.DECIMAL).is_valid());
+        assertTrue(new FloatLiteral("0x0p3", FloatLiteral.Type.HEXADECIMAL).is_valid());
+        assertFalse(new FloatLiteral("0x1p-2000", FloatLiteral.Type.HEXADECIMAL).is_valid());
+
+        assertTrue(LexUtil.int_fits("x = 2147483648;", 4, 14));
+        assertFalse(LexUtil.int_fits("x = 2147483649;", 4, 14));
+        assertTrue(LexUtil.int_fits("9223372036854775808L", 0, 20));
+        assertFalse(LexUtil.int_fits("9223372036854775809L", 0, 20));
+        assertTrue(LexUtil.int_fits("0xFFFF_FFFF", 0, 11));
+        assertFalse(LexUtil.int_fits("0x1_0000_0000", 0, 13));
+        assertTrue(LexUtil.int_fits("0x1_0000_0000L", 0, 14));
+        assertTrue(LexUtil.int_fits("037777777777", 0, 12));
+        assertFalse(LexUtil.int_fits("047777777777", 0, 12));
+        assertTrue(LexUtil.int_fits("01777777777777777777777L", 0, 24));
+        assertFalse(LexUtil.int_fits("02000000000000000000000L", 0, 24));
+        assertTrue(LexUtil.int_fits("0b0000_0001", 0, 11));
+        assertFalse(LexUtil.int_fits("0x", 0, 2));
+
+        assertTrue(LexUtil.float_fits("x = 1.5e10;", 4, 10));
+        assertFalse(LexUtil.float_fits("1e999", 0, 5));
+        assertFalse(LexUtil.float_fits("1e-999", 0, 6));
+        assertTrue(LexUtil.float_fits("0e-999", 0, 6));
+        assertFalse(LexUtil.float_fits("1e39f", 0, 5));
+        assertTrue(LexUtil.float_fits("1_000.0_1d", 0, 10));
+
+        for (String lit: new String[] { "0", "1_337", "034", "0b1111", "0xFFFFFFFF", "0x7fff_ffffL",
+                "0xFFFFFFFFFFFFFFFFL", "2147483648", "9223372036854775808L", "0777L" })
+            assertEquals(LexUtil.int_value("x=" + lit, 2, 2 + lit.length()),
+                LexUtil.parse_int(lit), lit);
+        assertEquals(LexUtil.float_value("x=1_0.5f", 2, 8), 10.5);
+        assertTrue(Double.isNaN(LexUtil.float_value("1e999", 0, 5)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,182 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.Diagnostics;
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.Lexer.Engine;
+import norswap.javalexer.LexingException;
+import norswap.javalexer.tokens.InputElement;
+import norswap.javalexer.tokens.Kind;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Checks that the table-driven engine agrees with the reference regex engine.
+ */
+public final class TestEngines
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String[] tricky = {
+        "0", "0L", "00", "0_7", "0_8", "08", "09.5", "0x", "0x_1", "0x1_", "0x1__2l", "0b", "0b_1",
+        "0b1_0L", "0b2", "1_", "1__2", "1.", "1.e5", "1.e", "1e+", "1e+5f", "1f", "1D", ".5", ".e5",
+        "..", "...", "....", "1...2", "0x1p", "0x1p3", "0x.p1", "0x.8p-1d", "0x1.p1", "0xAbC.dEfP+9",
+        ">>>=", ">>=", ">>>>", "a->b", "a::b", "a:::b", "x++ +y", "a - -b", "/**/", "/*/", "/*", "//",
+        "/ /", "//x\ny", "//x\r\ny", "//x\u2028y", "'a'", "'\\''", "'\\u'", "'\\7'", "'\\777'",
+        "'\\477'", "'\\0'", "''", "'ab'", "'\n'", "'\ud83d\ude00'", "\"\"", "\"a\\\"b\"",
+        "\"a\\qb\"", "\"\\377\\400\"", "\"abc", "\"ab\nc\"", "trueish true", "nullx null _ __ _1",
+        "int integer goto gotos", "$x _x \u00e9t\u00e9 \ud835\udc00x", "\u0000\u0085\u00a0x",
+        "# @ ` \\ @interface", "a\u200bb", "1e5\u0660", "//a\u2028b\u2029c\u0085d\re",
+        "\"\"\"\n a\n\"\"\"", "\"\"\" \t\r\n\"\"\"\"", "\"\"\"a\"\"\"", "\"\"\"\n\\\"\"\"\"",
+        "\"\"\"\r\\\r\n\\s\\q\"\"\"", "\"\"\"\n\"\"", "\"\"\"\n\\\\\"\"\" x", "'\\s' \"\\s\"",
+        "1_000 0b11 0B1_1l x->y a::b _ int _x"
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Language levels with distinct lexical grammars.
+     */
+    private static final LanguageLevel[] levels = {
+        LanguageLevel.JAVA_6, LanguageLevel.JAVA_7, LanguageLevel.JAVA_8, LanguageLevel.JAVA_9,
+        LanguageLevel.JAVA_14, LanguageLevel.JAVA_15
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void compare (String input)
+    {
+        for (LanguageLevel level: levels)
+            compare(input, level);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void compare (String input, LanguageLevel level) {
+        compare(input, level, Engine.TABLE, Engine.REGEX);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void compare (String input, LanguageLevel level, Engine e1, Engine e2)
+    {
+        Lexer table = new Lexer(input, level, e1, true, null);
+        Lexer regex = new Lexer(input, level, e2, true, null);
+
+        while (true)
+        {
+            Kind k1 = table.advance();
+            Kind k2 = regex.advance();
+            assertEquals(k1, k2, input);
+            if (k1 == null) break;
+            assertEquals(table.start(), regex.start(), input);
+            assertEquals(table.end(), regex.end(), input);
+            assertTrue(table.element().equals_with_position(regex.element()), input);
+        }
+
+        assertEquals(strict(input, level, e1), strict(input, level, e2), input);
+
+        Diagnostics d1 = new Diagnostics(1000);
+        Diagnostics d2 = new Diagnostics(1000);
+        List<InputElement> l1 = lex(new Lexer(input, level, e1, true, d1));
+        List<InputElement> l2 = lex(new Lexer(input, level, e2, true, d2));
+        assertEquals(l1, l2, input);
+        assertEquals(d1.toString(), d2.toString(), input);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position of the first lexing error in strict mode, or -1.
+     */
+    private static int strict (String input, LanguageLevel level, Engine engine)
+    {
+        try {
+            lex(new Lexer(input, level, engine, false, null));
+            return -1;
+        }
+        catch (LexingException e) {
+            return e.position;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<InputElement> lex (Lexer lexer) {
+        return Stream.generate(lexer::next).takeWhile(ie -> ie != null).collect(Collectors.toList());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_tricky()
+    {
+        for (String input: tricky)
+            compare(input);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_combinations()
+    {
+        String alphabet = "0189xXbeEpP._lLfd'\"\\/*-+>=:a \n";
+        int n = alphabet.length();
+        char[] chars = new char[3];
+
+        for (int i = 0; i < n * n * n; ++i) {
+            chars[0] = alphabet.charAt(i % n);
+            chars[1] = alphabet.charAt(i / n % n);
+            chars[2] = alphabet.charAt(i / n / n);
+            String input = new String(chars);
+            compare(input, LanguageLevel.JAVA_6);
+            compare(input, LanguageLevel.JAVA_8);
+            compare(input, LanguageLevel.LATEST);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_sources() throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(Paths.get("src"))) {
+            for (Path path: (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator)
+                compare(new String(Files.readAllBytes(path), "UTF-8"));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_vector() throws IOException
+    {
+        // runs of all lengths around vector sizes, with terminators at every position
+        String[] runs = { " \t\n\r\f", "x*/ ", "y\n\u2028z", "w\"\\n\\\"", "* *" };
+        String[][] frames = { {"", "a"}, {"/*", "*/"}, {"//", "\n"}, {"\"", "\""}, {"\"\"\"\n", "\"\"\""} };
+
+        for (String[] frame: frames)
+            for (String run: runs)
+                for (int n = 0; n < 80; ++n) {
+                    StringBuilder b = new StringBuilder(frame[0]);
+                    for (int k = 0; k < n; ++k)
+                        b.append(run.charAt(k % run.length()));
+                    b.append(frame[1]).append(" x");
+                    compare(b.toString(), LanguageLevel.LATEST, Engine.TABLE, Engine.VECTOR);
+                }
+
+        try (Stream<Path> paths = Files.walk(Paths.get("src"))) {
+            for (Path path: (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator)
+                compare(new String(Files.readAllBytes(path), "UTF-8"),
+                    LanguageLevel.LATEST, Engine.TABLE, Engine.VECTOR);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,85 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.Fingerprint;
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.tokens.CharLiteral;
+import norswap.javalexer.tokens.Kind;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public final class TestFingerprint
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static Fingerprint fp (String string) {
+        return Fingerprint.of(string);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Fingerprint norm (String string) {
+        return Fingerprint.of(string, LanguageLevel.LATEST, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_trivia()
+    {
+        assertEquals(fp("int x = 1;"), fp("int  x=1 ; // comment"));
+        assertEquals(fp("int x = 1;"), fp("/* a */ int\n\tx /** b */ = 1;\n"));
+        assertEquals(fp(""), fp("  // nothing"));
+        assertNotEquals(fp("int x = 1;"), fp("int x = 2;"));
+        assertNotEquals(fp("int x = 1;"), fp("int x = 1"));
+        assertNotEquals(fp("a b"), fp("ab"));
+        assertNotEquals(fp("ab c"), fp("a bc"));
+        assertNotEquals(fp("\"a\""), fp("a"));
+        assertNotEquals(fp(""), fp("x"));
+        assertEquals(fp("x").toString().length(), 32);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_normalize()
+    {
+        assertNotEquals(fp("0x1F"), fp("31"));
+        assertEquals(norm("0x1F"), norm("31"));
+        assertEquals(norm("0b1_1111"), norm("037"));
+        assertNotEquals(norm("31"), norm("31L"));
+        assertEquals(norm("1.0"), norm("1e0"));
+        assertEquals(norm("0x1p0"), norm("1d"));
+        assertNotEquals(norm("1.0"), norm("1.0f"));
+        assertEquals(norm("'A'"), norm("'\\101'"));
+        assertEquals(norm("\"A\\n\""), norm("\"\\101\\12\""));
+        assertEquals(norm("\"\"\"\n  a\n  \"\"\""), norm("\"a\\n\""));
+        assertNotEquals(norm("'A'"), norm("\"A\""));
+        // invalid literals are left as is
+        assertEquals(norm("99999999999"), fp("99999999999"));
+        assertNotEquals(norm("99999999999"), norm("99999999998"));
+        // supplementary characters lex as char literals but have no char value
+        assertEquals(norm("char c = '\uD83D\uDE00';"), fp("char c = '\uD83D\uDE00';"));
+        assertNotEquals(norm("'\uD83D\uDE00'"), norm("'\uD83D\uDE01'"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_builder()
+    {
+        String source = "class A { /* x */ int f() { return 42; } }";
+        Fingerprint.Builder builder = new Fingerprint.Builder(false);
+        Lexer lexer = new Lexer(source);
+        for (Kind kind; (kind = lexer.advance()) != null; )
+            builder.add(kind, source, lexer.start(), lexer.end());
+        assertEquals(builder.count(), Lexer.tokenize(source).size());
+        assertEquals(builder.build(), fp(source));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_char_hash() {
+        assertEquals(new CharLiteral("a").hashCode(), new CharLiteral("a").hashCode());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
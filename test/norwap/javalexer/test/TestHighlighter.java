@@ -0,0 +1,147 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.Checkpoints;
+import norswap.javalexer.Highlighter;
+import norswap.javalexer.Highlighter.Style;
+import norswap.javalexer.LanguageLevel;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public final class TestHighlighter
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final Highlighter html;
+    static {
+        EnumMap<Style, String> classes = new EnumMap<>(Style.class);
+        classes.put(Style.KEYWORD,  "k");
+        classes.put(Style.NUMBER,   "n");
+        classes.put(Style.OPERATOR, "o");
+        classes.put(Style.COMMENT,  "c");
+        classes.put(Style.JAVADOC,  "d");
+        classes.put(Style.STRING,   "s");
+        classes.put(Style.CHAR,     "s");
+        html = Highlighter.html(classes, LanguageLevel.LATEST);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String render (Highlighter highlighter, String source)
+    {
+        StringBuilder out = new StringBuilder();
+        highlighter.highlight(source, out);
+        return out.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String unhtml (String html) {
+        return html.replaceAll("<[^>]*>", "")
+            .replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_html()
+    {
+        assertEquals(render(html, "/** d */ int x = 1 < 2 & 3;"),
+            "<span class=\"d\">/** d */</span> <span class=\"k\">int</span> x "
+                + "<span class=\"o\">=</span> <span class=\"n\">1</span> "
+                + "<span class=\"o\">&lt;</span> <span class=\"n\">2</span> "
+                + "<span class=\"o\">&amp;</span> <span class=\"n\">3</span>;");
+
+        // same style: merged, except across lines
+        assertEquals(render(html, "public static\nfinal"),
+            "<span class=\"k\">public static</span>\n<span class=\"k\">final</span>");
+        assertEquals(render(html, "\"a\" 'b'"), "<span class=\"s\">\"a\" 'b'</span>");
+        assertEquals(render(html, "/**/ x /* a\r\nb */"),
+            "<span class=\"c\">/**/</span> x <span class=\"c\">/* a</span>\r\n"
+                + "<span class=\"c\">b */</span>");
+
+        // line comments include their line terminator, which must not be inside the span
+        assertEquals(render(html, "// a\n// b\r\n"),
+            "<span class=\"c\">// a</span>\n<span class=\"c\">// b</span>\r\n");
+        assertEquals(render(Highlighter.ansi(), "// a\n// b"),
+            "\u001b[90m// a\u001b[0m\n\u001b[90m// b\u001b[0m");
+
+        String defaults = render(Highlighter.html(), "@interface A<T> {}");
+        assertTrue(defaults.contains("<span class=\"jl-keyword\">interface</span>"), defaults);
+        assertTrue(defaults.contains("<span class=\"jl-separator\">@</span>"), defaults);
+        assertEquals(unhtml(defaults), "@interface A<T> {}");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_ansi()
+    {
+        assertEquals(render(Highlighter.ansi(), "int x = \"a\u001b[2J\"; #"),
+            "\u001b[1;34mint\u001b[0m x = \u001b[32m\"a\uFFFD[2J\"\u001b[0m; "
+                + "\u001b[7;31m#\u001b[0m");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_range()
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 200; ++i)
+            b.append("/* comment ").append(i).append(" */ int x").append(i).append(" = a < b;\n");
+        String source = b.toString();
+        Checkpoints checkpoints = Checkpoints.build(source, 64);
+
+        Random random = new Random(42);
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < 200; ++i) {
+            int from = random.nextInt(source.length());
+            int to = from + random.nextInt(Math.min(500, source.length() - from + 1));
+            out.setLength(0);
+            html.highlight(source, checkpoints, from, to, out);
+            assertEquals(unhtml(out.toString()), source.substring(from, to));
+        }
+
+        out.setLength(0);
+        html.highlight(source, checkpoints, 3, 13, out);
+        assertEquals(out.toString(), "<span class=\"c\">comment 0 </span>");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_allocation()
+    {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            return;
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled())
+            return;
+
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 10_000; ++i)
+            b.append("    /** doc */ if (x").append(i).append(" < 0x1F) s += \"<\" + 'c'; // \n");
+        String source = b.toString();
+
+        Highlighter highlighter = Highlighter.html();
+        StringBuilder out = new StringBuilder(source.length() * 8);
+        for (int i = 0; i < 5; ++i) {
+            out.setLength(0);
+            highlighter.highlight(source, out);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(thread);
+        out.setLength(0);
+        highlighter.highlight(source, out);
+        long allocated = bean.getThreadAllocatedBytes(thread) - before;
+
+        // the lexer only (its copy of the source): nothing per input element
+        assertTrue(allocated < 2 * source.length() + 64 * 1024, allocated + " bytes allocated");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,132 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.IdentifierIndex;
+import norswap.javalexer.IdentifierIndex.Context;
+import norswap.javalexer.IdentifierIndex.Occurrence;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import static org.testng.Assert.*;
+
+public final class TestIdentifierIndex
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String A =
+        "/** Uses {@link foo}. */ class A { int foo = bar(\"foo\\nfoo\"); } // 1st foo";
+
+    private static final String B = "class B extends A { void bar() { foo++; } }";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static HashSet<Occurrence> set (Occurrence... occurrences) {
+        return new HashSet<>(Arrays.asList(occurrences));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_find()
+    {
+        IdentifierIndex index = new IdentifierIndex();
+        index.update(1, A);
+        index.update(7, B);
+
+        assertEquals(new HashSet<>(index.find("foo")), set(
+            new Occurrence(1, A.indexOf("foo"), Context.COMMENT),
+            new Occurrence(1, A.indexOf("foo ="), Context.CODE),
+            new Occurrence(1, A.indexOf("foo\\n"), Context.STRING),
+            new Occurrence(1, A.indexOf("foo\")"), Context.STRING),
+            new Occurrence(1, A.lastIndexOf("foo"), Context.COMMENT),
+            new Occurrence(7, B.indexOf("foo"), Context.CODE)));
+
+        assertEquals(index.find("foo", Context.CODE), Arrays.asList(
+            new Occurrence(1, A.indexOf("foo ="), Context.CODE),
+            new Occurrence(7, B.indexOf("foo"), Context.CODE)));
+
+        assertEquals(index.find("A", Context.CODE).size(), 2);
+        assertTrue(index.find("nfoo").isEmpty());
+        assertTrue(index.find("st").isEmpty());
+        assertTrue(index.find("baz").isEmpty());
+        assertEquals(index.name(index.id("bar")), "bar");
+        assertEquals(index.id("baz"), -1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_update() throws IOException
+    {
+        IdentifierIndex index = new IdentifierIndex();
+        HashMap<Integer, String> sources = new HashMap<>();
+        for (int i = 0; i < 100; ++i)
+            sources.put(i, i % 2 == 0 ? A : B);
+        index.update_all(sources);
+        assertEquals(index.find("foo", Context.CODE).size(), 100);
+
+        index.update(0, B);
+        index.remove(1);
+        index.remove(1000);
+        assertEquals(index.find("foo", Context.CODE).size(), 99);
+        assertEquals(index.find("foo", Context.STRING).size(), 2 * 49);
+        assertTrue(index.find("foo").contains(new Occurrence(0, B.indexOf("foo"), Context.CODE)));
+
+        Path path = Files.createTempFile("identifiers", ".idx");
+        try {
+            index.write(path);
+            IdentifierIndex.Mapped mapped = IdentifierIndex.map(path);
+            for (String name: Arrays.asList("foo", "A", "B", "bar", "class", "link", "Uses"))
+                assertEquals(mapped.find(name), index.find(name), name);
+            assertEquals(mapped.find("foo", Context.STRING), index.find("foo", Context.STRING));
+            assertTrue(mapped.find("fo").isEmpty());
+            assertTrue(mapped.find("zzz").isEmpty());
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_repeated_updates() throws IOException
+    {
+        IdentifierIndex index = new IdentifierIndex();
+        for (int i = 0; i < 10; ++i)
+            index.update(i, B);
+
+        for (int round = 0; round < 50; ++round) {
+            index.update(round % 3, round % 2 == 0 ? A : B);
+            if (round % 7 == 0) index.remove(5);
+            if (round % 7 == 3) index.update(5, B);
+        }
+
+        // file 0 was last updated with A (round 48), files 1 and 2 with B (rounds 49, 47)
+        // file 5 was last removed at round 49
+        assertEquals(index.find("foo", Context.CODE).size(), 9);
+        assertEquals(index.find("foo", Context.STRING), Arrays.asList(
+            new Occurrence(0, A.indexOf("foo\\n"), Context.STRING),
+            new Occurrence(0, A.indexOf("foo\")"), Context.STRING)));
+
+        index.remove(0);
+        assertTrue(index.find("foo", Context.STRING).isEmpty());
+        assertEquals(index.find("bar").size(), 8);
+
+        Path path = Files.createTempFile("identifiers", ".idx");
+        try {
+            index.write(path);
+            IdentifierIndex.Mapped mapped = IdentifierIndex.map(path);
+            assertEquals(mapped.find("bar"), index.find("bar"));
+            assertEquals(mapped.find("foo"), index.find("foo"));
+            assertTrue(mapped.find("Uses").isEmpty());
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,41 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.LexUtil;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.tokens.Identifier;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+
+public final class TestIdentifiers
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_tables_exhaustive()
+    {
+        for (int cp = 0; cp <= Character.MAX_CODE_POINT; ++cp) {
+            assertEquals(LexUtil.is_identifier_start(cp), Character.isJavaIdentifierStart(cp),
+                "start: " + Integer.toHexString(cp));
+            assertEquals(LexUtil.is_identifier_part(cp), Character.isJavaIdentifierPart(cp),
+                "part: " + Integer.toHexString(cp));
+        }
+
+        for (int cp: new int[] { -1, -28, -64, Integer.MIN_VALUE, Character.MAX_CODE_POINT + 1 }) {
+            assertEquals(LexUtil.is_identifier_start(cp), Character.isJavaIdentifierStart(cp));
+            assertEquals(LexUtil.is_identifier_part(cp), Character.isJavaIdentifierPart(cp));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_lex_identifiers()
+    {
+        String[] ids = { "x", "_x1", "$", "αρετη", "x٣", "𝐀bc", "a​b" };
+        for (String id: ids)
+            assertEquals(Lexer.lex(id), Collections.singletonList(new Identifier(id)), id);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
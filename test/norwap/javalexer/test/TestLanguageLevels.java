@@ -0,0 +1,131 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.Diagnostics;
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.LexUtil;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.tokens.*;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static norswap.javalexer.Diagnostics.Category.*;
+import static norswap.javalexer.LanguageLevel.*;
+import static org.testng.Assert.*;
+
+public final class TestLanguageLevels
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static void test (LanguageLevel level, String input, Token... expected) {
+        assertEquals(Lexer.tokenize(input, level).toArray(), expected, level + ": " + input);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_vocabulary()
+    {
+        test(JAVA_8, "_", new Identifier("_"));
+        test(JAVA_9, "_", new Keyword("_"));
+
+        test(JAVA_7, "x->y", new Identifier("x"), new Operator("-"), new Operator(">"),
+            new Identifier("y"));
+        test(JAVA_8, "x->y", new Identifier("x"), new Operator("->"), new Identifier("y"));
+
+        test(JAVA_7, "a::b", new Identifier("a"), new Operator(":"), new Operator(":"),
+            new Identifier("b"));
+        test(JAVA_8, "a::b", new Identifier("a"), new Separator("::"), new Identifier("b"));
+
+        test(LATEST, "var record yield sealed", new Identifier("var"), new Identifier("record"),
+            new Identifier("yield"), new Identifier("sealed"));
+
+        assertFalse(JAVA_8.keywords.contains("_"));
+        assertTrue(JAVA_9.keywords.contains("_"));
+        assertFalse(JAVA_7.operators.contains("->"));
+        assertTrue(JAVA_8.separators.contains("::"));
+        assertTrue(JAVA_8.contextual_keywords.isEmpty());
+        assertTrue(JAVA_9.contextual_keywords.contains("module"));
+        assertFalse(JAVA_9.contextual_keywords.contains("var"));
+        assertTrue(JAVA_10.contextual_keywords.contains("var"));
+        assertFalse(JAVA_15.contextual_keywords.contains("record"));
+        assertTrue(JAVA_17.contextual_keywords.contains("permits"));
+        assertEquals(LATEST.keywords, Lexer.keywords);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_numbers()
+    {
+        test(JAVA_6, "0b101", new IntLiteral("0", IntLiteral.Type.DECIMAL), new Identifier("b101"));
+        test(JAVA_7, "0b101", new IntLiteral("0b101", IntLiteral.Type.BINARY));
+
+        test(JAVA_6, "1_000", new IntLiteral("1", IntLiteral.Type.DECIMAL), new Identifier("_000"));
+        test(JAVA_7, "1_000", new IntLiteral("1_000", IntLiteral.Type.DECIMAL));
+
+        test(JAVA_6, "0x1_F", new IntLiteral("0x1", IntLiteral.Type.HEXADECIMAL),
+            new Identifier("_F"));
+        test(JAVA_6, "1_0.5", new IntLiteral("1", IntLiteral.Type.DECIMAL),
+            new Identifier("_0"), new FloatLiteral(".5", FloatLiteral.Type.DECIMAL));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_text_blocks()
+    {
+        String input = "\"\"\"\n    a\n      b\\s\n    \"\"\"";
+
+        for (Token token: Lexer.tokenize(input, JAVA_14))
+            assertFalse(token instanceof TextBlock);
+
+        List<Token> tokens = Lexer.tokenize(input, JAVA_15);
+        assertEquals(tokens.size(), 1);
+        TextBlock block = (TextBlock) tokens.get(0);
+        assertEquals(block.string, "\n    a\n      b\\s\n    ");
+        assertEquals(block.value(), "a\n  b \n");
+
+        // closing delimiter on the last content line, line continuation, trailing whitespace
+        assertEquals(LexUtil.text_block_value("  \r\n  a  \r\n   b\\\n  c\\\"\"\"d"), "a\n bc\"\"\"d");
+        assertEquals(LexUtil.text_block_value("\n\ta\n\n\tb\t\n\t"), "a\n\nb\n");
+        assertEquals(LexUtil.text_block_value("\n"), "");
+
+        // the first three quotes close the text block
+        test(JAVA_15, "\"\"\"\nab\"\"\"\"", new TextBlock("\nab"), new Garbage("\""));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_text_block_diagnostics()
+    {
+        check_diag("x = \"\"\"abc\"\"\";",
+            UNEXPECTED_CHARACTER, 4, 3,
+            UNEXPECTED_CHARACTER, 10, 3);
+        check_diag("x = \"\"\"\nabc", UNTERMINATED_STRING, 4, 7);
+        check_diag("x = \"\"\"\na\\qb\\\"\"\"\"\"\";", BAD_ESCAPE, 4, 13);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void check_diag (String input, Object... expected)
+    {
+        Diagnostics diagnostics = new Diagnostics(10);
+        Lexer.lex(input, diagnostics);
+
+        assertEquals(diagnostics.size(), expected.length / 3, diagnostics.toString());
+        for (int i = 0; i < diagnostics.size(); ++i) {
+            assertEquals(diagnostics.category(i), expected[3 * i]);
+            assertEquals(diagnostics.position(i), expected[3 * i + 1]);
+            assertEquals(diagnostics.length(i), expected[3 * i + 2]);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_space_escape()
+    {
+        test(JAVA_14, "'\\s'", new Garbage("'\\"), new Identifier("s"), new Garbage("'"));
+        test(JAVA_15, "'\\s'", new CharLiteral("\\s"));
+        assertEquals(LexUtil.unescape_char_content("\\s"), ' ');
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
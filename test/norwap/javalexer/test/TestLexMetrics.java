@@ -0,0 +1,168 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.Diagnostics;
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.LexBudget;
+import norswap.javalexer.LexCounters;
+import norswap.javalexer.LexMetrics;
+import norswap.javalexer.LexResult;
+import norswap.javalexer.LexStats;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.LexingException;
+import norswap.javalexer.TokenCursor;
+import norswap.javalexer.tokens.InputElement;
+import norswap.javalexer.tokens.Kind;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+
+import static org.testng.Assert.*;
+
+public final class TestLexMetrics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @AfterMethod public void unregister() {
+        Lexer.metrics(null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_counters()
+    {
+        LexCounters counters = new LexCounters();
+        ArrayList<LexStats> stats = new ArrayList<>();
+        Lexer.metrics(LexMetrics.all(counters, stats::add));
+
+        Lexer.lex("int x = 1; // c");
+        Lexer.tokenize("a # b");
+
+        assertEquals(stats.size(), 2);
+        assertEquals(stats.get(0).chars(), 15);
+        assertEquals(stats.get(0).tokens(), 5);
+        assertEquals(stats.get(0).elements(), 10);
+        assertEquals(stats.get(0).count(Kind.LINE_COMMENT), 1);
+        assertEquals(stats.get(1).garbage(), 1);
+        assertEquals(stats.get(0).engine, Lexer.Engine.TABLE);
+        assertEquals(stats.get(0).pattern_attempts(Kind.KEYWORD), 0);
+
+        assertEquals(counters.inputs(), 2);
+        assertEquals(counters.chars(), 20);
+        assertEquals(counters.tokens(), 8);
+        assertEquals(counters.count(Kind.IDENTIFIER), 3);
+        assertTrue(counters.chars_per_second() > 0);
+
+        counters.reset();
+        assertEquals(counters.chars(), 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_errors()
+    {
+        LexCounters counters = new LexCounters();
+        Lexer.metrics(counters);
+
+        Lexer.lex("'ab' 'cd'", new Diagnostics(10));
+        assertEquals(counters.errors(), 2);
+
+        try {
+            Lexer.lex("a # b", false);
+            fail();
+        }
+        catch (LexingException e) {
+            assertEquals(counters.inputs(), 2);
+            assertEquals(counters.errors(), 3);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_regex_engine()
+    {
+        ArrayList<LexStats> stats = new ArrayList<>();
+        Lexer.metrics(stats::add);
+
+        Lexer lexer = new Lexer("if (x) y;", LanguageLevel.LATEST, Lexer.Engine.REGEX, true, null);
+        while (lexer.advance() != null);
+
+        LexStats s = stats.get(0);
+        assertEquals(s.engine, Lexer.Engine.REGEX);
+        // one attempt per position where an input element starts
+        assertEquals(s.pattern_attempts(Kind.WHITESPACE), s.elements());
+        assertEquals(s.pattern_hits(Kind.WHITESPACE), 2);
+        assertEquals(s.pattern_hits(Kind.KEYWORD), 1);
+        assertEquals(s.pattern_hits(Kind.IDENTIFIER), 3); // including "if"
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_disabled()
+    {
+        ArrayList<LexStats> stats = new ArrayList<>();
+        Lexer.metrics(stats::add);
+        Lexer lexer = new Lexer("a b");
+        Lexer.metrics(null);
+        Lexer.lex("c d");
+        while (lexer.advance() != null);
+        assertEquals(stats.size(), 1);
+        assertEquals(stats.get(0).chars(), 3);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_partial() throws InterruptedException
+    {
+        LexCounters counters = new LexCounters();
+        ArrayList<LexStats> stats = new ArrayList<>();
+        Lexer.metrics(LexMetrics.all(counters, stats::add));
+
+        // stopped by the budget
+        LexResult<InputElement> result = Lexer.lex("int x = 1;", LexBudget.chars(5));
+        assertEquals(stats.size(), 1);
+        assertFalse(stats.get(0).complete());
+        assertEquals(stats.get(0).budget_status(), LexBudget.Status.CHARACTERS_EXCEEDED);
+        assertEquals(stats.get(0).chars(), result.position);
+        assertEquals(counters.stopped(), 1);
+
+        // only the characters lexed are counted, and the time until and after seeks is not
+        Lexer lexer = new Lexer("int x = 1;");
+        Thread.sleep(50);
+        lexer.advance();
+        lexer.seek(6);
+        Thread.sleep(50);
+        while (lexer.advance() != null);
+        assertEquals(stats.size(), 2);
+        assertTrue(stats.get(1).complete());
+        assertEquals(stats.get(1).chars(), 7);
+        assertTrue(stats.get(1).nanos() < 50_000_000L, stats.get(1).toString());
+
+        // abandoned lexers report through finish()
+        TokenCursor cursor = new TokenCursor("a b c d");
+        cursor.next();
+        cursor.finish();
+        cursor.finish();
+        assertEquals(stats.size(), 3);
+        assertFalse(stats.get(2).complete());
+        assertEquals(stats.get(2).tokens(), 1);
+        assertEquals(counters.stopped(), 2);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_flight_recorder()
+    {
+        LexMetrics jfr;
+        try {
+            jfr = LexMetrics.flight_recorder();
+        }
+        catch (UnsupportedOperationException e) {
+            return; // Java < 16
+        }
+        Lexer.metrics(jfr);
+        assertEquals(Lexer.lex("int x = 1;").size(), 8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
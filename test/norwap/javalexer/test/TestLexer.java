@@ -91,14 +91,7 @@ public final class TestLexer
             new FloatLiteral("1_3.3__7e-42", FloatLiteral.Type.DECIMAL));
     }
 
-    // NOTE(norswap)
-    //
-    // This needs more extensive testing, namely for combinations of token.
-    //
-    // Random generation testing should probably be used: generate a random token lists,
-    // splice it to text, lex it and verify the resulting lists matches the source list.
-    //
-    // However, this is not the most productive use of my time right now.
+    // Combinations of tokens are tested by splicing random token lists in TestRandomLexing.
 
     // ---------------------------------------------------------------------------------------------
 
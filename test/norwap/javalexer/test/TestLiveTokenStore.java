@@ -0,0 +1,127 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.CompactTokens;
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.LiveTokenStore;
+import norswap.javalexer.tokens.InputElement;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+public final class TestLiveTokenStore
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<InputElement> elements (CompactTokens compact)
+    {
+        ArrayList<InputElement> list = new ArrayList<>();
+        CompactTokens.Cursor cursor = compact.cursor();
+        while (cursor.next()) list.add(cursor.element());
+        return list;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Polls until the condition holds (the watch service may take a while to report events). */
+    private static void await (BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timeout");
+            Thread.sleep(20);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void write (Path path, String content) throws IOException {
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_live() throws Exception
+    {
+        Path root = Files.createTempDirectory("live-token-store");
+        Path outside = Files.createTempDirectory("live-token-store-outside");
+        Path a = root.resolve("A.java").toAbsolutePath();
+        Path b = root.resolve("sub/B.java").toAbsolutePath();
+        Path c = root.resolve("new/C.java").toAbsolutePath();
+        Files.createDirectories(b.getParent());
+        write(a, "class A { int x; }");
+        write(b, "class B {}");
+        write(root.resolve("notes.txt"), "ignored");
+
+        try (LiveTokenStore store = new LiveTokenStore(
+                root, LanguageLevel.LATEST, p -> p.toString().endsWith(".java"), 20, 2))
+        {
+            store.start();
+            assertTrue(store.await_idle(20_000));
+            LiveTokenStore.Snapshot initial = store.snapshot();
+            assertEquals(initial.size(), 2);
+            assertEquals(elements(initial.get(a)), Lexer.lex("class A { int x; }"));
+
+            write(a, "class A { int x, y; }");
+            await(() -> store.snapshot().get(a).string.contains("y"));
+            assertEquals(elements(store.snapshot().get(a)), Lexer.lex("class A { int x, y; }"));
+            // the old snapshot is unaffected
+            assertEquals(initial.get(a).string, "class A { int x; }");
+
+            Files.createDirectories(c.getParent());
+            write(c, "class C {}");
+            await(() -> store.snapshot().get(c) != null);
+
+            Files.delete(b);
+            await(() -> store.snapshot().get(b) == null);
+            assertEquals(store.snapshot().size(), 2);
+            assertTrue(store.snapshot().version > initial.version);
+
+            // directories moved out of the tree or deleted only report themselves
+            Path d = root.resolve("dir/nested/D.java").toAbsolutePath();
+            Path e = root.resolve("dir/E.java").toAbsolutePath();
+            Files.createDirectories(d.getParent());
+            write(d, "class D {}");
+            write(e, "class E {}");
+            await(() -> store.snapshot().get(d) != null && store.snapshot().get(e) != null);
+            Files.move(root.resolve("dir"), outside.resolve("dir"));
+            await(() -> store.snapshot().get(d) == null && store.snapshot().get(e) == null);
+
+            Files.move(outside.resolve("dir"), root.resolve("moved"));
+            Path moved = root.resolve("moved/nested/D.java").toAbsolutePath();
+            await(() -> store.snapshot().get(moved) != null);
+            write(moved, "class D { int x; }");
+            await(() -> store.snapshot().get(moved).string.contains("x"));
+
+            delete(root.resolve("moved"));
+            await(() -> store.snapshot().get(moved) == null);
+            assertEquals(store.snapshot().size(), 2);
+        }
+        finally {
+            delete(root);
+            delete(outside);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void delete (Path dir) throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path: (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,132 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.Lexer;
+import norswap.javalexer.Minifier;
+import norswap.javalexer.Minifier.Mode;
+import norswap.javalexer.tokens.Token;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.assertEquals;
+
+public final class TestMinifier
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final Minifier minifier = new Minifier(Mode.MINIFY);
+    private static final Minifier stripper = new Minifier(Mode.STRIP_COMMENTS);
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_minify()
+    {
+        assertEquals(minifier.transform("a - -b"), "a- -b");
+        assertEquals(minifier.transform("x++ + y"), "x++ +y");
+        assertEquals(minifier.transform("a = - b"), "a=-b");
+        assertEquals(minifier.transform("int x = 1 ; // c\n"), "int x=1;");
+        assertEquals(minifier.transform("a /* c */ / /**/ b"), "a/b");
+        assertEquals(minifier.transform("a / / b"), "a/ /b");
+        assertEquals(minifier.transform("1e +1 case -1"), "1e +1 case-1");
+        assertEquals(minifier.transform("1e- 1 0x1p+ 1 1.e- 1 x- 1"), "1e- 1 0x1p+ 1 1.e- 1 x-1");
+        assertEquals(minifier.transform("a / /**/ * b"), "a/ *b");
+        assertEquals(minifier.transform("x > >= y"), "x> >=y");
+        assertEquals(minifier.transform("1 . e5 1. e5 x . 5"), "1 .e5 1. e5 x. 5");
+        assertEquals(minifier.transform("\"\" \"\" 'a' 'b'"), "\"\" \"\"'a''b'");
+        assertEquals(minifier.transform("f ( a , b ) ;"), "f(a,b);");
+        assertEquals(minifier.transform("a # b"), "a # b");
+        assertEquals(minifier.transform("a.b.c"), "a.b.c");
+        assertEquals(minifier.transform("x = \"a ;\n y = \"b\";"), "x= \"a;\ny=\"b\";");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_strip_comments()
+    {
+        assertEquals(stripper.transform("int x; // c\nint y;"), "int x;\nint y;");
+        assertEquals(stripper.transform("a/**/b"), "a b");
+        assertEquals(stripper.transform("a/**/+b"), "a+b");
+        assertEquals(stripper.transform("a /* x \n y \r\n */ b"), "a\n\r\n b");
+        assertEquals(stripper.transform("  // only\n  x  "), "\n  x  ");
+        assertEquals(stripper.transform("/** doc */\nclass A {}"), "\nclass A {}");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<Token> tokens (String source) {
+        return Lexer.tokenize(source);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long lines (String source) {
+        return source.chars().filter(c -> c == '\n').count();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_sources() throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(Paths.get("src"))) {
+            for (Path path: (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator)
+            {
+                String source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+
+                String minified = minifier.transform(source);
+                assertEquals(tokens(minified), tokens(source), path.toString());
+
+                String stripped = stripper.transform(source);
+                assertEquals(tokens(stripped), tokens(source), path.toString());
+                assertEquals(lines(stripped), lines(source), path.toString());
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                minifier.transform(source, Channels.newChannel(bytes), StandardCharsets.UTF_8);
+                assertEquals(new String(bytes.toByteArray(), StandardCharsets.UTF_8), minified);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_channel() throws IOException
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 10_000; ++i)
+            b.append(i % 3 == 0 ? "\ud835\udc00 " : "\u00e9 /* c */ ");
+        String source = b.toString();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        stripper.transform(source, Channels.newChannel(bytes), StandardCharsets.UTF_8);
+        assertEquals(new String(bytes.toByteArray(), StandardCharsets.UTF_8),
+            stripper.transform(source));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_adjacencies()
+    {
+        String[] fragments = {
+            "a", "1", "1.", ".5", "e5", ".", "...", "+", "++", "-", "--", ">", ">>", ">=", "=",
+            "/", "*", "&", "|", ":", "::", "-", "->", "<", "!", "\"\"", "\"x\"", "'c'", "0x1",
+            "1e", "#", "@", "interface", "(", "é", "𝐀", "0b", "1L"
+        };
+
+        for (String f1: fragments)
+            for (String f2: fragments)
+                for (String f3: fragments) {
+                    String source = f1 + " " + f2 + "/**/" + f3;
+                    String minified = minifier.transform(source);
+                    assertEquals(tokens(minified), tokens(source), source + " -> " + minified);
+                }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,401 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.Diagnostics;
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.Lexer.Engine;
+import norswap.javalexer.LexingException;
+import norswap.javalexer.tokens.InputElement;
+import norswap.javalexer.tokens.Kind;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Randomized testing of the lexer engines.
+ * <p>
+ * Random sequences of valid and near-valid input elements are spliced together, either directly
+ * (to produce tricky adjacencies such as {@code >>=} from {@code >>} and {@code =}, or {@code
+ * 1.e5} from {@code 1.} and {@code e5}) or separated by whitespace and comments. Every engine
+ * must lex them to the same input elements (see {@link InputElement#equals_with_position}),
+ * diagnostics and strict-mode failure position. Sequences of valid tokens separated by trivia
+ * must moreover lex back to the generated tokens.
+ * <p>
+ * Runs are deterministic: each input is generated from its own seed, derived from a base seed
+ * that can be set with {@code -Drandom.seed=N}. Failures report the input and its seed.
+ * <p>
+ * The throughput of each engine is measured on a generated corpus and printed. The table-driven
+ * engines must outpace the regex reference engine. If {@code -Dthroughput.baseline=FILE} is
+ * given, throughputs are also checked against those recorded in the file (which is created if
+ * it does not exist), with a tolerance that can be set with {@code -Dthroughput.tolerance}
+ * (default: 0.25, i.e. fail if more than 25% slower).
+ */
+public final class TestRandomLexing
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final long SEED = Long.getLong("random.seed", 0x5EED);
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String[] identifiers = {
+        "x", "foo", "_x", "$y", "a1", "e5", "f", "L", "p3", "x1", "var", "record", "yield",
+        "\u00e9t\u00e9", "\u03b1\u03c1\u03b5\u03c4\u03b7", "\ud835\udc00x", "trueish", "gotos"
+    };
+
+    private static final String[] keywords = {
+        "class", "int", "goto", "const", "instanceof", "strictfp", "assert", "enum", "this", "new"
+    };
+
+    private static final String[] separators = {
+        "(", ")", "{", "}", "[", "]", ";", ",", ".", "...", "@", "::"
+    };
+
+    private static final String[] operators = {
+        "=", ">", "<", "!", "~", "?", ":", "->", "==", ">=", "<=", "!=", "&&", "||", "++", "--",
+        "+", "-", "*", "/", "&", "|", "^", "%", "<<", ">>", ">>>", "+=", "-=", "*=", "/=", "&=",
+        "|=", "^=", "%=", "<<=", ">>=", ">>>="
+    };
+
+    private static final String[] floats = {
+        "1.", "1.e5", ".5", "1e+5f", "3.14d", "1_0.0_1E-3F", "1f", "1D", "0.0", "09.5", "1e-9",
+        "0x1p3", "0x.8p-1d", "0x1.p1", "0xAbC.dEfP+9", "0X1_0P0f"
+    };
+
+    private static final String[] chars = {
+        "'a'", "'\\n'", "'\\''", "'\\\\'", "'\\7'", "'\\377'", "'\"'", "' '", "'\u00e9'"
+    };
+
+    private static final String[] strings = {
+        "\"\"", "\"a b\"", "\"\\\"\"", "\"\\n\\t\"", "\"'\"", "\"/* // */\"", "\"\\377\\0\""
+    };
+
+    private static final String[] text_blocks = {
+        "\"\"\"\n a\n\"\"\"", "\"\"\"\n \\\"\"\"\n\"\"\"", "\"\"\" \t\r\n\"\"\"",
+        "\"\"\"\n\\\n\\s\"\"\""
+    };
+
+    /** Fragments that are invalid, or only valid at some language levels or in some contexts. */
+    private static final String[] near_valid = {
+        "0x", "0b", "0b2", "1e", "1e+", "1_", "0x_1", "0x1p", "0x.p1", "08", "'ab'", "''",
+        "'\\u'", "'\\q'", "'\n'", "\"a\\qb\"", "\"abc\n", "#", "\\", "`", "\u0000", "..", "....",
+        ":::", "a\u200bb", "\ud83d\ude00", "\ud800", "\"\"\"a\"\"\"", "\"\"\"\n\\q\"\"\"",
+        "\"\"\"\n\"\"", "_", "__", "/", "*", "/*", "//", "*/", "'\\s'", "\"\\s\"", "\u2028", "\r"
+    };
+
+    /** Trivia that never merges with the surrounding tokens. */
+    private static final String[] trivia = {
+        " ", "\n", "\t", "\r\n", "\f", "  ", " /**/ ", " /* * / */\n", " /** doc */ ", " // c\n",
+        " //\r", "\n\t// x /* y\r\n"
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final LanguageLevel[] levels = {
+        LanguageLevel.JAVA_6, LanguageLevel.JAVA_7, LanguageLevel.JAVA_8, LanguageLevel.JAVA_9,
+        LanguageLevel.JAVA_14, LanguageLevel.JAVA_15, LanguageLevel.LATEST
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Generates random sequences of input elements from a seed.
+     */
+    private static final class Generator
+    {
+        final Random random;
+        final StringBuilder input = new StringBuilder();
+
+        /** Kinds and texts of the generated tokens. */
+        final List<Kind> kinds = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+
+        Generator (long seed) {
+            this.random = new Random(seed);
+        }
+
+        String pick (String[] array) {
+            return array[random.nextInt(array.length)];
+        }
+
+        String digits (String alphabet, int max)
+        {
+            StringBuilder b = new StringBuilder();
+            int n = 1 + random.nextInt(max);
+            for (int i = 0; i < n; ++i) {
+                if (i > 0 && random.nextInt(6) == 0) b.append(random.nextBoolean() ? "_" : "__");
+                b.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            return b.toString();
+        }
+
+        String suffix () {
+            return random.nextInt(4) == 0 ? (random.nextBoolean() ? "L" : "l") : "";
+        }
+
+        /**
+         * Appends a valid token, and records it.
+         */
+        void token()
+        {
+            Kind kind = Kind.values()[random.nextInt(Kind.GARBAGE.ordinal())];
+            String text;
+
+            switch (kind) {
+                case WHITESPACE: case LINE_COMMENT: case BLOCK_COMMENT:
+                case IDENTIFIER:  text = pick(identifiers); kind = Kind.IDENTIFIER; break;
+                case KEYWORD:     text = pick(keywords); break;
+                case SEPARATOR:   text = pick(separators); break;
+                case OPERATOR:    text = pick(operators); break;
+                case TRUE:        text = "true"; break;
+                case FALSE:       text = "false"; break;
+                case NULL:        text = "null"; break;
+                case DECIMAL_INT: text = random.nextInt(8) == 0 ? "0"
+                                      : "123456789".charAt(random.nextInt(9))
+                                          + (random.nextBoolean() ? digits("0123456789", 8) : "")
+                                          + suffix();
+                                  break;
+                case HEX_INT:     text = (random.nextBoolean() ? "0x" : "0X")
+                                      + digits("0123456789abcdefABCDEF", 8) + suffix(); break;
+                case OCTAL_INT:   text = "0" + digits("01234567", 6) + suffix(); break;
+                case BINARY_INT:  text = (random.nextBoolean() ? "0b" : "0B")
+                                      + digits("01", 16) + suffix(); break;
+                case DECIMAL_FLOAT:
+                case HEX_FLOAT:   text = pick(floats);
+                                  kind = text.startsWith("0x") || text.startsWith("0X")
+                                      ? Kind.HEX_FLOAT : Kind.DECIMAL_FLOAT;
+                                  break;
+                case CHAR:        text = pick(chars); break;
+                case STRING:      text = pick(strings); break;
+                case TEXT_BLOCK:  text = pick(text_blocks); break;
+                default: throw new AssertionError(kind);
+            }
+
+            input.append(text);
+            kinds.add(kind);
+            texts.add(text);
+        }
+
+        /**
+         * Appends a sequence of {@code n} valid tokens separated by trivia.
+         */
+        String valid (int n)
+        {
+            for (int i = 0; i < n; ++i) {
+                if (i > 0) input.append(pick(trivia));
+                token();
+            }
+            return input.toString();
+        }
+
+        /**
+         * Appends a sequence of {@code n} valid or near-valid fragments, often directly adjacent.
+         */
+        String mixed (int n)
+        {
+            for (int i = 0; i < n; ++i) {
+                int r = random.nextInt(8);
+                if (r < 3) input.append(pick(trivia));
+                if (random.nextInt(5) == 0)
+                    input.append(pick(near_valid));
+                else
+                    token();
+            }
+            return input.toString();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Checks that all engines lex {@code input} identically.
+     */
+    private static void compare (String input, LanguageLevel level, long seed)
+    {
+        String context = "seed " + seed + ", " + level + ": " + input;
+        Engine[] engines = Engine.values();
+
+        Diagnostics reference_diagnostics = new Diagnostics(1000);
+        List<InputElement> reference =
+            lex(new Lexer(input, level, engines[0], true, reference_diagnostics));
+        int reference_error = strict(input, level, engines[0]);
+
+        for (int e = 1; e < engines.length; ++e)
+        {
+            Diagnostics diagnostics = new Diagnostics(1000);
+            List<InputElement> elements =
+                lex(new Lexer(input, level, engines[e], true, diagnostics));
+
+            String message = engines[e] + " vs " + engines[0] + ", " + context;
+            assertEquals(elements.size(), reference.size(), message);
+            for (int i = 0; i < elements.size(); ++i)
+                assertTrue(elements.get(i).equals_with_position(reference.get(i)),
+                    message + "\nat " + i + ": " + elements.get(i) + " / " + reference.get(i));
+
+            assertEquals(diagnostics.toString(), reference_diagnostics.toString(), message);
+            assertEquals(strict(input, level, engines[e]), reference_error, message);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position of the first lexing error in strict mode, or -1.
+     */
+    private static int strict (String input, LanguageLevel level, Engine engine)
+    {
+        try {
+            lex(new Lexer(input, level, engine, false, null));
+            return -1;
+        }
+        catch (LexingException e) {
+            return e.position;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<InputElement> lex (Lexer lexer)
+    {
+        ArrayList<InputElement> elements = new ArrayList<>();
+        for (InputElement element; (element = lexer.next()) != null; )
+            elements.add(element);
+        return elements;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_valid_sequences()
+    {
+        for (int i = 0; i < 400; ++i)
+        {
+            long seed = SEED + i;
+            Generator generator = new Generator(seed);
+            String input = generator.valid(1 + generator.random.nextInt(40));
+
+            for (Engine engine: Engine.values())
+            {
+                Lexer lexer = new Lexer(input, LanguageLevel.LATEST, engine, false, null);
+                int t = 0;
+                for (Kind kind; (kind = lexer.advance()) != null; ) {
+                    if (!kind.is_token()) continue;
+                    String context = engine + ", seed " + seed + ", token " + t + ": " + input;
+                    if (t == generator.kinds.size()) fail("extra token, " + context);
+                    assertEquals(kind, generator.kinds.get(t), context);
+                    assertEquals(input.substring(lexer.start(), lexer.end()),
+                        generator.texts.get(t), context);
+                    ++t;
+                }
+                assertEquals(t, generator.kinds.size(), "missing tokens, seed " + seed);
+            }
+
+            compare(input, LanguageLevel.LATEST, seed);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_mixed_sequences()
+    {
+        for (int i = 0; i < 1500; ++i) {
+            long seed = SEED + i;
+            Generator generator = new Generator(seed);
+            String input = generator.mixed(1 + generator.random.nextInt(30));
+            compare(input, levels[i % levels.length], seed);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_throughput() throws IOException
+    {
+        Generator generator = new Generator(SEED);
+        for (int i = 0; i < 2000; ++i)
+            generator.input.append(i % 16 == 0 ? "\n" : " ");
+        String corpus = generator.valid(20_000);
+
+        EnumMap<Engine, Double> throughputs = new EnumMap<>(Engine.class);
+        for (Engine engine: Engine.values()) {
+            double mbs = throughput(corpus, engine);
+            throughputs.put(engine, mbs);
+            System.out.printf("%-6s engine: %8.2f MB/s (%d chars)%n", engine, mbs, corpus.length());
+        }
+
+        double regex = throughputs.get(Engine.REGEX);
+        for (Engine engine: new Engine[] { Engine.TABLE, Engine.VECTOR })
+            assertTrue(throughputs.get(engine) > regex, engine + " engine slower than regex");
+
+        String baseline = System.getProperty("throughput.baseline");
+        if (baseline != null)
+            check_baseline(Paths.get(baseline), throughputs);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the throughput of the engine on {@code corpus}, in MB (of chars) per second: the
+     * best of several timed runs after warming up.
+     */
+    private static double throughput (String corpus, Engine engine)
+    {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 8; ++run) {
+            long start = System.nanoTime();
+            Lexer lexer = new Lexer(corpus, LanguageLevel.LATEST, engine, true, null);
+            while (lexer.advance() != null);
+            long time = System.nanoTime() - start;
+            if (run >= 3) best = Math.min(best, time);
+        }
+        return corpus.length() * 1e3 / best;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Fails if a throughput regressed compared to the baseline file, or records the throughputs
+     * in the file if it does not exist.
+     */
+    private static void check_baseline (Path file, EnumMap<Engine, Double> throughputs)
+        throws IOException
+    {
+        Properties properties = new Properties();
+
+        if (!Files.exists(file)) {
+            throughputs.forEach((engine, mbs) -> properties.setProperty(engine.name(), "" + mbs));
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                properties.store(writer, "lexer throughput baseline (MB/s)");
+            }
+            return;
+        }
+
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        double tolerance = Double.parseDouble(System.getProperty("throughput.tolerance", "0.25"));
+        throughputs.forEach((engine, mbs) -> {
+            String recorded = properties.getProperty(engine.name());
+            if (recorded == null) return;
+            double min = Double.parseDouble(recorded) * (1 - tolerance);
+            assertTrue(mbs >= min, String.format(
+                "%s engine regressed: %.2f MB/s, baseline %s MB/s", engine, mbs, recorded));
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,94 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.SourceMetrics;
+import norswap.javalexer.tokens.Kind;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public final class TestSourceMetrics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String SOURCE =
+        "/**\n" +
+        " * Doc.\n" +
+        " */\n" +
+        "class A {\n" +
+        "\n" +
+        "    int x = 1 + 1; // one\r\n" +
+        "    String s = \"\"\"\n" +
+        "        text\n" +
+        "        \"\"\";\n" +
+        "}\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_lines()
+    {
+        SourceMetrics m = SourceMetrics.of(SOURCE);
+        assertEquals(m.files(), 1);
+        assertEquals(m.lines(), 10);
+        assertEquals(m.code_lines(), 6);
+        assertEquals(m.comment_lines(), 4);
+        assertEquals(m.blank_lines(), 1);
+        assertEquals(m.comment_density(), 4 / 9.0, 1e-9);
+        assertEquals(m.chars(), SOURCE.length());
+        assertEquals(m.tokens(), Lexer.tokenize(SOURCE).size());
+        assertEquals(m.count(Kind.BLOCK_COMMENT), 1);
+        assertEquals(m.count(Kind.DECIMAL_INT), 2);
+
+        assertEquals(SourceMetrics.of("").lines(), 0);
+        assertEquals(SourceMetrics.of("a").lines(), 1);
+        assertEquals(SourceMetrics.of("\n\n").blank_lines(), 2);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_halstead()
+    {
+        SourceMetrics m = SourceMetrics.of(SOURCE);
+        // operators: class { int = + ; = ; }
+        assertEquals(m.distinct_operators(), 7);
+        assertEquals(m.total_operators(), 9);
+        // operands: A x 1 1 String s """..."""
+        assertEquals(m.distinct_operands(), 6);
+        assertEquals(m.total_operands(), 7);
+        assertEquals(m.vocabulary(), 13);
+        assertEquals(m.volume(), 16 * Math.log(13) / Math.log(2), 1e-9);
+        assertEquals(m.difficulty(), 7 / 2.0 * 7 / 6, 1e-9);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_corpus()
+    {
+        List<String> sources = new ArrayList<>();
+        for (int i = 0; i < 100; ++i)
+            sources.add(i % 2 == 0 ? SOURCE : "class B" + i + " { void f() {} }\n");
+
+        SourceMetrics corpus = SourceMetrics.corpus(sources, LanguageLevel.LATEST);
+        List<SourceMetrics> per_file = SourceMetrics.per_file(sources, LanguageLevel.LATEST);
+        SourceMetrics total = SourceMetrics.total(per_file);
+
+        assertEquals(per_file.size(), 100);
+        assertEquals(per_file.get(0).lines(), 10);
+        assertEquals(corpus.files(), 100);
+        assertEquals(corpus.lines(), 50 * 10 + 50);
+        for (SourceMetrics m: Arrays.asList(corpus, total)) {
+            assertEquals(m.tokens(), 50 * Lexer.tokenize(SOURCE).size() + 50 * 10);
+            // A x 1 String s """...""" f + 50 class names
+            assertEquals(m.distinct_operands(), 57);
+            assertEquals(m.distinct_operators(), 10);
+        }
+        assertEquals(corpus.toString(), total.toString());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,115 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.TokenCursor;
+import norswap.javalexer.tokens.*;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public final class TestTokenCursor
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_peek_next()
+    {
+        TokenCursor cursor = new TokenCursor("int x = /* c */ 42 ;");
+        assertEquals(cursor.peek(3), new IntLiteral("42", IntLiteral.Type.DECIMAL));
+        assertEquals(cursor.peek(5), null);
+        assertEquals(cursor.next(), new Keyword("int"));
+        assertEquals(cursor.next(), new Identifier("x"));
+        assertEquals(cursor.peek(), new Operator("="));
+        assertEquals(cursor.index(), 2);
+        cursor.next();
+        cursor.next();
+        assertEquals(cursor.next(), new Separator(";"));
+        assertNull(cursor.next());
+        assertNull(cursor.peek());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_marks()
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 100; ++i) b.append("a").append(i).append(' ');
+        TokenCursor cursor = new TokenCursor(b.toString());
+
+        cursor.next();
+        cursor.mark();
+        for (int i = 0; i < 50; ++i) cursor.next();
+        cursor.mark();
+        cursor.next();
+        cursor.reset();
+        assertEquals(cursor.next(), new Identifier("a51"));
+        cursor.reset();
+        assertEquals(cursor.next(), new Identifier("a1"));
+        cursor.mark();
+        cursor.next();
+        cursor.release();
+        assertEquals(cursor.next(), new Identifier("a3"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void test_unmatched_reset() {
+        new TokenCursor("a").reset();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_split_greater()
+    {
+        TokenCursor cursor = new TokenCursor("Map<K, List<V>>> x");
+        for (int i = 0; i < 6; ++i) cursor.next();
+        assertFalse(cursor.split_greater());
+        cursor.next();
+        assertTrue(cursor.split_greater());
+        Token first = cursor.next();
+        assertEquals(first, new Operator(">"));
+        assertEquals(first.start, 13);
+        assertTrue(cursor.split_greater());
+        assertEquals(cursor.next(), new Operator(">"));
+        assertEquals(cursor.next(), new Operator(">"));
+        assertEquals(cursor.next(), new Identifier("x"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_split_reset()
+    {
+        TokenCursor cursor = new TokenCursor("a >>>= b >> c");
+        cursor.next();
+        cursor.mark();
+        assertTrue(cursor.split_greater());
+        cursor.next();
+        cursor.mark();
+        assertTrue(cursor.split_greater());
+        assertEquals(cursor.next(), new Operator(">"));
+        cursor.reset();
+        assertEquals(cursor.peek(), new Operator(">>="));
+        assertEquals(cursor.peek(1), new Identifier("b"));
+        cursor.reset();
+        assertEquals(cursor.peek(), new Operator(">>>="));
+        assertEquals(cursor.peek(1), new Identifier("b"));
+
+        // released splits are undone by an enclosing reset, but kept once no mark remains
+        cursor.mark();
+        cursor.mark();
+        assertTrue(cursor.split_greater());
+        cursor.release();
+        assertEquals(cursor.next(), new Operator(">"));
+        cursor.reset();
+        assertEquals(cursor.next(), new Operator(">>>="));
+        cursor.next();
+        cursor.mark();
+        assertTrue(cursor.split_greater());
+        cursor.release();
+        assertEquals(cursor.next(), new Operator(">"));
+        assertEquals(cursor.next(), new Operator(">"));
+        assertEquals(cursor.next(), new Identifier("c"));
+        assertNull(cursor.next());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,191 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.CompactTokens;
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.TokenDiff;
+import norswap.javalexer.TokenDiff.Edit;
+import norswap.javalexer.tokens.InputElement;
+import norswap.javalexer.tokens.Token;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public final class TestTokenDiff
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Checks that the input elements outside of the edits match pairwise, in order, and that the
+     * edits are ordered, non-empty, and map to the right character ranges.
+     */
+    private static void check (String s1, String s2, List<Edit> edits, boolean tokens_only)
+    {
+        List<InputElement> e1 = Lexer.lex(s1), e2 = Lexer.lex(s2);
+        int i = 0, j = 0;
+
+        for (int k = 0; k <= edits.size(); ++k)
+        {
+            Edit edit = k < edits.size() ? edits.get(k) : null;
+            int old_from = edit == null ? e1.size() : edit.old_from;
+            int new_from = edit == null ? e2.size() : edit.new_from;
+
+            while (true) {
+                while (i < old_from && tokens_only && !(e1.get(i) instanceof Token)) ++i;
+                while (j < new_from && tokens_only && !(e2.get(j) instanceof Token)) ++j;
+                if (i == old_from || j == new_from) break;
+                assertTrue(e1.get(i).equals(e2.get(j)), e1.get(i) + " / " + e2.get(j));
+                ++i; ++j;
+            }
+            assertEquals(i, old_from, "unmatched old input elements before " + edit);
+            assertEquals(j, new_from, "unmatched new input elements before " + edit);
+            if (edit == null) break;
+
+            assertTrue(edit.old_from < edit.old_to || edit.new_from < edit.new_to);
+            check_range(e1, s1, edit.old_from, edit.old_to, edit.old_start, edit.old_end);
+            check_range(e2, s2, edit.new_from, edit.new_to, edit.new_start, edit.new_end);
+            i = edit.old_to;
+            j = edit.new_to;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void check_range (
+            List<InputElement> elements, String source, int from, int to, int start, int end)
+    {
+        if (from < to) {
+            assertEquals(start, elements.get(from).start);
+            assertEquals(end, elements.get(to - 1).end);
+        }
+        else {
+            int offset = from < elements.size() ? elements.get(from).start : source.length();
+            assertEquals(start, offset);
+            assertEquals(end, offset);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<Edit> diff (String s1, String s2, boolean tokens_only)
+    {
+        CompactTokens c1 = CompactTokens.encode(s1, LanguageLevel.LATEST, false, 8);
+        CompactTokens c2 = CompactTokens.encode(s2, LanguageLevel.LATEST, false, 8);
+        List<Edit> edits = TokenDiff.diff(c1, c2, tokens_only);
+        check(s1, s2, edits, tokens_only);
+        return edits;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_simple()
+    {
+        assertTrue(diff("int x = 1;", "int x = 1;", false).isEmpty());
+        assertTrue(diff("", "", false).isEmpty());
+        assertTrue(diff("int x = 1; // one", "int  x = 1;\n// two\n", true).isEmpty());
+
+        List<Edit> edits = diff("int x = 1;", "int y = 1;", false);
+        assertEquals(edits.size(), 1);
+        Edit edit = edits.get(0);
+        assertEquals(edit.old_from, 2);
+        assertEquals(edit.old_to, 3);
+        assertEquals(edit.old_start, 4);
+        assertEquals(edit.new_end, 5);
+
+        edits = diff("f(a, b);", "f(a, c, b);", false);
+        assertEquals(edits.size(), 1);
+        edit = edits.get(0);
+        assertEquals(edit.old_from, edit.old_to);
+        assertEquals(edit.new_to - edit.new_from, 3); // ", c" or "c, "
+        assertEquals(edit.old_start, edit.old_end);
+
+        edits = diff("a b c", "", false);
+        assertEquals(edits.size(), 1);
+        assertEquals(edits.get(0).old_to, 5);
+        assertEquals(edits.get(0).new_start, 0);
+
+        // the lexing of the common prefix depends on what follows
+        diff("x = 1.e5;", "x = 1.ex;", false);
+        diff("a /* b c */ d", "a /* b c d", false);
+        diff("s = \"\"\"\nab\n\"\"\";", "s = \"\"\"\nab\n\";", true);
+        diff("a\nb", "a\r\nb", false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_moves()
+    {
+        // unique anchors must be matched in order
+        List<Edit> edits = diff("a b c d e", "d e a b c", true);
+        int matched = 5;
+        for (Edit edit: edits)
+            matched -= (edit.old_to + 1) / 2 - (edit.old_from + 1) / 2; // tokens at even indices
+        assertTrue(matched >= 3, edits.toString());
+
+        // no unique tokens: falls back on the longest common subsequence
+        edits = diff("x x y x y y", "x y y x x y", true);
+        check("x x y x y y", "x y y x x y", edits, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_random() throws IOException
+    {
+        String source = new String(Files.readAllBytes(
+            Paths.get("src/norswap/javalexer/CompactTokens.java")), "UTF-8");
+        String[] inserts = {
+            "", "x", " ", "\n", "/*", "*/", "\"", "\"\"\"\n", "//", "'", "1.5e", "}", "int y;\n" };
+
+        Random random = new Random(42);
+        String current = source;
+
+        for (int i = 0; i < 200; ++i)
+        {
+            String previous = current;
+            int edits = 1 + random.nextInt(3);
+            for (int k = 0; k < edits; ++k) {
+                int start = random.nextInt(current.length() + 1);
+                int end = Math.min(current.length(), start + random.nextInt(20));
+                current = current.substring(0, start)
+                    + inserts[random.nextInt(inserts.length)] + current.substring(end);
+            }
+
+            boolean tokens_only = random.nextBoolean();
+            diff(previous, current, tokens_only);
+
+            List<Edit> updated = TokenDiff.diff(previous, current);
+            check(previous, current, updated, true);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_large()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 50_000; ++i)
+            builder.append("int f").append(i).append(" () { return x + ").append(i).append("; }\n");
+        String s1 = builder.toString();
+        String s2 = s1.replace("int f25000 ", "long f25000 ").replace("return x + 7;", "return 7;");
+
+        List<Edit> edits = TokenDiff.diff(s1, s2);
+        assertEquals(edits.size(), 2, edits.toString());
+        check(s1, s2, edits, true);
+
+        // blocks of repeated lines (no unique tokens) that exceed the LCS limit
+        String s3 = String.join("", Collections.nCopies(2000, "a + b;\n"));
+        int half = s3.length() / 2;
+        String s4 = "c;\n" + s3.substring(0, half) + "d;\n" + s3.substring(half);
+        check(s3, s4, TokenDiff.diff(s3, s4), true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,105 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.TokenGrep;
+import norswap.javalexer.TokenGrep.Match;
+import norswap.javalexer.TokenGrep.Step;
+import norswap.javalexer.tokens.Kind;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+public final class TestTokenGrep
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String SOURCE =
+        "// foo\n" +
+        "class A {\n" +
+        "    int foo = foo(\"foo\");\n" +
+        "    String q = \"SELECT * FROM t\";\n" +
+        "    void f() { foo /* comment */ (1); foo.bar(); }\n" +
+        "}\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<String> texts (List<Match> matches) {
+        return matches.stream().map(m -> m.text).collect(Collectors.toList());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_single()
+    {
+        List<Match> matches = new TokenGrep(Step.of(Kind.IDENTIFIER, "foo")).search(SOURCE);
+        assertEquals(matches.size(), 4);
+        assertEquals(matches.get(0).line, 3);
+        assertEquals(matches.get(0).start, SOURCE.indexOf("foo ="));
+        assertEquals(matches.get(3).line, 5);
+
+        assertEquals(texts(new TokenGrep(Step.matching(Kind.STRING, ".*SELECT.*")).search(SOURCE)),
+            Arrays.asList("\"SELECT * FROM t\""));
+
+        assertEquals(new TokenGrep(Step.kind(Kind.LINE_COMMENT, Kind.BLOCK_COMMENT))
+            .search(SOURCE).size(), 2);
+
+        assertEquals(new TokenGrep(Step.text("foo")).search(SOURCE).size(), 4);
+        assertTrue(new TokenGrep(Step.text("bar")).search("int baz;").isEmpty());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_sequence()
+    {
+        TokenGrep call = new TokenGrep(Step.of(Kind.IDENTIFIER, "foo"), Step.text("("));
+        assertEquals(texts(call.search(SOURCE)),
+            Arrays.asList("foo(", "foo /* comment */ ("));
+
+        TokenGrep call_with_comment = new TokenGrep(
+            Step.of(Kind.IDENTIFIER, "foo"), Step.kind(Kind.BLOCK_COMMENT), Step.text("("));
+        assertEquals(texts(call_with_comment.search(SOURCE)),
+            Arrays.asList("foo /* comment */ ("));
+
+        TokenGrep member = new TokenGrep(
+            Step.kind(Kind.IDENTIFIER), Step.text("."), Step.kind(Kind.IDENTIFIER));
+        assertEquals(texts(member.search(SOURCE)), Arrays.asList("foo.bar"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_prefilter()
+    {
+        assertFalse(new TokenGrep(Step.kind(Kind.STRING)).may_match("int x;"));
+        assertTrue(new TokenGrep(Step.kind(Kind.STRING)).may_match("int x = \"\";"));
+        assertFalse(new TokenGrep(Step.kind(Kind.IDENTIFIER), Step.text("instanceof"))
+            .may_match("a instanceOf b"));
+        assertTrue(new TokenGrep(Step.kind(Kind.IDENTIFIER)).may_match(""));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_corpus() throws IOException
+    {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(Paths.get("src"))) {
+            files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        long count = new TokenGrep(Step.of(Kind.KEYWORD, "class"))
+            .search(files)
+            .filter(m -> m.path.endsWith("TokenGrep.java"))
+            .count();
+
+        assertEquals(count, 4); // TokenGrep, Step, Match, Kind.class
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
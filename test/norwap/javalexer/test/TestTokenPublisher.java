@@ -0,0 +1,95 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.Lexer;
+import norswap.javalexer.TokenPublisher;
+import norswap.javalexer.tokens.InputElement;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.testng.Assert.*;
+
+public final class TestTokenPublisher
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Requests one chunk at a time from {@code onNext}, and cancels after {@code limit} chunks.
+     */
+    private static final class Collector implements Flow.Subscriber<List<InputElement>>
+    {
+        final List<List<InputElement>> chunks = new ArrayList<>();
+        final int limit;
+        Flow.Subscription subscription;
+        boolean completed;
+        Throwable error;
+
+        Collector (int limit) {
+            this.limit = limit;
+        }
+
+        @Override public void onSubscribe (Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override public void onNext (List<InputElement> item) {
+            chunks.add(item);
+            if (chunks.size() == limit) subscription.cancel();
+            else subscription.request(1);
+        }
+
+        @Override public void onError (Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override public void onComplete() {
+            completed = true;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String input = "class A { int x = 42; /* hello */ void f() {} }";
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_publish_all()
+    {
+        Collector collector = new Collector(Integer.MAX_VALUE);
+        new TokenPublisher(input, false, true, 4, Runnable::run).subscribe(collector);
+
+        List<InputElement> all = new ArrayList<>();
+        for (List<InputElement> chunk: collector.chunks) {
+            assertTrue(chunk.size() <= 4);
+            all.addAll(chunk);
+        }
+
+        assertTrue(collector.completed);
+        assertEquals(all, Lexer.lex(input));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_cancel()
+    {
+        Collector collector = new Collector(2);
+        new TokenPublisher(input, true, true, 3, Runnable::run).subscribe(collector);
+        assertEquals(collector.chunks.size(), 2);
+        assertFalse(collector.completed);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_error()
+    {
+        Collector collector = new Collector(Integer.MAX_VALUE);
+        new TokenPublisher("a # b", false, false, 1, Runnable::run).subscribe(collector);
+        assertNotNull(collector.error);
+        assertFalse(collector.completed);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
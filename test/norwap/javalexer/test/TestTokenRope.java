@@ -0,0 +1,120 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.Lexer;
+import norswap.javalexer.TokenRope;
+import norswap.javalexer.tokens.InputElement;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public final class TestTokenRope
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static void check (TokenRope rope, String source)
+    {
+        List<InputElement> expected = Lexer.lex(source);
+        assertEquals(rope.count(), expected.size());
+        assertEquals(rope.length(), source.length());
+
+        TokenRope.Cursor cursor = rope.cursor();
+        for (InputElement element: expected) {
+            assertTrue(cursor.next());
+            InputElement actual = cursor.element(source);
+            assertTrue(actual.equals_with_position(element), actual + " / " + element);
+        }
+        assertTrue(!cursor.next());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_lookup() throws IOException
+    {
+        String source = new String(Files.readAllBytes(
+            Paths.get("src/norswap/javalexer/Lexer.java")), "UTF-8");
+        TokenRope rope = TokenRope.of(source);
+        check(rope, source);
+
+        List<InputElement> elements = Lexer.lex(source);
+        int leaves = (elements.size() + TokenRope.CHUNK_SIZE - 1) / TokenRope.CHUNK_SIZE;
+        assertTrue(rope.height() <= 1 + 32 - Integer.numberOfLeadingZeros(leaves));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; ++i) {
+            int index = random.nextInt(elements.size());
+            InputElement element = elements.get(index);
+            assertEquals(rope.start(index), element.start);
+            assertEquals(rope.end(index), element.end);
+            assertTrue(rope.element(index, source).equals_with_position(element));
+            int position = element.start + random.nextInt(element.length());
+            assertEquals(rope.index_at(position), index);
+        }
+
+        assertEquals(TokenRope.of("").count(), 0);
+        assertTrue(!TokenRope.of("").cursor().next());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_edit() throws IOException
+    {
+        String source = new String(Files.readAllBytes(
+            Paths.get("src/norswap/javalexer/CompactTokens.java")), "UTF-8");
+        String[] inserts = {
+            "", "x", " ", "\n", "/*", "*/", "\"", "\"\"\"\n", "//", "'", "1.5e", "\\", "a b" };
+
+        Random random = new Random(42);
+        TokenRope rope = TokenRope.of(source);
+        ArrayList<TokenRope> versions = new ArrayList<>();
+        ArrayList<String> sources = new ArrayList<>();
+
+        for (int i = 0; i < 300; ++i)
+        {
+            int at = random.nextInt(source.length() + 1);
+            int removed = Math.min(random.nextInt(4), source.length() - at);
+            String insert = inserts[random.nextInt(inserts.length)];
+            String edited = source.substring(0, at) + insert + source.substring(at + removed);
+
+            TokenRope updated = rope.edit(edited, at, removed, insert.length());
+            check(updated, edited);
+
+            // keep accumulating edits, but undo them from time to time to exercise resyncing
+            if (random.nextInt(10) == 0) {
+                versions.add(rope);
+                sources.add(source);
+                rope = updated;
+                source = edited;
+            }
+        }
+
+        // old versions are unaffected
+        for (int i = 0; i < versions.size(); ++i)
+            check(versions.get(i), sources.get(i));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_edits_from_empty()
+    {
+        TokenRope rope = TokenRope.of("");
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 2000; ++i) {
+            String insert = i % 10 == 9 ? "\n" : "x" + i + " ";
+            int at = source.length();
+            source.append(insert);
+            rope = rope.edit(source.toString(), at, 0, insert.length());
+        }
+        check(rope, source.toString());
+        assertTrue(rope.height() < 12, "height " + rope.height());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,119 @@
+package norwap.javalexer.test;
+
+import norswap.javalexer.LanguageLevel;
+import norswap.javalexer.Lexer;
+import norswap.javalexer.TokenStore;
+import norswap.javalexer.tokens.*;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+public final class TestTokenStore
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<InputElement> elements (TokenStore store, int file)
+    {
+        ArrayList<InputElement> list = new ArrayList<>();
+        TokenStore.View view = store.view(file);
+        while (view.next()) list.add(view.element());
+        return list;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_view()
+    {
+        TokenStore store = new TokenStore(1024);
+        int file = store.add("int x = /* c */ \"a\\n\" + 'b';", LanguageLevel.LATEST, true);
+        assertEquals(store.size(file), 7);
+
+        TokenStore.View view = store.view(file);
+        assertTrue(view.next());
+        assertEquals(view.kind(), Kind.KEYWORD);
+        assertTrue(view.is("int"));
+        assertFalse(view.is("in"));
+        view.seek(3);
+        assertEquals(view.kind(), Kind.STRING);
+        assertEquals(view.toString(), "\"a\\n\"");
+        assertEquals(view.element(), new StringLiteral("a\\n"));
+        assertEquals(view.element().start, 16);
+        view.seek(6);
+        assertFalse(view.next());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_sources() throws IOException
+    {
+        TokenStore store = new TokenStore(1 << 16);
+        ArrayList<String> sources = new ArrayList<>();
+        ArrayList<Integer> ids = new ArrayList<>();
+
+        try (Stream<Path> paths = Files.walk(Paths.get("src"))) {
+            for (Path path: (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                String source = new String(Files.readAllBytes(path), "UTF-8");
+                sources.add(source);
+                ids.add(store.add(source));
+            }
+        }
+
+        for (int i = 0; i < ids.size(); ++i) {
+            assertEquals(store.length(ids.get(i)), sources.get(i).length());
+            assertEquals(elements(store, ids.get(i)), Lexer.lex(sources.get(i)));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_reuse()
+    {
+        TokenStore store = new TokenStore(1 << 12);
+        int[] ids = new int[100];
+        for (int i = 0; i < ids.length; ++i)
+            ids[i] = store.add("class A" + i + " { int x = " + i + "; }");
+
+        long reserved = store.off_heap_bytes();
+        for (int i = 0; i < ids.length; i += 2)
+            store.remove(ids[i]);
+        assertEquals(store.file_count(), 50);
+
+        for (int i = 0; i < ids.length; i += 2)
+            ids[i] = store.add("class B" + i + " { int y = " + i + "; }");
+        assertEquals(store.off_heap_bytes(), reserved);
+        assertEquals(store.file_count(), 100);
+
+        for (int i = 0; i < ids.length; ++i)
+            assertEquals(elements(store, ids[i]), Lexer.lex(
+                "class " + (i % 2 == 0 ? "B" : "A") + i + " { int "
+                + (i % 2 == 0 ? "y" : "x") + " = " + i + "; }"));
+
+        // larger than a slab
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) b.append("a").append(i).append(' ');
+        int big = store.add(b.toString());
+        assertEquals(elements(store, big), Lexer.lex(b.toString()));
+        store.remove(big);
+        assertEquals(store.off_heap_bytes(), reserved);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void test_removed()
+    {
+        TokenStore store = new TokenStore();
+        store.remove(store.add("a"));
+        store.view(0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
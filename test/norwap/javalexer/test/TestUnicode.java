@@ -2,25 +2,95 @@ package norwap.javalexer.test;
 
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
 import static norswap.javalexer.UnicodeExpander.expand;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 
 public final class TestUnicode
 {
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String[][] cases = {
+        { "", "" },
+        { "a", "a" },
+        { "abc", "abc" },
+        { "\\u0061", "a" },
+        { "\\uuu0061", "a" },
+        { "\\\\\\u0061", "\\\\a" },
+        { "\\\\u0061", "\\\\u0061" },
+        { "\\u061", "\\u061" },
+        { "\\u0061\\u0062\\u0063", "abc" },
+        { "\\u0061\\u0062\\u0063def", "abcdef" },
+        { "def\\u0061\\u0062\\u0063", "defabc" },
+        { "def\\u0061\\u0062\\u0063ghi", "defabcghi" },
+        { "\\u0061\\u0062\\u0063def\\u0067\\u0068\\u0069", "abcdefghi" },
+        { "\\u005c\\u0061", "\\a" },
+        { "a\\", "a\\" },
+        { "a\\u", "a\\u" },
+        { "\\uuuu", "\\uuuu" },
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
     @Test public void test_unicode_expansion()
     {
-        assertEquals(expand(""), "");
-        assertEquals(expand("a"), "a");
-        assertEquals(expand("abc"), "abc");
-        assertEquals(expand("\\u0061"), "a");
-        assertEquals(expand("\\uuu0061"), "a");
-        assertEquals(expand("\\\\\\u0061"), "\\\\a");
-        assertEquals(expand("\\\\u0061"), "\\\\u0061");
-        assertEquals(expand("\\u061"), "\\u061");
-        assertEquals(expand("\\u0061\\u0062\\u0063"), "abc");
-        assertEquals(expand("\\u0061\\u0062\\u0063def"), "abcdef");
-        assertEquals(expand("def\\u0061\\u0062\\u0063"), "defabc");
-        assertEquals(expand("def\\u0061\\u0062\\u0063ghi"), "defabcghi");
-        assertEquals(expand("\\u0061\\u0062\\u0063def\\u0067\\u0068\\u0069"), "abcdefghi");
+        for (String[] c: cases)
+            assertEquals(expand(c[0]), c[1], c[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_no_escape_identity()
+    {
+        String string = "class A { int b = 42; }";
+        assertSame(expand(string), string);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String read_all (Reader reader) throws IOException
+    {
+        StringBuilder b = new StringBuilder();
+        char[] buf = new char[3];
+        int n;
+        while ((n = reader.read(buf, 0, buf.length)) >= 0)
+            b.append(buf, 0, n);
+        return b.toString();
     }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A reader that returns one character at a time, to exercise buffer boundaries.
+     */
+    private static final class TrickleReader extends StringReader
+    {
+        TrickleReader (String s) { super(s); }
+
+        @Override public int read (char[] cbuf, int off, int len) throws IOException {
+            return super.read(cbuf, off, Math.min(len, 1));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_unicode_reader() throws IOException
+    {
+        for (String[] c: cases) {
+            assertEquals(read_all(expand(new StringReader(c[0]))), c[1], c[0]);
+            assertEquals(read_all(expand(new TrickleReader(c[0]))), c[1], c[0]);
+        }
+
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 10000; ++i)
+            b.append(i % 7 == 0 ? "\\u0061" : "x").append(i % 11 == 0 ? "\\\\" : "");
+        String input = b.toString();
+        assertEquals(read_all(expand(new StringReader(input))), expand(input));
+    }
+
+    // ---------------------------------------------------------------------------------------------
 }